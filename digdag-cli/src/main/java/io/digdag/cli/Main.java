@@ -20,6 +20,7 @@ import io.digdag.cli.client.Download;
 import io.digdag.cli.client.EnableSchedule;
 import io.digdag.cli.client.Kill;
 import io.digdag.cli.client.Push;
+import io.digdag.cli.client.Queues;
 import io.digdag.cli.client.Reschedule;
 import io.digdag.cli.client.Retry;
 import io.digdag.cli.client.Secrets;
@@ -149,6 +150,7 @@ public class Main
         jc.addCommand("enable", injector.getInstance(EnableSchedule.class));
         jc.addCommand("delete", injector.getInstance(Delete.class));
         jc.addCommand("secrets", injector.getInstance(Secrets.class), "secret");
+        jc.addCommand("queues", injector.getInstance(Queues.class), "queue");
         jc.addCommand("version", injector.getInstance(Version.class), "version");
 
         jc.addCommand("selfupdate", injector.getInstance(SelfUpdate.class));
@@ -330,6 +332,9 @@ public class Main
         err.println("    tasks <attempt-id>                 show tasks of a session attempt");
         err.println("    delete <project-name>              delete a project");
         err.println("    secrets --project <project-name>   manage secrets");
+        err.println("    queues                             show queues");
+        err.println("    queues set <name> <max-concurrency>  create or update a queue");
+        err.println("    queues delete <name>               delete a queue");
         err.println("    version                            show client and server version");
         err.println("");
         err.println("  Options:");
@@ -228,6 +228,11 @@ public class Run
             systemProps.setProperty("agent.max-task-threads", String.valueOf(maxTaskThreads));
         }
 
+        if (!systemProps.containsKey("queue-server.type")) {
+            // local mode runs all tasks in this process
+            systemProps.setProperty("queue-server.type", "memory");
+        }
+
         if (taskLogPath != null) {
             systemProps.setProperty("log-server.type", "local");
             systemProps.setProperty("log-server.local.path", taskLogPath);
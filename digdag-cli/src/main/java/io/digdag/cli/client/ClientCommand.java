@@ -272,7 +272,7 @@ public abstract class ClientCommand
         }
     }
 
-    private int parseIntOrUsage(String arg)
+    protected int parseIntOrUsage(String arg)
             throws SystemExitException
     {
         try {
@@ -0,0 +1,98 @@
+package io.digdag.cli.client;
+
+import com.google.common.base.Optional;
+import io.digdag.cli.SystemExitException;
+import io.digdag.client.DigdagClient;
+import io.digdag.client.api.Id;
+import io.digdag.client.api.RestQueue;
+
+import java.time.Instant;
+import java.util.List;
+
+import static io.digdag.cli.SystemExitException.systemExit;
+import static io.digdag.cli.TimeUtil.formatTimeWithDiff;
+
+public class Queues
+    extends ClientCommand
+{
+    @Override
+    public void mainWithClientException()
+        throws Exception
+    {
+        if (args.isEmpty()) {
+            showQueues();
+            return;
+        }
+        switch (args.get(0)) {
+        case "set":
+            if (args.size() != 3) {
+                throw usage(null);
+            }
+            setQueue(args.get(1), parseIntOrUsage(args.get(2)));
+            break;
+        case "delete":
+            if (args.size() != 2) {
+                throw usage(null);
+            }
+            deleteQueue(args.get(1));
+            break;
+        default:
+            throw usage(null);
+        }
+    }
+
+    public SystemExitException usage(String error)
+    {
+        err.println("Usage: " + programName + " queues");
+        err.println("       " + programName + " queues set <name> <max-concurrency>");
+        err.println("       " + programName + " queues delete <name>");
+        err.println("  Options:");
+        showCommonOptions();
+        err.println("");
+        err.println("  Tasks run in a queue when they have \"_queue: <name>\" option.");
+        return systemExit(error);
+    }
+
+    private void showQueues()
+        throws Exception
+    {
+        Instant now = Instant.now();
+
+        DigdagClient client = buildClient();
+        ln("Queues:");
+        int count = 0;
+        List<RestQueue> queues;
+        Optional<Id> lastId = Optional.absent();
+        while (true) {
+            queues = client.getQueues(lastId).getQueues();
+            if (queues.isEmpty()) {
+                break;
+            }
+            for (RestQueue queue : queues) {
+                ln("  name: %s", queue.getName());
+                ln("  max concurrency: %d", queue.getMaxConcurrency());
+                ln("  updated at: %s", formatTimeWithDiff(now, queue.getUpdatedAt()));
+                ln("");
+                count++;
+            }
+            lastId = Optional.of(queues.get(queues.size() - 1).getId());
+        }
+        ln("%d entries.", count);
+    }
+
+    private void setQueue(String name, int maxConcurrency)
+        throws Exception
+    {
+        DigdagClient client = buildClient();
+        RestQueue queue = client.putQueue(name, maxConcurrency);
+        ln("Set max concurrency of queue '%s' to %d.", queue.getName(), queue.getMaxConcurrency());
+    }
+
+    private void deleteQueue(String name)
+        throws Exception
+    {
+        DigdagClient client = buildClient();
+        client.deleteQueue(name);
+        ln("Deleted queue '%s'.", name);
+    }
+}
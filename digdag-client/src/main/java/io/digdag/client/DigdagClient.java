@@ -22,6 +22,8 @@ import io.digdag.client.api.RestLogFileHandle;
 import io.digdag.client.api.RestLogFileHandleCollection;
 import io.digdag.client.api.RestProject;
 import io.digdag.client.api.RestProjectCollection;
+import io.digdag.client.api.RestQueue;
+import io.digdag.client.api.RestQueueCollection;
 import io.digdag.client.api.RestRevisionCollection;
 import io.digdag.client.api.RestSchedule;
 import io.digdag.client.api.RestScheduleCollection;
@@ -34,6 +36,7 @@ import io.digdag.client.api.RestSessionCollection;
 import io.digdag.client.api.RestSessionAttempt;
 import io.digdag.client.api.RestSessionAttemptCollection;
 import io.digdag.client.api.RestSessionAttemptRequest;
+import io.digdag.client.api.RestSetQueueRequest;
 import io.digdag.client.api.RestSetSecretRequest;
 import io.digdag.client.api.RestTaskCollection;
 import io.digdag.client.api.RestVersionCheckResult;
@@ -624,6 +627,15 @@ public class DigdagClient implements AutoCloseable
                 .resolveTemplate("id", attemptId));
     }
 
+    public RestTaskCollection getTasks(Id attemptId, Optional<Id> lastId, Optional<Integer> pageSize)
+    {
+        return doGet(RestTaskCollection.class,
+                target("/api/attempts/{id}/tasks")
+                .resolveTemplate("id", attemptId)
+                .queryParam("last_id", lastId.orNull())
+                .queryParam("page_size", pageSize.orNull()));
+    }
+
     public RestLogFileHandleCollection getLogFileHandlesOfAttempt(Id attemptId)
     {
         return doGet(RestLogFileHandleCollection.class,
@@ -870,6 +882,41 @@ public class DigdagClient implements AutoCloseable
                 .get(RestSecretList.class);
     }
 
+    public RestQueueCollection getQueues()
+    {
+        return doGet(RestQueueCollection.class,
+                target("/api/queues"));
+    }
+
+    public RestQueueCollection getQueues(Optional<Id> lastId)
+    {
+        return doGet(RestQueueCollection.class,
+                target("/api/queues")
+                .queryParam("last_id", lastId.orNull()));
+    }
+
+    public RestQueue getQueue(String name)
+    {
+        return doGet(RestQueue.class,
+                target("/api/queues/{name}")
+                .resolveTemplate("name", name));
+    }
+
+    public RestQueue putQueue(String name, int maxConcurrency)
+    {
+        return doPut(RestQueue.class,
+                "application/json",
+                RestSetQueueRequest.of(maxConcurrency),
+                target("/api/queues/{name}")
+                .resolveTemplate("name", name));
+    }
+
+    public void deleteQueue(String name)
+    {
+        doDelete(target("/api/queues/{name}")
+                .resolveTemplate("name", name));
+    }
+
     public Config adminGetAttemptUserInfo(Id attemptId) {
         return doGet(Config.class,
                 target("/api/admin/attempts/{id}/userinfo")
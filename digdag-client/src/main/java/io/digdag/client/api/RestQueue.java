@@ -0,0 +1,25 @@
+package io.digdag.client.api;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import java.time.Instant;
+import org.immutables.value.Value;
+
+@Value.Immutable
+@JsonDeserialize(as = ImmutableRestQueue.class)
+public interface RestQueue
+{
+    Id getId();
+
+    String getName();
+
+    int getMaxConcurrency();
+
+    Instant getCreatedAt();
+
+    Instant getUpdatedAt();
+
+    static ImmutableRestQueue.Builder builder()
+    {
+        return ImmutableRestQueue.builder();
+    }
+}
@@ -0,0 +1,17 @@
+package io.digdag.client.api;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import java.util.List;
+import org.immutables.value.Value;
+
+@Value.Immutable
+@JsonDeserialize(as = ImmutableRestQueueCollection.class)
+public interface RestQueueCollection
+{
+    List<RestQueue> getQueues();
+
+    static ImmutableRestQueueCollection.Builder builder()
+    {
+        return ImmutableRestQueueCollection.builder();
+    }
+}
@@ -0,0 +1,16 @@
+package io.digdag.client.api;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import org.immutables.value.Value;
+
+@Value.Immutable
+@JsonDeserialize(as = ImmutableRestSetQueueRequest.class)
+public interface RestSetQueueRequest
+{
+    int getMaxConcurrency();
+
+    static RestSetQueueRequest of(int maxConcurrency)
+    {
+        return ImmutableRestSetQueueRequest.builder().maxConcurrency(maxConcurrency).build();
+    }
+}
@@ -1,8 +1,11 @@
 package io.digdag.client.config;
 
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Iterator;
+import java.util.Set;
 import java.io.IOException;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -21,41 +24,140 @@ import com.fasterxml.jackson.annotation.JacksonInject;
 import com.fasterxml.jackson.core.type.TypeReference;
 import static java.util.Locale.ENGLISH;
 
+/**
+ * A JSON object of parameters.
+ *
+ * Config is not thread-safe for modification. A thread that modifies a config,
+ * or nodes and nested configs returned by getInternalObjectNode and getNested,
+ * must not run concurrently with other threads that use the config. Reading
+ * methods and deepCopy can run concurrently as long as nobody modifies it.
+ */
 public class Config
 {
     protected final ObjectMapper mapper;
-    protected final ObjectNode object;
+    protected volatile ObjectNode object;
+
+    // Copy-on-write state.
+    //
+    // deepCopy shares the object with the copy instead of copying all nodes. Then both
+    // configs are copyOnWrite and don't modify shared nodes. Before modifying an object
+    // node, a config copies it (shallow copy) and nodes on the path from the root, and
+    // records the copies in writableNodes so that they are copied only once.
+    //
+    // Views returned by getNested and getInternalObjectNode allow modification of nodes
+    // out of this class. Before creating them, a copyOnWrite config copies all nodes and
+    // becomes aliased. Configs that are aliased or built on a node given from outside
+    // are copied eagerly by deepCopy. Configs built on a node that nobody else holds,
+    // such as a node deserialized by Jackson, are not aliased.
+    //
+    // deepCopy and exposeNodes change the state of a config even though they're
+    // reading methods. They're synchronized so that concurrent readers don't break it.
+    private volatile boolean copyOnWrite = false;
+    private Set<JsonNode> writableNodes = null;
+    private volatile boolean aliased;
 
     Config(ObjectMapper mapper)
     {
-        this(mapper, new ObjectNode(JsonNodeFactory.instance));
+        this.mapper = mapper;
+        this.object = new ObjectNode(JsonNodeFactory.instance);
+        this.aliased = false;
     }
 
     Config(ObjectMapper mapper, JsonNode object)
+    {
+        this(mapper, object, true);
+    }
+
+    private Config(ObjectMapper mapper, JsonNode object, boolean aliased)
     {
         this.mapper = mapper;
         this.object = (ObjectNode) object;
+        this.aliased = aliased;
+    }
+
+    // object must not be reachable from anywhere else
+    static Config ofUnsharedNode(ObjectMapper mapper, ObjectNode object)
+    {
+        return new Config(mapper, object, false);
     }
 
     protected Config(Config config)
     {
         this.mapper = config.mapper;
-        this.object = config.object.deepCopy();
+        synchronized (config) {
+            if (config.aliased) {
+                this.object = config.object.deepCopy();
+            }
+            else {
+                config.copyOnWrite = true;
+                config.writableNodes = null;  // all nodes are shared from now
+                this.object = config.object;
+                this.copyOnWrite = true;
+            }
+        }
+        this.aliased = false;
+    }
+
+    private ObjectNode writableObject()
+    {
+        object = writable(object);
+        return object;
+    }
+
+    private ObjectNode writable(ObjectNode node)
+    {
+        if (!copyOnWrite) {
+            return node;
+        }
+        if (writableNodes == null) {
+            writableNodes = Collections.newSetFromMap(new IdentityHashMap<>());
+        }
+        else if (writableNodes.contains(node)) {
+            return node;
+        }
+        ObjectNode copy = node.objectNode();
+        copy.setAll(node);
+        writableNodes.add(copy);
+        return copy;
+    }
+
+    // called before nodes of this config become reachable from out of this class
+    private void exposeNodes()
+    {
+        if (aliased && !copyOnWrite) {
+            return;  // already exposed
+        }
+        synchronized (this) {
+            if (copyOnWrite) {
+                object = object.deepCopy();
+                copyOnWrite = false;
+                writableNodes = null;
+            }
+            aliased = true;
+        }
+    }
+
+    // Jackson serializes a config using this method. It doesn't modify nodes.
+    @JsonValue
+    protected ObjectNode getJsonValue()
+    {
+        return object;
     }
 
     // here uses JsonNode instead of ObjectNode for workaround of https://github.com/FasterXML/jackson-databind/issues/941
+    // the config owns the node. Callers must not modify it after this call.
     @JsonCreator
     public static Config deserializeFromJackson(@JacksonInject ObjectMapper mapper, JsonNode object)
     {
         if (!object.isObject()) {
             throw new RuntimeJsonMappingException("Expected object but got "+object);
         }
-        return new Config(mapper, (ObjectNode) object);
+        return ofUnsharedNode(mapper, (ObjectNode) object);
     }
 
-    @JsonValue
     public ObjectNode getInternalObjectNode()
     {
+        exposeNodes();
         return object;
     }
 
@@ -89,12 +191,23 @@ public class Config
 
     public Config setNested(String key, Config v)
     {
+        // v and this config share the node
+        v.exposeNodes();
+        exposeNodes();
         setNode(key, v.object);
         return this;
     }
 
     public Config setAll(Config other)
     {
+        for (Map.Entry<String, JsonNode> field : other.getEntries()) {
+            if (field.getValue().isContainerNode()) {
+                // other and this config share the nodes. values are immutable otherwise.
+                other.exposeNodes();
+                exposeNodes();
+                break;
+            }
+        }
         for (Map.Entry<String, JsonNode> field : other.getEntries()) {
             setNode(field.getKey(), field.getValue());
         }
@@ -121,7 +234,9 @@ public class Config
 
     public Config remove(String key)
     {
-        object.remove(key);
+        if (object.has(key)) {
+            writableObject().remove(key);
+        }
         return this;
     }
 
@@ -132,17 +247,18 @@ public class Config
 
     public Config merge(Config other)
     {
-        mergeJsonObject(object, other.deepCopy().object);
+        mergeJsonObject(writableObject(), other.object);
         return this;
     }
 
     public Config mergeDefault(Config other)
     {
-        mergeDefaultJsonObject(object, other.deepCopy().object);
+        mergeDefaultJsonObject(writableObject(), other.object);
         return this;
     }
 
-    private static void mergeJsonObject(ObjectNode src, ObjectNode other)
+    // values of other are copied when they're set to src
+    private void mergeJsonObject(ObjectNode src, ObjectNode other)
     {
         Iterator<Map.Entry<String, JsonNode>> ite = other.fields();
         while (ite.hasNext()) {
@@ -150,14 +266,18 @@ public class Config
             JsonNode s = src.get(pair.getKey());
             JsonNode v = pair.getValue();
             if (v.isObject() && s != null && s.isObject()) {
-                mergeJsonObject((ObjectNode) s, (ObjectNode) v);
+                ObjectNode ws = writable((ObjectNode) s);
+                if (ws != s) {
+                    src.set(pair.getKey(), ws);
+                }
+                mergeJsonObject(ws, (ObjectNode) v);
             } else {
-                src.set(pair.getKey(), v);  // keeps order if key exists
+                src.set(pair.getKey(), v.deepCopy());  // keeps order if key exists
             }
         }
     }
 
-    private static void mergeDefaultJsonObject(ObjectNode src, ObjectNode other)
+    private void mergeDefaultJsonObject(ObjectNode src, ObjectNode other)
     {
         Iterator<Map.Entry<String, JsonNode>> ite = other.fields();
         while (ite.hasNext()) {
@@ -165,9 +285,13 @@ public class Config
             JsonNode s = src.get(pair.getKey());
             JsonNode v = pair.getValue();
             if (v.isObject() && s != null && s.isObject()) {
-                mergeDefaultJsonObject((ObjectNode) s, (ObjectNode) v);
+                ObjectNode ws = writable((ObjectNode) s);
+                if (ws != s) {
+                    src.set(pair.getKey(), ws);
+                }
+                mergeDefaultJsonObject(ws, (ObjectNode) v);
             } else if (s == null) {
-                src.set(pair.getKey(), v);
+                src.set(pair.getKey(), v.deepCopy());
             }
         }
     }
@@ -351,7 +475,8 @@ public class Config
         if (!value.isObject()) {
             throw new ConfigException("Parameter '"+key+"' must be an object");
         }
-        return new Config(mapper, (ObjectNode) value);
+        exposeNodes();
+        return new Config(mapper, getNode(key));
     }
 
     public Config parseNested(String key)
@@ -364,7 +489,7 @@ public class Config
             if (!parsed.isObject()) {
                 throw new ConfigException("Parameter '"+key+"' must be an object");
             }
-            return new Config(mapper, (ObjectNode) parsed);
+            return ofUnsharedNode(mapper, (ObjectNode) parsed);
         }
     }
 
@@ -378,7 +503,7 @@ public class Config
             if (!parsed.isObject()) {
                 throw new ConfigException("Parameter '"+key+"' must be an object");
             }
-            return new Config(mapper, (ObjectNode) parsed);
+            return ofUnsharedNode(mapper, (ObjectNode) parsed);
         }
     }
 
@@ -403,6 +528,7 @@ public class Config
 
     public Config getNestedOrSetEmpty(String key)
     {
+        exposeNodes();
         JsonNode value = getNode(key);
         if (value == null || value.isNull()) {
             value = newObjectNode();
@@ -423,6 +549,10 @@ public class Config
         else if (!value.isObject()) {
             throw new ConfigException("Parameter '"+key+"' must be an object");
         }
+        else {
+            exposeNodes();
+            value = getNode(key);
+        }
         return new Config(mapper, (ObjectNode) value);
     }
 
@@ -432,7 +562,11 @@ public class Config
         if (value == null) {
             value = newObjectNode();
         }
-        else if (value.isArray()) {
+        else if (value.isArray() || value.isObject()) {
+            exposeNodes();
+            value = getNode(key);
+        }
+        if (value.isArray()) {
             Config config = new Config(mapper);
             Iterator<JsonNode> ite = ((ArrayNode) value).elements();
             while (ite.hasNext()) {
@@ -472,7 +606,7 @@ public class Config
 
     protected void setNode(String key, JsonNode value)
     {
-        object.set(key, value);
+        writableObject().set(key, value);
     }
 
     private <E> E readObject(Class<E> type, JsonNode value, String key)
@@ -83,7 +83,7 @@ public class ConfigElement
     public Config toConfig(ConfigFactory factory)
     {
         // this is a optimization of factory.create(object)
-        return new Config(factory.objectMapper, object.deepCopy());
+        return Config.ofUnsharedNode(factory.objectMapper, object.deepCopy());
     }
 
     public Properties toProperties()
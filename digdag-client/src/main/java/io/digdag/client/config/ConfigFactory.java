@@ -3,6 +3,7 @@ package io.digdag.client.config;
 import java.io.IOException;
 import javax.inject.Inject;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
 public class ConfigFactory
 {
@@ -27,7 +28,8 @@ public class ConfigFactory
     public Config fromJsonString(String json)
     {
         try {
-            return new Config(objectMapper, objectMapper.readTree(json));
+            // nobody else holds the parsed node
+            return Config.ofUnsharedNode(objectMapper, (ObjectNode) objectMapper.readTree(json));
         }
         catch (IOException ex) {
             throw new ConfigException(ex);
@@ -6,8 +6,12 @@ import com.fasterxml.jackson.databind.node.TextNode;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collector;
 import java.util.stream.Collectors;
 
@@ -200,6 +204,152 @@ public class ConfigTest
                 is(Optional.of(TextNode.valueOf("s"))));
     }
 
+    @Test
+    public void verifyDeepCopyIsIsolated()
+    {
+        config.set("a", 1);
+        config.set("nested", newConfig().set("b", 2).set("deep", newConfig().set("c", 3)));
+
+        Config copy = config.deepCopy();
+        copy.set("a", 10);
+        copy.merge(newConfig().set("nested", newConfig().set("deep", newConfig().set("c", 30).set("d", 40))));
+        copy.remove("missing");
+
+        config.set("x", "only in original");
+        config.mergeDefault(newConfig().set("nested", newConfig().set("e", 5)));
+
+        assertThat(config.get("a", int.class), is(1));
+        assertThat(config.getNested("nested").getNested("deep"), is(newConfig().set("c", 3)));
+        assertThat(config.getNested("nested").get("e", int.class), is(5));
+
+        assertThat(copy.get("a", int.class), is(10));
+        assertThat(copy.has("x"), is(false));
+        assertThat(copy.getNested("nested").has("e"), is(false));
+        assertThat(copy.getNested("nested").get("b", int.class), is(2));
+        assertThat(copy.getNested("nested").getNested("deep"), is(newConfig().set("c", 30).set("d", 40)));
+    }
+
+    @Test
+    public void verifyMergedValuesAreCopied()
+    {
+        Config other = newConfig().set("nested", newConfig().set("k", "v"));
+        config.merge(other);
+        other.getNested("nested").set("k", "modified");
+        assertThat(config.getNested("nested").get("k", String.class), is("v"));
+
+        config.getNested("nested").set("k", "modified by view");
+        assertThat(other.getNested("nested").get("k", String.class), is("modified"));
+    }
+
+    @Test
+    public void verifyNestedViewsOfCopy()
+    {
+        config.set("nested", newConfig().set("k", "v"));
+        Config copy = config.deepCopy();
+
+        copy.getNested("nested").set("k", "set through view");
+        assertThat(copy.getNested("nested").get("k", String.class), is("set through view"));
+        assertThat(config.getNested("nested").get("k", String.class), is("v"));
+
+        copy.getInternalObjectNode().remove("nested");
+        assertThat(copy.has("nested"), is(false));
+        assertThat(config.has("nested"), is(true));
+
+        Config view = config.getNested("nested");
+        config.deepCopy().getNested("nested").set("k", "set through view of copy");
+        assertThat(view.get("k", String.class), is("v"));
+    }
+
+    @Test
+    public void verifySetNestedSharesConfig()
+    {
+        Config nested = newConfig().set("k", "v");
+        config.setNested("nested", nested);
+        Config copy = config.deepCopy();
+
+        nested.set("k", "modified");
+        assertThat(config.getNested("nested").get("k", String.class), is("modified"));
+        assertThat(copy.getNested("nested").get("k", String.class), is("v"));
+
+        // setNested on a copy keeps sharing the node after the copy is read through views or merged
+        Config source = newConfig().set("other", newConfig().set("a", 1));
+        Config c = source.deepCopy();
+        Config v = newConfig().set("k", "v");
+        c.setNested("nested", v);
+        c.getNested("other");
+        c.merge(newConfig().set("nested", newConfig().set("merged", 2)));
+        c.getInternalObjectNode();
+
+        v.set("k", "modified");
+        assertThat(c.getNested("nested").get("k", String.class), is("modified"));
+        assertThat(c.getNested("nested").get("merged", int.class), is(2));
+        assertThat(v.get("merged", int.class), is(2));
+        assertThat(source.has("nested"), is(false));
+        assertThat(source.getNested("other").has("merged"), is(false));
+    }
+
+    @Test
+    public void verifySetAllSharesNestedNodes()
+    {
+        Config source = newConfig().set("other", newConfig().set("a", 1));
+        Config c = source.deepCopy();
+        Config other = newConfig().set("nested", newConfig().set("k", "v"));
+        c.setAll(other);
+        c.getNested("other");
+        c.merge(newConfig().set("nested", newConfig().set("merged", 2)));
+
+        other.getNested("nested").set("k", "modified");
+        assertThat(c.getNested("nested").get("k", String.class), is("modified"));
+        assertThat(other.getNested("nested").get("merged", int.class), is(2));
+        assertThat(source.has("nested"), is(false));
+    }
+
+    @Test
+    public void verifyDeepCopyOfDeserializedConfigIsIsolated()
+    {
+        Config parsed = config.getFactory().fromJsonString("{\"nested\":{\"k\":\"v\"}}");
+        Config copy = parsed.deepCopy();
+
+        copy.merge(newConfig().set("nested", newConfig().set("k", "modified by copy")));
+        assertThat(parsed.getNested("nested").get("k", String.class), is("v"));
+
+        parsed.getNested("nested").set("k", "modified by view");
+        assertThat(copy.getNested("nested").get("k", String.class), is("modified by copy"));
+        assertThat(parsed.deepCopy().getNested("nested").get("k", String.class), is("modified by view"));
+    }
+
+    @Test
+    public void verifyConcurrentReadsAndCopies()
+            throws Exception
+    {
+        config.set("nested", newConfig().set("k", "v"));
+        Config shared = config.deepCopy();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Config>> futures = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                int n = i;
+                futures.add(executor.submit(() -> {
+                    Config copy = shared.deepCopy();
+                    if (n % 2 == 0) {
+                        assertThat(shared.getNested("nested").get("k", String.class), is("v"));
+                    }
+                    copy.getNested("nested").set("k", n);
+                    return copy;
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                assertThat(futures.get(i).get().getNested("nested").get("k", int.class), is(i));
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        assertThat(shared.getNested("nested").get("k", String.class), is("v"));
+        assertThat(config.getNested("nested").get("k", String.class), is("v"));
+    }
+
     private void assertConfigException(Runnable func)
     {
         try {
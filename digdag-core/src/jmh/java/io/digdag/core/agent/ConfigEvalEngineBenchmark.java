@@ -0,0 +1,64 @@
+package io.digdag.core.agent;
+
+import java.util.concurrent.TimeUnit;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.digdag.client.config.Config;
+import io.digdag.client.config.ConfigFactory;
+import io.digdag.spi.TemplateException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Evaluates the config of a task, which OperatorManager does for each task.
+ *
+ * poolSize=0 creates a JavaScript engine and compiles digdag.js and
+ * moment.js for each evaluation, which is how ConfigEvalEngine worked before
+ * engines were pooled. nativeExpressions=true evaluates the expressions in
+ * Java using NativeTemplateEvaluator.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ConfigEvalEngineBenchmark
+{
+    @Param({"0", "4"})
+    public int poolSize;
+
+    @Param({"false", "true"})
+    public boolean nativeExpressions;
+
+    private ConfigEvalEngine engine;
+    private Config config;
+    private Config params;
+
+    @Setup
+    public void setup()
+    {
+        engine = new ConfigEvalEngine(poolSize, 600, nativeExpressions);
+        ConfigFactory cf = new ConfigFactory(new ObjectMapper());
+        config = cf.create()
+            .set("sh>", "echo ${session_date}")
+            .set("_env", cf.create()
+                    .set("TABLE", "${database}.events_${moment(session_time).format('YYYYMMDD')}")
+                    .set("REGION", "us-east-1"))
+            .set("_retry", 3);
+        params = cf.create()
+            .set("timezone", "UTC")
+            .set("database", "analytics")
+            .set("session_date", "2016-01-01")
+            .set("session_time", "2016-01-01T00:00:00+00:00");
+    }
+
+    @Benchmark
+    public Config evalTaskConfig()
+        throws TemplateException
+    {
+        return engine.eval(config, params);
+    }
+}
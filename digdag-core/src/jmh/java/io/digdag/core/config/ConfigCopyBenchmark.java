@@ -0,0 +1,129 @@
+package io.digdag.core.config;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.digdag.client.config.Config;
+import io.digdag.client.config.ConfigFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Copies and modifies a params tree of 216 keys nested in 5 levels, as agents
+ * do for each task.
+ *
+ * eager copies all nodes of the tree like Config.deepCopy did before it became
+ * copy-on-write. copyOnWrite uses Config.deepCopy. Run with "-prof gc" to see
+ * allocation rate per operation.
+ *
+ * source=create builds params with Config.set. source=json parses them from
+ * JSON as configs loaded from the database are. copyAndGetNested reads a
+ * nested config of the copy, which exposes and copies all nodes of a
+ * copy-on-write config.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConfigCopyBenchmark
+{
+    private static final int DEPTH = 5;
+    private static final int SCALARS_PER_LEVEL = 6;
+    private static final int CHILDREN_PER_LEVEL = 2;
+
+    @Param({"eager", "copyOnWrite"})
+    public String copy;
+
+    @Param({"create", "json"})
+    public String source;
+
+    private ConfigFactory cf;
+    private Config params;
+    private Config local;
+    private Config exports;
+
+    @Setup
+    public void setup()
+            throws IOException
+    {
+        ObjectMapper mapper = new ObjectMapper();
+        cf = new ConfigFactory(mapper);
+        params = buildTree(DEPTH);
+        if (source.equals("json")) {
+            params = cf.fromJsonString(mapper.writeValueAsString(params));
+        }
+        // overrides a few keys in the depth of 3 such as _export of a nested group
+        local = cf.create().set("child0", cf.create()
+                .set("child1", cf.create()
+                    .set("key0", "overridden")
+                    .set("added", 1)));
+        exports = cf.create()
+            .set("key1", "exported")
+            .set("child1", cf.create().set("key2", "exported"));
+    }
+
+    private Config buildTree(int depth)
+    {
+        Config config = cf.create();
+        for (int i = 0; i < SCALARS_PER_LEVEL; i++) {
+            if (i % 2 == 0) {
+                config.set("key" + i, "value_" + depth + "_" + i);
+            }
+            else {
+                config.set("key" + i, depth * 100 + i);
+            }
+        }
+        if (depth > 1) {
+            for (int i = 0; i < CHILDREN_PER_LEVEL; i++) {
+                config.set("child" + i, buildTree(depth - 1));
+            }
+        }
+        return config;
+    }
+
+    private Config copyParams()
+    {
+        if (copy.equals("eager")) {
+            // merge copies all values of params
+            return cf.create().merge(params);
+        }
+        else {
+            return params.deepCopy();
+        }
+    }
+
+    @Benchmark
+    public Config deepCopy()
+    {
+        return copyParams();
+    }
+
+    @Benchmark
+    public Config copyAndSet()
+    {
+        return copyParams().set("task_name", "+wf+task");
+    }
+
+    @Benchmark
+    public Config copyAndGetNested()
+    {
+        return copyParams().getNestedOrGetEmpty("child0");
+    }
+
+    @Benchmark
+    public Config copyAndMergeNested()
+    {
+        return copyParams().merge(local);
+    }
+
+    @Benchmark
+    public Config copyAndMergeExports()
+    {
+        return copyParams().merge(exports).set("task_name", "+wf+task");
+    }
+}
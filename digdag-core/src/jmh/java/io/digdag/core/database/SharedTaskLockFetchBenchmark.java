@@ -0,0 +1,127 @@
+package io.digdag.core.database;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.digdag.client.config.ConfigFactory;
+import io.digdag.spi.TaskConflictException;
+import io.digdag.spi.TaskQueueLock;
+import io.digdag.spi.TaskQueueRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.skife.jdbi.v2.DBI;
+
+/**
+ * Fetches unique_name and data of shared tasks locked at once by
+ * lockSharedAgentTasks.
+ *
+ * perLock runs a query for each lock id, which is how lockSharedAgentTasks
+ * worked before DatabaseTaskQueueServer.getSharedTaskLocks. batched uses
+ * getSharedTaskLocks, which runs a single statement for all lock ids.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SharedTaskLockFetchBenchmark
+{
+    private static final int DATA_SIZE = 1024;
+
+    @Param({"perLock", "batched"})
+    public String fetch;
+
+    @Param({"10", "100", "1000"})
+    public int locks;
+
+    private DataSourceProvider dsp;
+    private TransactionManager tm;
+    private ConfigMapper cfm;
+    private DatabaseTaskQueueServer server;
+    private List<Long> lockIds;
+
+    @Setup
+    public void setup()
+            throws TaskConflictException
+    {
+        DatabaseConfig config = DatabaseConfig.builder()
+            .type("h2")
+            .path(Optional.absent())
+            .remoteDatabaseConfig(Optional.absent())
+            .options(ImmutableMap.of())
+            .expireLockInterval(10)
+            .autoMigrate(true)
+            .connectionTimeout(30)
+            .idleTimeout(600)
+            .validationTimeout(5)
+            .minimumPoolSize(0)
+            .maximumPoolSize(10)
+            .build();
+        dsp = new DataSourceProvider(config);
+        new DatabaseMigrator(new DBI(dsp.get()), config).migrate();
+
+        ConfigFactory cf = new ConfigFactory(new ObjectMapper());
+        tm = new ThreadLocalTransactionManager(dsp.get());
+        cfm = new ConfigMapper(cf);
+        server = new DatabaseTaskQueueServer(
+                config,
+                tm,
+                cfm,
+                new DatabaseTaskQueueConfig(cf.create()),
+                new ObjectMapper(),
+                new DisabledTaskEventChannel());
+
+        for (int i = 0; i < locks; i++) {
+            TaskQueueRequest request = TaskQueueRequest.builder()
+                .priority(0)
+                .uniqueName("task" + i)
+                .data(Optional.of(new byte[DATA_SIZE]))
+                .build();
+            tm.begin(() -> {
+                server.enqueueDefaultQueueTask(0, request);
+                return null;
+            }, TaskConflictException.class);
+        }
+        lockIds = tm.begin(() -> tm.getHandle(cfm)
+                .createQuery("select id from queued_tasks order by id")
+                .mapTo(long.class)
+                .list());
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        server.shutdown();
+        dsp.close();
+    }
+
+    @Benchmark
+    public List<TaskQueueLock> fetch()
+    {
+        return tm.begin(() -> {
+            if (fetch.equals("perLock")) {
+                List<TaskQueueLock> list = new ArrayList<>();
+                for (long lockId : lockIds) {
+                    list.add(tm.getHandle(cfm)
+                            .createQuery("select id, unique_name, data from queued_tasks where id = :id")
+                            .bind("id", lockId)
+                            .map(new DatabaseTaskQueueServer.ImmutableTaskQueueLockMapper())
+                            .first());
+                }
+                return ImmutableList.copyOf(list);
+            }
+            else {
+                return server.getSharedTaskLocks(lockIds);
+            }
+        });
+    }
+}
@@ -0,0 +1,107 @@
+package io.digdag.core.database;
+
+import java.util.concurrent.TimeUnit;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import io.digdag.client.config.ConfigFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.sqlobject.Bind;
+import org.skife.jdbi.v2.sqlobject.SqlQuery;
+import org.skife.jdbi.v2.sqlobject.SqlUpdate;
+
+/**
+ * Transactions per second through ThreadLocalTransactionManager.
+ *
+ * Each transaction runs a few statements through a Dao, which is similar
+ * to the heartbeat and lock loops of the workflow executor. cache=false
+ * creates a DBI, Daos and PreparedStatements for each transaction.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TransactionManagerBenchmark
+{
+    public interface Dao
+    {
+        @SqlQuery("select count(*) from queued_task_locks where site_id = :siteId and lock_expire_time is not null")
+        long countRunning(@Bind("siteId") int siteId);
+
+        @SqlUpdate("update queued_task_locks set lock_expire_time = :expireTime where site_id = :siteId and lock_agent_id = :agentId")
+        int heartbeat(@Bind("siteId") int siteId, @Bind("agentId") String agentId, @Bind("expireTime") long expireTime);
+    }
+
+    static class Store
+            extends BasicDatabaseStoreManager<Dao>
+    {
+        Store(TransactionManager tm, ConfigMapper cfm)
+        {
+            super("h2", Dao.class, tm, cfm);
+        }
+
+        long run(int statements)
+        {
+            long sum = 0;
+            for (int i = 0; i < statements; i++) {
+                long running = autoCommit((handle, dao) -> dao.countRunning(0));
+                int updated = autoCommit((handle, dao) -> dao.heartbeat(0, "agent", 0L));
+                sum += running + updated;
+            }
+            return sum;
+        }
+    }
+
+    @Param({"true", "false"})
+    public boolean cache;
+
+    @Param({"1", "10"})
+    public int statements;
+
+    private DataSourceProvider dsp;
+    private TransactionManager tm;
+    private Store store;
+
+    @Setup
+    public void setup()
+    {
+        DatabaseConfig config = DatabaseConfig.builder()
+            .type("h2")
+            .path(Optional.absent())
+            .remoteDatabaseConfig(Optional.absent())
+            .options(ImmutableMap.of())
+            .expireLockInterval(10)
+            .autoMigrate(true)
+            .connectionTimeout(30)
+            .idleTimeout(600)
+            .validationTimeout(5)
+            .minimumPoolSize(0)
+            .maximumPoolSize(10)
+            .build();
+        dsp = new DataSourceProvider(config);
+        new DatabaseMigrator(new DBI(dsp.get()), config).migrate();
+
+        tm = new ThreadLocalTransactionManager(dsp.get(), null, false, cache);
+        store = new Store(tm, new ConfigMapper(new ConfigFactory(new ObjectMapper())));
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        dsp.close();
+    }
+
+    @Benchmark
+    public long transaction()
+    {
+        return tm.begin(() -> store.run(statements));
+    }
+}
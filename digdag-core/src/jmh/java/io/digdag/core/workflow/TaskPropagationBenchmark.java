@@ -0,0 +1,129 @@
+package io.digdag.core.workflow;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.inject.Scopes;
+import io.digdag.client.config.Config;
+import io.digdag.client.config.ConfigElement;
+import io.digdag.client.config.ConfigFactory;
+import io.digdag.core.DigdagEmbed;
+import io.digdag.core.LocalSite;
+import io.digdag.core.agent.LocalWorkspaceManager;
+import io.digdag.core.archive.ArchiveMetadata;
+import io.digdag.core.archive.WorkflowFile;
+import io.digdag.core.crypto.SecretCrypto;
+import io.digdag.core.crypto.SecretCryptoProvider;
+import io.digdag.core.database.DatabaseSecretStoreManager;
+import io.digdag.core.database.TransactionManager;
+import io.digdag.core.repository.ResourceConflictException;
+import io.digdag.core.repository.StoredRevision;
+import io.digdag.core.repository.StoredWorkflowDefinition;
+import io.digdag.core.repository.WorkflowDefinitionList;
+import io.digdag.core.session.StoredSessionAttemptWithSession;
+import io.digdag.spi.ScheduleTime;
+import io.digdag.spi.SecretStoreManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Runs an attempt of a wide fan-out workflow until it's done.
+ *
+ * The workflow consists of parallel groups with empty subtasks so that the
+ * attempt progresses without agents and most of the time is spent in
+ * propagation of BLOCKED and PLANNED tasks. setBased=false propagates them
+ * task by task, which is how WorkflowExecutor worked before
+ * executor.set_based_propagation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TaskPropagationBenchmark
+{
+    private static final int LEAVES_PER_GROUP = 3;
+
+    @Param({"true", "false"})
+    public boolean setBased;
+
+    @Param({"10", "100"})
+    public int width;
+
+    private DigdagEmbed embed;
+    private Path projectPath;
+    private ConfigFactory cf;
+    private StoredRevision revision;
+    private StoredWorkflowDefinition def;
+    private long sessionTime = 0;
+
+    @Setup
+    public void setup()
+            throws Exception
+    {
+        embed = new DigdagEmbed.Bootstrap()
+            .withExtensionLoader(false)
+            .withScheduleExecutor(false)
+            .withLocalAgent(false)
+            .setSystemConfig(ConfigElement.ofMap(ImmutableMap.of(
+                    "executor.set_based_propagation", Boolean.toString(setBased))))
+            .addModules((binder) -> {
+                binder.bind(SecretCrypto.class).toProvider(SecretCryptoProvider.class).in(Scopes.SINGLETON);
+                binder.bind(SecretStoreManager.class).to(DatabaseSecretStoreManager.class).in(Scopes.SINGLETON);
+            })
+            .initializeWithoutShutdownHook();
+        cf = embed.getInjector().getInstance(ConfigFactory.class);
+        projectPath = Files.createTempDirectory("digdag-benchmark");
+
+        Config workflow = cf.create().set("_parallel", true);
+        for (int i = 0; i < width; i++) {
+            Config group = cf.create().set("_parallel", true);
+            for (int j = 0; j < LEAVES_PER_GROUP; j++) {
+                group.set("+leaf" + j, cf.create());
+            }
+            workflow.set("+group" + i, group);
+        }
+        ArchiveMetadata meta = ArchiveMetadata.of(
+                WorkflowDefinitionList.of(ImmutableList.of(
+                        WorkflowFile.fromConfig("fan_out", workflow).toWorkflowDefinition()
+                        )),
+                cf.create().set(LocalWorkspaceManager.PROJECT_PATH, projectPath.toString()));
+        LocalSite.StoreWorkflowResult stored = embed.getTransactionManager().begin(() ->
+                embed.getLocalSite().storeLocalWorkflowsWithoutSchedule("default", "revision", meta),
+                ResourceConflictException.class);
+        revision = stored.getRevision();
+        def = stored.getWorkflowDefinitions().get(0);
+    }
+
+    @TearDown
+    public void tearDown()
+            throws Exception
+    {
+        embed.close();
+        Files.deleteIfExists(projectPath);
+    }
+
+    @Benchmark
+    public StoredSessionAttemptWithSession runUntilDone()
+            throws Exception
+    {
+        LocalSite localSite = embed.getLocalSite();
+        TransactionManager tm = embed.getTransactionManager();
+        // a new session for each invocation
+        Instant time = Instant.ofEpochSecond(++sessionTime);
+        StoredSessionAttemptWithSession attempt = tm.begin(() -> {
+            AttemptRequest ar = localSite.getAttemptBuilder()
+                .buildFromStoredWorkflow(revision, def, cf.create(), ScheduleTime.runNow(time));
+            return localSite.submitWorkflow(ar, def);
+        }, Exception.class);
+        return localSite.runUntilDone(attempt.getId());
+    }
+}
@@ -0,0 +1,71 @@
+package io.digdag.core.workflow;
+
+import java.util.concurrent.TimeUnit;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Optional;
+import io.digdag.client.config.Config;
+import io.digdag.client.config.ConfigFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Builds base params of TaskRequests for tasks locked at once.
+ *
+ * perLock parses digdag.defaultParams and merges revision and attempt params
+ * for each lock, which is how WorkflowExecutor.getTaskRequests worked before
+ * TaskRequestBatch. batched merges them once and copies the result per lock.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TaskRequestParamsBenchmark
+{
+    @Param({"1", "10", "100"})
+    public int locks;
+
+    private ConfigFactory cf;
+    private String defaultParamsJson;
+    private Config defaultParams;
+    private Config revisionParams;
+    private Config attemptParams;
+
+    @Setup
+    public void setup()
+    {
+        cf = new ConfigFactory(new ObjectMapper());
+        defaultParamsJson = "{\"timezone\":\"UTC\",\"env\":{\"region\":\"us-east-1\",\"bucket\":\"digdag\"},\"retry\":3}";
+        defaultParams = cf.fromJsonString(defaultParamsJson);
+        revisionParams = cf.create()
+            .set("database", "analytics")
+            .set("tables", new String[] {"events", "users", "orders", "items"});
+        attemptParams = cf.create()
+            .set("session_date", "2016-01-01")
+            .set("target", cf.create().set("name", "daily").set("days", 7));
+    }
+
+    @Benchmark
+    public void perLock(Blackhole bh)
+    {
+        for (int i = 0; i < locks; i++) {
+            Config params = TaskRequestBatch.mergeBaseParams(
+                    cf.fromJsonString(defaultParamsJson), Optional.of(revisionParams), attemptParams);
+            bh.consume(params);
+        }
+    }
+
+    @Benchmark
+    public void batched(Blackhole bh)
+    {
+        Config base = TaskRequestBatch.mergeBaseParams(defaultParams, Optional.of(revisionParams), attemptParams);
+        for (int i = 0; i < locks; i++) {
+            bh.consume(base.deepCopy());
+        }
+    }
+}
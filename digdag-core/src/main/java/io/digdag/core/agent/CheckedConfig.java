@@ -49,6 +49,13 @@ class CheckedConfig
         return super.getInternalObjectNode();
     }
 
+    @Override
+    protected ObjectNode getJsonValue()
+    {
+        this.usedKeys.setAllUsed(true);
+        return super.getJsonValue();
+    }
+
     @Override
     public Config remove(String key)
     {
@@ -1,5 +1,6 @@
 package io.digdag.core.agent;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.io.InputStream;
@@ -8,20 +9,20 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.charset.Charset;
-import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
 import javax.script.ScriptException;
-import javax.script.Invocable;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.io.CharStreams;
 import com.google.inject.Inject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import jdk.nashorn.api.scripting.NashornScriptEngineFactory;
 import io.digdag.client.config.Config;
 import io.digdag.spi.TemplateEngine;
 import io.digdag.spi.TemplateException;
@@ -61,55 +62,95 @@ public class ConfigEvalEngine
         RUNTIME_JS_CONTENTS = builder.build();
     }
 
+    static final int DEFAULT_JS_ENGINE_POOL_SIZE = 4;
+    static final int DEFAULT_JS_ENGINE_IDLE_TIMEOUT = 600;
+
+    private static final int MAX_CACHED_TEMPLATES = 10000;
+
     private final ObjectMapper jsonMapper;
-    private final NashornScriptEngineFactory jsEngineFactory;
+    private final JsEnginePool jsEnginePool;
+    private final Optional<NativeTemplateEvaluator> nativeEvaluator;
+    // template code -> body of JavaScript function built by compileTemplate of digdag.js
+    private final Cache<String, String> templateSourceCache = CacheBuilder.newBuilder()
+        .maximumSize(MAX_CACHED_TEMPLATES)
+        .build();
 
-    @Inject
     public ConfigEvalEngine()
+    {
+        this(DEFAULT_JS_ENGINE_POOL_SIZE, DEFAULT_JS_ENGINE_IDLE_TIMEOUT, false);
+    }
+
+    @Inject
+    public ConfigEvalEngine(Config systemConfig)
+    {
+        this(systemConfig.get("eval.js_engine_pool_size", int.class, DEFAULT_JS_ENGINE_POOL_SIZE),
+                systemConfig.get("eval.js_engine_idle_timeout", int.class, DEFAULT_JS_ENGINE_IDLE_TIMEOUT),
+                systemConfig.get("eval.native_expressions", boolean.class, false));
+    }
+
+    ConfigEvalEngine(int jsEnginePoolSize, int jsEngineIdleTimeout, boolean nativeExpressions)
     {
         this.jsonMapper = new ObjectMapper();
-        this.jsEngineFactory = new NashornScriptEngineFactory();
+        this.jsEnginePool = new JsEnginePool(RUNTIME_JS_CONTENTS, jsEnginePoolSize, jsEngineIdleTimeout);
+        this.nativeEvaluator = nativeExpressions ? Optional.of(new NativeTemplateEvaluator()) : Optional.absent();
     }
 
     protected Config eval(Config config, Config params)
         throws TemplateException
     {
         ObjectNode object = config.convert(ObjectNode.class);
-        ObjectNode built = new Context(params).evalObjectRecursive(object);
-        return config.getFactory().create(built);
+        Context context = new Context(params);
+        try {
+            ObjectNode built = context.evalObjectRecursive(object);
+            return config.getFactory().create(built);
+        }
+        finally {
+            context.close();
+        }
     }
 
-    private Invocable newTemplateInvocable(Config params)
+    // Returns the result of the template if it includes no ${...} expressions. Otherwise null.
+    private static String evalLiteral(String code)
     {
-        ScriptEngine jsEngine = jsEngineFactory.getScriptEngine(new String[] {
-            //"--language=es6",  // this is not even accepted with jdk1.8.0_20 and has a bug with jdk1.8.0_51
-            "--no-java",
-            "--no-syntax-extensions",
-            "-timezone=" + params.get("timezone", String.class),
-        });
-        try {
-            for (String runtimeJs : RUNTIME_JS_CONTENTS) {
-                jsEngine.eval(runtimeJs);
-            }
+        if (code.contains("${")) {
+            return null;
         }
-        catch (ScriptException | ClassCastException ex) {
-            throw new IllegalStateException("Unexpected script evaluation failure", ex);
+        // same with compileTemplate of digdag.js
+        return code.contains("$$") ? code.replace("$$", "$") : code;
+    }
+
+    // Returns a param as a node, NullNode if it's null, or null if it's not set.
+    // This doesn't use Config.getInternalObjectNode because it deep-copies a
+    // config copied by Config.deepCopy.
+    private static JsonNode getParamNode(Config params, String name)
+    {
+        if (!params.has(name)) {
+            return null;
         }
-        return (Invocable) jsEngine;
+        return params.getOptional(name, JsonNode.class).or(NullNode.getInstance());
     }
 
-    private String invokeTemplate(Invocable templateInvocable, String code, Config params)
+    private String serializeParams(Config params)
         throws TemplateException
     {
-        String context;
         try {
-            context = jsonMapper.writeValueAsString(params);
+            return jsonMapper.writeValueAsString(params);
         }
         catch (RuntimeException | IOException ex) {
             throw new TemplateException("Failed to serialize parameters to JSON", ex);
         }
+    }
+
+    private String invokeTemplate(JsEnginePool.JsGlobal global, String code, String context)
+        throws TemplateException
+    {
         try {
-            return (String) templateInvocable.invokeFunction("template", code, context);
+            String source = templateSourceCache.getIfPresent(code);
+            if (source == null) {
+                source = (String) global.invoke("compileTemplate", code);
+                templateSourceCache.put(code, source);
+            }
+            return (String) global.invoke("evalTemplate", source, context);
         }
         catch (ScriptException ex) {
             String message;
@@ -132,13 +173,56 @@ public class ConfigEvalEngine
     private class Context
     {
         private final Config params;
-        private final Invocable templateInvocable;
         private final ImmutableList<String> noEvaluatedKeys = ImmutableList.of("_do",  "_else_do");
 
+        // these are initialized when the first ${...} is evaluated
+        private String timezone = null;
+        private JsEnginePool.PooledEngine engine = null;
+        private JsEnginePool.JsGlobal global = null;
+        private String paramsJson = null;
+        // params referred by native expressions
+        private final Map<String, JsonNode> paramNodes = new HashMap<>();
+
         public Context(Config params)
         {
             this.params = params;
-            this.templateInvocable = newTemplateInvocable(params);
+        }
+
+        private JsonNode getParamNode(String name)
+        {
+            // HashMap allows null values of missing params
+            if (paramNodes.containsKey(name)) {
+                return paramNodes.get(name);
+            }
+            JsonNode node = ConfigEvalEngine.getParamNode(params, name);
+            paramNodes.put(name, node);
+            return node;
+        }
+
+        private String getTimezone()
+        {
+            if (timezone == null) {
+                timezone = params.get("timezone", String.class);
+            }
+            return timezone;
+        }
+
+        private JsEnginePool.JsGlobal getGlobal()
+        {
+            if (global == null) {
+                engine = jsEnginePool.borrow(getTimezone());
+                global = engine.newGlobal();
+            }
+            return global;
+        }
+
+        public void close()
+        {
+            if (engine != null) {
+                jsEnginePool.release(timezone, engine);
+                engine = null;
+                global = null;
+            }
         }
 
         private ObjectNode evalObjectRecursive(ObjectNode local)
@@ -199,11 +283,19 @@ public class ConfigEvalEngine
         private JsonNode evalValue(ObjectNode local, String code)
             throws TemplateException
         {
-            Config scopedParams = params.deepCopy();
-            for (Map.Entry<String, JsonNode> pair : ImmutableList.copyOf(local.fields())) {
-                scopedParams.set(pair.getKey(), pair.getValue());
+            String literal = evalLiteral(code);
+            if (literal != null) {
+                return jsonMapper.getNodeFactory().textNode(literal);
             }
-            String resultText = invokeTemplate(templateInvocable, code, scopedParams);
+            if (nativeEvaluator.isPresent()) {
+                Optional<String> evaluated = nativeEvaluator.get().evaluate(code,
+                        name -> local.has(name) ? local.get(name) : getParamNode(name),
+                        getTimezone());
+                if (evaluated.isPresent()) {
+                    return jsonMapper.getNodeFactory().textNode(evaluated.get());
+                }
+            }
+            String resultText = invokeTemplate(getGlobal(), code, buildScopedParamsJson(local));
             if (resultText == null) {
                 return jsonMapper.getNodeFactory().nullNode();
             }
@@ -211,14 +303,64 @@ public class ConfigEvalEngine
                 return jsonMapper.getNodeFactory().textNode(resultText);
             }
         }
+
+        // Builds JSON of params overwritten by the local scope. params are serialized only once and
+        // fields of the local scope are appended to it. JSON.parse takes the last one of duplicated keys.
+        private String buildScopedParamsJson(ObjectNode local)
+            throws TemplateException
+        {
+            if (paramsJson == null) {
+                paramsJson = serializeParams(params);
+            }
+            if (local.size() == 0) {
+                return paramsJson;
+            }
+            StringBuilder sb = new StringBuilder(paramsJson.length() + 256);
+            sb.append(paramsJson, 0, paramsJson.length() - 1);  // strip the last '}'
+            boolean first = paramsJson.equals("{}");
+            try {
+                for (Map.Entry<String, JsonNode> pair : ImmutableList.copyOf(local.fields())) {
+                    if (!first) {
+                        sb.append(',');
+                    }
+                    first = false;
+                    sb.append(jsonMapper.writeValueAsString(pair.getKey()));
+                    sb.append(':');
+                    sb.append(jsonMapper.writeValueAsString(pair.getValue()));
+                }
+            }
+            catch (RuntimeException | IOException ex) {
+                throw new TemplateException("Failed to serialize parameters to JSON", ex);
+            }
+            sb.append('}');
+            return sb.toString();
+        }
     }
 
     @Override
     public String template(String content, Config params)
         throws TemplateException
     {
-        Invocable templateInvocable = newTemplateInvocable(params);
-        String resultText = invokeTemplate(templateInvocable, content, params);
+        String literal = evalLiteral(content);
+        if (literal != null) {
+            return literal;
+        }
+        String timezone = params.get("timezone", String.class);
+        if (nativeEvaluator.isPresent()) {
+            Optional<String> evaluated = nativeEvaluator.get().evaluate(content,
+                    name -> getParamNode(params, name), timezone);
+            if (evaluated.isPresent()) {
+                return evaluated.get();
+            }
+        }
+        JsEnginePool.PooledEngine engine = jsEnginePool.borrow(timezone);
+        String resultText;
+        try {
+            resultText = invokeTemplate(engine.newGlobal(), content, serializeParams(params));
+        }
+        finally {
+            jsEnginePool.release(timezone, engine);
+        }
         if (resultText == null) {
             return "";
         }
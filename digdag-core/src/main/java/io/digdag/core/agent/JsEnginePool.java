@@ -0,0 +1,158 @@
+package io.digdag.core.agent;
+
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.Invocable;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import javax.script.SimpleScriptContext;
+import com.google.common.collect.ImmutableList;
+import jdk.nashorn.api.scripting.NashornScriptEngineFactory;
+
+/**
+ * Pool of JavaScript engines with runtime scripts compiled.
+ *
+ * Timezone is an option of an engine. Thus engines are pooled by timezone.
+ * Each evaluation runs in a new global object so that variables set by a
+ * template don't leak to other evaluations. Compiled runtime scripts are
+ * shared by globals of an engine, which is much cheaper than compiling
+ * them for each evaluation.
+ */
+class JsEnginePool
+{
+    interface JsGlobal
+    {
+        Object invoke(String function, Object... args)
+            throws ScriptException, NoSuchMethodException;
+    }
+
+    class PooledEngine
+    {
+        private final ScriptEngine engine;
+        private final List<CompiledScript> runtimeScripts;
+        private long lastUsedAt;
+
+        private PooledEngine(ScriptEngine engine, List<CompiledScript> runtimeScripts)
+        {
+            this.engine = engine;
+            this.runtimeScripts = runtimeScripts;
+        }
+
+        JsGlobal newGlobal()
+        {
+            Bindings global = engine.createBindings();
+            ScriptContext context = new SimpleScriptContext();
+            context.setBindings(global, ScriptContext.ENGINE_SCOPE);
+            try {
+                for (CompiledScript script : runtimeScripts) {
+                    script.eval(context);
+                }
+            }
+            catch (ScriptException ex) {
+                throw new IllegalStateException("Unexpected script evaluation failure", ex);
+            }
+            return (function, args) -> ((Invocable) engine).invokeMethod(global, function, args);
+        }
+    }
+
+    private static final int CLASS_CACHE_SIZE = 1000;
+
+    private final NashornScriptEngineFactory jsEngineFactory = new NashornScriptEngineFactory();
+    private final List<String> runtimeJsContents;
+    private final int maxIdleEnginesPerTimezone;
+    private final long idleTimeoutNanos;
+    private final ConcurrentMap<String, Deque<PooledEngine>> idleEngines = new ConcurrentHashMap<>();
+    private final AtomicLong lastEvictedAt = new AtomicLong(System.nanoTime());
+
+    JsEnginePool(List<String> runtimeJsContents, int maxIdleEnginesPerTimezone, long idleTimeoutSeconds)
+    {
+        this.runtimeJsContents = ImmutableList.copyOf(runtimeJsContents);
+        this.maxIdleEnginesPerTimezone = maxIdleEnginesPerTimezone;
+        this.idleTimeoutNanos = TimeUnit.SECONDS.toNanos(idleTimeoutSeconds);
+    }
+
+    PooledEngine borrow(String timezone)
+    {
+        Deque<PooledEngine> deque = idleEngines.get(timezone);
+        if (deque != null) {
+            PooledEngine engine = deque.pollFirst();
+            if (engine != null) {
+                return engine;
+            }
+        }
+        return newEngine(timezone);
+    }
+
+    void release(String timezone, PooledEngine engine)
+    {
+        long now = System.nanoTime();
+        if (maxIdleEnginesPerTimezone > 0) {
+            engine.lastUsedAt = now;
+            // offers in compute so that evictIdleEngines doesn't remove the deque concurrently
+            idleEngines.compute(timezone, (key, deque) -> {
+                if (deque == null) {
+                    deque = new ConcurrentLinkedDeque<>();
+                }
+                // size() of ConcurrentLinkedDeque is not exact but enough to limit number of engines roughly
+                if (deque.size() < maxIdleEnginesPerTimezone) {
+                    // most recently used engines are at the head. idle ones are at the tail.
+                    deque.offerFirst(engine);
+                }
+                return deque;
+            });
+        }
+        evictIdleEngines(now);
+    }
+
+    private void evictIdleEngines(long now)
+    {
+        long last = lastEvictedAt.get();
+        if (now - last < TimeUnit.SECONDS.toNanos(1) || !lastEvictedAt.compareAndSet(last, now)) {
+            return;
+        }
+        for (String timezone : idleEngines.keySet()) {
+            // removes an empty deque atomically with release that offers an engine to it
+            idleEngines.computeIfPresent(timezone, (key, deque) -> {
+                while (true) {
+                    PooledEngine engine = deque.peekLast();
+                    if (engine == null || now - engine.lastUsedAt < idleTimeoutNanos) {
+                        break;
+                    }
+                    deque.removeLastOccurrence(engine);
+                }
+                return deque.isEmpty() ? null : deque;
+            });
+        }
+    }
+
+    private PooledEngine newEngine(String timezone)
+    {
+        ScriptEngine jsEngine = jsEngineFactory.getScriptEngine(new String[] {
+            //"--language=es6",  // this is not even accepted with jdk1.8.0_20 and has a bug with jdk1.8.0_51
+            "--no-java",
+            "--no-syntax-extensions",
+            "-timezone=" + timezone,
+            // functions built from the same template source reuse compiled classes
+            "--class-cache-size=" + CLASS_CACHE_SIZE,
+        });
+        ImmutableList.Builder<CompiledScript> scripts = ImmutableList.builder();
+        try {
+            for (String runtimeJs : runtimeJsContents) {
+                scripts.add(((Compilable) jsEngine).compile(runtimeJs));
+            }
+        }
+        catch (ScriptException | ClassCastException ex) {
+            throw new IllegalStateException("Unexpected script compilation failure", ex);
+        }
+        return new PooledEngine(jsEngine, scripts.build());
+    }
+}
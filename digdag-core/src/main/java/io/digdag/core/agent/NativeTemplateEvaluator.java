@@ -0,0 +1,1293 @@
+package io.digdag.core.agent;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.function.IntPredicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import static java.time.temporal.ChronoUnit.DAYS;
+import static java.time.temporal.ChronoUnit.HOURS;
+import static java.time.temporal.ChronoUnit.MILLIS;
+import static java.time.temporal.ChronoUnit.MINUTES;
+import static java.time.temporal.ChronoUnit.MONTHS;
+import static java.time.temporal.ChronoUnit.SECONDS;
+import static java.time.temporal.ChronoUnit.WEEKS;
+import static java.time.temporal.ChronoUnit.YEARS;
+
+/**
+ * Evaluates ${...} templates in Java without JavaScript engines.
+ *
+ * Supported expressions are variable references, dotted field access, string
+ * and number literals, unary - and !, + - * / % and comparison operators, and
+ * moment(...) with add, subtract, utc, local, format, unix, valueOf and
+ * toISOString. Results are same with template() of digdag.js.
+ *
+ * If a template includes anything else, or a value that JavaScript might
+ * evaluate differently (such as fractional numbers or local times in a DST
+ * transition), evaluate returns absent so that the caller falls back to
+ * JavaScript. Errors such as ReferenceError are also left to JavaScript so
+ * that messages don't change.
+ */
+class NativeTemplateEvaluator
+{
+    interface Scope
+    {
+        // returns null if the variable is not defined
+        JsonNode get(String name);
+    }
+
+    private static final int MAX_CACHED_TEMPLATES = 10000;
+
+    // same with the matcher of compileTemplate in digdag.js
+    private static final Pattern EXPRESSION_PATTERN = Pattern.compile("\\$\\{(?![a-z]+:)([\\s\\S]+?)\\}");
+
+    // parsed templates. absent if a template is out of the supported subset.
+    private final Cache<String, Optional<List<Object>>> templateCache = CacheBuilder.newBuilder()
+        .maximumSize(MAX_CACHED_TEMPLATES)
+        .build();
+
+    Optional<String> evaluate(String code, Scope scope, String timezone)
+    {
+        Optional<List<Object>> segments = templateCache.getIfPresent(code);
+        if (segments == null) {
+            try {
+                segments = Optional.of(parseTemplate(code));
+            }
+            catch (UnsupportedExpressionException ex) {
+                segments = Optional.absent();
+            }
+            templateCache.put(code, segments);
+        }
+        if (!segments.isPresent()) {
+            return Optional.absent();
+        }
+
+        Evaluation evaluation = new Evaluation(scope, timezone);
+        StringBuilder sb = new StringBuilder();
+        try {
+            for (Object segment : segments.get()) {
+                if (segment instanceof String) {
+                    sb.append((String) segment);
+                }
+                else {
+                    sb.append(stringifyResult(((Expr) segment).eval(evaluation)));
+                }
+            }
+        }
+        catch (UnsupportedExpressionException ex) {
+            return Optional.absent();
+        }
+        return Optional.of(sb.toString());
+    }
+
+    private static List<Object> parseTemplate(String code)
+        throws UnsupportedExpressionException
+    {
+        ImmutableList.Builder<Object> segments = ImmutableList.builder();
+        Matcher m = EXPRESSION_PATTERN.matcher(code);
+        int index = 0;
+        while (m.find()) {
+            segments.add(code.substring(index, m.start()).replace("$$", "$"));
+            segments.add(new Parser(m.group(1)).parse());
+            index = m.end();
+        }
+        segments.add(code.substring(index).replace("$$", "$"));
+        return segments.build();
+    }
+
+    // Thrown when an expression or a value is out of the supported subset.
+    // This is thrown for fallback frequently. Thus it doesn't fill stack trace.
+    private static class UnsupportedExpressionException
+            extends Exception
+    {
+        UnsupportedExpressionException()
+        {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final UnsupportedExpressionException UNSUPPORTED = new UnsupportedExpressionException();
+
+    private static class Evaluation
+    {
+        private final Scope scope;
+        private final String timezone;
+        private ZoneId zone = null;
+
+        Evaluation(Scope scope, String timezone)
+        {
+            this.scope = scope;
+            this.timezone = timezone;
+        }
+
+        ZoneId getZone()
+            throws UnsupportedExpressionException
+        {
+            if (zone == null) {
+                // JavaScript engines use TimeZone, which falls back to GMT silently if the ID is unknown
+                TimeZone tz = TimeZone.getTimeZone(timezone);
+                if (!tz.getID().equals(timezone)) {
+                    throw UNSUPPORTED;
+                }
+                zone = tz.toZoneId();
+            }
+            return zone;
+        }
+    }
+
+    ////
+    // Values
+    //
+    // JavaScript values are represented as String, Double, Boolean, Special,
+    // JsonNode (object or array) or Moment.
+    //
+
+    private enum Special
+    {
+        NULL,
+        UNDEFINED,
+    }
+
+    private static final double MAX_SAFE_INTEGER = 9007199254740991.0;
+
+    private static Object fromJson(JsonNode node)
+        throws UnsupportedExpressionException
+    {
+        if (node.isTextual()) {
+            return node.textValue();
+        }
+        else if (node.isNumber()) {
+            double value = node.doubleValue();
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                throw UNSUPPORTED;
+            }
+            return value;
+        }
+        else if (node.isBoolean()) {
+            return node.booleanValue();
+        }
+        else if (node.isNull()) {
+            return Special.NULL;
+        }
+        else if (node.isObject() || node.isArray()) {
+            return node;
+        }
+        else {
+            throw UNSUPPORTED;
+        }
+    }
+
+    private static String formatNumber(double value)
+        throws UnsupportedExpressionException
+    {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        else if (Double.isInfinite(value)) {
+            return value > 0 ? "Infinity" : "-Infinity";
+        }
+        else if (value == Math.rint(value) && Math.abs(value) <= MAX_SAFE_INTEGER) {
+            return Long.toString((long) value);
+        }
+        else {
+            // formatting of fractional numbers is different from Java
+            throw UNSUPPORTED;
+        }
+    }
+
+    private static String toJsString(Object value)
+        throws UnsupportedExpressionException
+    {
+        if (value instanceof String) {
+            return (String) value;
+        }
+        else if (value instanceof Double) {
+            return formatNumber((Double) value);
+        }
+        else if (value instanceof Boolean) {
+            return value.toString();
+        }
+        else if (value == Special.NULL) {
+            return "null";
+        }
+        else if (value == Special.UNDEFINED) {
+            return "undefined";
+        }
+        else {
+            throw UNSUPPORTED;
+        }
+    }
+
+    private static double toNumber(Object value)
+        throws UnsupportedExpressionException
+    {
+        if (value instanceof Double) {
+            return (Double) value;
+        }
+        else if (value instanceof Boolean) {
+            return ((Boolean) value) ? 1.0 : 0.0;
+        }
+        else if (value == Special.NULL) {
+            return 0.0;
+        }
+        else if (value == Special.UNDEFINED) {
+            return Double.NaN;
+        }
+        else {
+            throw UNSUPPORTED;
+        }
+    }
+
+    private static boolean isTruthy(Object value)
+    {
+        if (value instanceof String) {
+            return !((String) value).isEmpty();
+        }
+        else if (value instanceof Double) {
+            double d = (Double) value;
+            return d != 0.0 && !Double.isNaN(d);
+        }
+        else if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        else if (value instanceof Special) {
+            return false;
+        }
+        else {
+            return true;
+        }
+    }
+
+    // same with ((__t=(expr))==null?'':(typeof __t=="string"?__t:JSON.stringify(__t))) of digdag.js
+    private static String stringifyResult(Object value)
+        throws UnsupportedExpressionException
+    {
+        if (value instanceof Special) {
+            return "";
+        }
+        else if (value instanceof String) {
+            return (String) value;
+        }
+        else if (value instanceof Double) {
+            double d = (Double) value;
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                return "null";
+            }
+            return formatNumber(d);
+        }
+        else if (value instanceof Boolean) {
+            return value.toString();
+        }
+        else if (value instanceof Moment) {
+            // Moment.toJSON returns toISOString
+            return "\"" + ((Moment) value).toISOString() + "\"";
+        }
+        else {
+            // JSON.stringify of objects may reorder keys and format numbers differently
+            throw UNSUPPORTED;
+        }
+    }
+
+    ////
+    // Expressions
+    //
+
+    private interface Expr
+    {
+        Object eval(Evaluation ev)
+            throws UnsupportedExpressionException;
+    }
+
+    private static class Literal
+            implements Expr
+    {
+        private final Object value;
+
+        Literal(Object value)
+        {
+            this.value = value;
+        }
+
+        @Override
+        public Object eval(Evaluation ev)
+        {
+            return value;
+        }
+    }
+
+    private static class Identifier
+            implements Expr
+    {
+        private final String name;
+
+        Identifier(String name)
+        {
+            this.name = name;
+        }
+
+        @Override
+        public Object eval(Evaluation ev)
+            throws UnsupportedExpressionException
+        {
+            JsonNode node = ev.scope.get(name);
+            if (node == null) {
+                // a global variable or ReferenceError
+                throw UNSUPPORTED;
+            }
+            return fromJson(node);
+        }
+    }
+
+    // properties of Object.prototype, which are visible on any objects
+    private static final Set<String> OBJECT_PROTOTYPE_PROPERTIES = ImmutableSet.of(
+            "constructor", "hasOwnProperty", "isPrototypeOf", "propertyIsEnumerable",
+            "toLocaleString", "toString", "valueOf", "__proto__",
+            "__defineGetter__", "__defineSetter__", "__lookupGetter__", "__lookupSetter__");
+
+    private static class Member
+            implements Expr
+    {
+        private final Expr target;
+        private final String name;
+
+        Member(Expr target, String name)
+        {
+            this.target = target;
+            this.name = name;
+        }
+
+        @Override
+        public Object eval(Evaluation ev)
+            throws UnsupportedExpressionException
+        {
+            Object value = target.eval(ev);
+            if (!(value instanceof JsonNode) || !((JsonNode) value).isObject()) {
+                // TypeError for null or undefined. properties of strings, arrays, etc.
+                throw UNSUPPORTED;
+            }
+            JsonNode field = ((JsonNode) value).get(name);
+            if (field == null) {
+                if (OBJECT_PROTOTYPE_PROPERTIES.contains(name)) {
+                    throw UNSUPPORTED;
+                }
+                return Special.UNDEFINED;
+            }
+            return fromJson(field);
+        }
+    }
+
+    private static class Call
+            implements Expr
+    {
+        private final Expr callee;
+        private final List<Expr> args;
+
+        Call(Expr callee, List<Expr> args)
+        {
+            this.callee = callee;
+            this.args = args;
+        }
+
+        @Override
+        public Object eval(Evaluation ev)
+            throws UnsupportedExpressionException
+        {
+            if (callee instanceof Identifier && ((Identifier) callee).name.equals("moment")) {
+                if (ev.scope.get("moment") != null) {
+                    // moment is overwritten by a variable
+                    throw UNSUPPORTED;
+                }
+                return Moment.create(evalArgs(ev), ev);
+            }
+            else if (callee instanceof Member) {
+                Object target = ((Member) callee).target.eval(ev);
+                if (target instanceof Moment) {
+                    return ((Moment) target).invoke(((Member) callee).name, evalArgs(ev), ev);
+                }
+            }
+            throw UNSUPPORTED;
+        }
+
+        private List<Object> evalArgs(Evaluation ev)
+            throws UnsupportedExpressionException
+        {
+            ImmutableList.Builder<Object> values = ImmutableList.builder();
+            for (Expr arg : args) {
+                values.add(arg.eval(ev));
+            }
+            return values.build();
+        }
+    }
+
+    private static class Unary
+            implements Expr
+    {
+        private final String op;
+        private final Expr operand;
+
+        Unary(String op, Expr operand)
+        {
+            this.op = op;
+            this.operand = operand;
+        }
+
+        @Override
+        public Object eval(Evaluation ev)
+            throws UnsupportedExpressionException
+        {
+            Object value = operand.eval(ev);
+            if (op.equals("-")) {
+                return -toNumber(value);
+            }
+            else {
+                return !isTruthy(value);
+            }
+        }
+    }
+
+    private static class Binary
+            implements Expr
+    {
+        private final String op;
+        private final Expr left;
+        private final Expr right;
+
+        Binary(String op, Expr left, Expr right)
+        {
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public Object eval(Evaluation ev)
+            throws UnsupportedExpressionException
+        {
+            Object l = left.eval(ev);
+            Object r = right.eval(ev);
+            switch (op) {
+            case "+":
+                if (l instanceof String || r instanceof String) {
+                    return toJsString(l) + toJsString(r);
+                }
+                return toNumber(l) + toNumber(r);
+            case "-":
+                return toNumber(l) - toNumber(r);
+            case "*":
+                return toNumber(l) * toNumber(r);
+            case "/":
+                return toNumber(l) / toNumber(r);
+            case "%":
+                return toNumber(l) % toNumber(r);
+            case "<":
+                return compare(l, r, c -> c < 0);
+            case "<=":
+                return compare(l, r, c -> c <= 0);
+            case ">":
+                return compare(l, r, c -> c > 0);
+            case ">=":
+                return compare(l, r, c -> c >= 0);
+            case "==":
+                return looseEquals(l, r);
+            case "!=":
+                return !looseEquals(l, r);
+            case "===":
+                return strictEquals(l, r);
+            case "!==":
+                return !strictEquals(l, r);
+            default:
+                throw new AssertionError("Unknown operator: " + op);
+            }
+        }
+
+        private static boolean compare(Object l, Object r, IntPredicate result)
+            throws UnsupportedExpressionException
+        {
+            if (l instanceof Double && r instanceof Double) {
+                double a = (Double) l;
+                double b = (Double) r;
+                if (Double.isNaN(a) || Double.isNaN(b)) {
+                    return false;
+                }
+                return result.test(a < b ? -1 : (a > b ? 1 : 0));
+            }
+            else if (l instanceof String && r instanceof String) {
+                // compares UTF-16 code units as JavaScript does
+                return result.test(((String) l).compareTo((String) r));
+            }
+            else {
+                throw UNSUPPORTED;
+            }
+        }
+
+        private static boolean looseEquals(Object l, Object r)
+            throws UnsupportedExpressionException
+        {
+            if (l instanceof Special || r instanceof Special) {
+                // null == undefined
+                return l instanceof Special && r instanceof Special;
+            }
+            else if (isPrimitive(l) && l.getClass() == r.getClass()) {
+                return strictEquals(l, r);
+            }
+            else {
+                // type conversion or identity of objects
+                throw UNSUPPORTED;
+            }
+        }
+
+        private static boolean strictEquals(Object l, Object r)
+            throws UnsupportedExpressionException
+        {
+            if (!isPrimitive(l) || !isPrimitive(r)) {
+                throw UNSUPPORTED;
+            }
+            if (l instanceof Double && r instanceof Double) {
+                return ((Double) l).doubleValue() == ((Double) r).doubleValue();
+            }
+            return l.equals(r);
+        }
+
+        private static boolean isPrimitive(Object value)
+        {
+            return value instanceof String || value instanceof Double || value instanceof Boolean || value instanceof Special;
+        }
+    }
+
+    ////
+    // Parser
+    //
+
+    // reserved words and names that digdag.js uses in the function of a template
+    private static final Set<String> UNSUPPORTED_IDENTIFIERS = ImmutableSet.of(
+            "break", "case", "catch", "class", "const", "continue", "debugger", "default",
+            "delete", "do", "else", "enum", "export", "extends", "finally", "for", "function",
+            "if", "implements", "import", "in", "instanceof", "interface", "let", "new",
+            "package", "private", "protected", "public", "return", "static", "super", "switch",
+            "this", "throw", "try", "typeof", "var", "void", "while", "with", "yield",
+            "__t", "__p", "__j", "print", "arguments");
+
+    private static class Parser
+    {
+        private final String source;
+        private int pos = 0;
+
+        Parser(String source)
+        {
+            this.source = source;
+        }
+
+        Expr parse()
+            throws UnsupportedExpressionException
+        {
+            Expr expr = parseEquality();
+            skipWhitespace();
+            if (pos != source.length()) {
+                throw UNSUPPORTED;
+            }
+            return expr;
+        }
+
+        private Expr parseEquality()
+            throws UnsupportedExpressionException
+        {
+            Expr expr = parseRelational();
+            while (true) {
+                String op = consumeOperator("===", "!==", "==", "!=");
+                if (op == null) {
+                    return expr;
+                }
+                expr = new Binary(op, expr, parseRelational());
+            }
+        }
+
+        private Expr parseRelational()
+            throws UnsupportedExpressionException
+        {
+            Expr expr = parseAdditive();
+            while (true) {
+                if (lookingAt("<<") || lookingAt(">>")) {
+                    throw UNSUPPORTED;
+                }
+                String op = consumeOperator("<=", ">=", "<", ">");
+                if (op == null) {
+                    return expr;
+                }
+                expr = new Binary(op, expr, parseAdditive());
+            }
+        }
+
+        private Expr parseAdditive()
+            throws UnsupportedExpressionException
+        {
+            Expr expr = parseMultiplicative();
+            while (true) {
+                if (lookingAt("++") || lookingAt("--") || lookingAt("+=") || lookingAt("-=")) {
+                    throw UNSUPPORTED;
+                }
+                String op = consumeOperator("+", "-");
+                if (op == null) {
+                    return expr;
+                }
+                expr = new Binary(op, expr, parseMultiplicative());
+            }
+        }
+
+        private Expr parseMultiplicative()
+            throws UnsupportedExpressionException
+        {
+            Expr expr = parseUnary();
+            while (true) {
+                if (lookingAt("**") || lookingAt("*=") || lookingAt("//") || lookingAt("/*") || lookingAt("/=") || lookingAt("%=")) {
+                    throw UNSUPPORTED;
+                }
+                String op = consumeOperator("*", "/", "%");
+                if (op == null) {
+                    return expr;
+                }
+                expr = new Binary(op, expr, parseUnary());
+            }
+        }
+
+        private Expr parseUnary()
+            throws UnsupportedExpressionException
+        {
+            if (lookingAt("--") || lookingAt("!=")) {
+                throw UNSUPPORTED;
+            }
+            String op = consumeOperator("-", "!");
+            if (op != null) {
+                return new Unary(op, parseUnary());
+            }
+            return parsePostfix();
+        }
+
+        private Expr parsePostfix()
+            throws UnsupportedExpressionException
+        {
+            Expr expr = parsePrimary();
+            while (true) {
+                if (consumeOperator(".") != null) {
+                    skipWhitespace();
+                    expr = new Member(expr, parseIdentifierName());
+                }
+                else if (consumeOperator("(") != null) {
+                    ImmutableList.Builder<Expr> args = ImmutableList.builder();
+                    if (consumeOperator(")") == null) {
+                        do {
+                            args.add(parseEquality());
+                        } while (consumeOperator(",") != null);
+                        if (consumeOperator(")") == null) {
+                            throw UNSUPPORTED;
+                        }
+                    }
+                    expr = new Call(expr, args.build());
+                }
+                else {
+                    return expr;
+                }
+            }
+        }
+
+        private Expr parsePrimary()
+            throws UnsupportedExpressionException
+        {
+            skipWhitespace();
+            if (pos >= source.length()) {
+                throw UNSUPPORTED;
+            }
+            char c = source.charAt(pos);
+            if (c == '(') {
+                pos++;
+                Expr expr = parseEquality();
+                if (consumeOperator(")") == null) {
+                    throw UNSUPPORTED;
+                }
+                return expr;
+            }
+            else if (c == '\'' || c == '"') {
+                return new Literal(parseString(c));
+            }
+            else if (c >= '0' && c <= '9') {
+                return new Literal(parseNumber());
+            }
+            else if (isIdentifierStart(c)) {
+                String name = parseIdentifierName();
+                switch (name) {
+                case "true":
+                    return new Literal(true);
+                case "false":
+                    return new Literal(false);
+                case "null":
+                    return new Literal(Special.NULL);
+                default:
+                    if (UNSUPPORTED_IDENTIFIERS.contains(name)) {
+                        throw UNSUPPORTED;
+                    }
+                    return new Identifier(name);
+                }
+            }
+            else {
+                throw UNSUPPORTED;
+            }
+        }
+
+        private String parseString(char quote)
+            throws UnsupportedExpressionException
+        {
+            StringBuilder sb = new StringBuilder();
+            pos++;
+            while (pos < source.length()) {
+                char c = source.charAt(pos++);
+                if (c == quote) {
+                    return sb.toString();
+                }
+                else if (c == '\\') {
+                    if (pos >= source.length()) {
+                        throw UNSUPPORTED;
+                    }
+                    char e = source.charAt(pos++);
+                    switch (e) {
+                    case '\\':
+                    case '\'':
+                    case '"':
+                        sb.append(e);
+                        break;
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    default:
+                        throw UNSUPPORTED;
+                    }
+                }
+                else if (c == '\n' || c == '\r' || c == '\u2028' || c == '\u2029') {
+                    throw UNSUPPORTED;
+                }
+                else {
+                    sb.append(c);
+                }
+            }
+            throw UNSUPPORTED;
+        }
+
+        private double parseNumber()
+            throws UnsupportedExpressionException
+        {
+            int start = pos;
+            if (source.charAt(pos) == '0' && pos + 1 < source.length() && isDigit(source.charAt(pos + 1))) {
+                // octal literal
+                throw UNSUPPORTED;
+            }
+            while (pos < source.length() && isDigit(source.charAt(pos))) {
+                pos++;
+            }
+            if (pos + 1 < source.length() && source.charAt(pos) == '.' && isDigit(source.charAt(pos + 1))) {
+                pos++;
+                while (pos < source.length() && isDigit(source.charAt(pos))) {
+                    pos++;
+                }
+            }
+            if (pos < source.length()) {
+                char c = source.charAt(pos);
+                if (c == '.' || isIdentifierPart(c)) {
+                    // exponent, hex, "1.", etc.
+                    throw UNSUPPORTED;
+                }
+            }
+            return Double.parseDouble(source.substring(start, pos));
+        }
+
+        private String parseIdentifierName()
+            throws UnsupportedExpressionException
+        {
+            int start = pos;
+            if (pos >= source.length() || !isIdentifierStart(source.charAt(pos))) {
+                throw UNSUPPORTED;
+            }
+            pos++;
+            while (pos < source.length() && isIdentifierPart(source.charAt(pos))) {
+                pos++;
+            }
+            return source.substring(start, pos);
+        }
+
+        private String consumeOperator(String... ops)
+        {
+            skipWhitespace();
+            for (String op : ops) {
+                if (source.startsWith(op, pos)) {
+                    pos += op.length();
+                    return op;
+                }
+            }
+            return null;
+        }
+
+        private boolean lookingAt(String s)
+        {
+            skipWhitespace();
+            return source.startsWith(s, pos);
+        }
+
+        private void skipWhitespace()
+        {
+            while (pos < source.length()) {
+                switch (source.charAt(pos)) {
+                case ' ':
+                case '\t':
+                case '\n':
+                case '\r':
+                case '\f':
+                case '\u000B':
+                    pos++;
+                    break;
+                default:
+                    return;
+                }
+            }
+        }
+
+        private static boolean isDigit(char c)
+        {
+            return c >= '0' && c <= '9';
+        }
+
+        private static boolean isIdentifierStart(char c)
+        {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == '$';
+        }
+
+        private static boolean isIdentifierPart(char c)
+        {
+            return isIdentifierStart(c) || isDigit(c);
+        }
+    }
+
+    ////
+    // java.time port of moment.js
+    //
+
+    private static final double MAX_DATE_MILLIS = 8.64e15;
+
+    // same with isoRegex of moment.js but only extended formats with
+    // YYYY-MM-DD and optional HH:mm[:ss[.SSS]] and offset
+    private static final Pattern ISO_DATE_TIME_PATTERN = Pattern.compile(
+            "(\\d{4})-(\\d\\d)-(\\d\\d)" +
+            "(?:[T ](\\d\\d):(\\d\\d)(?::(\\d\\d)(?:[.,](\\d{1,3}))?)?(Z|[+-]\\d\\d:?\\d\\d)?)?");
+
+    // same with formattingTokens and localFormattingTokens of moment.js
+    private static final Pattern FORMATTING_TOKENS = Pattern.compile(
+            "(\\[[^\\[]*\\])|(\\\\)?([Hh]mm(ss)?|Mo|MM?M?M?|Do|DDDo|DD?D?D?|ddd?d?|do?|w[o|w]?|W[o|W]?|Qo?|YYYYYY|YYYYY|YYYY|YY|gg(ggg?)?|GG(GGG?)?|e|E|a|A|hh?|HH?|kk?|mm?|ss?|S{1,9}|x|X|zz?|ZZ?|.)");
+    private static final Pattern LOCAL_FORMATTING_TOKENS = Pattern.compile(
+            "(\\[[^\\[]*\\])|(\\\\)?(LTS|LT|LL?L?L?|l{1,4})");
+
+    // tokens that moment.js formats but this class doesn't
+    private static final Set<String> UNSUPPORTED_FORMAT_TOKENS = ImmutableSet.of(
+            "Mo", "DDDo", "do", "e", "E", "w", "wo", "ww", "W", "Wo", "WW", "Q", "Qo",
+            "YYYYY", "YYYYYY", "gg", "gggg", "ggggg", "GG", "GGGG", "GGGGG",
+            "SSSS", "SSSSS", "SSSSSS", "SSSSSSS", "SSSSSSSS", "SSSSSSSSS", "z", "zz");
+
+    private static final String DEFAULT_FORMAT = "YYYY-MM-DDTHH:mm:ssZ";
+    private static final String DEFAULT_FORMAT_UTC = "YYYY-MM-DDTHH:mm:ss[Z]";
+    private static final String ISO_FORMAT = "YYYY-MM-DD[T]HH:mm:ss.SSS[Z]";
+
+    private static final String[] MONTH_NAMES = {
+        "January", "February", "March", "April", "May", "June",
+        "July", "August", "September", "October", "November", "December",
+    };
+
+    private static final String[] WEEKDAY_NAMES = {
+        "Sunday", "Monday", "Tuesday", "Wednesday", "Thursday", "Friday", "Saturday",
+    };
+
+    // units of moment.js for add and subtract
+    private static final Map<String, ChronoUnit> DURATION_UNITS = ImmutableMap.<String, ChronoUnit>builder()
+        .put("y", YEARS).put("year", YEARS).put("years", YEARS)
+        .put("M", MONTHS).put("month", MONTHS).put("months", MONTHS)
+        .put("w", WEEKS).put("week", WEEKS).put("weeks", WEEKS)
+        .put("d", DAYS).put("day", DAYS).put("days", DAYS)
+        .put("h", HOURS).put("hour", HOURS).put("hours", HOURS)
+        .put("m", MINUTES).put("minute", MINUTES).put("minutes", MINUTES)
+        .put("s", SECONDS).put("second", SECONDS).put("seconds", SECONDS)
+        .put("ms", MILLIS).put("millisecond", MILLIS).put("milliseconds", MILLIS)
+        .build();
+
+    private static class Moment
+    {
+        private final long epochMillis;
+        private final ZoneId zone;
+        private final boolean utc;
+
+        private Moment(long epochMillis, ZoneId zone, boolean utc)
+            throws UnsupportedExpressionException
+        {
+            if (Math.abs((double) epochMillis) > MAX_DATE_MILLIS) {
+                throw UNSUPPORTED;
+            }
+            this.epochMillis = epochMillis;
+            this.zone = zone;
+            this.utc = utc;
+        }
+
+        static Moment create(List<Object> args, Evaluation ev)
+            throws UnsupportedExpressionException
+        {
+            if (args.size() != 1) {
+                // moment() returns current time
+                throw UNSUPPORTED;
+            }
+            Object arg = args.get(0);
+            if (arg instanceof Moment) {
+                return (Moment) arg;
+            }
+            else if (arg instanceof Double) {
+                return new Moment(toIntegralMillis((Double) arg), ev.getZone(), false);
+            }
+            else if (arg instanceof String) {
+                return parse((String) arg, ev.getZone());
+            }
+            else {
+                throw UNSUPPORTED;
+            }
+        }
+
+        private static Moment parse(String text, ZoneId zone)
+            throws UnsupportedExpressionException
+        {
+            Matcher m = ISO_DATE_TIME_PATTERN.matcher(text);
+            if (!m.matches()) {
+                // moment.js falls back to Date constructor
+                throw UNSUPPORTED;
+            }
+            try {
+                int year = Integer.parseInt(m.group(1));
+                if (year < 1000) {
+                    throw UNSUPPORTED;
+                }
+                LocalDate date = LocalDate.of(year, Integer.parseInt(m.group(2)), Integer.parseInt(m.group(3)));
+                LocalTime time = LocalTime.MIDNIGHT;
+                if (m.group(4) != null) {
+                    int millis = 0;
+                    if (m.group(7) != null) {
+                        // same with parsing of S+ tokens of moment.js
+                        millis = (int) (Double.parseDouble("0." + m.group(7)) * 1000);
+                    }
+                    time = LocalTime.of(
+                            Integer.parseInt(m.group(4)),
+                            Integer.parseInt(m.group(5)),
+                            m.group(6) != null ? Integer.parseInt(m.group(6)) : 0,
+                            millis * 1000000);
+                }
+                LocalDateTime local = LocalDateTime.of(date, time);
+                if (m.group(8) != null) {
+                    ZoneOffset offset = m.group(8).equals("Z") ? ZoneOffset.UTC : ZoneOffset.of(m.group(8));
+                    return new Moment(local.toInstant(offset).toEpochMilli(), zone, false);
+                }
+                return new Moment(resolveLocal(local, zone), zone, false);
+            }
+            catch (DateTimeException ex) {
+                // moment.js returns an invalid date
+                throw UNSUPPORTED;
+            }
+        }
+
+        // local date times in a gap or an overlap of DST may be resolved differently from JavaScript
+        private static long resolveLocal(LocalDateTime local, ZoneId zone)
+            throws UnsupportedExpressionException
+        {
+            List<ZoneOffset> offsets = zone.getRules().getValidOffsets(local);
+            if (offsets.size() != 1) {
+                throw UNSUPPORTED;
+            }
+            return local.toInstant(offsets.get(0)).toEpochMilli();
+        }
+
+        private static long toIntegralMillis(double value)
+            throws UnsupportedExpressionException
+        {
+            if (value != Math.rint(value) || Math.abs(value) > MAX_DATE_MILLIS) {
+                throw UNSUPPORTED;
+            }
+            return (long) value;
+        }
+
+        private ZonedDateTime dateTime()
+        {
+            return Instant.ofEpochMilli(epochMillis).atZone(utc ? ZoneOffset.UTC : zone);
+        }
+
+        Object invoke(String method, List<Object> args, Evaluation ev)
+            throws UnsupportedExpressionException
+        {
+            switch (method) {
+            case "add":
+                return add(args, 1);
+            case "subtract":
+                return add(args, -1);
+            case "utc":
+                checkNoArgs(args);
+                return new Moment(epochMillis, zone, true);
+            case "local":
+                checkNoArgs(args);
+                return new Moment(epochMillis, zone, false);
+            case "format":
+                if (args.isEmpty() || args.get(0) instanceof Special || "".equals(args.get(0))) {
+                    return format(utc ? DEFAULT_FORMAT_UTC : DEFAULT_FORMAT);
+                }
+                else if (args.size() == 1 && args.get(0) instanceof String) {
+                    return format((String) args.get(0));
+                }
+                throw UNSUPPORTED;
+            case "unix":
+                checkNoArgs(args);
+                return (double) Math.floorDiv(epochMillis, 1000L);
+            case "valueOf":
+                checkNoArgs(args);
+                return (double) epochMillis;
+            case "toISOString":
+                checkNoArgs(args);
+                return toISOString();
+            default:
+                throw UNSUPPORTED;
+            }
+        }
+
+        private static void checkNoArgs(List<Object> args)
+            throws UnsupportedExpressionException
+        {
+            if (!args.isEmpty()) {
+                throw UNSUPPORTED;
+            }
+        }
+
+        private Moment add(List<Object> args, int sign)
+            throws UnsupportedExpressionException
+        {
+            if (args.size() != 2 || !(args.get(0) instanceof Double) || !(args.get(1) instanceof String)) {
+                throw UNSUPPORTED;
+            }
+            double amount = (Double) args.get(0);
+            ChronoUnit unit = DURATION_UNITS.get((String) args.get(1));
+            if (unit == null || amount != Math.rint(amount) || Math.abs(amount) > MAX_DATE_MILLIS) {
+                throw UNSUPPORTED;
+            }
+            long n = (long) amount * sign;
+            try {
+                if (unit.isDateBased()) {
+                    // added to local date and time. the day of month is clamped to the end of month as moment.js does
+                    ZonedDateTime dt = dateTime();
+                    LocalDateTime local = dt.toLocalDateTime().plus(n, unit);
+                    return new Moment(resolveLocal(local, dt.getZone()), zone, utc);
+                }
+                return new Moment(Math.addExact(epochMillis, Math.multiplyExact(n, unit.getDuration().toMillis())), zone, utc);
+            }
+            catch (ArithmeticException | DateTimeException ex) {
+                throw UNSUPPORTED;
+            }
+        }
+
+        String toISOString()
+            throws UnsupportedExpressionException
+        {
+            return new Moment(epochMillis, zone, true).format(ISO_FORMAT);
+        }
+
+        String format(String format)
+            throws UnsupportedExpressionException
+        {
+            Matcher local = LOCAL_FORMATTING_TOKENS.matcher(format);
+            while (local.find()) {
+                if (local.group(3) != null && local.group(2) == null) {
+                    // localized formats such as LLL
+                    throw UNSUPPORTED;
+                }
+            }
+
+            ZonedDateTime dt = dateTime();
+            if (dt.getYear() < 1000 || dt.getYear() > 9999) {
+                throw UNSUPPORTED;
+            }
+
+            StringBuilder sb = new StringBuilder();
+            Matcher m = FORMATTING_TOKENS.matcher(format);
+            int index = 0;
+            while (m.find()) {
+                if (m.start() != index) {
+                    // moment.js drops characters that don't match formattingTokens such as line breaks
+                    throw UNSUPPORTED;
+                }
+                index = m.end();
+                sb.append(formatToken(m.group(), dt));
+            }
+            if (index != format.length()) {
+                throw UNSUPPORTED;
+            }
+            return sb.toString();
+        }
+
+        private String formatToken(String token, ZonedDateTime dt)
+            throws UnsupportedExpressionException
+        {
+            int millis = dt.getNano() / 1000000;
+            switch (token) {
+            case "M":
+                return Integer.toString(dt.getMonthValue());
+            case "MM":
+                return pad(dt.getMonthValue(), 2);
+            case "MMM":
+                return MONTH_NAMES[dt.getMonthValue() - 1].substring(0, 3);
+            case "MMMM":
+                return MONTH_NAMES[dt.getMonthValue() - 1];
+            case "D":
+                return Integer.toString(dt.getDayOfMonth());
+            case "DD":
+                return pad(dt.getDayOfMonth(), 2);
+            case "Do":
+                return ordinal(dt.getDayOfMonth());
+            case "DDD":
+                return Integer.toString(dt.getDayOfYear());
+            case "DDDD":
+                return pad(dt.getDayOfYear(), 3);
+            case "d":
+                return Integer.toString(dt.getDayOfWeek().getValue() % 7);
+            case "dd":
+                return WEEKDAY_NAMES[dt.getDayOfWeek().getValue() % 7].substring(0, 2);
+            case "ddd":
+                return WEEKDAY_NAMES[dt.getDayOfWeek().getValue() % 7].substring(0, 3);
+            case "dddd":
+                return WEEKDAY_NAMES[dt.getDayOfWeek().getValue() % 7];
+            case "Y":
+            case "YYYY":
+                return Integer.toString(dt.getYear());
+            case "YY":
+                return pad(dt.getYear() % 100, 2);
+            case "H":
+                return Integer.toString(dt.getHour());
+            case "HH":
+                return pad(dt.getHour(), 2);
+            case "h":
+                return Integer.toString(hour12(dt));
+            case "hh":
+                return pad(hour12(dt), 2);
+            case "k":
+                return Integer.toString(dt.getHour() == 0 ? 24 : dt.getHour());
+            case "kk":
+                return pad(dt.getHour() == 0 ? 24 : dt.getHour(), 2);
+            case "m":
+                return Integer.toString(dt.getMinute());
+            case "mm":
+                return pad(dt.getMinute(), 2);
+            case "s":
+                return Integer.toString(dt.getSecond());
+            case "ss":
+                return pad(dt.getSecond(), 2);
+            case "S":
+                return Integer.toString(millis / 100);
+            case "SS":
+                return pad(millis / 10, 2);
+            case "SSS":
+                return pad(millis, 3);
+            case "a":
+                return dt.getHour() > 11 ? "pm" : "am";
+            case "A":
+                return dt.getHour() > 11 ? "PM" : "AM";
+            case "Z":
+                return formatOffset(dt, ":");
+            case "ZZ":
+                return formatOffset(dt, "");
+            case "X":
+                return Long.toString(Math.floorDiv(epochMillis, 1000L));
+            case "x":
+                return Long.toString(epochMillis);
+            case "Hmm":
+                return dt.getHour() + pad(dt.getMinute(), 2);
+            case "Hmmss":
+                return dt.getHour() + pad(dt.getMinute(), 2) + pad(dt.getSecond(), 2);
+            case "hmm":
+                return hour12(dt) + pad(dt.getMinute(), 2);
+            case "hmmss":
+                return hour12(dt) + pad(dt.getMinute(), 2) + pad(dt.getSecond(), 2);
+            default:
+                if (UNSUPPORTED_FORMAT_TOKENS.contains(token)) {
+                    throw UNSUPPORTED;
+                }
+                // same with removeFormattingTokens of moment.js
+                if (token.matches("(?s).*\\[.+")) {
+                    return token.replaceAll("^\\[|\\]$", "");
+                }
+                return token.replace("\\", "");
+            }
+        }
+
+        private static String formatOffset(ZonedDateTime dt, String separator)
+            throws UnsupportedExpressionException
+        {
+            int seconds = dt.getOffset().getTotalSeconds();
+            if (seconds % 900 != 0) {
+                // moment.js rounds offsets to 15 minutes
+                throw UNSUPPORTED;
+            }
+            int minutes = Math.abs(seconds / 60);
+            return (seconds < 0 ? "-" : "+") + pad(minutes / 60, 2) + separator + pad(minutes % 60, 2);
+        }
+
+        private static int hour12(ZonedDateTime dt)
+        {
+            int h = dt.getHour() % 12;
+            return h == 0 ? 12 : h;
+        }
+
+        private static String ordinal(int n)
+        {
+            int b = n % 10;
+            String suffix;
+            if ((n % 100) / 10 == 1) {
+                suffix = "th";
+            }
+            else if (b == 1) {
+                suffix = "st";
+            }
+            else if (b == 2) {
+                suffix = "nd";
+            }
+            else if (b == 3) {
+                suffix = "rd";
+            }
+            else {
+                suffix = "th";
+            }
+            return n + suffix;
+        }
+
+        private static String pad(int n, int length)
+        {
+            String s = Integer.toString(n);
+            StringBuilder sb = new StringBuilder();
+            for (int i = s.length(); i < length; i++) {
+                sb.append('0');
+            }
+            return sb.append(s).toString();
+        }
+    }
+}
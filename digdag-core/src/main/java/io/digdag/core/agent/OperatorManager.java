@@ -1,6 +1,7 @@
 package io.digdag.core.agent;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -26,6 +27,7 @@ import io.digdag.spi.TaskResult;
 import io.digdag.spi.TemplateException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.weakref.jmx.Managed;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -41,6 +43,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import static com.google.common.base.Strings.isNullOrEmpty;
@@ -61,6 +64,9 @@ public class OperatorManager
 
     private final ScheduledExecutorService heartbeatScheduler;
     private final ConcurrentHashMap<Long, TaskRequest> runningTaskMap = new ConcurrentHashMap<>();  // {taskId => TaskRequest}
+    private final ConcurrentHashMap<Integer, Long> heartbeatLatencyMillis = new ConcurrentHashMap<>();  // {siteId => latency of the last heartbeat}
+    private final AtomicLong heartbeatCount = new AtomicLong(0L);
+    private final RuntimeParams.AttemptParamsCache attemptParamsCache = new RuntimeParams.AttemptParamsCache();
 
     @Inject(optional = true)
     private ErrorReporter errorReporter = ErrorReporter.empty();
@@ -187,7 +193,8 @@ public class OperatorManager
         // evaluate config and creates the complete merged config.
         Config config;
         try {
-            Config all = RuntimeParams.buildRuntimeParams(request.getConfig().getFactory(), request).deepCopy();
+            // buildRuntimeParams returns a new Config. it doesn't have to be copied
+            Config all = attemptParamsCache.buildRuntimeParams(request.getConfig().getFactory(), request);
             all.merge(request.getConfig());  // export / carry params (TaskRequest.config sent by WorkflowExecutor doesn't include config of this task)
             Config evalParams = all.deepCopy();
             all.merge(request.getLocalConfig());
@@ -206,6 +213,9 @@ public class OperatorManager
         logger.debug("evaluated config: {}", config);
 
         Set<String> shouldBeUsedKeys = new HashSet<>(request.getLocalConfig().getKeys());
+        // used by WorkflowExecutor when it enqueues the task
+        shouldBeUsedKeys.remove("_queue");
+        shouldBeUsedKeys.remove("_priority");
 
         String type;
         if (config.has("_type")) {
@@ -312,6 +322,24 @@ public class OperatorManager
         return operator.run();
     }
 
+    @Managed
+    public long getHeartbeatCount()
+    {
+        return heartbeatCount.get();
+    }
+
+    @Managed
+    public long getMaxHeartbeatLatencyMillis()
+    {
+        return heartbeatLatencyMillis.values().stream().mapToLong(it -> it).max().orElse(0L);
+    }
+
+    @Managed
+    public Map<Integer, Long> getHeartbeatLatencyMillisBySite()
+    {
+        return ImmutableMap.copyOf(heartbeatLatencyMillis);
+    }
+
     private void heartbeat()
     {
         try {
@@ -323,7 +351,13 @@ public class OperatorManager
             for (Map.Entry<Integer, List<String>> pair : sites.entrySet()) {
                 int siteId = pair.getKey();
                 List<String> lockIds = pair.getValue();
+                // all locks of a site are extended by one bulk heartbeat
+                long startNanos = System.nanoTime();
                 callback.taskHeartbeat(siteId, lockIds, agentId, agentConfig.getLockRetentionTime());
+                long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+                heartbeatLatencyMillis.put(siteId, latency);
+                heartbeatCount.incrementAndGet();
+                logger.trace("Sent heartbeat of {} tasks of site id={} in {} ms", lockIds.size(), siteId, latency);
             }
         }
         catch (Throwable t) {
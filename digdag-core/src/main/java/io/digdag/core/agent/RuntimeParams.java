@@ -4,6 +4,12 @@ import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import io.digdag.client.config.Config;
 import io.digdag.client.config.ConfigException;
 import io.digdag.client.config.ConfigFactory;
@@ -12,7 +18,65 @@ import static java.util.Locale.ENGLISH;
 
 public class RuntimeParams
 {
+    // Params except task_* are same for all tasks of an attempt. A cache builds them
+    // once and tasks share them. Values are immutable scalar nodes. Thus params of tasks
+    // can share them without deep copy.
+    //
+    // A cache is owned by an OperatorManager rather than the JVM because attempt ids are
+    // unique only in a database and multiple servers may run in a JVM. Keys include
+    // session params in addition to attempt id for the same reason, and config params
+    // that affect values because TaskRequest.config may include params exported by other
+    // tasks.
+    public static class AttemptParamsCache
+    {
+        private final Cache<List<Object>, Config> cache = CacheBuilder.newBuilder()
+            .maximumSize(1000)
+            .expireAfterAccess(1, TimeUnit.HOURS)
+            .build();
+
+        public Config buildRuntimeParams(ConfigFactory cf, TaskRequest request)
+        {
+            List<Object> key = Arrays.asList(
+                    request.getAttemptId(),
+                    request.getSessionUuid(),
+                    request.getSessionTime(),
+                    request.getTimeZone(),
+                    jsonOf(request.getConfig(), "last_session_time"),
+                    jsonOf(request.getConfig(), "last_executed_session_time"),
+                    jsonOf(request.getConfig(), "next_session_time"));
+            Config attemptParams = cache.getIfPresent(key);
+            if (attemptParams == null) {
+                attemptParams = buildAttemptParams(cf, request);
+                cache.put(key, attemptParams);
+            }
+            return withTaskParams(cf, attemptParams, request);
+        }
+    }
+
     public static Config buildRuntimeParams(ConfigFactory cf, TaskRequest request)
+    {
+        return withTaskParams(cf, buildAttemptParams(cf, request), request);
+    }
+
+    private static Config withTaskParams(ConfigFactory cf, Config attemptParams, TaskRequest request)
+    {
+        Config params = cf.create();
+        params.setAll(attemptParams);
+
+        // task_*
+        params.set("task_name", request.getTaskName());
+
+        return params;
+    }
+
+    private static String jsonOf(Config config, String key)
+    {
+        // getOptional doesn't expose nodes of config. getInternalObjectNode would deep-copy
+        // a copy-on-write config.
+        return config.getOptional(key, JsonNode.class).transform(JsonNode::toString).orNull();
+    }
+
+    private static Config buildAttemptParams(ConfigFactory cf, TaskRequest request)
     {
         Config params = cf.create();
 
@@ -72,9 +136,6 @@ public class RuntimeParams
         params.set("retry_attempt_name", request.getRetryAttemptName().orNull());
         params.set("attempt_id", request.getAttemptId());
 
-        // task_*
-        params.set("task_name", request.getTaskName());
-
         return params;
     }
 
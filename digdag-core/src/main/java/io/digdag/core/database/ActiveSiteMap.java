@@ -0,0 +1,168 @@
+package io.digdag.core.database;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntUnaryOperator;
+import java.util.function.LongSupplier;
+
+/**
+ * In-memory view of sites that have shared tasks in queued_task_locks.
+ *
+ * This map is updated by local enqueue, lock and delete operations, and
+ * reconciled with the database periodically so that changes made by other
+ * servers and expired locks are reflected.
+ *
+ * Number of waiting tasks is not tracked because counting them needs a scan
+ * of all waiting tasks. A site is considered to have waiting tasks until
+ * locking finds no tasks. Number of running tasks is bounded by concurrency
+ * limits and cheap to count.
+ */
+public class ActiveSiteMap
+{
+    public static class SiteState
+    {
+        private final int siteId;
+        private boolean waiting;
+        private int running;
+        // true if locking found no tasks (e.g. because all waiting tasks are
+        // locked or queue concurrency limit). Cleared when tasks of the site change.
+        private boolean exhausted;
+        private long version;
+
+        public SiteState(int siteId, boolean waiting, int running)
+        {
+            this.siteId = siteId;
+            this.waiting = waiting;
+            this.running = running;
+        }
+
+        public int getSiteId()
+        {
+            return siteId;
+        }
+
+        public boolean hasWaitingTasks()
+        {
+            return waiting;
+        }
+
+        public int getRunning()
+        {
+            return running;
+        }
+    }
+
+    private final Map<Integer, SiteState> sites = new HashMap<>();
+    private final long refreshIntervalNanos;
+    private final LongSupplier nanoTime;
+
+    private long lastReconcileTime;
+    private long reconcileStartTime;
+    private boolean reconcileRequested = true;
+    private long changeCount = 0;
+    private long enqueueCount = 0;
+
+    public ActiveSiteMap(long refreshIntervalNanos, LongSupplier nanoTime)
+    {
+        this.refreshIntervalNanos = refreshIntervalNanos;
+        this.nanoTime = nanoTime;
+    }
+
+    public synchronized boolean isReconcileRequired()
+    {
+        return reconcileRequested || nanoTime.getAsLong() - lastReconcileTime >= refreshIntervalNanos;
+    }
+
+    public synchronized void requestReconcile()
+    {
+        reconcileRequested = true;
+    }
+
+    // returns a token to be passed to reconcile
+    public synchronized long startReconcile()
+    {
+        reconcileRequested = false;
+        reconcileStartTime = nanoTime.getAsLong();
+        return enqueueCount;
+    }
+
+    public synchronized void reconcile(long token, List<SiteState> states)
+    {
+        boolean enqueuedDuringQuery = token != enqueueCount;
+        sites.clear();
+        for (SiteState state : states) {
+            sites.put(state.getSiteId(), state);
+            state.version = ++changeCount;
+        }
+        lastReconcileTime = reconcileStartTime;
+        if (enqueuedDuringQuery) {
+            // tasks enqueued during the query may not be included in the
+            // result. Reconcile again at the next poll not to miss them.
+            reconcileRequested = true;
+        }
+    }
+
+    public synchronized List<Integer> getLockableSiteIds(IntUnaryOperator siteMaxConcurrency)
+    {
+        List<Integer> siteIds = new ArrayList<>();
+        for (SiteState state : sites.values()) {
+            if (state.waiting && !state.exhausted &&
+                    state.running < siteMaxConcurrency.applyAsInt(state.siteId)) {
+                siteIds.add(state.siteId);
+            }
+        }
+        return siteIds;
+    }
+
+    public synchronized long getSiteVersion(int siteId)
+    {
+        SiteState state = sites.get(siteId);
+        return state == null ? -1 : state.version;
+    }
+
+    public synchronized void taskEnqueued(int siteId)
+    {
+        SiteState state = sites.get(siteId);
+        if (state == null) {
+            state = new SiteState(siteId, false, 0);
+            sites.put(siteId, state);
+        }
+        state.waiting = true;
+        enqueueCount++;
+        changed(state);
+    }
+
+    public synchronized void tasksLocked(int siteId, int count)
+    {
+        SiteState state = sites.get(siteId);
+        if (state != null) {
+            // the site may still have waiting tasks. next locking marks it exhausted if not.
+            state.running += count;
+        }
+    }
+
+    public synchronized void noTasksLocked(int siteId, long versionBeforeLock)
+    {
+        SiteState state = sites.get(siteId);
+        if (state != null && state.version == versionBeforeLock) {
+            state.exhausted = true;
+        }
+    }
+
+    public synchronized void taskDeleted(int siteId)
+    {
+        SiteState state = sites.get(siteId);
+        if (state != null) {
+            state.running = Math.max(state.running - 1, 0);
+            changed(state);
+        }
+    }
+
+    private void changed(SiteState state)
+    {
+        state.exhausted = false;
+        state.version = ++changeCount;
+    }
+}
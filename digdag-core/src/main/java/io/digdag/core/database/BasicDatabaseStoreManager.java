@@ -160,7 +160,7 @@ public abstract class BasicDatabaseStoreManager <D>
     public <T> T transaction(TransactionAction<T, D> action)
     {
         Handle handle = transactionManager.getHandle(configMapper);
-        return action.call(handle, handle.attach(daoIface));
+        return action.call(handle, transactionManager.attach(configMapper, daoIface));
     }
 
     public <T, E1 extends Exception> T transaction(
@@ -189,7 +189,7 @@ public abstract class BasicDatabaseStoreManager <D>
     {
         try {
             Handle handle = transactionManager.getHandle(configMapper);
-            return action.call(handle, handle.attach(daoIface));
+            return action.call(handle, transactionManager.attach(configMapper, daoIface));
         }
         catch (Exception ex) {
             Throwables.propagateIfInstanceOf(ex, exClass1);
@@ -206,7 +206,7 @@ public abstract class BasicDatabaseStoreManager <D>
     public <T> T autoCommit(AutoCommitAction<T, D> action)
     {
         Handle handle = transactionManager.getHandle(configMapper);
-        return action.call(handle, handle.attach(daoIface));
+        return action.call(handle, transactionManager.attach(configMapper, daoIface));
     }
 
     public static Optional<Integer> getOptionalInt(ResultSet r, String column)
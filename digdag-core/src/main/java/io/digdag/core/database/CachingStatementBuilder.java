@@ -0,0 +1,126 @@
+package io.digdag.core.database;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import org.skife.jdbi.v2.DefaultStatementBuilder;
+import org.skife.jdbi.v2.StatementContext;
+import org.skife.jdbi.v2.tweak.StatementBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * StatementBuilder that reuses PreparedStatements of a handle.
+ *
+ * A statement is kept open after jdbi closes it and returned again when the
+ * same SQL is prepared on the same handle. All cached statements are closed
+ * when the handle is closed. If a cached statement is still in use, for
+ * example when the same query is issued while iterating its result set, a
+ * new statement is created without caching. A cached statement that can't
+ * be reset for reuse is closed and replaced with a new one.
+ */
+class CachingStatementBuilder
+        implements StatementBuilder
+{
+    private static final Logger logger = LoggerFactory.getLogger(CachingStatementBuilder.class);
+
+    private static final int MAX_CACHED_STATEMENTS = 64;
+
+    private final StatementBuilder delegate = new DefaultStatementBuilder();
+    private final Map<String, PreparedStatement> cache = new HashMap<>();
+    private final Set<Statement> inUse = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    @Override
+    public PreparedStatement create(Connection conn, String sql, StatementContext ctx)
+            throws SQLException
+    {
+        if (ctx.isReturningGeneratedKeys()) {
+            return delegate.create(conn, sql, ctx);
+        }
+
+        PreparedStatement stmt = cache.get(sql);
+        if (stmt != null && inUse.contains(stmt)) {
+            return delegate.create(conn, sql, ctx);
+        }
+        if (stmt != null && !reset(stmt)) {
+            cache.remove(sql);
+            stmt = null;
+        }
+        if (stmt == null) {
+            if (cache.size() >= MAX_CACHED_STATEMENTS) {
+                return delegate.create(conn, sql, ctx);
+            }
+            stmt = delegate.create(conn, sql, ctx);
+            cache.put(sql, stmt);
+        }
+        inUse.add(stmt);
+        return stmt;
+    }
+
+    private static boolean reset(PreparedStatement stmt)
+    {
+        // clears state left by the previous use, which may have failed in the middle of a batch.
+        // limits set by statement customizers (e.g. Query.setMaxRows) are reset to the defaults
+        // of JDBC. customizers of the next query apply them again after this.
+        try {
+            stmt.clearParameters();
+            stmt.clearBatch();
+            stmt.clearWarnings();
+            stmt.setMaxRows(0);
+            stmt.setFetchSize(0);
+            stmt.setQueryTimeout(0);
+            return true;
+        }
+        catch (SQLException ex) {
+            logger.debug("Failed to reset a cached statement. Evicting it from the cache", ex);
+            try {
+                stmt.close();
+            }
+            catch (SQLException closeEx) {
+                logger.debug("Failed to close an evicted statement", closeEx);
+            }
+            return false;
+        }
+    }
+
+    @Override
+    public void close(Connection conn, String sql, Statement stmt)
+            throws SQLException
+    {
+        if (inUse.remove(stmt)) {
+            // cached statement is closed when the handle is closed
+            return;
+        }
+        delegate.close(conn, sql, stmt);
+    }
+
+    @Override
+    public void close(Connection conn)
+    {
+        for (PreparedStatement stmt : cache.values()) {
+            try {
+                stmt.close();
+            }
+            catch (SQLException ex) {
+                logger.debug("Failed to close a cached statement", ex);
+            }
+        }
+        cache.clear();
+        inUse.clear();
+        delegate.close(conn);
+    }
+
+    @Override
+    public CallableStatement createCall(Connection conn, String sql, StatementContext ctx)
+            throws SQLException
+    {
+        return delegate.createCall(conn, sql, ctx);
+    }
+}
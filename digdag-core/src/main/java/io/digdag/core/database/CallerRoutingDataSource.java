@@ -0,0 +1,109 @@
+package io.digdag.core.database;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Map;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * DataSource that takes connections from the pool of the calling component.
+ *
+ * Callers without a dedicated pool share the default pool. Connections are
+ * counted in ConnectionPoolStats by caller until they're closed.
+ */
+class CallerRoutingDataSource
+        implements DataSource
+{
+    private final DataSource defaultPool;
+    private final Map<DatabaseCaller, DataSource> pools;
+    private final ConnectionPoolStats stats;
+
+    CallerRoutingDataSource(DataSource defaultPool, Map<DatabaseCaller, DataSource> pools, ConnectionPoolStats stats)
+    {
+        this.defaultPool = defaultPool;
+        this.pools = pools;
+        this.stats = stats;
+    }
+
+    @Override
+    public Connection getConnection()
+            throws SQLException
+    {
+        DatabaseCaller caller = DatabaseCaller.ofCurrentThread();
+        DataSource pool = pools.getOrDefault(caller, defaultPool);
+        ConnectionPoolStats.CallerStats callerStats = stats.get(caller);
+
+        long start = System.nanoTime();
+        Connection conn;
+        try {
+            conn = pool.getConnection();
+        }
+        catch (SQLTransientConnectionException ex) {
+            // HikariCP throws this exception when connectionTimeout elapsed
+            callerStats.timedOut(System.nanoTime() - start);
+            throw ex;
+        }
+        callerStats.acquired(System.nanoTime() - start);
+        return new ReleaseTrackingConnection(conn, callerStats);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password)
+            throws SQLException
+    {
+        throw new SQLFeatureNotSupportedException("getConnection with username and password is not supported");
+    }
+
+    @Override
+    public PrintWriter getLogWriter()
+            throws SQLException
+    {
+        return defaultPool.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out)
+            throws SQLException
+    {
+        defaultPool.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds)
+            throws SQLException
+    {
+        defaultPool.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout()
+            throws SQLException
+    {
+        return defaultPool.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger()
+            throws SQLFeatureNotSupportedException
+    {
+        return defaultPool.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface)
+            throws SQLException
+    {
+        return defaultPool.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface)
+            throws SQLException
+    {
+        return defaultPool.isWrapperFor(iface);
+    }
+}
@@ -0,0 +1,153 @@
+package io.digdag.core.database;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+/**
+ * Statistics of database connections by logical caller.
+ *
+ * Active connections, wait time and timeouts are counted for each caller.
+ * Idle connections and threads awaiting a connection are of the pool that
+ * the caller uses, which is shared with other callers unless
+ * database.pools.CALLER.maximumPoolSize is set.
+ */
+public class ConnectionPoolStats
+{
+    public static class CallerStats
+    {
+        private final AtomicInteger activeConnections = new AtomicInteger();
+        private final AtomicLong acquiredConnections = new AtomicLong();
+        private final AtomicLong waitNanos = new AtomicLong();
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+        private final AtomicLong timeouts = new AtomicLong();
+        private volatile HikariPoolMXBean pool = null;
+
+        void setPool(HikariPoolMXBean pool)
+        {
+            this.pool = pool;
+        }
+
+        void acquired(long waitNanos)
+        {
+            activeConnections.incrementAndGet();
+            acquiredConnections.incrementAndGet();
+            waited(waitNanos);
+        }
+
+        void timedOut(long waitNanos)
+        {
+            timeouts.incrementAndGet();
+            waited(waitNanos);
+        }
+
+        private void waited(long nanos)
+        {
+            waitNanos.addAndGet(nanos);
+            maxWaitNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        void released()
+        {
+            activeConnections.decrementAndGet();
+        }
+
+        @Managed
+        public int getActiveConnections()
+        {
+            return activeConnections.get();
+        }
+
+        @Managed
+        public int getIdleConnections()
+        {
+            HikariPoolMXBean pool = this.pool;
+            return pool == null ? 0 : pool.getIdleConnections();
+        }
+
+        @Managed
+        public int getThreadsAwaitingConnection()
+        {
+            HikariPoolMXBean pool = this.pool;
+            return pool == null ? 0 : pool.getThreadsAwaitingConnection();
+        }
+
+        @Managed
+        public long getAcquiredConnections()
+        {
+            return acquiredConnections.get();
+        }
+
+        @Managed
+        public long getWaitTimeMillis()
+        {
+            return TimeUnit.NANOSECONDS.toMillis(waitNanos.get());
+        }
+
+        @Managed
+        public long getMaxWaitTimeMillis()
+        {
+            return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+        }
+
+        @Managed
+        public long getTimeouts()
+        {
+            return timeouts.get();
+        }
+    }
+
+    private final Map<DatabaseCaller, CallerStats> callers = new EnumMap<>(DatabaseCaller.class);
+
+    public ConnectionPoolStats()
+    {
+        for (DatabaseCaller caller : DatabaseCaller.values()) {
+            callers.put(caller, new CallerStats());
+        }
+    }
+
+    public CallerStats get(DatabaseCaller caller)
+    {
+        return callers.get(caller);
+    }
+
+    @Managed
+    @Nested
+    public CallerStats getExecutor()
+    {
+        return get(DatabaseCaller.EXECUTOR);
+    }
+
+    @Managed
+    @Nested
+    public CallerStats getAgent()
+    {
+        return get(DatabaseCaller.AGENT);
+    }
+
+    @Managed
+    @Nested
+    public CallerStats getScheduler()
+    {
+        return get(DatabaseCaller.SCHEDULER);
+    }
+
+    @Managed
+    @Nested
+    public CallerStats getApi()
+    {
+        return get(DatabaseCaller.API);
+    }
+
+    @Managed
+    @Nested
+    public CallerStats getOther()
+    {
+        return get(DatabaseCaller.OTHER);
+    }
+}
@@ -3,7 +3,12 @@ package io.digdag.core.database;
 import javax.annotation.PreDestroy;
 import javax.sql.DataSource;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import org.h2.jdbcx.JdbcDataSource;
@@ -20,13 +25,20 @@ public class DataSourceProvider
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     private final DatabaseConfig config;
+    private final ConnectionPoolStats stats;
     private DataSource ds;
-    private AutoCloseable closer;
+    private final List<AutoCloseable> closers = new ArrayList<>();
 
-    @Inject
     public DataSourceProvider(DatabaseConfig config)
+    {
+        this(config, new ConnectionPoolStats());
+    }
+
+    @Inject
+    public DataSourceProvider(DatabaseConfig config, ConnectionPoolStats stats)
     {
         this.config = config;
+        this.stats = stats;
     }
 
     public synchronized DataSource get()
@@ -64,19 +76,44 @@ public class DataSourceProvider
         logger.debug("Using database URL {}", url);
 
         try {
-            this.closer = ds.getConnection();
+            closers.add(ds.getConnection());
         }
         catch (SQLException ex) {
             throw Throwables.propagate(ex);
         }
-        this.ds = ds;
+        this.ds = new CallerRoutingDataSource(ds, ImmutableMap.of(), stats);
     }
 
     private void createPooledDataSource()
+    {
+        HikariDataSource defaultPool = createPool("digdag", config.getMaximumPoolSize(), config.getMinimumPoolSize());
+
+        // callers with database.pools.CALLER.maximumPoolSize use their own pool so that
+        // a burst of other callers (e.g. REST API) doesn't starve them.
+        Map<DatabaseCaller, DataSource> pools = new EnumMap<>(DatabaseCaller.class);
+        for (Map.Entry<String, Integer> pair : config.getCallerPoolSizes().entrySet()) {
+            DatabaseCaller caller = DatabaseCaller.fromName(pair.getKey());
+            int maximumPoolSize = pair.getValue();
+            HikariDataSource pool = createPool("digdag-" + caller.getName(),
+                    maximumPoolSize, Math.min(config.getMinimumPoolSize(), maximumPoolSize));
+            pools.put(caller, pool);
+            stats.get(caller).setPool(pool.getHikariPoolMXBean());
+        }
+        for (DatabaseCaller caller : DatabaseCaller.values()) {
+            if (!pools.containsKey(caller)) {
+                stats.get(caller).setPool(defaultPool.getHikariPoolMXBean());
+            }
+        }
+
+        this.ds = new CallerRoutingDataSource(defaultPool, pools, stats);
+    }
+
+    private HikariDataSource createPool(String poolName, int maximumPoolSize, int minimumPoolSize)
     {
         String url = DatabaseConfig.buildJdbcUrl(config);
 
         HikariConfig hikari = new HikariConfig();
+        hikari.setPoolName(poolName);
         hikari.setJdbcUrl(url);
         hikari.setDriverClassName(DatabaseMigrator.getDriverClassName(config.getType()));
         hikari.setDataSourceProperties(DatabaseConfig.buildJdbcProperties(config));
@@ -84,18 +121,18 @@ public class DataSourceProvider
         hikari.setConnectionTimeout(config.getConnectionTimeout() * 1000);
         hikari.setIdleTimeout(config.getIdleTimeout() * 1000);
         hikari.setValidationTimeout(config.getValidationTimeout() * 1000);
-        hikari.setMaximumPoolSize(config.getMaximumPoolSize());
-        hikari.setMinimumIdle(config.getMinimumPoolSize());
+        hikari.setMaximumPoolSize(maximumPoolSize);
+        hikari.setMinimumIdle(minimumPoolSize);
 
         // Here should not set connectionTestQuery (that overrides isValid) because
         // ThreadLocalTransactionManager.commit assumes that Connection.isValid returns
         // false when an error happened during a transaction.
 
-        logger.debug("Using database URL {}", hikari.getJdbcUrl());
+        logger.debug("Using database URL {} for pool {}", hikari.getJdbcUrl(), poolName);
 
         HikariDataSource ds = new HikariDataSource(hikari);
-        this.ds = ds;
-        this.closer = ds;
+        closers.add(ds);
+        return ds;
     }
 
     @PreDestroy
@@ -103,13 +140,15 @@ public class DataSourceProvider
     {
         if (ds != null) {
             try {
-                closer.close();
+                for (AutoCloseable closer : closers) {
+                    closer.close();
+                }
             }
             catch (Exception ex) {
                 throw Throwables.propagate(ex);
             }
             ds = null;
-            closer = null;
+            closers.clear();
         }
     }
 }
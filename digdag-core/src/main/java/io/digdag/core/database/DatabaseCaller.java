@@ -0,0 +1,58 @@
+package io.digdag.core.database;
+
+import static java.util.Locale.ENGLISH;
+
+/**
+ * Logical callers of the database.
+ *
+ * A caller is determined by name of the current thread. Threads of each
+ * component are named by their thread factories, and REST API requests run
+ * on threads of Undertow (XNIO). Threads that don't match are OTHER.
+ */
+public enum DatabaseCaller
+{
+    EXECUTOR("workflow-executor-", "task-queuer-", "lock-expire-", "attempt-timeout-enforcer-"),
+    AGENT("local-agent-", "task-thread-", "heartbeat-"),
+    SCHEDULER("scheduler-", "session-monitor-scheduler-"),
+    API("XNIO-"),
+    OTHER();
+
+    private final String[] threadNamePrefixes;
+
+    DatabaseCaller(String... threadNamePrefixes)
+    {
+        this.threadNamePrefixes = threadNamePrefixes;
+    }
+
+    public String getName()
+    {
+        return name().toLowerCase(ENGLISH);
+    }
+
+    public static DatabaseCaller ofCurrentThread()
+    {
+        return ofThreadName(Thread.currentThread().getName());
+    }
+
+    static DatabaseCaller ofThreadName(String threadName)
+    {
+        for (DatabaseCaller caller : values()) {
+            for (String prefix : caller.threadNamePrefixes) {
+                if (threadName.startsWith(prefix)) {
+                    return caller;
+                }
+            }
+        }
+        return OTHER;
+    }
+
+    public static DatabaseCaller fromName(String name)
+    {
+        for (DatabaseCaller caller : values()) {
+            if (caller.getName().equals(name)) {
+                return caller;
+            }
+        }
+        throw new IllegalArgumentException("Unknown database caller: " + name);
+    }
+}
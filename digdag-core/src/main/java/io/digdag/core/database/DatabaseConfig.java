@@ -27,6 +27,9 @@ public interface DatabaseConfig
 
     Optional<RemoteDatabaseConfig> getRemoteDatabaseConfig();
 
+    // read-only replica of the remote database used by read-only transactions
+    Optional<RemoteDatabaseConfig> getReadReplicaConfig();
+
     int getExpireLockInterval();
 
     boolean getAutoMigrate();
@@ -45,6 +48,14 @@ public interface DatabaseConfig
 
     int getValidationTimeout();  // seconds
 
+    // maximumPoolSize of dedicated connection pools by name of DatabaseCaller
+    Map<String, Integer> getCallerPoolSizes();
+
+    // pool sizes of the read replica. see ReadReplica for the defaults
+    Optional<Integer> getReplicaMaximumPoolSize();
+
+    Optional<Integer> getReplicaMinimumPoolSize();
+
     static ImmutableDatabaseConfig.Builder builder()
     {
         return ImmutableDatabaseConfig.builder();
@@ -61,6 +72,7 @@ public interface DatabaseConfig
 
         // database.type, path, host, user, password, port, database
         String type = config.get(keyPrefix + "." + "type", String.class, "memory");
+        Optional<RemoteDatabaseConfig> remote = Optional.absent();
         switch (type) {
         case "h2":
             builder.type("h2");
@@ -74,7 +86,7 @@ public interface DatabaseConfig
             break;
         case "postgresql":
             builder.type("postgresql");
-            builder.remoteDatabaseConfig(Optional.of(
+            remote = Optional.of(
                 RemoteDatabaseConfig.builder()
                     .user(config.get(keyPrefix + "." + "user", String.class))
                     .password(config.get(keyPrefix + "." + "password", String.class, ""))
@@ -84,12 +96,33 @@ public interface DatabaseConfig
                     .loginTimeout(config.get(keyPrefix + "." + "loginTimeout", int.class, 30))
                     .socketTimeout(config.get(keyPrefix + "." + "socketTimeout", int.class, 1800))
                     .ssl(config.get(keyPrefix + "." + "ssl", boolean.class, false))
-                    .build()));
+                    .build());
+            builder.remoteDatabaseConfig(remote);
             break;
         default:
             throw new ConfigException("Unknown database.type: " + type);
         }
 
+        // database.replica.host, port, user, password, database
+        if (config.has(keyPrefix + "." + "replica.host")) {
+            if (!remote.isPresent()) {
+                throw new ConfigException(keyPrefix + "." + "replica.host is available only when database.type is postgresql");
+            }
+            // other parameters are same with the primary database
+            RemoteDatabaseConfig primary = remote.get();
+            builder.readReplicaConfig(Optional.of(
+                RemoteDatabaseConfig.builder()
+                    .from(primary)
+                    .host(config.get(keyPrefix + "." + "replica.host", String.class))
+                    .port(config.getOptional(keyPrefix + "." + "replica.port", Integer.class).or(primary.getPort()))
+                    .user(config.get(keyPrefix + "." + "replica.user", String.class, primary.getUser()))
+                    .password(config.get(keyPrefix + "." + "replica.password", String.class, primary.getPassword()))
+                    .database(config.get(keyPrefix + "." + "replica.database", String.class, primary.getDatabase()))
+                    .build()));
+            builder.replicaMaximumPoolSize(config.getOptional(keyPrefix + "." + "replica.maximumPoolSize", Integer.class));
+            builder.replicaMinimumPoolSize(config.getOptional(keyPrefix + "." + "replica.minimumPoolSize", Integer.class));
+        }
+
         builder.connectionTimeout(
                 config.get(keyPrefix + "." + "connectionTimeout", int.class, 30));  // HikariCP default: 30
         builder.idleTimeout(
@@ -104,6 +137,24 @@ public interface DatabaseConfig
         builder.minimumPoolSize(
                 config.get(keyPrefix + "." + "minimumPoolSize", int.class, maximumPoolSize));  // HikariCP default: Same as maximumPoolSize
 
+        // database.pools.CALLER.maximumPoolSize to callerPoolSizes
+        ImmutableMap.Builder<String, Integer> callerPoolSizes = ImmutableMap.builder();
+        for (String key : config.getKeys()) {
+            String poolKey = keyPrefix + "." + "pools.";
+            String sizeKey = "." + "maximumPoolSize";
+            if (key.startsWith(poolKey) && key.endsWith(sizeKey)) {
+                String callerName = key.substring(poolKey.length(), key.length() - sizeKey.length());
+                try {
+                    DatabaseCaller.fromName(callerName);
+                }
+                catch (IllegalArgumentException ex) {
+                    throw new ConfigException("Unknown caller name at " + key + ": " + callerName);
+                }
+                callerPoolSizes.put(callerName, config.get(key, int.class));
+            }
+        }
+        builder.callerPoolSizes(callerPoolSizes.build());
+
         // database.opts.* to options
         ImmutableMap.Builder<String, String> options = ImmutableMap.builder();
         for (String key : config.getKeys()) {
@@ -148,6 +199,16 @@ public interface DatabaseConfig
                 config.set(keyPrefix + "." + "loginTimeout", remoteDatabaseConfig.getLoginTimeout());
                 config.set(keyPrefix + "." + "socketTimeout", remoteDatabaseConfig.getSocketTimeout());
                 config.set(keyPrefix + "." + "ssl", remoteDatabaseConfig.getSsl());
+                if (databaseConfig.getReadReplicaConfig().isPresent()) {
+                    RemoteDatabaseConfig replica = databaseConfig.getReadReplicaConfig().get();
+                    config.set(keyPrefix + "." + "replica.host", replica.getHost());
+                    config.setOptional(keyPrefix + "." + "replica.port", replica.getPort());
+                    config.set(keyPrefix + "." + "replica.user", replica.getUser());
+                    config.set(keyPrefix + "." + "replica.password", replica.getPassword());
+                    config.set(keyPrefix + "." + "replica.database", replica.getDatabase());
+                    config.setOptional(keyPrefix + "." + "replica.maximumPoolSize", databaseConfig.getReplicaMaximumPoolSize());
+                    config.setOptional(keyPrefix + "." + "replica.minimumPoolSize", databaseConfig.getReplicaMinimumPoolSize());
+                }
                 break;
             default:
                 throw new AssertionError("Unknown database.type: " + databaseConfig.getType());
@@ -159,6 +220,12 @@ public interface DatabaseConfig
         config.set(keyPrefix + "." + "maximumPoolSize", databaseConfig.getMaximumPoolSize());
         config.set(keyPrefix + "." + "minimumPoolSize", databaseConfig.getMinimumPoolSize());
 
+        // database.pools.*
+        Map<String, Integer> callerPoolSizes = databaseConfig.getCallerPoolSizes();
+        for (String caller : callerPoolSizes.keySet()) {
+            config.set(keyPrefix + "." + "pools." + caller + "." + "maximumPoolSize", callerPoolSizes.get(caller));
+        }
+
         // database.opts.*
         Map<String, String> options = databaseConfig.getOptions();
         for (String key : options.keySet()) {
@@ -0,0 +1,115 @@
+package io.digdag.core.database;
+
+import java.util.List;
+import com.google.inject.Inject;
+import io.digdag.core.workflow.ExecutorNodeStoreManager;
+import org.skife.jdbi.v2.sqlobject.Bind;
+import org.skife.jdbi.v2.sqlobject.SqlQuery;
+import org.skife.jdbi.v2.sqlobject.SqlUpdate;
+
+public class DatabaseExecutorNodeStoreManager
+        extends BasicDatabaseStoreManager<DatabaseExecutorNodeStoreManager.Dao>
+        implements ExecutorNodeStoreManager
+{
+    // rows of nodes that didn't delete themselves (e.g. killed) are kept
+    // for a while so that they're visible in the table for troubleshooting
+    private static final int EXPIRED_NODE_RETENTION_SECONDS = 24 * 60 * 60;
+
+    @Inject
+    public DatabaseExecutorNodeStoreManager(TransactionManager transactionManager, DatabaseConfig config, ConfigMapper cfm)
+    {
+        super(config.getType(), dao(config.getType()), transactionManager, cfm);
+    }
+
+    private static Class<? extends Dao> dao(String type)
+    {
+        switch (type) {
+        case "postgresql":
+            return PgDao.class;
+        case "h2":
+            return H2Dao.class;
+        default:
+            throw new IllegalArgumentException("Unknown database type: " + type);
+        }
+    }
+
+    @Override
+    public List<String> heartbeatExecutorNode(String nodeId, int leaseSeconds)
+    {
+        return transaction((handle, dao) -> {
+            // Expiration time is calculated by the database so that clock skew
+            // of servers doesn't make nodes take over live leases.
+            if (dao.extendLease(nodeId, leaseSeconds) == 0) {
+                dao.insertNode(nodeId, leaseSeconds);
+            }
+            dao.deleteExpiredNodes(EXPIRED_NODE_RETENTION_SECONDS);
+            return dao.getLiveNodeIds();
+        });
+    }
+
+    @Override
+    public void deleteExecutorNode(String nodeId)
+    {
+        transaction((handle, dao) -> dao.deleteNode(nodeId));
+    }
+
+    public interface Dao
+    {
+        int extendLease(String id, int leaseSeconds);
+
+        int insertNode(String id, int leaseSeconds);
+
+        int deleteExpiredNodes(int retentionSeconds);
+
+        @SqlQuery("select id from executor_nodes" +
+                " where lease_expires_at > now()" +
+                " order by id")
+        List<String> getLiveNodeIds();
+
+        @SqlUpdate("delete from executor_nodes" +
+                " where id = :id")
+        int deleteNode(@Bind("id") String id);
+    }
+
+    public interface H2Dao
+            extends Dao
+    {
+        @Override
+        @SqlUpdate("update executor_nodes" +
+                " set lease_expires_at = dateadd('SECOND', :leaseSeconds, now())" +
+                " where id = :id")
+        int extendLease(@Bind("id") String id, @Bind("leaseSeconds") int leaseSeconds);
+
+        @Override
+        @SqlUpdate("insert into executor_nodes" +
+                " (id, created_at, lease_expires_at)" +
+                " values (:id, now(), dateadd('SECOND', :leaseSeconds, now()))")
+        int insertNode(@Bind("id") String id, @Bind("leaseSeconds") int leaseSeconds);
+
+        @Override
+        @SqlUpdate("delete from executor_nodes" +
+                " where lease_expires_at < dateadd('SECOND', 0 - :retentionSeconds, now())")
+        int deleteExpiredNodes(@Bind("retentionSeconds") int retentionSeconds);
+    }
+
+    public interface PgDao
+            extends Dao
+    {
+        @Override
+        @SqlUpdate("update executor_nodes" +
+                " set lease_expires_at = now() + :leaseSeconds * interval '1 second'" +
+                " where id = :id")
+        int extendLease(@Bind("id") String id, @Bind("leaseSeconds") int leaseSeconds);
+
+        @Override
+        @SqlUpdate("insert into executor_nodes" +
+                " (id, created_at, lease_expires_at)" +
+                " values (:id, now(), now() + :leaseSeconds * interval '1 second')")
+        int insertNode(@Bind("id") String id, @Bind("leaseSeconds") int leaseSeconds);
+
+        @Override
+        @SqlUpdate("delete from executor_nodes" +
+                " where lease_expires_at < now() - :retentionSeconds * interval '1 second'")
+        int deleteExpiredNodes(@Bind("retentionSeconds") int retentionSeconds);
+    }
+}
@@ -36,6 +36,9 @@ public class DatabaseMigrator
         new Migration_20170116082921_AddAttemptIndexColumn1(),
         new Migration_20170116090744_AddAttemptIndexColumn2(),
         new Migration_20170223220127_AddLastSessionTimeAndFlagsToSessions(),
+        new Migration_20170307131602_CreateExecutorNodes(),
+        new Migration_20170315184512_AddArchiveColumnToTaskArchives(),
+        new Migration_20170322104518_AddPartialIndexesForTaskStates(),
     })
     .sorted(Comparator.comparing(m -> m.getVersion()))
     .collect(Collectors.toList());
@@ -11,8 +11,11 @@ import io.digdag.core.queue.QueueSettingStoreManager;
 import io.digdag.core.repository.ProjectStoreManager;
 import io.digdag.core.schedule.ScheduleStoreManager;
 import io.digdag.core.session.SessionStoreManager;
+import io.digdag.core.workflow.ExecutorNodeStoreManager;
 import org.skife.jdbi.v2.DBI;
 
+import static org.weakref.jmx.guice.ExportBinder.newExporter;
+
 public class DatabaseModule
         implements Module
 {
@@ -21,6 +24,9 @@ public class DatabaseModule
     {
         binder.bind(DatabaseConfig.class).toProvider(DatabaseConfigProvider.class).in(Scopes.SINGLETON);
         binder.bind(DataSource.class).toProvider(DataSourceProvider.class).in(Scopes.SINGLETON);
+        binder.bind(ConnectionPoolStats.class).in(Scopes.SINGLETON);
+        newExporter(binder).export(ConnectionPoolStats.class).withGeneratedName();
+        binder.bind(ReadReplica.class).in(Scopes.SINGLETON);
         binder.bind(AutoMigrator.class);
         binder.bind(DBI.class).toProvider(DbiProvider.class);  // don't make this singleton because DBI.registerMapper is called for each StoreManager
         binder.bind(TransactionManager.class).to(ThreadLocalTransactionManager.class).in(Scopes.SINGLETON);
@@ -30,7 +36,9 @@ public class DatabaseModule
         binder.bind(QueueSettingStoreManager.class).to(DatabaseQueueSettingStoreManager.class).in(Scopes.SINGLETON);
         binder.bind(SessionStoreManager.class).to(DatabaseSessionStoreManager.class).in(Scopes.SINGLETON);
         binder.bind(ScheduleStoreManager.class).to(DatabaseScheduleStoreManager.class).in(Scopes.SINGLETON);
+        binder.bind(ExecutorNodeStoreManager.class).to(DatabaseExecutorNodeStoreManager.class).in(Scopes.SINGLETON);
         binder.bind(DatabaseTaskQueueConfig.class).in(Scopes.SINGLETON);
+        binder.bind(TaskEventChannel.class).toProvider(TaskEventChannelProvider.class).in(Scopes.SINGLETON);
         binder.bind(DatabaseTaskQueueServer.class).in(Scopes.SINGLETON);
     }
 
@@ -7,6 +7,7 @@ import com.google.common.base.*;
 import com.google.common.collect.*;
 import com.google.inject.Inject;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.digdag.core.queue.QueueSetting;
 import io.digdag.core.queue.QueueSettingStore;
 import io.digdag.core.queue.QueueSettingStoreManager;
 import io.digdag.core.queue.StoredQueueSetting;
@@ -46,7 +47,16 @@ public class DatabaseQueueSettingStoreManager
     {
         return requiredResource(
                 (handle, dao) -> dao.getQueueIdByName(siteId, name),
-                "queue name=%d", name);
+                "queue name=%s", name);
+    }
+
+    @Override
+    public StoredQueueSetting getQueueSettingByIdInternal(int queueId)
+        throws ResourceNotFoundException
+    {
+        return requiredResource(
+                (handle, dao) -> dao.getQueueSettingByIdInternal(queueId),
+                "queue id=%d", queueId);
     }
 
     private class DatabaseQueueSettingStore
@@ -86,27 +96,74 @@ public class DatabaseQueueSettingStoreManager
                     "queue name=%s", name);
         }
 
-        // TODO add interface to update queue_settings with queues.max_concurrency and resource_types.max_concurrency
+        @Override
+        public StoredQueueSetting putQueueSetting(QueueSetting setting)
+            throws ResourceConflictException
+        {
+            int queueId = transaction((handle, dao) -> {
+                Integer id = dao.getQueueIdByName(siteId, setting.getName());
+                if (id == null) {
+                    id = catchConflict(() ->
+                            dao.insertQueueSetting(siteId, setting.getName(), setting.getConfig()),
+                            "queue name=%s", setting.getName());
+                    // tasks in this queue are locked by shared agents of this site
+                    dao.insertSharedQueue(id, setting.getMaxConcurrency(), siteId);
+                }
+                else {
+                    dao.updateQueueSetting(id, setting.getConfig());
+                    dao.updateQueueMaxConcurrency(id, setting.getMaxConcurrency());
+                }
+                return id;
+            }, ResourceConflictException.class);
+
+            return autoCommit((handle, dao) -> dao.getQueueSettingById(siteId, queueId));
+        }
+
+        @Override
+        public void deleteQueueSettingByName(String name)
+            throws ResourceNotFoundException
+        {
+            this.<Boolean, ResourceNotFoundException>transaction((handle, dao) -> {
+                Integer id = requiredResource(
+                        dao.getQueueIdByName(siteId, name),
+                        "queue name=%s", name);
+                // tasks already queued in this queue remain and they're executed without
+                // concurrency limit of the queue
+                dao.deleteQueue(id);
+                dao.deleteQueueSetting(siteId, id);
+                return true;
+            }, ResourceNotFoundException.class);
+        }
     }
 
     public interface Dao
     {
-        @SqlQuery("select * from queue_settings" +
-                " where site_id = :siteId" +
-                " and id > :lastId" +
-                " order by id desc" +
+        // queues.max_concurrency is null if a queue_settings row doesn't have a queues row.
+        // such queue doesn't limit concurrency.
+        String SELECT_QUEUE_SETTINGS = "select qs.*, coalesce(q.max_concurrency, " + Integer.MAX_VALUE + ") as max_concurrency" +
+                " from queue_settings qs" +
+                " left join queues q on q.id = qs.id";
+
+        @SqlQuery(SELECT_QUEUE_SETTINGS +
+                " where qs.site_id = :siteId" +
+                " and qs.id > :lastId" +
+                " order by qs.id asc" +
                 " limit :limit")
         List<StoredQueueSetting> getQueueSettings(@Bind("siteId") int siteId, @Bind("limit") int limit, @Bind("lastId") long lastId);
 
-        @SqlQuery("select * from queue_settings" +
-                " where site_id = :siteId" +
-                " and id = :id" +
+        @SqlQuery(SELECT_QUEUE_SETTINGS +
+                " where qs.site_id = :siteId" +
+                " and qs.id = :id" +
                 " limit 1")
         StoredQueueSetting getQueueSettingById(@Bind("siteId") int siteId, @Bind("id") long id);
 
-        @SqlQuery("select * from queue_settings" +
-                " where site_id = :siteId" +
-                " and name = :name" +
+        @SqlQuery(SELECT_QUEUE_SETTINGS +
+                " where qs.id = :id")
+        StoredQueueSetting getQueueSettingByIdInternal(@Bind("id") int id);
+
+        @SqlQuery(SELECT_QUEUE_SETTINGS +
+                " where qs.site_id = :siteId" +
+                " and qs.name = :name" +
                 " limit 1")
         StoredQueueSetting getQueueSettingByName(@Bind("siteId") int siteId, @Bind("name") String name);
 
@@ -126,6 +183,36 @@ public class DatabaseQueueSettingStoreManager
                 " (id, max_concurrency)" +
                 " values (:id, :maxConcurrency)")
         int insertQueue(@Bind("id") int id, @Bind("maxConcurrency") int maxConcurrency);
+
+        @SqlUpdate("insert into queue_settings" +
+                " (site_id, name, config, created_at, updated_at)" +
+                " values (:siteId, :name, :config, now(), now())")
+        @GetGeneratedKeys
+        int insertQueueSetting(@Bind("siteId") int siteId, @Bind("name") String name, @Bind("config") Config config);
+
+        @SqlUpdate("insert into queues" +
+                " (id, max_concurrency, shared_site_id)" +
+                " values (:id, :maxConcurrency, :sharedSiteId)")
+        int insertSharedQueue(@Bind("id") int id, @Bind("maxConcurrency") int maxConcurrency, @Bind("sharedSiteId") int sharedSiteId);
+
+        @SqlUpdate("update queue_settings" +
+                " set config = :config, updated_at = now()" +
+                " where id = :id")
+        int updateQueueSetting(@Bind("id") int id, @Bind("config") Config config);
+
+        @SqlUpdate("update queues" +
+                " set max_concurrency = :maxConcurrency" +
+                " where id = :id")
+        int updateQueueMaxConcurrency(@Bind("id") int id, @Bind("maxConcurrency") int maxConcurrency);
+
+        @SqlUpdate("delete from queues" +
+                " where id = :id")
+        int deleteQueue(@Bind("id") int id);
+
+        @SqlUpdate("delete from queue_settings" +
+                " where site_id = :siteId" +
+                " and id = :id")
+        int deleteQueueSetting(@Bind("siteId") int siteId, @Bind("id") int id);
     }
 
     static class StoredQueueSettingMapper
@@ -148,6 +235,7 @@ public class DatabaseQueueSettingStoreManager
                 .createdAt(getTimestampInstant(r, "created_at"))
                 .updatedAt(getTimestampInstant(r, "updated_at"))
                 .name(r.getString("name"))
+                .maxConcurrency(r.getInt("max_concurrency"))
                 .config(cfm.fromResultSetOrEmpty(r, "config"))
                 .build();
         }
@@ -5,6 +5,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.inject.Inject;
 import io.digdag.client.config.Config;
 import io.digdag.client.config.ConfigFactory;
@@ -14,6 +15,7 @@ import io.digdag.core.repository.ResourceLimitExceededException;
 import io.digdag.core.repository.ResourceNotFoundException;
 import io.digdag.core.session.ArchivedTask;
 import io.digdag.core.session.AttemptStateFlags;
+import io.digdag.core.session.AttemptPartitions;
 import io.digdag.core.session.DelayedAttemptControlStore;
 import io.digdag.core.session.ImmutableArchivedTask;
 import io.digdag.core.session.ImmutableResumingTask;
@@ -60,6 +62,7 @@ import io.digdag.spi.TaskReport;
 import io.digdag.spi.TaskResult;
 import org.skife.jdbi.v2.DBI;
 import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.PreparedBatch;
 import org.skife.jdbi.v2.StatementContext;
 import org.skife.jdbi.v2.sqlobject.Bind;
 import org.skife.jdbi.v2.sqlobject.GetGeneratedKeys;
@@ -73,10 +76,12 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.Instant;
 import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -123,7 +128,46 @@ public class DatabaseSessionStoreManager
 {
     private static final String DEFAULT_ATTEMPT_NAME = "";
 
+    // SQL of hot lookups on tasks. Their plans are checked by TaskStateIndexPlanTest.
+    // State codes are literals (not bind parameters) so that partial indexes on state are used.
+
+    @VisibleForTesting
+    static final String FIND_ALL_READY_TASK_IDS_SQL =
+        "select id from tasks where state = " + TaskStateCode.READY_CODE + " limit :limit";
+
+    @VisibleForTesting
+    static final String TRY_SET_RETRY_WAITING_TO_READY_SQL =
+        "update tasks" +
+        " set updated_at = now(), retry_at = NULL, state = " + TaskStateCode.READY_CODE +
+        " where state in (" + TaskStateCode.RETRY_WAITING_CODE + "," + TaskStateCode.GROUP_RETRY_WAITING_CODE + ")" +
+        " and retry_at <= now()";
+
+    @VisibleForTesting
+    static String findTasksByStateSql(TaskStateCode state, AttemptPartitions partitions)
+    {
+        return "select id" +
+            " from tasks" +
+            " where state = " + state.get() +
+            attemptPartitionAndCondition(partitions) +
+            " and id > :lastId" +
+            " order by id asc" +
+            " limit :limit";
+    }
+
+    @VisibleForTesting
+    static String findDirectParentsOfBlockedTasksSql(AttemptPartitions partitions)
+    {
+        return "select distinct parent_id" +
+            " from tasks" +
+            " where parent_id > :lastId" +
+            " and state = " + TaskStateCode.BLOCKED_CODE +
+            attemptPartitionAndCondition(partitions) +
+            " order by parent_id" +
+            " limit :limit";
+    }
+
     private final ObjectMapper taskArchiveMapper;
+    private final TaskArchiveFormat taskArchiveFormat;
     private final ConfigFactory cf;
     private final ConfigKeyListMapper cklm = new ConfigKeyListMapper();
     private final StoredTaskMapper stm;
@@ -137,6 +181,7 @@ public class DatabaseSessionStoreManager
 
         this.taskArchiveMapper = mapper.copy();
         this.taskArchiveMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        this.taskArchiveFormat = new TaskArchiveFormat(taskArchiveMapper);
 
         this.cf = cf;
         this.stm = new StoredTaskMapper(cfm);
@@ -277,7 +322,7 @@ public class DatabaseSessionStoreManager
     @Override
     public List<Long> findAllReadyTaskIds(int maxEntries)
     {
-        return autoCommit((handle, dao) -> dao.findAllTaskIdsByState(TaskStateCode.READY.get(), maxEntries));
+        return autoCommit((handle, dao) -> dao.findAllReadyTaskIds(maxEntries));
     }
 
     @Override
@@ -286,6 +331,85 @@ public class DatabaseSessionStoreManager
         return autoCommit((handle, dao) -> dao.findActiveAttemptsCreatedBefore(sqlTimestampOf(createdBefore), lastId, limit));
     }
 
+    @Override
+    public List<StoredSessionWithLastAttempt> findSessionsToPurge(Optional<Integer> siteId, List<Integer> excludedSiteIds, Instant finishedBefore, int limit)
+    {
+        return autoCommit((handle, dao) ->
+                handle.createQuery(
+                    "select s.*, sa.site_id, sa.attempt_name, sa.workflow_definition_id, sa.state_flags, sa.timezone, sa.params, sa.created_at, sa.finished_at, sa.index" +
+                    " from sessions s" +
+                    " join session_attempts sa on sa.id = s.last_attempt_id" +
+                    " where sa.finished_at < :finishedBefore" +
+                    (siteId.isPresent() ? " and sa.site_id = " + siteId.get() : "") +
+                    (excludedSiteIds.isEmpty() ? "" :
+                        " and sa.site_id not in (" +
+                        excludedSiteIds.stream().map(Object::toString).collect(Collectors.joining(", ")) + ")") +
+                    " and " + purgeableSessionCondition("s.id") +
+                    " order by s.id asc" +
+                    " limit :limit"
+                )
+                .bind("finishedBefore", sqlTimestampOf(finishedBefore))
+                .bind("limit", limit)
+                .mapTo(StoredSessionWithLastAttempt.class)
+                .list()
+            );
+    }
+
+    @Override
+    public Map<String, Integer> purgeSessions(List<Long> sessionIds, Instant finishedBefore)
+    {
+        if (sessionIds.isEmpty()) {
+            return ImmutableMap.of();
+        }
+        return transaction((handle, dao) -> {
+            // starting a new attempt locks the session. locking sessions here
+            // and checking the condition again guarantees that this doesn't
+            // delete attempts started after findSessionsToPurge.
+            List<Long> lockedIds = handle.createQuery(
+                    "select id from sessions s" +
+                    " where id in (" +
+                        sessionIds.stream().map(Object::toString).collect(Collectors.joining(", ")) + ")" +
+                    " and exists (" +
+                        "select * from session_attempts sa" +
+                        " where sa.id = s.last_attempt_id" +
+                        " and sa.finished_at < :finishedBefore" +
+                    ")" +
+                    " and " + purgeableSessionCondition("s.id") +
+                    // h2 doesn't support for update with join
+                    " for update"
+                )
+                .bind("finishedBefore", sqlTimestampOf(finishedBefore))
+                .mapTo(Long.class)
+                .list();
+            if (lockedIds.isEmpty()) {
+                return ImmutableMap.<String, Integer>of();
+            }
+
+            String ids = lockedIds.stream().map(Object::toString).collect(Collectors.joining(", "));
+            String attemptIds = "select id from session_attempts where session_id in (" + ids + ")";
+
+            // tasks, task_details, task_state_details and task_dependencies
+            // of done attempts are already deleted when tasks are archived.
+            ImmutableMap.Builder<String, Integer> deleted = ImmutableMap.builder();
+            deleted.put("task_archives", handle.update("delete from task_archives where id in (" + attemptIds + ")"));
+            deleted.put("resuming_tasks", handle.update("delete from resuming_tasks where attempt_id in (" + attemptIds + ")"));
+            deleted.put("session_monitors", handle.update("delete from session_monitors where attempt_id in (" + attemptIds + ")"));
+            deleted.put("delayed_session_attempts", handle.update("delete from delayed_session_attempts where id in (" + attemptIds + ")"));
+            deleted.put("session_attempts", handle.update("delete from session_attempts where session_id in (" + ids + ")"));
+            deleted.put("sessions", handle.update("delete from sessions where id in (" + ids + ")"));
+            return deleted.build();
+        });
+    }
+
+    private String purgeableSessionCondition(String sessionIdColumn)
+    {
+        return "not exists (" +
+                "select * from session_attempts o" +
+                " where o.session_id = " + sessionIdColumn +
+                " and " + bitAnd("o.state_flags", Integer.toString(AttemptStateFlags.DONE_CODE)) + " = 0" +
+            ")";
+    }
+
     @Override
     public List<TaskAttemptSummary> findTasksStartedBeforeWithState(TaskStateCode[] states, Instant startedBefore, long lastId, int limit)
     {
@@ -335,7 +459,13 @@ public class DatabaseSessionStoreManager
     @Override
     public List<Long> findTasksByState(TaskStateCode state, long lastId)
     {
-        return autoCommit((handle, dao) -> dao.findTasksByState(state.get(), lastId, 100));
+        return autoCommit((handle, dao) ->
+                handle.createQuery(findTasksByStateSql(state, AttemptPartitions.all()))
+                .bind("lastId", lastId)
+                .bind("limit", 100)
+                .mapTo(Long.class)
+                .list()
+            );
     }
 
     @Override
@@ -363,11 +493,76 @@ public class DatabaseSessionStoreManager
     @Override
     public List<Long> findDirectParentsOfBlockedTasks(long lastId)
     {
+        return autoCommit((handle, dao) ->
+                handle.createQuery(findDirectParentsOfBlockedTasksSql(AttemptPartitions.all()))
+                .bind("lastId", lastId)
+                .bind("limit", 100)
+                .mapTo(Long.class)
+                .list()
+            );
+    }
+
+    @Override
+    public List<Long> findTasksByState(TaskStateCode state, List<Long> attemptIds, long lastId)
+    {
+        if (attemptIds.isEmpty()) {
+            return ImmutableList.of();
+        }
+        return autoCommit((handle, dao) ->
+                handle.createQuery(
+                    "select id" +
+                    " from tasks" +
+                    " where attempt_id " + inLargeIdListExpression(attemptIds) +
+                    " and state = " + state.get() +
+                    " and id > :lastId" +
+                    " order by id asc" +
+                    " limit :limit"
+                    )
+                .bind("lastId", lastId)
+                .bind("limit", 100)
+                .mapTo(Long.class)
+                .list()
+            );
+    }
+
+    @Override
+    public List<TaskAttemptSummary> findRootTasksByStates(TaskStateCode[] states, List<Long> attemptIds, long lastId)
+    {
+        if (attemptIds.isEmpty()) {
+            return ImmutableList.of();
+        }
+        return autoCommit((handle, dao) ->
+                handle.createQuery(
+                    "select id, attempt_id, state" +
+                    " from tasks" +
+                    " where attempt_id " + inLargeIdListExpression(attemptIds) +
+                    " and parent_id is null" +
+                    " and state in (" +
+                        Stream.of(states)
+                        .map(it -> Short.toString(it.get())).collect(Collectors.joining(", ")) + ")" +
+                    " and id > :lastId" +
+                    " order by id asc" +
+                    " limit :limit"
+                    )
+                .bind("lastId", lastId)
+                .bind("limit", 100)
+                .map(tasm)
+                .list()
+            );
+    }
+
+    @Override
+    public List<Long> findDirectParentsOfBlockedTasks(List<Long> attemptIds, long lastId)
+    {
+        if (attemptIds.isEmpty()) {
+            return ImmutableList.of();
+        }
         return autoCommit((handle, dao) ->
                 handle.createQuery(
                     "select distinct parent_id" +
                     " from tasks" +
-                    " where parent_id > :lastId" +
+                    " where attempt_id " + inLargeIdListExpression(attemptIds) +
+                    " and parent_id > :lastId" +
                     " and state = " + TaskStateCode.BLOCKED_CODE +
                     " order by parent_id" +
                     " limit :limit"
@@ -379,6 +574,237 @@ public class DatabaseSessionStoreManager
             );
     }
 
+    @Override
+    public List<Long> findTasksByState(TaskStateCode state, AttemptPartitions partitions, long lastId)
+    {
+        if (partitions.isAll()) {
+            return findTasksByState(state, lastId);
+        }
+        if (partitions.isEmpty()) {
+            return ImmutableList.of();
+        }
+        return autoCommit((handle, dao) ->
+                handle.createQuery(findTasksByStateSql(state, partitions))
+                .bind("lastId", lastId)
+                .bind("limit", 100)
+                .mapTo(Long.class)
+                .list()
+            );
+    }
+
+    @Override
+    public List<TaskAttemptSummary> findRootTasksByStates(TaskStateCode[] states, AttemptPartitions partitions, long lastId)
+    {
+        if (partitions.isAll()) {
+            return findRootTasksByStates(states, lastId);
+        }
+        if (partitions.isEmpty()) {
+            return ImmutableList.of();
+        }
+        return autoCommit((handle, dao) ->
+                handle.createQuery(
+                    "select id, attempt_id, state" +
+                    " from tasks" +
+                    " where parent_id is null" +
+                    " and state in (" +
+                        Stream.of(states)
+                        .map(it -> Short.toString(it.get())).collect(Collectors.joining(", ")) + ")" +
+                    " and " + attemptPartitionCondition(partitions) +
+                    " and id > :lastId" +
+                    " order by id asc" +
+                    " limit :limit"
+                    )
+                .bind("lastId", lastId)
+                .bind("limit", 100)
+                .map(tasm)
+                .list()
+            );
+    }
+
+    @Override
+    public List<Long> findDirectParentsOfBlockedTasks(AttemptPartitions partitions, long lastId)
+    {
+        if (partitions.isAll()) {
+            return findDirectParentsOfBlockedTasks(lastId);
+        }
+        if (partitions.isEmpty()) {
+            return ImmutableList.of();
+        }
+        return autoCommit((handle, dao) ->
+                handle.createQuery(findDirectParentsOfBlockedTasksSql(partitions))
+                .bind("lastId", lastId)
+                .bind("limit", 100)
+                .mapTo(Long.class)
+                .list()
+            );
+    }
+
+    private static String attemptPartitionAndCondition(AttemptPartitions partitions)
+    {
+        if (partitions.isAll()) {
+            return "";
+        }
+        return " and " + attemptPartitionCondition(partitions);
+    }
+
+    private static String attemptPartitionCondition(AttemptPartitions partitions)
+    {
+        // the expression must be the same as the one of tasks_*_on_attempt_bucket indexes
+        return "mod(attempt_id, " + AttemptPartitions.BUCKETS + ") in (" +
+            partitions.getBuckets().stream()
+            .map(it -> Integer.toString(it)).collect(Collectors.joining(", ")) + ")";
+    }
+
+    @Override
+    public int trySetChildrenBlockedToReadyOrShortCircuitPlannedOrCanceled(List<Long> parentIds)
+    {
+        if (parentIds.isEmpty()) {
+            return 0;
+        }
+        return transaction((handle, dao) -> {
+            List<Long> lockedParentIds = lockTasksIfNotLocked(handle, parentIds, Optional.absent());
+            if (lockedParentIds.isEmpty()) {
+                return 0;
+            }
+            return handle.createStatement(
+                    setChildrenBlockedToReadyOrShortCircuitPlannedOrCanceledStatement(
+                        "parent_id " + inLargeIdListExpression(lockedParentIds)))
+                .execute();
+        });
+    }
+
+    @Override
+    public int trySetPlannedToSuccess(List<Long> taskIds)
+    {
+        if (taskIds.isEmpty()) {
+            return 0;
+        }
+        return transaction((handle, dao) -> {
+            List<Long> lockedTaskIds = lockTasksIfNotLocked(handle, taskIds, Optional.of(TaskStateCode.PLANNED));
+            if (lockedTaskIds.isEmpty()) {
+                return 0;
+            }
+            // Tasks with cancel or delayed error flags, and tasks with failed children
+            // (including children of former group-retries) are left as PLANNED here.
+            // WorkflowExecutor handles them one by one.
+            return handle.createStatement("update tasks" +
+                    " set updated_at = now(), state = " + TaskStateCode.SUCCESS_CODE +
+                    " where id " + inLargeIdListExpression(lockedTaskIds) +
+                    " and state = " + TaskStateCode.PLANNED_CODE +
+                    " and " + bitAnd("state_flags", Integer.toString(
+                            TaskStateFlags.CANCEL_REQUESTED | TaskStateFlags.DELAYED_ERROR | TaskStateFlags.DELAYED_GROUP_ERROR)) + " = 0" +
+                    " and not exists (" +
+                      "select * from tasks ch" +
+                      " where ch.parent_id = tasks.id" +
+                      " and (" +
+                        "ch.state = " + TaskStateCode.ERROR.get() +
+                        " or ch.state = " + TaskStateCode.GROUP_ERROR.get() +
+                        " or " + progressibleTaskCondition("ch") +
+                      ")" +
+                    ")")
+                .execute();
+        });
+    }
+
+    @Override
+    public List<Long> findPlannedTasksWithoutProgressibleChildren(List<Long> taskIds)
+    {
+        if (taskIds.isEmpty()) {
+            return ImmutableList.of();
+        }
+        return autoCommit((handle, dao) ->
+                handle.createQuery(
+                    "select id from tasks" +
+                    " where id " + inLargeIdListExpression(taskIds) +
+                    " and state = " + TaskStateCode.PLANNED_CODE +
+                    " and not exists (" +
+                      "select * from tasks ch" +
+                      " where ch.parent_id = tasks.id" +
+                      " and " + progressibleTaskCondition("ch") +
+                    ")" +
+                    " order by id"
+                    )
+                .mapTo(Long.class)
+                .list()
+            );
+    }
+
+    private List<Long> lockTasksIfNotLocked(Handle handle, List<Long> taskIds, Optional<TaskStateCode> state)
+    {
+        // Same with Dao.lockTaskIfNotLocked but locks all rows with one query.
+        // PostgreSQL skips rows locked by other transactions. They're retried
+        // at the next propagation.
+        String forUpdate;
+        switch (databaseType) {
+        case "h2":
+            forUpdate = " for update";
+            break;
+        default:
+            // postgresql
+            forUpdate = " for update skip locked";
+            break;
+        }
+        return handle.createQuery(
+                "select id from tasks" +
+                " where id " + inLargeIdListExpression(taskIds) +
+                (state.isPresent() ? " and state = " + state.get().get() : "") +
+                forUpdate
+                )
+            .mapTo(Long.class)
+            .list();
+    }
+
+    private String progressibleTaskCondition(String table)
+    {
+        return "(" +
+              // the task is progressing now
+              table + ".state in (" + Stream.of(
+                    TaskStateCode.progressingStates()
+                    )
+                    .map(it -> Short.toString(it.get())).collect(Collectors.joining(", ")) + ")" +
+              " or (" +
+                // or, the task is BLOCKED and
+                table + ".state = " + TaskStateCode.BLOCKED_CODE +
+                // it's ready to run
+                " and not exists (" +
+                  "select * from tasks up" +
+                  " join task_dependencies dep on up.id = dep.upstream_id" +
+                  " where dep.downstream_id = " + table + ".id" +
+                  " and up.state not in (" + Stream.of(
+                          TaskStateCode.canRunDownstreamStates()
+                          ).map(it -> Short.toString(it.get())).collect(Collectors.joining(", ")) + ")" +
+                ")" +
+              ")" +
+            ")";
+    }
+
+    private String setChildrenBlockedToReadyOrShortCircuitPlannedOrCanceledStatement(String parentCondition)
+    {
+        return "update tasks" +
+            " set updated_at = now(), state = case" +
+            " when task_type = " + TaskType.GROUPING_ONLY + " then " + TaskStateCode.PLANNED_CODE +
+            " when " + bitAnd("state_flags", Integer.toString(TaskStateFlags.CANCEL_REQUESTED)) + " != 0 then " + TaskStateCode.CANCELED_CODE +
+            " else " + TaskStateCode.READY_CODE +
+            " end" +
+            " where state = " + TaskStateCode.BLOCKED_CODE +
+            " and " + parentCondition +
+            " and exists (" +
+              "select * from tasks pt" +
+              " where pt.id = tasks.parent_id" +
+              " and pt.state in (" + Stream.of(
+                    TaskStateCode.canRunChildrenStates()
+                    ).map(it -> Short.toString(it.get())).collect(Collectors.joining(", ")) + ")" +
+            " )" +
+            " and not exists (" +
+                "select * from tasks up" +
+                " join task_dependencies dep on up.id = dep.upstream_id" +
+                " where dep.downstream_id = tasks.id" +
+                " and up.state not in (" + Stream.of(
+                    TaskStateCode.canRunDownstreamStates()
+                    ).map(it -> Short.toString(it.get())).collect(Collectors.joining(", ")) + ")" +
+            ")";
+    }
+
     @Override
     public boolean requestCancelAttempt(long attemptId)
     {
@@ -429,6 +855,24 @@ public class DatabaseSessionStoreManager
         return autoCommit((handle, dao) -> dao.trySetRetryWaitingToReady());
     }
 
+    @Override
+    public int trySetRetryWaitingToReady(List<Long> attemptIds)
+    {
+        if (attemptIds.isEmpty()) {
+            return 0;
+        }
+        return autoCommit((handle, dao) ->
+                handle.createStatement(
+                    "update tasks" +
+                    " set updated_at = now(), retry_at = NULL, state = " + TaskStateCode.READY_CODE +
+                    " where attempt_id " + inLargeIdListExpression(attemptIds) +
+                    " and state in (" + TaskStateCode.RETRY_WAITING_CODE + "," + TaskStateCode.GROUP_RETRY_WAITING_CODE + ")" +
+                    " and retry_at <= now()"
+                    )
+                .execute()
+            );
+    }
+
     @Override
     public <T> Optional<T> lockTaskIfExists(long taskId, TaskLockAction<T> func)
     {
@@ -535,6 +979,53 @@ public class DatabaseSessionStoreManager
             );
     }
 
+    @Override
+    public List<TaskRelation> getTaskRelations(long attemptId, long lastId)
+    {
+        return autoCommit((handle, dao) ->
+                handle.createQuery(
+                    "select id, parent_id," +
+                    " (select " + commaGroupConcat("upstream_id") + " from task_dependencies where downstream_id = t.id) as upstream_ids" +
+                    " from tasks t" +
+                    " where attempt_id = :attemptId" +
+                    " and id > :lastId"
+                    )
+                .bind("attemptId", attemptId)
+                .bind("lastId", lastId)
+                .map(new TaskRelationMapper())
+                .list()
+            );
+    }
+
+    @Override
+    public long getTaskCountOfAttempt(long attemptId)
+    {
+        return autoCommit((handle, dao) ->
+                handle.createQuery(
+                    "select count(*) from tasks" +
+                    " where attempt_id = :attemptId"
+                    )
+                .bind("attemptId", attemptId)
+                .mapTo(long.class)
+                .first()
+            );
+    }
+
+    @Override
+    public long getMaxTaskIdOfAttempt(long attemptId)
+    {
+        // uses tasks_on_attempt_id index without scanning tasks of the attempt
+        return autoCommit((handle, dao) ->
+                handle.createQuery(
+                    "select coalesce(max(id), 0) from tasks" +
+                    " where attempt_id = :attemptId"
+                    )
+                .bind("attemptId", attemptId)
+                .mapTo(long.class)
+                .first()
+            );
+    }
+
     @Override
     public List<Config> getExportParams(List<Long> idList)
     {
@@ -624,16 +1115,19 @@ public class DatabaseSessionStoreManager
         return builder.build();
     }
 
-    private String dumpTaskArchive(List<ArchivedTask> tasks)
+    @VisibleForTesting
+    byte[] dumpTaskArchive(List<ArchivedTask> tasks)
     {
-        try {
-            return taskArchiveMapper.writeValueAsString(tasks);
-        }
-        catch (IOException ex) {
-            throw new RuntimeException(ex);
-        }
+        return taskArchiveFormat.encode(tasks);
+    }
+
+    @VisibleForTesting
+    List<ArchivedTask> loadTaskArchive(byte[] data)
+    {
+        return taskArchiveFormat.decodeTasks(data);
     }
 
+    // loads JSON text archives created by old versions
     @SuppressWarnings("unchecked")
     @VisibleForTesting
     List<ArchivedTask> loadTaskArchive(String data)
@@ -717,7 +1211,7 @@ public class DatabaseSessionStoreManager
         public int aggregateAndInsertTaskArchive(long attemptId)
         {
             int count;
-            String archive;
+            byte[] archive;
 
             {
                 List<ArchivedTask> tasks = handle.createQuery(
@@ -817,6 +1311,93 @@ public class DatabaseSessionStoreManager
             return taskId;
         }
 
+        @Override
+        public List<Long> addSubtasks(long attemptId, List<Task> tasks,
+                List<Optional<Integer>> parentIndexes, List<List<Integer>> upstreamIndexes)
+        {
+            List<Long> ids;
+            if (databaseType.equals("h2")) {
+                // h2 doesn't provide the sequence of tasks.id. Insert tasks one by one to get generated ids.
+                ids = new ArrayList<>();
+                for (int i = 0; i < tasks.size(); i++) {
+                    Task task = tasks.get(i);
+                    ids.add(dao.insertTask(attemptId, parentIdOf(task, parentIndexes.get(i), ids),
+                                task.getTaskType().get(), task.getState().get(), task.getStateFlags().get()));
+                }
+            }
+            else {
+                // Reserve ids first so that parent_id of the tasks can be set in the same batch.
+                // Ids are sorted because tasks depend only on tasks with a smaller id.
+                ids = handle.createQuery(
+                        "select nextval(pg_get_serial_sequence('tasks', 'id'))" +
+                        " from generate_series(1, :count)"
+                        )
+                    .bind("count", tasks.size())
+                    .mapTo(Long.class)
+                    .list()
+                    .stream()
+                    .sorted()
+                    .collect(Collectors.toList());
+                PreparedBatch batch = handle.prepareBatch(
+                        "insert into tasks (id, attempt_id, parent_id, task_type, state, state_flags, updated_at)" +
+                        " values (:id, :attemptId, :parentId, :taskType, :state, :stateFlags, now())");
+                for (int i = 0; i < tasks.size(); i++) {
+                    Task task = tasks.get(i);
+                    batch.add()
+                        .bind("id", ids.get(i))
+                        .bind("attemptId", attemptId)
+                        .bind("parentId", parentIdOf(task, parentIndexes.get(i), ids))
+                        .bind("taskType", task.getTaskType().get())
+                        .bind("state", task.getState().get())
+                        .bind("stateFlags", task.getStateFlags().get());
+                }
+                batch.execute();
+            }
+
+            PreparedBatch details = handle.prepareBatch(
+                    "insert into task_details (id, full_name, local_config, export_config)" +
+                    " values (:id, :fullName, :localConfig, :exportConfig)");
+            PreparedBatch stateDetails = handle.prepareBatch(
+                    "insert into task_state_details (id)" +
+                    " values (:id)");
+            PreparedBatch dependencies = handle.prepareBatch(
+                    "insert into task_dependencies (upstream_id, downstream_id)" +
+                    " values (:upstreamId, :downstreamId)");
+            for (int i = 0; i < tasks.size(); i++) {
+                Task task = tasks.get(i);
+                long id = ids.get(i);
+                details.add()
+                    .bind("id", id)
+                    .bind("fullName", task.getFullName())
+                    .bind("localConfig", task.getConfig().getLocal())
+                    .bind("exportConfig", task.getConfig().getExport());
+                stateDetails.add()
+                    .bind("id", id);
+                for (int upstreamIndex : upstreamIndexes.get(i)) {
+                    dependencies.add()
+                        .bind("upstreamId", ids.get(upstreamIndex))
+                        .bind("downstreamId", id);
+                }
+            }
+            details.execute();
+            stateDetails.execute();
+            if (dependencies.size() > 0) {
+                dependencies.execute();
+            }
+
+            return ids;
+        }
+
+        private Long parentIdOf(Task task, Optional<Integer> parentIndex, List<Long> ids)
+        {
+            if (parentIndex.isPresent()) {
+                return ids.get(parentIndex.get());
+            }
+            else {
+                return task.getParentId().orNull();
+            }
+        }
+
         @Override
         public long addResumedSubtask(long attemptId, long parentId,
                 TaskType taskType, TaskStateCode state, TaskStateFlags flags,
@@ -918,26 +1499,8 @@ public class DatabaseSessionStoreManager
             return handle.createQuery(
                     "select id from tasks" +
                     " where parent_id = :parentId" +
-                    " and (" +
-                      // a child task is progressing now
-                    "state in (" + Stream.of(
-                            TaskStateCode.progressingStates()
-                            )
-                            .map(it -> Short.toString(it.get())).collect(Collectors.joining(", ")) + ")" +
-                      " or (" +
-                        // or, a child task is BLOCKED and
-                        "state = " + TaskStateCode.BLOCKED_CODE +
-                        // it's ready to run
-                        " and not exists (" +
-                          "select * from tasks up" +
-                          " join task_dependencies dep on up.id = dep.upstream_id" +
-                          " where dep.downstream_id = tasks.id" +
-                          " and up.state not in (" + Stream.of(
-                                  TaskStateCode.canRunDownstreamStates()
-                                  ).map(it -> Short.toString(it.get())).collect(Collectors.joining(", ")) + ")" +
-                        ")" +
-                      ")" +
-                    ") limit 1"
+                    " and " + progressibleTaskCondition("tasks") +
+                    " limit 1"
                 )
                 .bind("parentId", taskId)
                 .mapTo(Long.class)
@@ -1096,29 +1659,8 @@ public class DatabaseSessionStoreManager
 
         public int trySetChildrenBlockedToReadyOrShortCircuitPlannedOrCanceled(long taskId)
         {
-            return handle.createStatement("update tasks" +
-                    " set updated_at = now(), state = case" +
-                    " when task_type = " + TaskType.GROUPING_ONLY + " then " + TaskStateCode.PLANNED_CODE +
-                    " when " + bitAnd("state_flags", Integer.toString(TaskStateFlags.CANCEL_REQUESTED)) + " != 0 then " + TaskStateCode.CANCELED_CODE +
-                    " else " + TaskStateCode.READY_CODE +
-                    " end" +
-                    " where state = " + TaskStateCode.BLOCKED_CODE +
-                    " and parent_id = :parentId" +
-                    " and exists (" +
-                      "select * from tasks pt" +
-                      " where pt.id = tasks.parent_id" +
-                      " and pt.state in (" + Stream.of(
-                            TaskStateCode.canRunChildrenStates()
-                            ).map(it -> Short.toString(it.get())).collect(Collectors.joining(", ")) + ")" +
-                    " )" +
-                    " and not exists (" +
-                        "select * from tasks up" +
-                        " join task_dependencies dep on up.id = dep.upstream_id" +
-                        " where dep.downstream_id = tasks.id" +
-                        " and up.state not in (" + Stream.of(
-                            TaskStateCode.canRunDownstreamStates()
-                            ).map(it -> Short.toString(it.get())).collect(Collectors.joining(", ")) + ")" +
-                    ")")
+            return handle.createStatement(
+                    setChildrenBlockedToReadyOrShortCircuitPlannedOrCanceledStatement("parent_id = :parentId"))
                 .bind("parentId", taskId)
                 .execute();
         }
@@ -1318,13 +1860,110 @@ public class DatabaseSessionStoreManager
                     .list()
                 );
             if (tasks.isEmpty()) {
-                String archive = autoCommit((handle, dao) -> dao.getTaskArchiveById(siteId, attemptId));
-                if (archive != null) {
-                    return loadTaskArchive(archive);
+                Optional<List<ArchivedTask>> archived = readTaskArchive(attemptId,
+                        data -> loadTaskArchive(data),
+                        json -> loadTaskArchive(json));
+                if (archived.isPresent()) {
+                    return archived.get();
                 }
             }
             return tasks;
         }
+
+        @Override
+        public List<ArchivedTask> getTasksOfAttempt(long attemptId, int pageSize, Optional<Long> lastId)
+        {
+            List<ArchivedTask> tasks = autoCommit((handle, dao) ->
+                    handle.createQuery(
+                        "select t.*, td.full_name, td.local_config, td.export_config, td.resuming_task_id, ts.subtask_config, ts.export_params, ts.store_params, ts.error, ts.report, ts.reset_store_params, " +
+                            "(select " + commaGroupConcat("upstream_id") + " from task_dependencies where downstream_id = t.id) as upstream_ids" +
+                        " from tasks t" +
+                        " join session_attempts sa on sa.id = t.attempt_id" +
+                        " join task_details td on t.id = td.id" +
+                        " join task_state_details ts on t.id = ts.id" +
+                        " where sa.site_id = :siteId" +
+                        " and t.attempt_id = :attemptId" +
+                        " and t.id > :lastId" +
+                        " order by t.id" +
+                        " limit :limit"
+                        )
+                    .bind("siteId", siteId)
+                    .bind("attemptId", attemptId)
+                    .bind("lastId", lastId.or(0L))
+                    .bind("limit", pageSize)
+                    .map(atm)
+                    .list()
+                );
+            if (tasks.isEmpty()) {
+                // archived tasks are decoded only up to the page
+                Optional<List<ArchivedTask>> archived = readTaskArchive(attemptId,
+                        data -> taskArchiveFormat.decodeTasks(data, lastId, pageSize),
+                        json -> loadTaskArchive(json).stream()
+                            .filter(task -> !lastId.isPresent() || task.getId() > lastId.get())
+                            .limit(pageSize)
+                            .collect(Collectors.toList()));
+                if (archived.isPresent()) {
+                    return archived.get();
+                }
+            }
+            return tasks;
+        }
+
+        @Override
+        public List<TaskStateSummary> getTaskStateSummariesOfAttempt(long attemptId)
+        {
+            List<TaskStateSummary> summaries = autoCommit((handle, dao) ->
+                    handle.createQuery(
+                        "select t.id, t.attempt_id, t.parent_id, t.state, t.updated_at" +
+                        " from tasks t" +
+                        " join session_attempts sa on sa.id = t.attempt_id" +
+                        " where sa.site_id = :siteId" +
+                        " and t.attempt_id = :attemptId" +
+                        " order by t.id"
+                        )
+                    .bind("siteId", siteId)
+                    .bind("attemptId", attemptId)
+                    .map(new TaskStateSummaryMapper())
+                    .list()
+                );
+            if (summaries.isEmpty()) {
+                // summary section of an archive is deserialized without tasks
+                Optional<List<TaskStateSummary>> archived = readTaskArchive(attemptId,
+                        data -> taskArchiveFormat.decodeSummaries(data),
+                        json -> loadTaskArchive(json).stream()
+                            .map(TaskArchiveFormat::summarize)
+                            .collect(Collectors.toList()));
+                if (archived.isPresent()) {
+                    return archived.get();
+                }
+            }
+            return summaries;
+        }
+
+        private <T> Optional<T> readTaskArchive(long attemptId, Function<byte[], T> decoder, Function<String, T> legacyDecoder)
+        {
+            T result = autoCommit((handle, dao) ->
+                    handle.createQuery(
+                        "select ta.tasks, ta.archive" +
+                        " from task_archives ta" +
+                        " join session_attempts sa on sa.id = ta.id" +
+                        " where sa.id = :attemptId" +
+                        " and sa.site_id = :siteId"
+                        )
+                    .bind("siteId", siteId)
+                    .bind("attemptId", attemptId)
+                    .map((index, r, ctx) -> {
+                        byte[] archive = r.getBytes("archive");
+                        if (archive != null) {
+                            return decoder.apply(archive);
+                        }
+                        // archives created by old versions are JSON text
+                        return legacyDecoder.apply(r.getString("tasks"));
+                    })
+                    .first()
+                );
+            return Optional.fromNullable(result);
+        }
     }
 
     private class DatabaseSessionControlStore
@@ -1821,8 +2460,8 @@ public class DatabaseSessionStoreManager
         @GetGeneratedKeys
         long insertSessionMonitor(@Bind("attemptId") long attemptId, @Bind("nextRunTime") long nextRunTime, @Bind("type") String type, @Bind("config") Config config);
 
-        @SqlQuery("select id from tasks where state = :state limit :limit")
-        List<Long> findAllTaskIdsByState(@Bind("state") short state, @Bind("limit") int limit);
+        @SqlQuery(FIND_ALL_READY_TASK_IDS_SQL)
+        List<Long> findAllReadyTaskIds(@Bind("limit") int limit);
 
         @SqlQuery("select id, session_id, state_flags, index from session_attempts where id = :attemptId for update")
         SessionAttemptSummary lockAttempt(@Bind("attemptId") long attemptId);
@@ -1889,15 +2528,6 @@ public class DatabaseSessionStoreManager
                 " limit :limit")
         List<TaskStateSummary> findRecentlyChangedTasks(@Bind("updatedSince") Instant updatedSince, @Bind("lastId") long lastId, @Bind("limit") int limit);
 
-        @SqlQuery("select id" +
-                " from tasks" +
-                " where state = :state" +
-                " and id > :lastId" +
-                " order by id asc" +
-                //" order by updated_at asc, id asc" +
-                " limit :limit")
-        List<Long> findTasksByState(@Bind("state") short state, @Bind("lastId") long lastId, @Bind("limit") int limit);
-
         @SqlQuery("select id from tasks" +
                 " where id = :id" +
                 " for update")
@@ -1944,10 +2574,7 @@ public class DatabaseSessionStoreManager
                 " where id = :id")
         long setSuccessfulReport(@Bind("id") long taskId, @Bind("subtaskConfig") Config subtaskConfig, @Bind("exportParams") Config exportParams, @Bind("resetStoreParams") String resetStoreParams, @Bind("storeParams") Config storeParams, @Bind("report") Config report);
 
-        @SqlUpdate("update tasks" +
-                " set updated_at = now(), retry_at = NULL, state = " + TaskStateCode.READY_CODE +
-                " where state in (" + TaskStateCode.RETRY_WAITING_CODE +"," + TaskStateCode.GROUP_RETRY_WAITING_CODE + ")" +
-                " and retry_at <= now()")
+        @SqlUpdate(TRY_SET_RETRY_WAITING_TO_READY_SQL)
         int trySetRetryWaitingToReady();
 
         @SqlQuery("select * from session_monitors" +
@@ -1966,17 +2593,10 @@ public class DatabaseSessionStoreManager
                 " where id = :attemptId")
         void updateNextDelayedAttemptRunTime(@Bind("attemptId") long attemptId, @Bind("nextRunTime") long nextRunTime);
 
-        @SqlQuery("select tasks" +
-                " from task_archives ta" +
-                " join session_attempts sa on sa.id = ta.id" +
-                " where sa.id = :attemptId" +
-                " and sa.site_id = :siteId")
-        String getTaskArchiveById(@Bind("siteId") int siteId, @Bind("attemptId") long attemptId);
-
         @SqlUpdate("insert into task_archives" +
-                " (id, tasks, created_at)" +
-                " values (:attemptId, :tasks, now())")
-        void insertTaskArchive(@Bind("attemptId") long attemptId, @Bind("tasks") String tasks);
+                " (id, archive, created_at)" +
+                " values (:attemptId, :archive, now())")
+        void insertTaskArchive(@Bind("attemptId") long attemptId, @Bind("archive") byte[] archive);
 
         @SqlUpdate("delete from session_monitors" +
                 " where id = :id")
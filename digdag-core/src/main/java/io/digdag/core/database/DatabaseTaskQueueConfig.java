@@ -6,11 +6,18 @@ import com.google.inject.Inject;
 public class DatabaseTaskQueueConfig
 {
     private final int defaultMaxConcurrency;
+    private final int activeSiteRefreshInterval;
 
     @Inject
     public DatabaseTaskQueueConfig(Config systemConfig)
     {
         this.defaultMaxConcurrency = systemConfig.get("queue.db.max_concurrency", int.class, Integer.MAX_VALUE);
+        this.activeSiteRefreshInterval = systemConfig.get("queue.db.active_site_refresh_interval", int.class, 1);
+    }
+
+    public int getActiveSiteRefreshInterval()
+    {
+        return activeSiteRefreshInterval;
     }
 
     public int getSiteMaxConcurrency(int siteId)
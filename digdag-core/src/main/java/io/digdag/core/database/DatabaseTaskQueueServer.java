@@ -1,11 +1,17 @@
 package io.digdag.core.database;
 
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
 import java.util.stream.Collectors;
+import java.sql.Array;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.Instant;
@@ -13,6 +19,7 @@ import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.annotation.Nullable;
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.*;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
@@ -22,6 +29,7 @@ import org.skife.jdbi.v2.sqlobject.SqlQuery;
 import org.skife.jdbi.v2.sqlobject.SqlUpdate;
 import org.skife.jdbi.v2.sqlobject.Bind;
 import org.skife.jdbi.v2.sqlobject.GetGeneratedKeys;
+import org.skife.jdbi.v2.PreparedBatch;
 import org.skife.jdbi.v2.StatementContext;
 import org.skife.jdbi.v2.tweak.ResultSetMapper;
 import io.digdag.spi.ImmutableTaskQueueLock;
@@ -43,20 +51,36 @@ public class DatabaseTaskQueueServer
 
     private final int expireLockInterval;
     private final LocalLockMap localLockMap = new LocalLockMap();
+    private final ActiveSiteMap activeSiteMap;
+    private final Object activeSiteReconcileLock = new Object();
     private final ScheduledExecutorService expireExecutor;
     private final TransactionManager transactionManager;
+    private final TaskEventChannel eventChannel;
 
     @Inject(optional = true)
     private ErrorReporter errorReporter = ErrorReporter.empty();
 
     @Inject
-    public DatabaseTaskQueueServer(DatabaseConfig config, TransactionManager tm, ConfigMapper cfm, DatabaseTaskQueueConfig queueConfig, ObjectMapper taskObjectMapper)
+    public DatabaseTaskQueueServer(DatabaseConfig config, TransactionManager tm, ConfigMapper cfm, DatabaseTaskQueueConfig queueConfig, ObjectMapper taskObjectMapper, TaskEventChannel eventChannel)
+    {
+        this(config, tm, cfm, queueConfig, taskObjectMapper, eventChannel, System::nanoTime);
+    }
+
+    @VisibleForTesting
+    DatabaseTaskQueueServer(DatabaseConfig config, TransactionManager tm, ConfigMapper cfm, DatabaseTaskQueueConfig queueConfig, ObjectMapper taskObjectMapper, TaskEventChannel eventChannel, LongSupplier nanoTime)
     {
         super(config.getType(), Dao.class, tm, cfm);
 
         this.queueConfig = queueConfig;
         this.taskObjectMapper = taskObjectMapper;
         this.transactionManager = tm;
+        this.eventChannel = eventChannel;
+        this.activeSiteMap = new ActiveSiteMap(TimeUnit.SECONDS.toNanos(queueConfig.getActiveSiteRefreshInterval()), nanoTime);
+        // wake up agents waiting in lockSharedAgentTasks when other servers enqueue tasks
+        eventChannel.addListener(TaskEventChannel.Event.TASK_ENQUEUED, (queuedTaskId) -> {
+            activeSiteMap.requestReconcile();
+            interruptLocalWait();
+        });
         this.expireLockInterval = config.getExpireLockInterval();
         this.expireExecutor = Executors.newSingleThreadScheduledExecutor(
                 new ThreadFactoryBuilder()
@@ -120,10 +144,9 @@ public class DatabaseTaskQueueServer
         }
     }
 
-    private String statementUnixTimestampSql()
-    {
-        return "extract(epoch from now())";
-    }
+    // SQL of statements that run frequently are constants so that they're
+    // not built for each call and prepared statements are reused by their text.
+    private static final String STATEMENT_UNIX_TIMESTAMP_SQL = "extract(epoch from now())";
 
     @Override
     public void enqueueDefaultQueueTask(int siteId, TaskQueueRequest request)
@@ -169,7 +192,14 @@ public class DatabaseTaskQueueServer
             return queuedTaskId;
         }, ResourceConflictException.class);
 
-        interruptLocalWait();
+        // enqueue may run in the caller's transaction. agents can lock the task after it commits.
+        transactionManager.afterCommit(() -> {
+            if (siteId != null) {
+                activeSiteMap.taskEnqueued(siteId);
+            }
+            interruptLocalWait();
+            eventChannel.publish(TaskEventChannel.Event.TASK_ENQUEUED, id);
+        });
 
         return id;
     }
@@ -184,25 +214,11 @@ public class DatabaseTaskQueueServer
         return "q" + Long.toString(taskLockId) + "." + Integer.toString(queueId);
     }
 
-    private static boolean isSharedTaskLockId(String formatted)
-    {
-        return formatted.startsWith("s");
-    }
-
     private static long parseTaskLockId(String formatted)
     {
         return Long.parseLong(formatted.split("\\.", 2)[0].substring(1));
     }
 
-    private static int parseQueueId(String formatted)
-    {
-        String[] fragments = formatted.split("\\.");
-        if (fragments.length != 2) {
-            throw new IllegalArgumentException("Invalid queue-bound task lock id: " + formatted);
-        }
-        return Integer.parseInt(fragments[1]);
-    }
-
     @Override
     public void deleteTask(int siteId, String lockId, String agentId)
         throws TaskNotFoundException, TaskConflictException
@@ -229,6 +245,8 @@ public class DatabaseTaskQueueServer
 
             return true;
         }, TaskNotFoundException.class, TaskConflictException.class);
+
+        activeSiteMap.taskDeleted(siteId);
     }
 
     @Override
@@ -240,80 +258,123 @@ public class DatabaseTaskQueueServer
 
     private boolean forceDeleteTask0(long taskLockId)
     {
-        return this.transaction((handle, dao) -> {
+        boolean deleted = this.transaction((handle, dao) -> {
             int taskCount = dao.forceDeleteQueuedTask(taskLockId);
             int lockCount = dao.forceDeleteQueuedTaskLock(taskLockId);
             return taskCount > 0 || lockCount > 0;
         });
+        if (deleted) {
+            // site id of the task is unknown here
+            activeSiteMap.requestReconcile();
+        }
+        return deleted;
     }
 
     public List<String> taskHeartbeat(int siteId, List<String> lockedIds, String agentId, int lockSeconds)
     {
-        ImmutableList.Builder<String> notFoundList = ImmutableList.builder();
+        if (lockedIds.isEmpty()) {
+            return ImmutableList.of();
+        }
+
+        // queue id is not necessary because it's same with queued_task_locks.queue_id
+        Map<Long, String> formattedIdMap = new LinkedHashMap<>();
         for (String formatted : lockedIds) {
-            boolean success;
-            if (isSharedTaskLockId(formatted)) {
-                success = taskHeartbeat0(siteId, null, parseTaskLockId(formatted), agentId, lockSeconds);
-            }
-            else {
-                success = taskHeartbeat0(siteId, parseQueueId(formatted), parseTaskLockId(formatted), agentId, lockSeconds);
-            }
-            if (!success) {
-                notFoundList.add(formatted);
+            formattedIdMap.put(parseTaskLockId(formatted), formatted);
+        }
+        List<Long> taskLockIds = ImmutableList.copyOf(formattedIdMap.keySet());
+
+        Set<Long> updatedIds;
+        if (isEmbededDatabase()) {
+            updatedIds = taskHeartbeatBatch(siteId, taskLockIds, agentId, lockSeconds);
+        }
+        else {
+            updatedIds = taskHeartbeatArray(siteId, taskLockIds, agentId, lockSeconds);
+        }
+
+        ImmutableList.Builder<String> notFoundList = ImmutableList.builder();
+        for (Map.Entry<Long, String> pair : formattedIdMap.entrySet()) {
+            if (!updatedIds.contains(pair.getKey())) {
+                notFoundList.add(pair.getValue());
             }
         }
         return notFoundList.build();
     }
 
-    private boolean taskHeartbeat0(int siteId, Integer queueId, long taskLockId, String agentId, int lockSeconds)
+    private static final String TASK_HEARTBEAT_CONDITION_SQL =
+        " and lock_agent_id = :agentId" +
+        " and coalesce(site_id, (select site_id from queue_settings where id = queued_task_locks.queue_id)) = :siteId";
+
+    private static final String TASK_HEARTBEAT_BATCH_SQL =
+        "update queued_task_locks" +
+        " set lock_expire_time = :expireTime" +
+        " where id = :id" +
+        TASK_HEARTBEAT_CONDITION_SQL;
+
+    private static final String TASK_HEARTBEAT_ARRAY_SQL =
+        "update queued_task_locks" +
+        " set lock_expire_time = cast(" + STATEMENT_UNIX_TIMESTAMP_SQL + " as bigint) + :lockSeconds" +
+        " where id = any(:ids)" +
+        TASK_HEARTBEAT_CONDITION_SQL +
+        " returning id";
+
+    private Set<Long> taskHeartbeatBatch(int siteId, List<Long> taskLockIds, String agentId, int lockSeconds)
     {
+        // h2 doesn't support update ... returning. Use a batch and check update count of each id.
         return autoCommit((handle, dao) -> {
-            String lockExpireTimeSql;
-            if (isEmbededDatabase()) {
-                lockExpireTimeSql = Long.toString(Instant.now().getEpochSecond() + lockSeconds);
+            PreparedBatch batch = handle.prepareBatch(TASK_HEARTBEAT_BATCH_SQL);
+            long expireTime = Instant.now().getEpochSecond() + lockSeconds;
+            for (long taskLockId : taskLockIds) {
+                batch.add()
+                    .bind("expireTime", expireTime)
+                    .bind("id", taskLockId)
+                    .bind("agentId", agentId)
+                    .bind("siteId", siteId);
             }
-            else {
-                lockExpireTimeSql = statementUnixTimestampSql() + " + " + Integer.toString(lockSeconds);
+            int[] counts = batch.execute();
+
+            ImmutableSet.Builder<Long> builder = ImmutableSet.builder();
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) {
+                    builder.add(taskLockIds.get(i));
+                }
             }
-            return handle.createStatement(
-                    "update queued_task_locks" +
-                    " set lock_expire_time = " + lockExpireTimeSql +
-                    " where id = :id" +
-                    " and lock_agent_id = :agentId" +
-                    " and coalesce(site_id, (select site_id from queue_settings where id = :queueId)) = :siteId"
-                )
-                .bind("expireTime", Instant.now().getEpochSecond() + lockSeconds)
-                .bind("id", taskLockId)
-                .bind("agentId", agentId)
-                .bind("queueId", queueId)
-                .bind("siteId", siteId)
-                .execute();
-        }) > 0;
+            return builder.build();
+        });
+    }
+
+    private Set<Long> taskHeartbeatArray(int siteId, List<Long> taskLockIds, String agentId, int lockSeconds)
+    {
+        return autoCommit((handle, dao) -> {
+            Array idArray;
+            try {
+                idArray = handle.getConnection().createArrayOf("bigint", taskLockIds.toArray());
+            }
+            catch (SQLException ex) {
+                throw Throwables.propagate(ex);
+            }
+            return ImmutableSet.copyOf(
+                    handle.createQuery(TASK_HEARTBEAT_ARRAY_SQL)
+                    .bind("lockSeconds", lockSeconds)
+                    .bind("ids", idArray)
+                    .bind("agentId", agentId)
+                    .bind("siteId", siteId)
+                    .mapTo(long.class)
+                    .list());
+        });
     }
 
     @Override
     public List<TaskQueueLock> lockSharedAgentTasks(int count, String agentId, int lockSeconds, long maxSleepMillis)
     {
-        List<Integer> siteIds = autoCommit((handle, dao) -> dao.getActiveSiteIdList());
+        // Sites without lockable tasks are skipped without issuing queries.
+        List<Integer> siteIds = getLockableSiteIds();
         // Here shuffles siteIds to iterate in random order so that scheduling becomes slightly more fair across sites.
         // It also improves overhead when smaller siteIds tend to have more tasks than its siteMaxConcurrency.
         Collections.shuffle(siteIds);
         for (int siteId : siteIds) {
             List<Long> taskLockIds = tryLockSharedAgentTasks(siteId, count, agentId, lockSeconds);
             if (!taskLockIds.isEmpty()) {
-                ImmutableList.Builder<TaskQueueLock> builder = ImmutableList.builder();
-                for (long taskLockId : taskLockIds) {
-                    ImmutableTaskQueueLock data = autoCommit((handle, dao) -> dao.getTaskData(taskLockId));
-                    if (data == null) {
-                        // queued_task is deleted after tryLockSharedAgentTasks call.
-                        // it is possible just because there are 2 different transactions.
-                    }
-                    else {
-                        String lockId = formatSharedTaskLockId(taskLockId);
-                        builder.add(data.withLockId(lockId));
-                    }
-                }
-                return builder.build();
+                return getSharedTaskLocks(taskLockIds);
             }
         }
 
@@ -324,6 +385,90 @@ public class DatabaseTaskQueueServer
         return ImmutableList.of();
     }
 
+    private List<Integer> getLockableSiteIds()
+    {
+        if (activeSiteMap.isReconcileRequired()) {
+            // only one thread reconciles. other threads wait for it instead of issuing the same query.
+            synchronized (activeSiteReconcileLock) {
+                if (activeSiteMap.isReconcileRequired()) {
+                    long token = activeSiteMap.startReconcile();
+                    activeSiteMap.reconcile(token, fetchActiveSiteStates());
+                }
+            }
+        }
+        return activeSiteMap.getLockableSiteIds(queueConfig::getSiteMaxConcurrency);
+    }
+
+    private List<ActiveSiteMap.SiteState> fetchActiveSiteStates()
+    {
+        return autoCommit((handle, dao) -> {
+            // This doesn't count waiting tasks because it needs to scan all of them.
+            // getActiveSiteIdList finds sites with waiting tasks using an index, and
+            // running tasks are counted only for them. Number of running tasks is
+            // bounded by concurrency limits.
+            List<Integer> siteIds = dao.getActiveSiteIdList();
+            if (siteIds.isEmpty()) {
+                return ImmutableList.of();
+            }
+            Map<Integer, Integer> runningCounts = new HashMap<>();
+            List<Map.Entry<Integer, Integer>> rows = handle.createQuery(
+                    countRunningTasksOfSitesSql(inLargeIdListExpression(siteIds)))
+                .map((index, r, ctx) -> Maps.immutableEntry(r.getInt("site_id"), r.getInt("running")))
+                .list();
+            for (Map.Entry<Integer, Integer> row : rows) {
+                runningCounts.put(row.getKey(), row.getValue());
+            }
+            return siteIds.stream()
+                .map(siteId -> new ActiveSiteMap.SiteState(siteId, true, runningCounts.getOrDefault(siteId, 0)))
+                .collect(Collectors.toList());
+        });
+    }
+
+    // plan of this query is checked by TaskStateIndexPlanTest
+    @VisibleForTesting
+    static String countRunningTasksOfSitesSql(String siteIdListExpression)
+    {
+        return "select site_id, count(*) as running" +
+            " from queued_task_locks" +
+            " where site_id " + siteIdListExpression +
+            " and lock_expire_time is not null" +
+            " group by site_id";
+    }
+
+    @VisibleForTesting
+    List<TaskQueueLock> getSharedTaskLocks(List<Long> taskLockIds)
+    {
+        // fetch unique_name and data of all locked tasks using a single statement
+        // instead of issuing a query for each lock id.
+        List<ImmutableTaskQueueLock> list = autoCommit((handle, dao) ->
+                handle.createQuery(
+                    "select id, unique_name, data from queued_tasks" +
+                    " where id " + inLargeIdListExpression(taskLockIds)
+                )
+                .map(new ImmutableTaskQueueLockMapper())
+                .list()
+            );
+
+        Map<String, ImmutableTaskQueueLock> map = new HashMap<>();
+        for (ImmutableTaskQueueLock lock : list) {
+            map.put(lock.getLockId(), lock);
+        }
+
+        // keep the order of tryLockSharedAgentTasks (priority desc, id)
+        ImmutableList.Builder<TaskQueueLock> builder = ImmutableList.builder();
+        for (long taskLockId : taskLockIds) {
+            ImmutableTaskQueueLock lock = map.get(formatSharedTaskLockId(taskLockId));
+            if (lock == null) {
+                // queued_task is deleted after tryLockSharedAgentTasks call.
+                // it is possible just because there are 2 different transactions.
+            }
+            else {
+                builder.add(lock);
+            }
+        }
+        return builder.build();
+    }
+
     private List<Long> tryLockSharedAgentTasks(int siteId,
             int count, String agentId, int lockSeconds)
     {
@@ -340,8 +485,10 @@ public class DatabaseTaskQueueServer
         }
 
         try {
+            long siteVersion = activeSiteMap.getSiteVersion(siteId);
+            List<Long> lockedIds;
             if (isEmbededDatabase()) {
-                return transaction((handle, dao) -> {
+                lockedIds = transaction((handle, dao) -> {
                     List<Long> taskLockIds = handle.createQuery(
                             "select id " +
                             "from queued_task_locks " +
@@ -390,7 +537,7 @@ public class DatabaseTaskQueueServer
             }
             else {
                 // see DatabaseMigrator for the definition of lock_shared_tasks function.
-                return autoCommit((handle, dao) ->
+                lockedIds = autoCommit((handle, dao) ->
                         handle.createQuery(
                             "select lock_shared_tasks(:siteId, :siteMaxConcurrency, :limit, :lockExpireSeconds, :agentId)"
                         )
@@ -403,39 +550,44 @@ public class DatabaseTaskQueueServer
                         .list()
                     );
             }
+
+            if (lockedIds.isEmpty()) {
+                // skip this site until its tasks change (e.g. queue concurrency limit)
+                activeSiteMap.noTasksLocked(siteId, siteVersion);
+            }
+            else {
+                activeSiteMap.tasksLocked(siteId, lockedIds.size());
+            }
+            return lockedIds;
         }
         finally {
             localLockMap.unlock(siteId);
         }
     }
 
+    private static final String EXPIRE_LOCKS_SQL =
+        "update queued_task_locks" +
+        " set lock_expire_time = NULL, lock_agent_id = NULL, retry_count = retry_count + 1" +
+        " where lock_expire_time is not null";
+
     @VisibleForTesting
     void expireLocks()
     {
         try {
             int c = autoCommit((handle, dao) -> {
                 if (isEmbededDatabase()) {
-                    return handle.createStatement(
-                            "update queued_task_locks" +
-                                    " set lock_expire_time = NULL, lock_agent_id = NULL, retry_count = retry_count + 1" +
-                                    " where lock_expire_time is not null" +
-                                    " and lock_expire_time < :expireTime"
-                    )
+                    return handle.createStatement(EXPIRE_LOCKS_SQL + " and lock_expire_time < :expireTime")
                             .bind("expireTime", Instant.now().getEpochSecond())
                             .execute();
                 }
                 else {
-                    return handle.createStatement(
-                            "update queued_task_locks" +
-                                    " set lock_expire_time = NULL, lock_agent_id = NULL, retry_count = retry_count + 1" +
-                                    " where lock_expire_time is not null" +
-                                    " and lock_expire_time < " + statementUnixTimestampSql()
-                    )
+                    return handle.createStatement(EXPIRE_LOCKS_SQL + " and lock_expire_time < " + STATEMENT_UNIX_TIMESTAMP_SQL)
                             .execute();
                 }
             });
             if (c > 0) {
                 logger.warn("{} task locks are expired. Tasks will be retried.", c);
+                activeSiteMap.requestReconcile();
             }
         }
         catch (Throwable t) {
@@ -452,7 +604,7 @@ public class DatabaseTaskQueueServer
                 throws SQLException
         {
             return ImmutableTaskQueueLock.builder()
-                .lockId("")  // should be reset later
+                .lockId(formatSharedTaskLockId(r.getLong("id")))
                 .uniqueName(r.getString("unique_name"))
                 .data(getOptionalBytes(r, "data"))
                 .build();
@@ -504,9 +656,6 @@ public class DatabaseTaskQueueServer
                 @Bind("siteId") Integer siteId, @Bind("queueId") Integer queueId,
                 @Bind("priority") int priority);
 
-        @SqlQuery("select unique_name, data from queued_tasks where id = :taskLockId")
-        ImmutableTaskQueueLock getTaskData(@Bind("taskLockId") long taskLockId);
-
         @SqlUpdate("delete from queued_task_locks" +
                 " where id = :taskLockId" +
                 " and lock_agent_id = :agentId")
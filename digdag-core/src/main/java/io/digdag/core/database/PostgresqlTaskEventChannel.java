@@ -0,0 +1,231 @@
+package io.digdag.core.database;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongConsumer;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * TaskEventChannel using LISTEN/NOTIFY of PostgreSQL.
+ *
+ * A dedicated connection, which is not a part of the connection pool, runs
+ * LISTEN. Published ids are coalesced and sent by NOTIFY every
+ * POLL_INTERVAL_MILLIS from the same connection instead of NOTIFY in the
+ * publisher's transaction, because NOTIFY serializes commits of all
+ * transactions that issue it.
+ *
+ * When the connection is not available, published events are dropped and
+ * this channel retries to connect in background. Receivers wake up by their
+ * polling in the meantime.
+ */
+public class PostgresqlTaskEventChannel
+        implements TaskEventChannel, AutoCloseable
+{
+    private static final Logger logger = LoggerFactory.getLogger(PostgresqlTaskEventChannel.class);
+
+    private static final int POLL_INTERVAL_MILLIS = 50;
+    private static final int INITIAL_RECONNECT_INTERVAL_MILLIS = 1000;
+    private static final int MAX_RECONNECT_INTERVAL_MILLIS = 30000;
+    // payload of NOTIFY must be shorter than 8000 bytes
+    private static final int MAX_PAYLOAD_LENGTH = 7000;
+
+    private final DatabaseConfig config;
+    private final Map<Event, List<LongConsumer>> listeners = new EnumMap<>(Event.class);
+    private final Map<Event, Set<Long>> pending = new EnumMap<>(Event.class);
+    private final Thread thread;
+
+    private volatile boolean connected = false;
+    private volatile boolean stop = false;
+    private Connection connection;  // used only by thread
+
+    public PostgresqlTaskEventChannel(DatabaseConfig config)
+    {
+        this.config = config;
+        for (Event event : Event.values()) {
+            listeners.put(event, new CopyOnWriteArrayList<>());
+            pending.put(event, ConcurrentHashMap.newKeySet());
+        }
+        this.thread = new Thread(this::run, "task-event-channel");
+        thread.setDaemon(true);
+    }
+
+    public void start()
+    {
+        thread.start();
+    }
+
+    @Override
+    public void publish(Event event, long id)
+    {
+        if (connected) {
+            pending.get(event).add(id);
+        }
+    }
+
+    @Override
+    public void addListener(Event event, LongConsumer listener)
+    {
+        listeners.get(event).add(listener);
+    }
+
+    @Override
+    public void close()
+    {
+        stop = true;
+        thread.interrupt();
+        try {
+            thread.join();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run()
+    {
+        int reconnectInterval = INITIAL_RECONNECT_INTERVAL_MILLIS;
+        try {
+            while (!stop) {
+                try {
+                    if (connection == null) {
+                        connect();
+                        reconnectInterval = INITIAL_RECONNECT_INTERVAL_MILLIS;
+                    }
+                    flush();
+                    receive();
+                    Thread.sleep(POLL_INTERVAL_MILLIS);
+                }
+                catch (SQLException | RuntimeException ex) {
+                    logger.warn("Task event channel is unavailable. Servers wake up by polling until it reconnects in {} seconds.",
+                            reconnectInterval / 1000, ex);
+                    disconnect();
+                    Thread.sleep(reconnectInterval);
+                    reconnectInterval = Math.min(reconnectInterval * 2, MAX_RECONNECT_INTERVAL_MILLIS);
+                }
+            }
+        }
+        catch (InterruptedException ex) {
+            // stop
+        }
+        finally {
+            disconnect();
+        }
+    }
+
+    private void connect()
+            throws SQLException
+    {
+        this.connection = DriverManager.getConnection(
+                DatabaseConfig.buildJdbcUrl(config),
+                DatabaseConfig.buildJdbcProperties(config));
+        connection.setAutoCommit(true);
+        try (Statement stmt = connection.createStatement()) {
+            for (Event event : Event.values()) {
+                stmt.execute("LISTEN " + event.getChannelName());
+            }
+        }
+        this.connected = true;
+        logger.info("Task event channel started listening to PostgreSQL notifications");
+    }
+
+    private void disconnect()
+    {
+        this.connected = false;
+        for (Set<Long> ids : pending.values()) {
+            ids.clear();
+        }
+        if (connection != null) {
+            try {
+                connection.close();
+            }
+            catch (SQLException ex) {
+                logger.debug("Failed to close a connection of task event channel", ex);
+            }
+            connection = null;
+        }
+    }
+
+    private void flush()
+            throws SQLException
+    {
+        for (Map.Entry<Event, Set<Long>> pair : pending.entrySet()) {
+            StringBuilder payload = new StringBuilder();
+            Iterator<Long> ite = pair.getValue().iterator();
+            while (ite.hasNext()) {
+                long id = ite.next();
+                ite.remove();
+                if (payload.length() > 0) {
+                    payload.append(',');
+                }
+                payload.append(id);
+                if (payload.length() > MAX_PAYLOAD_LENGTH) {
+                    notify(pair.getKey(), payload.toString());
+                    payload.setLength(0);
+                }
+            }
+            if (payload.length() > 0) {
+                notify(pair.getKey(), payload.toString());
+            }
+        }
+    }
+
+    private void notify(Event event, String payload)
+            throws SQLException
+    {
+        try (PreparedStatement stmt = connection.prepareStatement("select pg_notify(?, ?)")) {
+            stmt.setString(1, event.getChannelName());
+            stmt.setString(2, payload);
+            stmt.executeQuery().close();
+        }
+    }
+
+    private void receive()
+            throws SQLException
+    {
+        // PostgreSQL JDBC driver reads notifications only when it runs a query
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeQuery("select 1").close();
+        }
+        PGNotification[] notifications = connection.unwrap(PGConnection.class).getNotifications();
+        if (notifications == null) {
+            return;
+        }
+        for (PGNotification notification : notifications) {
+            for (Event event : Event.values()) {
+                if (event.getChannelName().equals(notification.getName())) {
+                    dispatch(event, notification.getParameter());
+                }
+            }
+        }
+    }
+
+    private void dispatch(Event event, String payload)
+    {
+        for (String id : payload.split(",")) {
+            if (id.isEmpty()) {
+                continue;
+            }
+            for (LongConsumer listener : listeners.get(event)) {
+                try {
+                    listener.accept(Long.parseLong(id));
+                }
+                catch (RuntimeException ex) {
+                    logger.error("Uncaught exception in a listener of task event {}", event, ex);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package io.digdag.core.database;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read-only replica of the database configured by database.replica.* params.
+ *
+ * Replication lag is measured by a background thread every LAG_CHECK_INTERVAL
+ * so that transactions don't wait for the replica. A read-only transaction uses
+ * the replica only if the last measured lag plus the time elapsed since the
+ * measurement is within the staleness that the caller accepts. If the lag can't
+ * be measured, or the last measurement is older than MAX_MEASUREMENT_AGE (e.g.
+ * the replica doesn't respond), the replica is considered to be stale and the
+ * primary database is used.
+ */
+public class ReadReplica
+{
+    private static final Logger logger = LoggerFactory.getLogger(ReadReplica.class);
+
+    static final Duration LAG_CHECK_INTERVAL = Duration.ofSeconds(1);
+    static final Duration MAX_MEASUREMENT_AGE = Duration.ofSeconds(5);
+
+    private static final String LAG_QUERY =
+        "select case when pg_is_in_recovery()" +
+        " then extract(epoch from (now() - pg_last_xact_replay_timestamp()))" +
+        " else 0 end";
+
+    private static class LagMeasurement
+    {
+        private final Optional<Duration> lag;
+        private final long measuredAt;
+
+        LagMeasurement(Optional<Duration> lag, long measuredAt)
+        {
+            this.lag = lag;
+            this.measuredAt = measuredAt;
+        }
+    }
+
+    private final Optional<DataSourceProvider> dsp;
+    private volatile LagMeasurement lastMeasurement = null;
+    private ScheduledExecutorService lagChecker = null;
+
+    @Inject
+    public ReadReplica(DatabaseConfig config)
+    {
+        this(createDataSourceProvider(config));
+    }
+
+    ReadReplica(Optional<DataSourceProvider> dsp)
+    {
+        this.dsp = dsp;
+    }
+
+    private static Optional<DataSourceProvider> createDataSourceProvider(DatabaseConfig config)
+    {
+        if (!config.getReadReplicaConfig().isPresent()) {
+            return Optional.absent();
+        }
+        // The replica serves only read-only REST API requests. Its pool keeps no idle connections
+        // by default so that enabling a replica doesn't double idle connections of a server.
+        int maximumPoolSize = config.getReplicaMaximumPoolSize().or(config.getMaximumPoolSize());
+        int minimumPoolSize = Math.min(config.getReplicaMinimumPoolSize().or(0), maximumPoolSize);
+        DatabaseConfig replicaConfig = DatabaseConfig.builder()
+            .from(config)
+            .remoteDatabaseConfig(config.getReadReplicaConfig())
+            .readReplicaConfig(Optional.absent())
+            .callerPoolSizes(ImmutableMap.of())
+            .maximumPoolSize(maximumPoolSize)
+            .minimumPoolSize(minimumPoolSize)
+            .replicaMaximumPoolSize(Optional.absent())
+            .replicaMinimumPoolSize(Optional.absent())
+            .build();
+        return Optional.of(new DataSourceProvider(replicaConfig));
+    }
+
+    @PostConstruct
+    public synchronized void start()
+    {
+        if (isEnabled() && lagChecker == null) {
+            lagChecker = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder()
+                    .setDaemon(true)
+                    .setNameFormat("replica-lag-check-%d")
+                    .build()
+                    );
+            lagChecker.scheduleWithFixedDelay(this::checkLag,
+                    0, LAG_CHECK_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public Optional<DataSource> getDataSourceIfFresh(Duration maxStaleness)
+    {
+        if (!isEnabled()) {
+            return Optional.absent();
+        }
+        LagMeasurement measurement = lastMeasurement;
+        if (measurement == null || !measurement.lag.isPresent()) {
+            return Optional.absent();
+        }
+        Duration age = Duration.ofNanos(nanoTime() - measurement.measuredAt);
+        if (age.compareTo(MAX_MEASUREMENT_AGE) > 0) {
+            return Optional.absent();
+        }
+        if (measurement.lag.get().plus(age).compareTo(maxStaleness) <= 0) {
+            return Optional.of(getDataSource());
+        }
+        return Optional.absent();
+    }
+
+    void checkLag()
+    {
+        // time before the query so that the elapsed time is not underestimated
+        long startedAt = nanoTime();
+        lastMeasurement = new LagMeasurement(measureLag(), startedAt);
+    }
+
+    boolean isEnabled()
+    {
+        return dsp.isPresent();
+    }
+
+    DataSource getDataSource()
+    {
+        return dsp.get().get();
+    }
+
+    long nanoTime()
+    {
+        return System.nanoTime();
+    }
+
+    Optional<Duration> measureLag()
+    {
+        try (Connection conn = getDataSource().getConnection();
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery(LAG_QUERY)) {
+            if (!rs.next()) {
+                return Optional.absent();
+            }
+            double seconds = rs.getDouble(1);
+            if (rs.wasNull()) {
+                // nothing is replayed yet
+                return Optional.absent();
+            }
+            return Optional.of(Duration.ofMillis((long) (Math.max(seconds, 0.0) * 1000)));
+        }
+        catch (SQLException | RuntimeException ex) {
+            logger.warn("Failed to check replication lag of the read replica. Using the primary database.", ex);
+            return Optional.absent();
+        }
+    }
+
+    @PreDestroy
+    public synchronized void close()
+    {
+        if (lagChecker != null) {
+            lagChecker.shutdownNow();
+            lagChecker = null;
+        }
+        if (dsp.isPresent()) {
+            dsp.get().close();
+        }
+    }
+}
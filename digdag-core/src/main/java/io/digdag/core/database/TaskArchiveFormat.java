@@ -0,0 +1,192 @@
+package io.digdag.core.database;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.google.common.base.Optional;
+import io.digdag.core.session.ArchivedTask;
+import io.digdag.core.session.ImmutableTaskStateSummary;
+import io.digdag.core.session.TaskStateSummary;
+
+/**
+ * Binary format of task_archives.archive column.
+ *
+ * Layout:
+ *
+ *   magic "DTA" + version (4 bytes)
+ *   length of summary section (int32)
+ *   summary section: gzip(smile(List of TaskStateSummary))
+ *   task section: gzip(smile(List of ArchivedTask))
+ *
+ * Summary section is small so that states of tasks can be read without
+ * decompressing and deserializing all configs and params of the tasks.
+ * Archives written by older versions are JSON text in task_archives.tasks
+ * column and handled by DatabaseSessionStoreManager.
+ */
+class TaskArchiveFormat
+{
+    private static final byte[] MAGIC = new byte[] { 'D', 'T', 'A', 1 };
+
+    private final ObjectMapper mapper;
+    private final SmileFactory smile = new SmileFactory();
+    private final JavaType taskListType;
+    private final JavaType summaryListType;
+
+    TaskArchiveFormat(ObjectMapper mapper)
+    {
+        this.mapper = mapper;
+        this.taskListType = mapper.getTypeFactory().constructCollectionType(List.class, ArchivedTask.class);
+        this.summaryListType = mapper.getTypeFactory().constructCollectionType(List.class, TaskStateSummary.class);
+    }
+
+    byte[] encode(List<ArchivedTask> tasks)
+    {
+        List<TaskStateSummary> summaries = tasks.stream()
+            .map(TaskArchiveFormat::summarize)
+            .collect(Collectors.toList());
+
+        try {
+            byte[] summarySection = compress(summaries);
+            byte[] taskSection = compress(tasks);
+            ByteArrayOutputStream bout = new ByteArrayOutputStream(MAGIC.length + 4 + summarySection.length + taskSection.length);
+            DataOutputStream out = new DataOutputStream(bout);
+            out.write(MAGIC);
+            out.writeInt(summarySection.length);
+            out.write(summarySection);
+            out.write(taskSection);
+            out.flush();
+            return bout.toByteArray();
+        }
+        catch (IOException ex) {
+            throw new RuntimeException("Failed to create task archive", ex);
+        }
+    }
+
+    static TaskStateSummary summarize(ArchivedTask task)
+    {
+        return ImmutableTaskStateSummary.builder()
+            .id(task.getId())
+            .parentId(task.getParentId())
+            .state(task.getState())
+            .updatedAt(task.getUpdatedAt())
+            .build();
+    }
+
+    List<ArchivedTask> decodeTasks(byte[] data)
+    {
+        try {
+            DataInputStream in = openArchive(data);
+            int summaryLength = in.readInt();
+            int offset = MAGIC.length + 4 + summaryLength;
+            return decompress(new ByteArrayInputStream(data, offset, data.length - offset), taskListType);
+        }
+        catch (IOException ex) {
+            throw new RuntimeException("Failed to load task archive", ex);
+        }
+    }
+
+    // Reads at most limit tasks whose id is larger than lastId. Tasks are
+    // ordered by id in an archive. Tasks before lastId are located using the
+    // summary section and skipped without deserializing them, and the task
+    // section is deserialized one by one so that a page of a large archive
+    // doesn't build all tasks in memory.
+    List<ArchivedTask> decodeTasks(byte[] data, Optional<Long> lastId, int limit)
+    {
+        int skip = 0;
+        if (lastId.isPresent()) {
+            for (TaskStateSummary summary : decodeSummaries(data)) {
+                if (summary.getId() > lastId.get()) {
+                    break;
+                }
+                skip++;
+            }
+        }
+
+        try {
+            DataInputStream in = openArchive(data);
+            int summaryLength = in.readInt();
+            int offset = MAGIC.length + 4 + summaryLength;
+            try (InputStream gzip = new GZIPInputStream(new ByteArrayInputStream(data, offset, data.length - offset));
+                    JsonParser parser = smile.createParser(gzip)) {
+                if (parser.nextToken() != JsonToken.START_ARRAY) {
+                    throw new IOException("Task section of a task archive must be an array");
+                }
+                List<ArchivedTask> tasks = new ArrayList<>();
+                while (tasks.size() < limit && parser.nextToken() == JsonToken.START_OBJECT) {
+                    if (skip > 0) {
+                        parser.skipChildren();
+                        skip--;
+                    }
+                    else {
+                        tasks.add(mapper.readValue(parser, ArchivedTask.class));
+                    }
+                }
+                return tasks;
+            }
+        }
+        catch (IOException ex) {
+            throw new RuntimeException("Failed to load task archive", ex);
+        }
+    }
+
+    List<TaskStateSummary> decodeSummaries(byte[] data)
+    {
+        try {
+            DataInputStream in = openArchive(data);
+            int summaryLength = in.readInt();
+            return decompress(new ByteArrayInputStream(data, MAGIC.length + 4, summaryLength), summaryListType);
+        }
+        catch (IOException ex) {
+            throw new RuntimeException("Failed to load task archive", ex);
+        }
+    }
+
+    private static DataInputStream openArchive(byte[] data)
+        throws IOException
+    {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (magic[i] != MAGIC[i]) {
+                throw new IOException("Unsupported task archive format");
+            }
+        }
+        return in;
+    }
+
+    private byte[] compress(Object value)
+        throws IOException
+    {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(bout);
+                JsonGenerator gen = smile.createGenerator(out)) {
+            mapper.writeValue(gen, value);
+        }
+        return bout.toByteArray();
+    }
+
+    private <T> T decompress(InputStream compressed, JavaType type)
+        throws IOException
+    {
+        try (InputStream in = new GZIPInputStream(compressed);
+                JsonParser parser = smile.createParser(in)) {
+            return mapper.readValue(parser, type);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package io.digdag.core.database;
+
+import java.util.function.LongConsumer;
+
+/**
+ * Broadcasts task events to all servers that share the same database so that
+ * waiting threads on other servers wake up without waiting for next polling.
+ *
+ * Events are best-effort. Receivers must not assume that every event is
+ * delivered. Publishers publish events after their transactions commit
+ * (TransactionManager.afterCommit) so that receivers see the changes.
+ */
+public interface TaskEventChannel
+{
+    enum Event
+    {
+        // id is an attempt id
+        TASK_STATE_CHANGED("digdag_task_state_changed"),
+
+        // id is a queued task id
+        TASK_ENQUEUED("digdag_task_enqueued");
+
+        private final String channelName;
+
+        Event(String channelName)
+        {
+            this.channelName = channelName;
+        }
+
+        public String getChannelName()
+        {
+            return channelName;
+        }
+    }
+
+    void publish(Event event, long id);
+
+    void addListener(Event event, LongConsumer listener);
+}
@@ -0,0 +1,55 @@
+package io.digdag.core.database;
+
+import javax.annotation.PreDestroy;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import io.digdag.client.config.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class TaskEventChannelProvider
+        implements Provider<TaskEventChannel>, AutoCloseable
+{
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final DatabaseConfig config;
+    private final boolean enabled;
+    private TaskEventChannel channel;
+    private PostgresqlTaskEventChannel closer;
+
+    @Inject
+    public TaskEventChannelProvider(DatabaseConfig config, Config systemConfig)
+    {
+        this.config = config;
+        this.enabled = systemConfig.get("database.listenNotify", boolean.class, false);
+    }
+
+    @Override
+    public synchronized TaskEventChannel get()
+    {
+        if (channel == null) {
+            if (enabled && DatabaseConfig.isPostgres(config.getType())) {
+                PostgresqlTaskEventChannel pg = new PostgresqlTaskEventChannel(config);
+                pg.start();
+                this.channel = pg;
+                this.closer = pg;
+            }
+            else {
+                if (enabled) {
+                    logger.warn("database.listenNotify is enabled but database type {} doesn't support it. Servers wake up by polling.", config.getType());
+                }
+                this.channel = new DisabledTaskEventChannel();
+            }
+        }
+        return channel;
+    }
+
+    @PreDestroy
+    public synchronized void close()
+    {
+        if (closer != null) {
+            closer.close();
+            closer = null;
+        }
+    }
+}
@@ -1,7 +1,10 @@
 package io.digdag.core.database;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
 import com.google.inject.Inject;
+import io.digdag.core.repository.ResourceNotFoundException;
 import org.skife.jdbi.v2.DBI;
 import org.skife.jdbi.v2.Handle;
 import org.skife.jdbi.v2.exceptions.TransactionFailedException;
@@ -9,7 +12,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import javax.sql.DataSource;
@@ -25,6 +35,9 @@ public class ThreadLocalTransactionManager
     private final ThreadLocal<Transaction> threadLocalTransaction = new ThreadLocal<>();
     private final ThreadLocal<Transaction> threadLocalAutoCommitTransaction = new ThreadLocal<>();
     private final DataSource ds;
+    private final ReadReplica replica;
+    private final boolean cacheStatements;
+    private final Map<DataSource, Map<ConfigMapper, DBI>> dbiCache = new ConcurrentHashMap<>();
 
     private static class LazyTransaction
             implements Transaction
@@ -36,21 +49,22 @@ public class ThreadLocalTransactionManager
             COMMITTED;
         }
 
-        private final DataSource ds;
+        private final Function<ConfigMapper, DBI> dbiFactory;
+        private final boolean cacheDaos;
         private final boolean autoAutoCommit;
+        private final boolean readOnly;
+        private final Map<Class<?>, Object> daos = new HashMap<>();
+        private final List<Runnable> afterCommitActions = new ArrayList<>();
         private Handle handle;
         private State state = State.ACTIVE;
         private final StackTraceElement[] stackTrace;
 
-        LazyTransaction(DataSource ds)
+        LazyTransaction(Function<ConfigMapper, DBI> dbiFactory, boolean cacheDaos, boolean autoAutoCommit, boolean readOnly)
         {
-            this(ds, false);
-        }
-
-        LazyTransaction(DataSource ds, boolean autoAutoCommit)
-        {
-            this.ds = checkNotNull(ds);
+            this.dbiFactory = checkNotNull(dbiFactory);
+            this.cacheDaos = cacheDaos;
             this.autoAutoCommit = autoAutoCommit;
+            this.readOnly = readOnly;
             this.stackTrace = Thread.currentThread().getStackTrace();
         }
 
@@ -62,36 +76,7 @@ public class ThreadLocalTransactionManager
             }
 
             if (handle == null) {
-                DBI dbi = new DBI(ds);
-                ConfigKeyListMapper cklm = new ConfigKeyListMapper();
-                dbi.registerMapper(new DatabaseProjectStoreManager.StoredProjectMapper(configMapper));
-                dbi.registerMapper(new DatabaseProjectStoreManager.StoredRevisionMapper(configMapper));
-                dbi.registerMapper(new DatabaseProjectStoreManager.StoredWorkflowDefinitionMapper(configMapper));
-                dbi.registerMapper(new DatabaseProjectStoreManager.StoredWorkflowDefinitionWithProjectMapper(configMapper));
-                dbi.registerMapper(new DatabaseProjectStoreManager.WorkflowConfigMapper());
-                dbi.registerMapper(new DatabaseProjectStoreManager.IdNameMapper());
-                dbi.registerMapper(new DatabaseProjectStoreManager.ScheduleStatusMapper());
-                dbi.registerMapper(new DatabaseQueueSettingStoreManager.StoredQueueSettingMapper(configMapper));
-                dbi.registerMapper(new DatabaseScheduleStoreManager.StoredScheduleMapper(configMapper));
-                dbi.registerMapper(new DatabaseSessionStoreManager.StoredTaskMapper(configMapper));
-                dbi.registerMapper(new DatabaseSessionStoreManager.ArchivedTaskMapper(cklm, configMapper));
-                dbi.registerMapper(new DatabaseSessionStoreManager.ResumingTaskMapper(cklm, configMapper));
-                dbi.registerMapper(new DatabaseSessionStoreManager.StoredSessionMapper(configMapper));
-                dbi.registerMapper(new DatabaseSessionStoreManager.StoredSessionWithLastAttemptMapper(configMapper));
-                dbi.registerMapper(new DatabaseSessionStoreManager.StoredSessionAttemptMapper(configMapper));
-                dbi.registerMapper(new DatabaseSessionStoreManager.StoredSessionAttemptWithSessionMapper(configMapper));
-                dbi.registerMapper(new DatabaseSessionStoreManager.TaskStateSummaryMapper());
-                dbi.registerMapper(new DatabaseSessionStoreManager.TaskAttemptSummaryMapper());
-                dbi.registerMapper(new DatabaseSessionStoreManager.SessionAttemptSummaryMapper());
-                dbi.registerMapper(new DatabaseSessionStoreManager.StoredSessionMonitorMapper(configMapper));
-                dbi.registerMapper(new DatabaseSessionStoreManager.StoredDelayedSessionAttemptMapper());
-                dbi.registerMapper(new DatabaseSessionStoreManager.TaskRelationMapper());
-                dbi.registerMapper(new DatabaseSessionStoreManager.InstantMapper());
-                dbi.registerMapper(new DatabaseSecretStore.ScopedSecretMapper());
-                dbi.registerMapper(new DatabaseTaskQueueServer.ImmutableTaskQueueLockMapper());
-
-                dbi.registerArgumentFactory(configMapper.getArgumentFactory());
-                handle = dbi.open();
+                handle = dbiFactory.apply(configMapper).open();
 
                 try {
                     handle.getConnection().setAutoCommit(autoAutoCommit);
@@ -99,6 +84,14 @@ public class ThreadLocalTransactionManager
                 catch (SQLException ex) {
                     throw new TransactionFailedException("Failed to set auto commit: " + autoAutoCommit, ex);
                 }
+                if (readOnly) {
+                    try {
+                        handle.getConnection().setReadOnly(true);
+                    }
+                    catch (SQLException ex) {
+                        throw new TransactionFailedException("Failed to set read only", ex);
+                    }
+                }
                 if (!autoAutoCommit) {
                     handle.begin();
                 }
@@ -106,6 +99,22 @@ public class ThreadLocalTransactionManager
             return handle;
         }
 
+        @Override
+        public <D> D attach(ConfigMapper configMapper, Class<D> daoIface)
+        {
+            Handle handle = getHandle(configMapper);
+            if (!cacheDaos) {
+                return handle.attach(daoIface);
+            }
+            // a Dao is bound to the handle. reuse it during the transaction.
+            Object dao = daos.get(daoIface);
+            if (dao == null) {
+                dao = handle.attach(daoIface);
+                daos.put(daoIface, dao);
+            }
+            return daoIface.cast(dao);
+        }
+
         @Override
         public void commit()
         {
@@ -163,12 +172,41 @@ public class ThreadLocalTransactionManager
         public void reset()
         {
             abort();
+            afterCommitActions.clear();
             state = State.ACTIVE;
         }
 
+        @Override
+        public void afterCommit(Runnable action)
+        {
+            if (autoAutoCommit) {
+                runAfterCommitAction(action);
+            }
+            else {
+                afterCommitActions.add(action);
+            }
+        }
+
+        void runAfterCommitActions()
+        {
+            for (Runnable action : afterCommitActions) {
+                runAfterCommitAction(action);
+            }
+            afterCommitActions.clear();
+        }
+
         void close()
         {
             if (handle != null) {
+                if (readOnly) {
+                    try {
+                        // connections are returned to the pool
+                        handle.getConnection().setReadOnly(false);
+                    }
+                    catch (SQLException ex) {
+                        logger.warn("Failed to reset read only flag of a connection", ex);
+                    }
+                }
                 handle.close();
             }
         }
@@ -178,6 +216,7 @@ public class ThreadLocalTransactionManager
         {
             return "LazyTransaction{" +
                     "autoAutoCommit=" + autoAutoCommit +
+                    ", readOnly=" + readOnly +
                     ", handle=" + handle +
                     ", state=" + state +
                     ", stackTrace=[\n" + Arrays.stream(stackTrace)
@@ -188,20 +227,86 @@ public class ThreadLocalTransactionManager
     }
 
     @Inject
+    public ThreadLocalTransactionManager(DataSource ds, ReadReplica replica)
+    {
+        this(ds, replica, false, true);
+    }
+
     public ThreadLocalTransactionManager(DataSource ds)
     {
         this(ds, false);
     }
 
     ThreadLocalTransactionManager(DataSource ds, boolean autoAutoCommit)
+    {
+        this(ds, null, autoAutoCommit, true);
+    }
+
+    @VisibleForTesting
+    ThreadLocalTransactionManager(DataSource ds, ReadReplica replica, boolean autoAutoCommit, boolean cacheStatements)
     {
         this.ds = checkNotNull(ds);
+        this.replica = replica;
+        this.cacheStatements = cacheStatements;
         if (autoAutoCommit) {
-            LazyTransaction transaction = new LazyTransaction(ds, true);
+            LazyTransaction transaction = newTransaction(ds, true, false);
             threadLocalTransaction.set(transaction);
         }
     }
 
+    private LazyTransaction newTransaction(DataSource ds, boolean autoAutoCommit, boolean readOnly)
+    {
+        return new LazyTransaction(configMapper -> getDbi(ds, configMapper), cacheStatements, autoAutoCommit, readOnly);
+    }
+
+    // DBI holds mappers and is thread-safe. It's created once for each DataSource
+    // instead of registering all mappers for each transaction.
+    private DBI getDbi(DataSource ds, ConfigMapper configMapper)
+    {
+        if (!cacheStatements) {
+            return createDbi(ds, configMapper, false);
+        }
+        return dbiCache.computeIfAbsent(ds, key -> new ConcurrentHashMap<>())
+            .computeIfAbsent(configMapper, key -> createDbi(ds, configMapper, true));
+    }
+
+    private static DBI createDbi(DataSource ds, ConfigMapper configMapper, boolean cacheStatements)
+    {
+        DBI dbi = new DBI(ds);
+        ConfigKeyListMapper cklm = new ConfigKeyListMapper();
+        dbi.registerMapper(new DatabaseProjectStoreManager.StoredProjectMapper(configMapper));
+        dbi.registerMapper(new DatabaseProjectStoreManager.StoredRevisionMapper(configMapper));
+        dbi.registerMapper(new DatabaseProjectStoreManager.StoredWorkflowDefinitionMapper(configMapper));
+        dbi.registerMapper(new DatabaseProjectStoreManager.StoredWorkflowDefinitionWithProjectMapper(configMapper));
+        dbi.registerMapper(new DatabaseProjectStoreManager.WorkflowConfigMapper());
+        dbi.registerMapper(new DatabaseProjectStoreManager.IdNameMapper());
+        dbi.registerMapper(new DatabaseProjectStoreManager.ScheduleStatusMapper());
+        dbi.registerMapper(new DatabaseQueueSettingStoreManager.StoredQueueSettingMapper(configMapper));
+        dbi.registerMapper(new DatabaseScheduleStoreManager.StoredScheduleMapper(configMapper));
+        dbi.registerMapper(new DatabaseSessionStoreManager.StoredTaskMapper(configMapper));
+        dbi.registerMapper(new DatabaseSessionStoreManager.ArchivedTaskMapper(cklm, configMapper));
+        dbi.registerMapper(new DatabaseSessionStoreManager.ResumingTaskMapper(cklm, configMapper));
+        dbi.registerMapper(new DatabaseSessionStoreManager.StoredSessionMapper(configMapper));
+        dbi.registerMapper(new DatabaseSessionStoreManager.StoredSessionWithLastAttemptMapper(configMapper));
+        dbi.registerMapper(new DatabaseSessionStoreManager.StoredSessionAttemptMapper(configMapper));
+        dbi.registerMapper(new DatabaseSessionStoreManager.StoredSessionAttemptWithSessionMapper(configMapper));
+        dbi.registerMapper(new DatabaseSessionStoreManager.TaskStateSummaryMapper());
+        dbi.registerMapper(new DatabaseSessionStoreManager.TaskAttemptSummaryMapper());
+        dbi.registerMapper(new DatabaseSessionStoreManager.SessionAttemptSummaryMapper());
+        dbi.registerMapper(new DatabaseSessionStoreManager.StoredSessionMonitorMapper(configMapper));
+        dbi.registerMapper(new DatabaseSessionStoreManager.StoredDelayedSessionAttemptMapper());
+        dbi.registerMapper(new DatabaseSessionStoreManager.TaskRelationMapper());
+        dbi.registerMapper(new DatabaseSessionStoreManager.InstantMapper());
+        dbi.registerMapper(new DatabaseSecretStore.ScopedSecretMapper());
+        dbi.registerMapper(new DatabaseTaskQueueServer.ImmutableTaskQueueLockMapper());
+
+        dbi.registerArgumentFactory(configMapper.getArgumentFactory());
+        if (cacheStatements) {
+            dbi.setStatementBuilderFactory(conn -> new CachingStatementBuilder());
+        }
+        return dbi;
+    }
+
     @Override
     public Handle getHandle(ConfigMapper configMapper)
     {
@@ -215,6 +320,19 @@ public class ThreadLocalTransactionManager
         return transaction.getHandle(configMapper);
     }
 
+    @Override
+    public <D> D attach(ConfigMapper configMapper, Class<D> daoIface)
+    {
+        Transaction transaction = threadLocalTransaction.get();
+        if (transaction == null) {
+            transaction = threadLocalAutoCommitTransaction.get();
+            if (transaction == null) {
+                throw new IllegalStateException("Not in transaction");
+            }
+        }
+        return transaction.attach(configMapper, daoIface);
+    }
+
     @Override
     public <T> T begin(SupplierInTransaction<T, RuntimeException, RuntimeException, RuntimeException> func)
     {
@@ -239,13 +357,47 @@ public class ThreadLocalTransactionManager
     public <T, E1 extends Exception, E2 extends Exception, E3 extends Exception>
     T begin(SupplierInTransaction<T, E1, E2, E3> func, Class<E1> e1, Class<E2> e2, Class<E3> e3)
             throws E1, E2, E3
+    {
+        return begin(newTransaction(ds, false, false), func, e1, e2, e3);
+    }
+
+    @Override
+    public <T> T beginReadOnly(Duration maxStaleness,
+            SupplierInTransaction<T, RuntimeException, RuntimeException, RuntimeException> func)
+    {
+        return beginReadOnly(maxStaleness, func, RuntimeException.class);
+    }
+
+    @Override
+    public <T, E1 extends Exception> T beginReadOnly(Duration maxStaleness,
+            SupplierInTransaction<T, E1, RuntimeException, RuntimeException> func, Class<E1> e1)
+            throws E1
+    {
+        Optional<DataSource> replicaDataSource = (replica == null) ?
+            Optional.absent() : replica.getDataSourceIfFresh(maxStaleness);
+        if (!replicaDataSource.isPresent()) {
+            return begin(newTransaction(ds, false, true), func, e1, RuntimeException.class, RuntimeException.class);
+        }
+
+        try {
+            return begin(newTransaction(replicaDataSource.get(), false, true), func, e1, RuntimeException.class, RuntimeException.class);
+        }
+        catch (ResourceNotFoundException ex) {
+            // the resource may be created but not replicated yet
+            logger.debug("Resource not found on the read replica. Retrying on the primary database: {}", ex.getMessage());
+            return begin(newTransaction(ds, false, true), func, e1, RuntimeException.class, RuntimeException.class);
+        }
+    }
+
+    private <T, E1 extends Exception, E2 extends Exception, E3 extends Exception>
+    T begin(LazyTransaction transaction, SupplierInTransaction<T, E1, E2, E3> func, Class<E1> e1, Class<E2> e2, Class<E3> e3)
+            throws E1, E2, E3
     {
         if (threadLocalTransaction.get() != null) {
             throw new IllegalStateException("Nested transaction is not allowed: " + threadLocalTransaction.get());
         }
 
         boolean committed = false;
-        LazyTransaction transaction = new LazyTransaction(ds);
         try {
             threadLocalTransaction.set(transaction);
             T result = func.get();
@@ -269,6 +421,9 @@ public class ThreadLocalTransactionManager
             finally {
                 transaction.close();
             }
+            if (committed) {
+                transaction.runAfterCommitActions();
+            }
         }
     }
 
@@ -303,7 +458,7 @@ public class ThreadLocalTransactionManager
                 return func.get();
             }
             else {
-                LazyTransaction transaction = new LazyTransaction(ds, true);
+                LazyTransaction transaction = newTransaction(ds, true, false);
                 threadLocalAutoCommitTransaction.set(transaction);
                 try {
                     return func.get();
@@ -331,4 +486,28 @@ public class ThreadLocalTransactionManager
         }
         transaction.reset();
     }
+
+    @Override
+    public void afterCommit(Runnable action)
+    {
+        Transaction transaction = threadLocalTransaction.get();
+        if (transaction == null) {
+            // auto-commit transaction or no transaction
+            runAfterCommitAction(action);
+        }
+        else {
+            transaction.afterCommit(action);
+        }
+    }
+
+    private static void runAfterCommitAction(Runnable action)
+    {
+        try {
+            action.run();
+        }
+        catch (RuntimeException ex) {
+            // the transaction is already committed. don't propagate exceptions to the caller
+            logger.error("Uncaught exception in an action after commit", ex);
+        }
+    }
 }
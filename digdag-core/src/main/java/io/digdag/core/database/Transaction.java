@@ -6,9 +6,13 @@ public interface Transaction
 {
     Handle getHandle(ConfigMapper configMapper);
 
+    <D> D attach(ConfigMapper configMapper, Class<D> daoIface);
+
     void commit();
 
     void abort();
 
     void reset();
+
+    void afterCommit(Runnable action);
 }
@@ -1,5 +1,6 @@
 package io.digdag.core.database;
 
+import java.time.Duration;
 import org.skife.jdbi.v2.Handle;
 
 public interface TransactionManager
@@ -9,6 +10,11 @@ public interface TransactionManager
      */
     Handle getHandle(ConfigMapper configMapper);
 
+    /**
+     * Return a Dao attached to the current transaction object. A Dao is reused during the transaction.
+     */
+    <D> D attach(ConfigMapper configMapper, Class<D> daoIface);
+
     /**
      * Create a new transaction and set it as the current transaction object.
      */
@@ -35,6 +41,21 @@ public interface TransactionManager
             SupplierInTransaction<T, E1, E2, E3> func, Class<E1> e1, Class<E2> e2, Class<E3> e3)
         throws E1, E2, E3;
 
+    /**
+     * Create a new read-only transaction and set it as the current transaction object.
+     * The transaction may run on a read replica if its replication lag is within maxStaleness.
+     */
+    <T> T beginReadOnly(Duration maxStaleness,
+            SupplierInTransaction<T, RuntimeException, RuntimeException, RuntimeException> func);
+
+    /**
+     * Create a new read-only transaction and set it as the current transaction object.
+     * The transaction may run on a read replica if its replication lag is within maxStaleness.
+     */
+    <T, E1 extends Exception> T beginReadOnly(Duration maxStaleness,
+            SupplierInTransaction<T, E1, RuntimeException, RuntimeException> func, Class<E1> e1)
+        throws E1;
+
     /**
      * Get the current transaction object if exists, otherwise uses a temporary transaction object with auto-commit mode.
      */
@@ -66,6 +87,12 @@ public interface TransactionManager
      */
     void reset();
 
+    /**
+     * Run the action after the current transaction commits. The action is discarded if the transaction is aborted or reset.
+     * If the current transaction is in auto-commit mode, or there is no current transaction, the action runs immediately.
+     */
+    void afterCommit(Runnable action);
+
     @FunctionalInterface
     interface SupplierInTransaction<T, E1 extends Exception, E2 extends Exception, E3 extends Exception>
     {
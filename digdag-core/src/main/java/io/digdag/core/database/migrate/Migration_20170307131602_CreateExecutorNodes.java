@@ -0,0 +1,18 @@
+package io.digdag.core.database.migrate;
+
+import org.skife.jdbi.v2.Handle;
+
+public class Migration_20170307131602_CreateExecutorNodes
+        implements Migration
+{
+    @Override
+    public void migrate(Handle handle, MigrationContext context)
+    {
+        handle.update(
+                context.newCreateTableBuilder("executor_nodes")
+                .addString("id", "primary key")
+                .addTimestamp("created_at", "not null")
+                .addTimestamp("lease_expires_at", "not null")
+                .build());
+    }
+}
@@ -0,0 +1,25 @@
+package io.digdag.core.database.migrate;
+
+import org.skife.jdbi.v2.Handle;
+
+public class Migration_20170315184512_AddArchiveColumnToTaskArchives
+        implements Migration
+{
+    @Override
+    public void migrate(Handle handle, MigrationContext context)
+    {
+        // archive is compressed binary. tasks is JSON text used by old versions.
+        if (context.isPostgres()) {
+            handle.update("alter table task_archives" +
+                    " add column archive bytea");
+            handle.update("alter table task_archives" +
+                    " alter column tasks drop not null");
+        }
+        else {
+            handle.update("alter table task_archives" +
+                    " add column archive blob");
+            handle.update("alter table task_archives" +
+                    " alter column tasks set null");
+        }
+    }
+}
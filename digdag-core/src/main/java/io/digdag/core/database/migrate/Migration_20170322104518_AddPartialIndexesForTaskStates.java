@@ -0,0 +1,46 @@
+package io.digdag.core.database.migrate;
+
+import org.skife.jdbi.v2.Handle;
+
+public class Migration_20170322104518_AddPartialIndexesForTaskStates
+        implements Migration
+{
+    @Override
+    public void migrate(Handle handle, MigrationContext context)
+    {
+        if (context.isPostgres()) {
+            // Per-state partial indexes. Each of them includes only tasks in an active state, which are
+            // a small fraction of the tasks table.
+            // Queries need to have the state code as a literal (not a bind parameter) to use these indexes.
+            //
+            // *_on_attempt_bucket indexes are for executors that own a subset of attempt partitions. An
+            // attempt belongs to bucket mod(attempt_id, 256) (AttemptPartitions.BUCKETS) and queries
+            // select buckets of owned partitions using the same expression, so that a partition doesn't
+            // scan tasks of the other partitions.
+
+            // for findAllReadyTaskIds and findTasksByState(READY) at enqueueReadyTasks
+            handle.update("create index tasks_ready_on_id on tasks (id) where state = 1");
+            handle.update("create index tasks_ready_on_attempt_bucket on tasks (mod(attempt_id, 256), id) where state = 1");
+            // for findTasksByState(PLANNED) at propagateAllPlannedToDone
+            handle.update("create index tasks_planned_on_id on tasks (id) where state = 5");
+            handle.update("create index tasks_planned_on_attempt_bucket on tasks (mod(attempt_id, 256), id) where state = 5");
+            // for findDirectParentsOfBlockedTasks at propagateBlockedChildrenToReady
+            handle.update("create index tasks_blocked_on_parent_id on tasks (parent_id) where state = 0");
+            handle.update("create index tasks_blocked_on_attempt_bucket on tasks (mod(attempt_id, 256), parent_id) where state = 0");
+            // for trySetRetryWaitingToReady
+            handle.update("create index tasks_retry_waiting_on_retry_at on tasks (retry_at) where state in (2, 3)");
+            // replaced by the indexes above
+            handle.update("drop index tasks_on_state_and_id");
+
+            // Running tasks of active sites are counted using queued_tasks_shared_grouping
+            // (site_id, queue_id) where site_id is not null and lock_expire_time is not null.
+        }
+        else {
+            // h2 doesn't support partial indexes. tasks_on_state_and_id (state, id) already covers READY and PLANNED.
+            handle.update("create index tasks_blocked_on_parent_id on tasks (state, parent_id)");
+            handle.update("create index tasks_retry_waiting_on_retry_at on tasks (state, retry_at)");
+            // for counting running tasks of active sites. queued_tasks_shared_grouping starts with lock_expire_time.
+            handle.update("create index queued_task_locks_on_site_id_and_lock_expire_time on queued_task_locks (site_id, lock_expire_time)");
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package io.digdag.core.queue;
+
+import com.google.inject.Inject;
+import io.digdag.client.config.Config;
+import io.digdag.spi.TaskQueueClient;
+import io.digdag.spi.TaskQueueFactory;
+import io.digdag.spi.TaskQueueServer;
+
+public class InMemoryTaskQueueFactory
+    implements TaskQueueFactory
+{
+    private final QueueSettingStoreManager queueManager;
+    private InMemoryTaskQueueServer server;
+
+    @Inject
+    public InMemoryTaskQueueFactory(QueueSettingStoreManager queueManager)
+    {
+        this.queueManager = queueManager;
+    }
+
+    @Override
+    public String getType()
+    {
+        return "memory";
+    }
+
+    @Override
+    public synchronized TaskQueueServer newServer(Config systemConfig)
+    {
+        // agents in this process lock tasks from the same queue
+        if (server == null) {
+            server = new InMemoryTaskQueueServer(systemConfig, queueManager);
+        }
+        return server;
+    }
+
+    @Override
+    public TaskQueueClient newDirectClient(Config systemConfig)
+    {
+        return newServer(systemConfig);
+    }
+}
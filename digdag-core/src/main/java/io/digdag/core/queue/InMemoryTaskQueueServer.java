@@ -0,0 +1,324 @@
+package io.digdag.core.queue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.annotation.Nullable;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import io.digdag.client.config.Config;
+import io.digdag.core.repository.ResourceNotFoundException;
+import io.digdag.spi.TaskConflictException;
+import io.digdag.spi.TaskNotFoundException;
+import io.digdag.spi.TaskQueueLock;
+import io.digdag.spi.TaskQueueRequest;
+import io.digdag.spi.TaskQueueServer;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * TaskQueueServer that keeps queued tasks in memory.
+ *
+ * This queue is used by a single process such as local mode. Tasks are lost
+ * when the process stops. It keeps the same semantics with
+ * DatabaseTaskQueueServer: tasks are locked in order of queue, priority desc
+ * and enqueue order, concurrency is limited per site and per queue, and
+ * locks that are not extended by heartbeat expire and the tasks are retried.
+ */
+public class InMemoryTaskQueueServer
+        implements TaskQueueServer
+{
+    private static final Logger logger = LoggerFactory.getLogger(InMemoryTaskQueueServer.class);
+
+    private static final long EXPIRE_CHECK_INTERVAL_MILLIS = 1000;
+
+    // default queue (null queue id) comes first same with DatabaseTaskQueueServer on H2
+    private static final Comparator<QueuedTask> LOCK_ORDER = Comparator
+        .<QueuedTask>comparingInt(task -> task.queueId == null ? -1 : task.queueId)
+        .thenComparing(Comparator.<QueuedTask>comparingInt(task -> task.priority).reversed())
+        .thenComparingLong(task -> task.id);
+
+    private static class QueuedTask
+    {
+        private final long id;
+        private final int siteId;
+        @Nullable private final Integer queueId;
+        private final int priority;
+        private final String uniqueName;
+        @Nullable private final byte[] data;
+
+        @Nullable private String lockAgentId;
+        private long lockExpireTime;
+        private int retryCount;
+
+        QueuedTask(long id, int siteId, @Nullable Integer queueId, int priority, String uniqueName, @Nullable byte[] data)
+        {
+            this.id = id;
+            this.siteId = siteId;
+            this.queueId = queueId;
+            this.priority = priority;
+            this.uniqueName = uniqueName;
+            this.data = data;
+        }
+
+        boolean isLocked()
+        {
+            return lockAgentId != null;
+        }
+    }
+
+    private static class SiteQueue
+    {
+        private final TreeSet<QueuedTask> waiting = new TreeSet<>(LOCK_ORDER);
+        private final Set<String> uniqueNames = new HashSet<>();
+        private int running;
+    }
+
+    private static class QueueState
+    {
+        private int maxConcurrency;
+        private int running;
+    }
+
+    private final QueueSettingStoreManager queueManager;
+    private final int siteMaxConcurrency;
+
+    // all fields below are guarded by this
+    private final Map<Long, QueuedTask> tasks = new HashMap<>();
+    private final Map<Integer, SiteQueue> sites = new HashMap<>();
+    private final Map<Integer, QueueState> queues = new HashMap<>();
+    private long nextTaskId = 1;
+    private long nextExpireCheckTime = 0;
+
+    public InMemoryTaskQueueServer(Config systemConfig, QueueSettingStoreManager queueManager)
+    {
+        this.queueManager = queueManager;
+        this.siteMaxConcurrency = systemConfig.get("queue.memory.max_concurrency", int.class, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void enqueueDefaultQueueTask(int siteId, TaskQueueRequest request)
+        throws TaskConflictException
+    {
+        enqueue(siteId, null, request);
+    }
+
+    @Override
+    public void enqueueQueueBoundTask(int queueId, TaskQueueRequest request)
+        throws TaskConflictException
+    {
+        StoredQueueSetting queue;
+        try {
+            queue = queueManager.getQueueSettingByIdInternal(queueId);
+        }
+        catch (ResourceNotFoundException ex) {
+            throw new IllegalStateException("Queue id=" + queueId + " does not exist", ex);
+        }
+        synchronized (this) {
+            // max concurrency of a queue may be changed after tasks are enqueued
+            queues.computeIfAbsent(queueId, id -> new QueueState()).maxConcurrency = queue.getMaxConcurrency();
+        }
+        enqueue(queue.getSiteId(), queueId, request);
+    }
+
+    private synchronized void enqueue(int siteId, @Nullable Integer queueId, TaskQueueRequest request)
+        throws TaskConflictException
+    {
+        SiteQueue site = sites.computeIfAbsent(siteId, id -> new SiteQueue());
+        if (!site.uniqueNames.add(request.getUniqueName())) {
+            throw new TaskConflictException("Task name " + request.getUniqueName() + " is already queued in site id=" + siteId);
+        }
+        QueuedTask task = new QueuedTask(nextTaskId++, siteId, queueId,
+                request.getPriority(), request.getUniqueName(), request.getData().orNull());
+        tasks.put(task.id, task);
+        site.waiting.add(task);
+        notifyAll();
+    }
+
+    private static String formatTaskLockId(long taskLockId)
+    {
+        return "m" + Long.toString(taskLockId);
+    }
+
+    private static long parseTaskLockId(String formatted)
+    {
+        return Long.parseLong(formatted.substring(1));
+    }
+
+    @Override
+    public synchronized void deleteTask(int siteId, String lockId, String agentId)
+        throws TaskNotFoundException, TaskConflictException
+    {
+        long taskLockId = parseTaskLockId(lockId);
+        QueuedTask task = tasks.get(taskLockId);
+        if (task == null || task.siteId != siteId) {
+            throw new TaskNotFoundException("Deleting lock does not exist: lock id=" + taskLockId + " site id=" + siteId);
+        }
+        if (!agentId.equals(task.lockAgentId)) {
+            throw new TaskConflictException("Deleting lock does not exist or preempted by another agent: lock id=" + taskLockId + " agent id=" + agentId);
+        }
+        remove(task);
+    }
+
+    @Override
+    public synchronized boolean forceDeleteTask(String lockId)
+    {
+        QueuedTask task = tasks.get(parseTaskLockId(lockId));
+        if (task == null) {
+            return false;
+        }
+        remove(task);
+        return true;
+    }
+
+    private void remove(QueuedTask task)
+    {
+        tasks.remove(task.id);
+        SiteQueue site = sites.get(task.siteId);
+        site.uniqueNames.remove(task.uniqueName);
+        if (task.isLocked()) {
+            unlock(site, task);
+            // a slot to run another task is available
+            notifyAll();
+        }
+        else {
+            site.waiting.remove(task);
+        }
+        if (site.uniqueNames.isEmpty()) {
+            sites.remove(task.siteId);
+        }
+    }
+
+    @Override
+    public synchronized List<String> taskHeartbeat(int siteId, List<String> lockedIds, String agentId, int lockSeconds)
+    {
+        long expireTime = System.currentTimeMillis() + lockSeconds * 1000L;
+        ImmutableList.Builder<String> notFoundList = ImmutableList.builder();
+        for (String lockId : lockedIds) {
+            QueuedTask task = tasks.get(parseTaskLockId(lockId));
+            if (task != null && task.siteId == siteId && agentId.equals(task.lockAgentId)) {
+                task.lockExpireTime = expireTime;
+            }
+            else {
+                notFoundList.add(lockId);
+            }
+        }
+        return notFoundList.build();
+    }
+
+    @Override
+    public synchronized List<TaskQueueLock> lockSharedAgentTasks(int count, String agentId, int lockSeconds, long maxSleepMillis)
+    {
+        long now = System.currentTimeMillis();
+        if (now >= nextExpireCheckTime) {
+            expireLocks(now);
+            nextExpireCheckTime = now + EXPIRE_CHECK_INTERVAL_MILLIS;
+        }
+
+        // iterate sites in random order so that scheduling becomes slightly more fair across sites
+        List<Map.Entry<Integer, SiteQueue>> lockableSites = new ArrayList<>();
+        for (Map.Entry<Integer, SiteQueue> pair : sites.entrySet()) {
+            if (!pair.getValue().waiting.isEmpty() && pair.getValue().running < siteMaxConcurrency) {
+                lockableSites.add(pair);
+            }
+        }
+        Collections.shuffle(lockableSites);
+
+        for (Map.Entry<Integer, SiteQueue> pair : lockableSites) {
+            List<TaskQueueLock> locks = tryLockTasks(pair.getValue(), count, agentId, now + lockSeconds * 1000L);
+            if (!locks.isEmpty()) {
+                return locks;
+            }
+        }
+
+        // no tasks are ready to lock. sleep.
+        if (maxSleepMillis >= 0) {
+            sleepForEnqueue(maxSleepMillis);
+        }
+        return ImmutableList.of();
+    }
+
+    private List<TaskQueueLock> tryLockTasks(SiteQueue site, int count, String agentId, long expireTime)
+    {
+        ImmutableList.Builder<TaskQueueLock> builder = ImmutableList.builder();
+        int locked = 0;
+        Iterator<QueuedTask> ite = site.waiting.iterator();
+        while (ite.hasNext() && locked < count && site.running < siteMaxConcurrency) {
+            QueuedTask task = ite.next();
+            QueueState queue = task.queueId == null ? null : queues.get(task.queueId);
+            if (queue != null && queue.running >= queue.maxConcurrency) {
+                continue;
+            }
+            ite.remove();
+            task.lockAgentId = agentId;
+            task.lockExpireTime = expireTime;
+            site.running++;
+            if (queue != null) {
+                queue.running++;
+            }
+            builder.add(TaskQueueLock.builder()
+                    .lockId(formatTaskLockId(task.id))
+                    .uniqueName(task.uniqueName)
+                    .data(Optional.fromNullable(task.data))
+                    .build());
+            locked++;
+        }
+        return builder.build();
+    }
+
+    private void unlock(SiteQueue site, QueuedTask task)
+    {
+        task.lockAgentId = null;
+        task.lockExpireTime = 0;
+        site.running--;
+        if (task.queueId != null) {
+            QueueState queue = queues.get(task.queueId);
+            if (queue != null) {
+                queue.running--;
+            }
+        }
+    }
+
+    private void expireLocks(long now)
+    {
+        int c = 0;
+        for (QueuedTask task : tasks.values()) {
+            if (task.isLocked() && task.lockExpireTime < now) {
+                SiteQueue site = sites.get(task.siteId);
+                unlock(site, task);
+                task.retryCount++;
+                site.waiting.add(task);
+                c++;
+            }
+        }
+        if (c > 0) {
+            logger.warn("{} task locks are expired. Tasks will be retried.", c);
+        }
+    }
+
+    @Override
+    @SuppressFBWarnings("NN_NAKED_NOTIFY")
+    public synchronized void interruptLocalWait()
+    {
+        notifyAll();
+    }
+
+    @SuppressFBWarnings("WA_NOT_IN_LOOP")
+    private void sleepForEnqueue(long maxSleepMillis)
+    {
+        try {
+            wait(maxSleepMillis);
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -22,6 +22,7 @@ public class QueueModule
         // built-in queue
         Multibinder<TaskQueueFactory> taskQueueBinder = Multibinder.newSetBinder(binder, TaskQueueFactory.class);
         taskQueueBinder.addBinding().to(DatabaseTaskQueueFactory.class).in(Scopes.SINGLETON);
+        taskQueueBinder.addBinding().to(InMemoryTaskQueueFactory.class).in(Scopes.SINGLETON);
 
         newExporter(binder).export(TaskQueueDispatcher.class).withGeneratedName();
     }
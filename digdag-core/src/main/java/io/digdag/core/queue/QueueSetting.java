@@ -5,12 +5,15 @@ import com.google.common.collect.*;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import org.immutables.value.Value;
 import io.digdag.client.config.Config;
+import io.digdag.core.repository.ModelValidator;
 
 @JsonDeserialize(as = ImmutableQueueSetting.class)
 public abstract class QueueSetting
 {
     public abstract String getName();
 
+    public abstract int getMaxConcurrency();
+
     public abstract Config getConfig();
 
     public static ImmutableQueueSetting.Builder queueSettingBuilder()
@@ -18,11 +21,21 @@ public abstract class QueueSetting
         return ImmutableQueueSetting.builder();
     }
 
-    public static QueueSetting of(String name, Config config)
+    public static QueueSetting of(String name, int maxConcurrency, Config config)
     {
         return queueSettingBuilder()
             .name(name)
+            .maxConcurrency(maxConcurrency)
             .config(config)
             .build();
     }
+
+    @Value.Check
+    protected void check()
+    {
+        ModelValidator.builder()
+            .checkIdentifierName("name", getName())
+            .check("maxConcurrency", getMaxConcurrency(), getMaxConcurrency() > 0, "must be positive")
+            .validate("queue", this);
+    }
 }
@@ -3,6 +3,7 @@ package io.digdag.core.queue;
 import java.util.List;
 import com.google.common.base.Optional;
 import io.digdag.client.config.Config;
+import io.digdag.core.repository.ResourceConflictException;
 import io.digdag.core.repository.ResourceNotFoundException;
 
 public interface QueueSettingStore
@@ -15,9 +16,14 @@ public interface QueueSettingStore
     StoredQueueSetting getQueueSettingByName(String name)
         throws ResourceNotFoundException;
 
-    //// TODO remote agent and multiqueue are not implemented yet.
+    // creates a queue or updates max_concurrency and config of an existing queue
+    StoredQueueSetting putQueueSetting(QueueSetting setting)
+        throws ResourceConflictException;
+
+    void deleteQueueSettingByName(String name)
+        throws ResourceNotFoundException;
+
+    //// TODO remote agent is not implemented yet.
     // getQueuedTasks(Optional<Long> lastId)
     // getQueuedTasksOfQueue(int queueId, Optional<Long> lastId)
-    // insertQueueSetting(QueueSetting, Runnable lockAction)
-    // updateQueueSetting(int queueId, Config config, Runnable lockAction)
 }
@@ -8,4 +8,8 @@ public interface QueueSettingStoreManager
 
     int getQueueIdByName(int siteId, String name)
         throws ResourceNotFoundException;
+
+    // used by task queue servers that need max concurrency of a queue
+    StoredQueueSetting getQueueSettingByIdInternal(int queueId)
+        throws ResourceNotFoundException;
 }
@@ -8,6 +8,7 @@ import io.digdag.spi.TaskQueueServer;
 import io.digdag.spi.TaskQueueClient;
 import io.digdag.spi.TaskQueueFactory;
 import io.digdag.client.config.Config;
+import io.digdag.client.config.ConfigException;
 
 public class TaskQueueServerManager
 {
@@ -23,6 +24,9 @@ public class TaskQueueServerManager
         Map<String, TaskQueueFactory> queueTypes = builder.build();
         String type = systemConfig.get("queue-server.type", String.class, "database");
         TaskQueueFactory factory = queueTypes.get(type);
+        if (factory == null) {
+            throw new ConfigException("Unknown queue-server.type: " + type);
+        }
         this.taskQueueServer = factory.newServer(systemConfig);
     }
 
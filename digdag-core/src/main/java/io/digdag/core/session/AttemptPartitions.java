@@ -0,0 +1,108 @@
+package io.digdag.core.session;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A subset of attempts selected by partition.
+ *
+ * Attempts are hashed into a fixed number of buckets (attempt_id mod BUCKETS)
+ * and a bucket belongs to partition (bucket mod count). The bucket count is
+ * fixed so that databases can index the bucket expression regardless of
+ * the number of partitions.
+ */
+public class AttemptPartitions
+{
+    public static final int BUCKETS = 256;
+
+    private static final AttemptPartitions ALL = new AttemptPartitions(1, ImmutableSortedSet.of(0));
+
+    public static AttemptPartitions all()
+    {
+        return ALL;
+    }
+
+    public static AttemptPartitions of(int count, Collection<Integer> partitions)
+    {
+        return new AttemptPartitions(count, ImmutableSortedSet.copyOf(partitions));
+    }
+
+    private final int count;
+    private final ImmutableSortedSet<Integer> partitions;
+
+    private AttemptPartitions(int count, ImmutableSortedSet<Integer> partitions)
+    {
+        checkArgument(count > 0, "count of partitions must be positive");
+        checkArgument(count <= BUCKETS, "count of partitions must be equal to or less than %s", BUCKETS);
+        for (int partition : partitions) {
+            checkArgument(partition >= 0 && partition < count, "partition must be between 0 and count - 1");
+        }
+        this.count = count;
+        this.partitions = partitions;
+    }
+
+    public int getCount()
+    {
+        return count;
+    }
+
+    public Set<Integer> getPartitions()
+    {
+        return partitions;
+    }
+
+    public List<Integer> getBuckets()
+    {
+        ImmutableList.Builder<Integer> builder = ImmutableList.builder();
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            if (partitions.contains(bucket % count)) {
+                builder.add(bucket);
+            }
+        }
+        return builder.build();
+    }
+
+    public boolean isAll()
+    {
+        return partitions.size() == count;
+    }
+
+    public boolean isEmpty()
+    {
+        return partitions.isEmpty();
+    }
+
+    public boolean contains(long attemptId)
+    {
+        return partitions.contains((int) (attemptId % BUCKETS) % count);
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof AttemptPartitions)) {
+            return false;
+        }
+        AttemptPartitions other = (AttemptPartitions) o;
+        return count == other.count && partitions.equals(other.partitions);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * count + partitions.hashCode();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "AttemptPartitions{count=" + count + ", partitions=" + partitions + "}";
+    }
+}
@@ -42,6 +42,11 @@ public interface SessionStore
 
     List<ArchivedTask> getTasksOfAttempt(long attemptId);
 
+    List<ArchivedTask> getTasksOfAttempt(long attemptId, int pageSize, Optional<Long> lastId);
+
+    // lighter than getTasksOfAttempt because configs and params are not loaded
+    List<TaskStateSummary> getTaskStateSummariesOfAttempt(long attemptId);
+
     interface SessionTransactionAction <T>
     {
         T call(SessionTransaction transaction)
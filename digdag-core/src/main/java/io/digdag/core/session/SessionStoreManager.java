@@ -1,6 +1,7 @@
 package io.digdag.core.session;
 
 import java.util.List;
+import java.util.Map;
 import java.time.Instant;
 import com.google.common.base.*;
 import io.digdag.client.config.Config;
@@ -32,6 +33,16 @@ public interface SessionStoreManager
     // for AttemptTimeoutEnforcer.enforceAttemptTTLs
     List<StoredSessionAttempt> findActiveAttemptsCreatedBefore(Instant createdBefore, long lastId, int limit);
 
+    // for SessionRetentionEnforcer. Returns sessions whose attempts are all
+    // done and the last attempt finished before finishedBefore. If siteId is
+    // absent, sessions of all sites except excludedSiteIds are returned.
+    List<StoredSessionWithLastAttempt> findSessionsToPurge(Optional<Integer> siteId, List<Integer> excludedSiteIds, Instant finishedBefore, int limit);
+
+    // for SessionRetentionEnforcer. Deletes sessions that still match the
+    // condition of findSessionsToPurge with their attempts and task archives.
+    // Returns number of deleted rows for each table.
+    Map<String, Integer> purgeSessions(List<Long> sessionIds, Instant finishedBefore);
+
     // for AttemptTimeoutEnforcer.enforceTaskTTLs
     List<TaskAttemptSummary> findTasksStartedBeforeWithState(TaskStateCode[] states, Instant startedBefore, long lastId, int limit);
 
@@ -55,10 +66,40 @@ public interface SessionStoreManager
     // for WorkflowExecutorManager.propagateBlockedChildrenToReady
     List<Long> findDirectParentsOfBlockedTasks(long lastId);
 
+    // for WorkflowExecutor.propagateChangedAttempts
+    List<Long> findTasksByState(TaskStateCode state, List<Long> attemptIds, long lastId);
+
+    // for WorkflowExecutor.propagateChangedAttempts
+    List<TaskAttemptSummary> findRootTasksByStates(TaskStateCode[] states, List<Long> attemptIds, long lastId);
+
+    // for WorkflowExecutor.propagateChangedAttempts
+    List<Long> findDirectParentsOfBlockedTasks(List<Long> attemptIds, long lastId);
+
+    // for WorkflowExecutor.propagateAllPlannedToDone and enqueueReadyTasks
+    List<Long> findTasksByState(TaskStateCode state, AttemptPartitions partitions, long lastId);
+
+    // for WorkflowExecutor.propagateSessionArchive
+    List<TaskAttemptSummary> findRootTasksByStates(TaskStateCode[] states, AttemptPartitions partitions, long lastId);
+
+    // for WorkflowExecutor.propagateBlockedChildrenToReady
+    List<Long> findDirectParentsOfBlockedTasks(AttemptPartitions partitions, long lastId);
+
+    // for WorkflowExecutor.propagateBlockedChildrenToReady
+    int trySetChildrenBlockedToReadyOrShortCircuitPlannedOrCanceled(List<Long> parentIds);
+
+    // for WorkflowExecutor.propagateAllPlannedToDone
+    int trySetPlannedToSuccess(List<Long> taskIds);
+
+    // for WorkflowExecutor.propagateAllPlannedToDone
+    List<Long> findPlannedTasksWithoutProgressibleChildren(List<Long> taskIds);
+
     boolean requestCancelAttempt(long attemptId);
 
     int trySetRetryWaitingToReady();
 
+    // for WorkflowExecutor.propagateChangedAttempts
+    int trySetRetryWaitingToReady(List<Long> attemptIds);
+
     interface TaskLockAction <T>
     {
         T call(TaskControlStore lockedTask);
@@ -87,6 +128,14 @@ public interface SessionStoreManager
 
     List<TaskRelation> getTaskRelations(long attemptId);
 
+    // relations of tasks whose id is larger than lastId
+    List<TaskRelation> getTaskRelations(long attemptId, long lastId);
+
+    long getTaskCountOfAttempt(long attemptId);
+
+    // 0 if the attempt has no tasks
+    long getMaxTaskIdOfAttempt(long attemptId);
+
     List<Config> getExportParams(List<Long> idList);
 
     List<ParameterUpdate> getStoreParams(List<Long> idList);
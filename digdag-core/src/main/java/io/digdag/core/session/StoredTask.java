@@ -15,7 +15,8 @@ public abstract class StoredTask
         extends Task
 {
     // Note that this ArchivedTask (which extends StoredTask) is serialized
-    // and stored in the database (task_archives.tasks column). If you add a
+    // and stored in the database (task_archives.archive column, or
+    // task_archives.tasks column for old attempts). If you add a
     // new column, old attempts don't have the column stored. These fields will
     // be filled with a default value (0, null, or Optional.absent) by using
     // FAIL_ON_UNKNOWN_PROPERTIES=false option of ObjectMapper. See
@@ -13,6 +13,12 @@ public interface TaskControlStore
 
     long addSubtask(long attemptId, Task task);
 
+    // Adds tasks at once and returns their ids in the same order. If parentIndexes.get(i) is present,
+    // parent of tasks.get(i) is the task at that index instead of Task.getParentId(). upstreamIndexes.get(i)
+    // are indexes of the tasks that tasks.get(i) depends on. Indexes must refer former tasks in the list.
+    List<Long> addSubtasks(long attemptId, List<Task> tasks,
+            List<Optional<Integer>> parentIndexes, List<List<Integer>> upstreamIndexes);
+
     long addResumedSubtask(long attemptId, long parentId,
             TaskType taskType, TaskStateCode state, TaskStateFlags flags,
             ResumingTask resumingTask);
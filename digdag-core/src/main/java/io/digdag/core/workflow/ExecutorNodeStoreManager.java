@@ -0,0 +1,12 @@
+package io.digdag.core.workflow;
+
+import java.util.List;
+
+public interface ExecutorNodeStoreManager
+{
+    // Registers a node or extends its lease, and returns ids of nodes
+    // whose lease is not expired including the node itself, sorted by id.
+    List<String> heartbeatExecutorNode(String nodeId, int leaseSeconds);
+
+    void deleteExecutorNode(String nodeId);
+}
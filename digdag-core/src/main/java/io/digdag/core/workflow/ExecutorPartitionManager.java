@@ -0,0 +1,136 @@
+package io.digdag.core.workflow;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import io.digdag.client.config.Config;
+import io.digdag.client.config.ConfigException;
+import io.digdag.core.database.TransactionManager;
+import io.digdag.core.session.AttemptPartitions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Assigns partitions of attempts to executor nodes.
+ *
+ * An attempt belongs to partition ((attempt_id mod 256) mod executor.partitions).
+ * See {@link AttemptPartitions} for the buckets.
+ * Every node registers itself to executor_nodes table with a lease and
+ * extends it periodically. Partitions are assigned to live nodes in
+ * round-robin order of node ids. When a node stops or its lease expires,
+ * the remaining nodes take over its partitions at their next heartbeat.
+ *
+ * Assignments may overlap for a moment while nodes join or leave. It only
+ * causes duplicated scans because tasks are locked before state changes.
+ */
+class ExecutorPartitionManager
+{
+    private static final Logger logger = LoggerFactory.getLogger(ExecutorPartitionManager.class);
+
+    private static final int DEFAULT_LEASE_SECONDS = 30;
+
+    private final ExecutorNodeStoreManager nsm;
+    private final TransactionManager tm;
+    private final int partitionCount;
+    private final int leaseSeconds;
+    private final long heartbeatIntervalNanos;
+    private final String nodeId;
+
+    private volatile AttemptPartitions ownedPartitions;
+    private long lastHeartbeatTime;
+    private boolean registered = false;
+
+    ExecutorPartitionManager(ExecutorNodeStoreManager nsm, TransactionManager tm, Config systemConfig)
+    {
+        this.nsm = nsm;
+        this.tm = tm;
+        this.partitionCount = systemConfig.get("executor.partitions", int.class, 0);
+        this.leaseSeconds = systemConfig.get("executor.partition_lease_seconds", int.class, DEFAULT_LEASE_SECONDS);
+        if (partitionCount < 0) {
+            throw new ConfigException("executor.partitions must not be negative: " + partitionCount);
+        }
+        if (partitionCount > AttemptPartitions.BUCKETS) {
+            throw new ConfigException("executor.partitions must be equal to or less than " + AttemptPartitions.BUCKETS + ": " + partitionCount);
+        }
+        if (leaseSeconds < 3) {
+            throw new ConfigException("executor.partition_lease_seconds must be equal to or larger than 3: " + leaseSeconds);
+        }
+        this.heartbeatIntervalNanos = TimeUnit.SECONDS.toNanos(leaseSeconds) / 3;
+        // <pid>@<hostname> with a random suffix so that a restarted process
+        // doesn't inherit the lease of the previous process
+        this.nodeId = ManagementFactory.getRuntimeMXBean().getName() + ":" + UUID.randomUUID().toString().substring(0, 8);
+        this.ownedPartitions = AttemptPartitions.all();
+    }
+
+    boolean isEnabled()
+    {
+        return partitionCount > 0;
+    }
+
+    AttemptPartitions getOwnedPartitions()
+    {
+        return ownedPartitions;
+    }
+
+    /**
+     * Extends the lease if heartbeat interval passed.
+     *
+     * @return true if owned partitions changed
+     */
+    synchronized boolean heartbeatIfNecessary()
+    {
+        if (!isEnabled()) {
+            return false;
+        }
+        long now = System.nanoTime();
+        if (registered && now - lastHeartbeatTime < heartbeatIntervalNanos) {
+            return false;
+        }
+
+        List<String> liveNodeIds = tm.begin(() -> nsm.heartbeatExecutorNode(nodeId, leaseSeconds));
+        lastHeartbeatTime = now;
+        registered = true;
+
+        AttemptPartitions partitions = assignPartitions(partitionCount, liveNodeIds, nodeId);
+        if (partitions.equals(ownedPartitions)) {
+            return false;
+        }
+        logger.info("Executor node {} owns partitions {} of {} with {} live executor nodes",
+                nodeId, partitions.getPartitions(), partitionCount, liveNodeIds.size());
+        ownedPartitions = partitions;
+        return true;
+    }
+
+    synchronized void release()
+    {
+        if (!registered) {
+            return;
+        }
+        registered = false;
+        ownedPartitions = AttemptPartitions.all();
+        try {
+            // other nodes take over partitions of this node without waiting for expiration
+            tm.begin(() -> {
+                nsm.deleteExecutorNode(nodeId);
+                return null;
+            });
+        }
+        catch (RuntimeException ex) {
+            logger.warn("Failed to release executor node {}. Its partitions will be taken over after the lease expires", nodeId, ex);
+        }
+    }
+
+    static AttemptPartitions assignPartitions(int partitionCount, List<String> sortedLiveNodeIds, String nodeId)
+    {
+        int index = sortedLiveNodeIds.indexOf(nodeId);
+        List<Integer> owned = new ArrayList<>();
+        if (index >= 0) {
+            for (int p = index; p < partitionCount; p += sortedLiveNodeIds.size()) {
+                owned.add(p);
+            }
+        }
+        return AttemptPartitions.of(partitionCount, owned);
+    }
+}
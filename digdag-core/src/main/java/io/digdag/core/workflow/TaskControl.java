@@ -123,6 +123,12 @@ public class TaskControl
             .stream()
             .collect(Collectors.toMap(t -> t.getFullName(), t -> t));
 
+        if (!firstTaskIsRootStoredParentTask && resumingTaskMap.isEmpty() && !tasks.isEmpty()) {
+            // common case of generated subtasks (e.g. for_each). insert all of them at once
+            // so that the parent task is locked only for a short time even with a large fan-out.
+            return addTasksAtOnce(store, attemptId, parentTaskId, tasks, rootUpstreamIds, isInitialTask);
+        }
+
         boolean firstTask = true;
         for (WorkflowTask wt : tasks) {
 
@@ -182,6 +188,33 @@ public class TaskControl
         return rootTaskId;
     }
 
+    private static long addTasksAtOnce(TaskControlStore store,
+            long attemptId, long parentTaskId, WorkflowTaskList tasks, List<Long> rootUpstreamIds,
+            boolean isInitialTask)
+    {
+        List<Task> list = new ArrayList<>();
+        List<Optional<Integer>> parentIndexes = new ArrayList<>();
+        List<List<Integer>> upstreamIndexes = new ArrayList<>();
+        for (WorkflowTask wt : tasks) {
+            list.add(Task.taskBuilder()
+                    .parentId(wt.getParentIndex().isPresent() ? Optional.absent() : Optional.of(parentTaskId))
+                    .fullName(wt.getFullName())
+                    .config(TaskConfig.validate(wt.getConfig()))
+                    .taskType(wt.getTaskType())
+                    .state(TaskStateCode.BLOCKED)
+                    .stateFlags(isInitialTask ? TaskStateFlags.empty().withInitialTask() : TaskStateFlags.empty())
+                    .build());
+            parentIndexes.add(wt.getParentIndex());
+            upstreamIndexes.add(wt.getUpstreamIndexes());
+        }
+
+        List<Long> ids = store.addSubtasks(attemptId, list, parentIndexes, upstreamIndexes);
+
+        long rootTaskId = ids.get(0);
+        store.addDependencies(rootTaskId, rootUpstreamIds);
+        return rootTaskId;
+    }
+
     private static void addResumingTasks(TaskControlStore store, long attemptId, List<ResumingTask> resumingTasks)
     {
         // store only dynamically-generated tasks
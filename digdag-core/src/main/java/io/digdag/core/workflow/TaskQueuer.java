@@ -0,0 +1,89 @@
+package io.digdag.core.workflow;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Enqueues ready tasks to the task queue using a bounded thread pool.
+ *
+ * A task is submitted only once until its enqueue action completes so that
+ * the executor loop can find the same ready task again without waiting for
+ * the action. When the queue of the pool is full, the caller thread runs the
+ * action by itself (CallerRunsPolicy) so that the executor loop doesn't fetch
+ * next pages of ready tasks faster than they're enqueued.
+ */
+class TaskQueuer
+        implements AutoCloseable
+{
+    private static final Logger logger = LoggerFactory.getLogger(TaskQueuer.class);
+
+    private final LongConsumer enqueueAction;
+    private final Set<Long> waiting = ConcurrentHashMap.newKeySet();
+    private final ThreadPoolExecutor executor;
+
+    TaskQueuer(int threads, int queueSize, LongConsumer enqueueAction)
+    {
+        this.enqueueAction = enqueueAction;
+        this.executor = new ThreadPoolExecutor(
+                threads, threads,
+                0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(queueSize),
+                new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("task-queuer-%d")
+                .build(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Submits the enqueue action of the task.
+     *
+     * @return false if the task is already submitted and its action is not completed yet
+     */
+    boolean asyncEnqueueTask(long taskId)
+    {
+        if (!waiting.add(taskId)) {
+            return false;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    enqueueAction.accept(taskId);
+                }
+                catch (Throwable t) {
+                    logger.error("Uncaught exception during enqueuing a task request. This enqueue attempt will be retried", t);
+                }
+                finally {
+                    waiting.remove(taskId);
+                }
+            });
+            return true;
+        }
+        catch (RuntimeException ex) {
+            waiting.remove(taskId);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        }
+        catch (InterruptedException ex) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package io.digdag.core.workflow;
+
+import java.util.HashMap;
+import java.util.Map;
+import com.google.common.base.Optional;
+import io.digdag.client.config.Config;
+import io.digdag.core.repository.ProjectStoreManager;
+import io.digdag.core.repository.ResourceNotFoundException;
+import io.digdag.core.repository.StoredProject;
+import io.digdag.core.repository.StoredRevision;
+import io.digdag.core.session.SessionStoreManager;
+import io.digdag.core.session.StoredSessionAttemptWithSession;
+
+/**
+ * Rows shared by tasks locked at once.
+ *
+ * An agent usually locks multiple tasks of the same attempt. This class
+ * fetches the attempt, revision and project once per batch, and merges
+ * default params of them once per attempt. Lookups that fail are not cached
+ * so that the caller can report the error for each task.
+ */
+class TaskRequestBatch
+{
+    private final SessionStoreManager sm;
+    private final ProjectStoreManager rm;
+    private final Config defaultParams;
+
+    private final Map<Long, StoredSessionAttemptWithSession> attempts = new HashMap<>();
+    private final Map<Long, StoredRevision> revisions = new HashMap<>();
+    private final Map<Integer, StoredProject> projects = new HashMap<>();
+    private final Map<Long, Config> baseParams = new HashMap<>();
+
+    TaskRequestBatch(SessionStoreManager sm, ProjectStoreManager rm, Config defaultParams)
+    {
+        this.sm = sm;
+        this.rm = rm;
+        this.defaultParams = defaultParams;
+    }
+
+    StoredSessionAttemptWithSession getAttempt(long attemptId)
+        throws ResourceNotFoundException
+    {
+        StoredSessionAttemptWithSession attempt = attempts.get(attemptId);
+        if (attempt == null) {
+            attempt = sm.getAttemptWithSessionById(attemptId);
+            attempts.put(attemptId, attempt);
+        }
+        return attempt;
+    }
+
+    StoredRevision getRevisionOfWorkflowDefinition(long workflowDefinitionId)
+        throws ResourceNotFoundException
+    {
+        StoredRevision rev = revisions.get(workflowDefinitionId);
+        if (rev == null) {
+            rev = rm.getRevisionOfWorkflowDefinition(workflowDefinitionId);
+            revisions.put(workflowDefinitionId, rev);
+        }
+        return rev;
+    }
+
+    StoredProject getProject(int projectId)
+        throws ResourceNotFoundException
+    {
+        StoredProject project = projects.get(projectId);
+        if (project == null) {
+            project = rm.getProjectByIdInternal(projectId);
+            projects.put(projectId, project);
+        }
+        return project;
+    }
+
+    // returns a new Config that the caller can modify
+    Config getBaseParams(StoredSessionAttemptWithSession attempt, Optional<StoredRevision> rev)
+    {
+        Config params = baseParams.get(attempt.getId());
+        if (params == null) {
+            params = mergeBaseParams(defaultParams, rev.transform(StoredRevision::getDefaultParams), attempt.getParams());
+            baseParams.put(attempt.getId(), params);
+        }
+        return params.deepCopy();
+    }
+
+    // merge order is:
+    //   system default < revision default < attempt
+    static Config mergeBaseParams(Config defaultParams, Optional<Config> revisionParams, Config attemptParams)
+    {
+        Config params = defaultParams.deepCopy();
+        if (revisionParams.isPresent()) {
+            params.merge(revisionParams.get());
+        }
+        params.merge(attemptParams);
+        return params;
+    }
+}
@@ -54,6 +54,11 @@ public class TaskTree
         throw new IllegalStateException("Root task doesn't exist in an attempt: "+map.values());
     }
 
+    public boolean contains(long id)
+    {
+        return map.containsKey(id);
+    }
+
     private TaskRelation get(long id)
     {
         return Objects.requireNonNull(map.get(id));
@@ -0,0 +1,133 @@
+package io.digdag.core.workflow;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import io.digdag.client.config.Config;
+import io.digdag.core.session.ParameterUpdate;
+import io.digdag.core.session.SessionStoreManager;
+import io.digdag.core.session.TaskRelation;
+
+/**
+ * Cache of TaskTree of attempts.
+ *
+ * Tasks of an attempt are never removed, and relations of a task (parent and
+ * upstreams) are inserted together with the task. Thus a cached tree is valid
+ * as long as no tasks are added to the attempt. Each lookup checks the max
+ * task id of the attempt, which is an index lookup unlike counting tasks.
+ * When it grows, only relations of the new tasks are loaded and the number
+ * of tasks is checked to find tasks committed later than tasks with larger
+ * ids. Such a task is also found when it's looked up because the tree
+ * doesn't contain it. Both cases reload all relations.
+ *
+ * An entry also memoizes export params and store params of tasks. They're
+ * used only for parents and upstreams of tasks ready to run, and such tasks
+ * don't update their params until they generate subtasks again, which adds
+ * tasks and invalidates the entry.
+ */
+class TaskTreeCache
+{
+    // sum of number of tasks in cached trees
+    private static final long MAX_CACHED_TASKS = 200000;
+
+    static class Entry
+    {
+        private final SessionStoreManager sm;
+        private final List<TaskRelation> relations;
+        private final long maxTaskId;
+        private final TaskTree tree;
+        private final Map<Long, Config> exportParams = new ConcurrentHashMap<>();
+        private final Map<Long, ParameterUpdate> storeParams = new ConcurrentHashMap<>();
+
+        private Entry(SessionStoreManager sm, List<TaskRelation> relations)
+        {
+            this.sm = sm;
+            this.relations = relations;
+            this.maxTaskId = relations.stream().mapToLong(TaskRelation::getId).max().orElse(0L);
+            this.tree = new TaskTree(relations);
+        }
+
+        TaskTree getTree()
+        {
+            return tree;
+        }
+
+        List<Config> getExportParams(List<Long> idList)
+        {
+            return getMemoized(exportParams, idList, sm::getExportParams);
+        }
+
+        List<ParameterUpdate> getStoreParams(List<Long> idList)
+        {
+            return getMemoized(storeParams, idList, sm::getStoreParams);
+        }
+
+        private static <T> List<T> getMemoized(Map<Long, T> memo, List<Long> idList, Function<List<Long>, List<T>> loader)
+        {
+            List<Long> missingIdList = idList.stream()
+                .filter(id -> !memo.containsKey(id))
+                .distinct()
+                .collect(Collectors.toList());
+            if (!missingIdList.isEmpty()) {
+                List<T> loaded = loader.apply(missingIdList);
+                for (int i = 0; i < missingIdList.size(); i++) {
+                    memo.put(missingIdList.get(i), loaded.get(i));
+                }
+            }
+            return idList.stream()
+                .map(memo::get)
+                .collect(Collectors.toList());
+        }
+    }
+
+    private final SessionStoreManager sm;
+    private final Cache<Long, Entry> cache;
+
+    TaskTreeCache(SessionStoreManager sm)
+    {
+        this.sm = sm;
+        this.cache = CacheBuilder.newBuilder()
+            .maximumWeight(MAX_CACHED_TASKS)
+            .weigher((Long attemptId, Entry entry) -> entry.relations.size())
+            .expireAfterAccess(10, TimeUnit.MINUTES)
+            .build();
+    }
+
+    /**
+     * Returns an entry of the attempt that contains the task.
+     */
+    Entry get(long attemptId, long taskId)
+    {
+        long maxTaskId = sm.getMaxTaskIdOfAttempt(attemptId);
+        Entry entry = cache.getIfPresent(attemptId);
+        if (entry != null && entry.maxTaskId == maxTaskId && entry.tree.contains(taskId)) {
+            return entry;
+        }
+
+        List<TaskRelation> relations = null;
+        if (entry != null && entry.maxTaskId < maxTaskId) {
+            List<TaskRelation> added = sm.getTaskRelations(attemptId, entry.maxTaskId);
+            // a task with smaller id could be committed later than the cached
+            // tasks. reload all in that case. counts after loading relations
+            // so that tasks committed in between are not overlooked.
+            long taskCount = sm.getTaskCountOfAttempt(attemptId);
+            if (entry.relations.size() + added.size() == taskCount) {
+                relations = ImmutableList.copyOf(Iterables.concat(entry.relations, added));
+            }
+        }
+        if (relations == null) {
+            relations = sm.getTaskRelations(attemptId);
+        }
+
+        Entry newEntry = new Entry(sm, relations);
+        cache.put(attemptId, newEntry);
+        return newEntry;
+    }
+}
@@ -10,6 +10,7 @@ import java.util.Map.Entry;
 import java.util.stream.Collectors;
 import com.google.common.base.*;
 import com.google.common.collect.*;
+import com.fasterxml.jackson.databind.JsonNode;
 import io.digdag.core.session.TaskType;
 import io.digdag.client.config.Config;
 import io.digdag.client.config.ConfigException;
@@ -31,9 +32,17 @@ public class WorkflowCompiler
         "_check",
         "_retry",
         "_export",
-        "_secrets"
+        "_secrets",
+        "_queue",
+        "_priority"
     ));
 
+    // directives that a group task passes down to its subtasks unless a subtask sets them
+    private static final List<String> INHERITED_TASK_CONFIG_KEYS = ImmutableList.of(
+        "_queue",
+        "_priority"
+    );
+
     public WorkflowCompiler()
     { }
 
@@ -51,6 +60,20 @@ public class WorkflowCompiler
         return new Context().compile(parentFullName, name, config);
     }
 
+    static Config inheritTaskConfig(Config parentConfig, Config subtaskConfig)
+    {
+        Config config = subtaskConfig;
+        for (String key : INHERITED_TASK_CONFIG_KEYS) {
+            if (parentConfig.has(key) && !subtaskConfig.has(key)) {
+                if (config == subtaskConfig) {
+                    config = subtaskConfig.deepCopy();
+                }
+                config.set(key, parentConfig.get(key, JsonNode.class).deepCopy());
+            }
+        }
+        return config;
+    }
+
     private static class TaskBuilder
     {
         private final int index;
@@ -228,7 +251,7 @@ public class WorkflowCompiler
 
                 List<TaskBuilder> subtasks = subtaskConfigs
                     .stream()
-                    .map(pair -> collect(Optional.of(tb), fullName, pair.getKey(), pair.getValue(), validator))
+                    .map(pair -> collect(Optional.of(tb), fullName, pair.getKey(), inheritTaskConfig(config, pair.getValue()), validator))
                     .collect(Collectors.toList());
 
                 if (config.get("_parallel", boolean.class, false)) {
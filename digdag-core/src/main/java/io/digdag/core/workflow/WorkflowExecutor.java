@@ -4,13 +4,13 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import io.digdag.client.config.Config;
 import io.digdag.client.config.ConfigException;
 import io.digdag.client.config.ConfigFactory;
 import io.digdag.core.Limits;
 import io.digdag.core.agent.AgentId;
+import io.digdag.core.database.TaskEventChannel;
 import io.digdag.core.database.TransactionManager;
 import io.digdag.core.repository.ProjectStoreManager;
 import io.digdag.core.repository.ResourceConflictException;
@@ -18,6 +18,7 @@ import io.digdag.core.repository.ResourceNotFoundException;
 import io.digdag.core.repository.StoredProject;
 import io.digdag.core.repository.StoredRevision;
 import io.digdag.core.repository.WorkflowDefinition;
+import io.digdag.core.session.AttemptPartitions;
 import io.digdag.core.session.ResumingTask;
 import io.digdag.core.session.ParameterUpdate;
 import io.digdag.core.session.Session;
@@ -47,14 +48,12 @@ import org.slf4j.LoggerFactory;
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
@@ -62,6 +61,7 @@ import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BooleanSupplier;
 import java.util.function.Function;
+import java.util.function.LongFunction;
 import java.util.stream.Collectors;
 import static io.digdag.spi.TaskExecutionException.buildExceptionErrorConfig;
 import static java.util.Locale.ENGLISH;
@@ -121,6 +121,9 @@ import static java.util.Locale.ENGLISH;
  *       : READY
  *
  * PLANNED:
+ *   propagateAllPlannedToDone:
+ *     sm.trySetPlannedToSuccess:
+ *       (if no flags are set and no children are progressible or failed) : SUCCESS
  *   setDoneFromDoneChildren:
  *     (if all children are not progressible):
  *       (if CANCEL_REQUESTED flag is set) lockedTask.setToCanceled:
@@ -159,6 +162,13 @@ public class WorkflowExecutor
 {
     private static final Logger logger = LoggerFactory.getLogger(WorkflowExecutor.class);
 
+    private static final int DEFAULT_ENQUEUE_THREADS = 4;
+    private static final int ENQUEUE_QUEUE_SIZE_PER_THREAD = 100;
+    private static final int DEFAULT_FULL_SWEEP_INTERVAL = 10;  // seconds
+    // changed attempts are scanned again until this period passes so that
+    // changes committed after the notice are not missed
+    private static final long CHANGED_ATTEMPT_GRACE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
     private final ProjectStoreManager rm;
     private final SessionStoreManager sm;
     private final TransactionManager tm;
@@ -167,11 +177,23 @@ public class WorkflowExecutor
     private final ConfigFactory cf;
     private final ObjectMapper archiveMapper;
     private final Config systemConfig;
+    private final TaskEventChannel eventChannel;
+    private final ExecutorPartitionManager partitionManager;
+    private final TaskTreeCache taskTreeCache;
+    private final Config defaultParams;
+
+    private final int enqueueThreads;
+    private final boolean setBasedPropagation;
+    private final long fullSweepIntervalNanos;
 
     private final Lock propagatorLock = new ReentrantLock();
     private final Condition propagatorCondition = propagatorLock.newCondition();
     private volatile boolean propagatorNotice = false;
 
+    // attempt id -> System.nanoTime() when a task of the attempt changed
+    private final ConcurrentHashMap<Long, Long> changedAttempts = new ConcurrentHashMap<>();
+    private final AtomicInteger activeLoops = new AtomicInteger(0);
+
     @Inject
     public WorkflowExecutor(
             ProjectStoreManager rm,
@@ -181,7 +203,9 @@ public class WorkflowExecutor
             WorkflowCompiler compiler,
             ConfigFactory cf,
             ObjectMapper archiveMapper,
-            Config systemConfig)
+            Config systemConfig,
+            TaskEventChannel eventChannel,
+            ExecutorNodeStoreManager nsm)
     {
         this.rm = rm;
         this.sm = sm;
@@ -191,6 +215,22 @@ public class WorkflowExecutor
         this.cf = cf;
         this.archiveMapper = archiveMapper;
         this.systemConfig = systemConfig;
+        this.eventChannel = eventChannel;
+        this.partitionManager = new ExecutorPartitionManager(nsm, tm, systemConfig);
+        this.taskTreeCache = new TaskTreeCache(sm);
+        this.defaultParams = cf.fromJsonString(systemConfig.get("digdag.defaultParams", String.class, "{}"));
+        this.enqueueThreads = systemConfig.get("executor.enqueue_threads", int.class, DEFAULT_ENQUEUE_THREADS);
+        this.setBasedPropagation = systemConfig.get("executor.set_based_propagation", boolean.class, true);
+        this.fullSweepIntervalNanos = TimeUnit.SECONDS.toNanos(
+                systemConfig.get("executor.full_sweep_interval", int.class, DEFAULT_FULL_SWEEP_INTERVAL));
+
+        // changes made by other servers
+        eventChannel.addListener(TaskEventChannel.Event.TASK_STATE_CHANGED, (attemptId) -> {
+            if (partitionManager.getOwnedPartitions().contains(attemptId)) {
+                markAttemptChanged(attemptId);
+                wakePropagator();
+            }
+        });
     }
 
     public StoredSessionAttemptWithSession submitWorkflow(int siteId,
@@ -324,7 +364,7 @@ public class WorkflowExecutor
             throw new SessionAttemptConflictException("Session already exists", sessionAlreadyExists, conflicted);
         }
 
-        noticeStatusPropagate();
+        noticeStatusPropagate(stored.getId());
 
         return stored;
     }
@@ -413,13 +453,33 @@ public class WorkflowExecutor
         boolean updated = sm.requestCancelAttempt(attempt.getId());
 
         if (updated) {
-            noticeStatusPropagate();
+            noticeStatusPropagate(attempt.getId());
         }
 
         return updated;
     }
 
-    private void noticeStatusPropagate()
+    private void noticeStatusPropagate(long attemptId)
+    {
+        // the executor loops of this and other servers see the changes after commit
+        tm.afterCommit(() -> {
+            markAttemptChanged(attemptId);
+            eventChannel.publish(TaskEventChannel.Event.TASK_STATE_CHANGED, attemptId);
+            wakePropagator();
+        });
+    }
+
+    private void noticeLocalPropagate(long attemptId)
+    {
+        // changes made by TaskQueuer threads of this executor. other servers
+        // don't need them because this executor owns the attempt.
+        tm.afterCommit(() -> {
+            markAttemptChanged(attemptId);
+            wakePropagator();
+        });
+    }
+
+    private void wakePropagator()
     {
         propagatorLock.lock();
         try {
@@ -431,6 +491,16 @@ public class WorkflowExecutor
         }
     }
 
+    private void markAttemptChanged(long attemptId)
+    {
+        // Changes are tracked only while runWhile is running so that servers
+        // without executor loop don't accumulate attempt ids. runWhile starts
+        // with a full sweep, which covers changes made before it starts.
+        if (activeLoops.get() > 0) {
+            changedAttempts.put(attemptId, System.nanoTime());
+        }
+    }
+
     public void noticeRunWhileConditionChange()
     {
         propagatorLock.lock();
@@ -482,13 +552,17 @@ public class WorkflowExecutor
     public void runWhile(BooleanSupplier cond)
             throws InterruptedException
     {
-        try (TaskQueuer queuer = new TaskQueuer()) {
+        activeLoops.incrementAndGet();
+        try (TaskQueuer queuer = newTaskQueuer()) {
+            partitionManager.heartbeatIfNecessary();
+            long lastFullSweepTime = System.nanoTime();
             propagateBlockedChildrenToReady();
             retryRetryWaitingTasks();
-            enqueueReadyTasks(queuer);  // TODO enqueue all (not only first 100)
+            enqueueReadyTasks(queuer);
             propagateAllPlannedToDone();
             propagateSessionArchive();
 
+            boolean fullSweep = false;
             final AtomicInteger waitMsec = new AtomicInteger(INITIAL_INTERVAL);
             while (true) {
                 if (tm.<Boolean>begin(() -> !cond.getAsBoolean())) {
@@ -502,14 +576,36 @@ public class WorkflowExecutor
                 //    propagatorNotice = true;
                 //}
 
-                propagateBlockedChildrenToReady();
-                retryRetryWaitingTasks();
-                enqueueReadyTasks(queuer);
+                if (partitionManager.heartbeatIfNecessary()) {
+                    // scan partitions taken over from other nodes
+                    fullSweep = true;
+                }
 
-                if (propagateAllPlannedToDone()) {
-                    propagateSessionArchive();
+                long now = System.nanoTime();
+                if (now - lastFullSweepTime >= fullSweepIntervalNanos) {
+                    fullSweep = true;
+                }
+
+                boolean changed;
+                if (fullSweep) {
+                    // Scans all tasks of owned partitions. This is a safety net for changes
+                    // that are not noticed to this executor (e.g. changes made by other servers).
+                    lastFullSweepTime = now;
+                    propagateBlockedChildrenToReady();
+                    retryRetryWaitingTasks();
+                    enqueueReadyTasks(queuer);
+                    changed = propagateAllPlannedToDone();
+                    if (changed) {
+                        propagateSessionArchive();
+                    }
+                    // continue full sweep until propagation to parents settles
+                    fullSweep = changed;
                 }
                 else {
+                    changed = propagateChangedAttempts(queuer);
+                }
+
+                if (!changed) {
                     propagatorLock.lock();
                     try {
                         if (propagatorNotice) {
@@ -533,41 +629,118 @@ public class WorkflowExecutor
                 }
             }
         }
+        finally {
+            if (activeLoops.decrementAndGet() == 0) {
+                partitionManager.release();
+            }
+        }
+    }
+
+    private TaskQueuer newTaskQueuer()
+    {
+        return new TaskQueuer(enqueueThreads, enqueueThreads * ENQUEUE_QUEUE_SIZE_PER_THREAD, (taskId) -> {
+            tm.begin(() -> {
+                enqueueTask(dispatcher, taskId);
+                return null;
+            });
+        });
+    }
+
+    private boolean propagateChangedAttempts(TaskQueuer queuer)
+            throws InterruptedException
+    {
+        long startTime = System.nanoTime();
+        Map<Long, Long> changed = new HashMap<>(changedAttempts);
+
+        if (changed.isEmpty()) {
+            // nothing to do until next notification or full sweep
+            return false;
+        }
+
+        List<Long> attemptIds = new ArrayList<>(changed.keySet());
+        // Reaching retry_at doesn't notify anything. Retry waiting tasks of attempts
+        // without changes are retried by full sweeps (executor.full_sweep_interval).
+        retryRetryWaitingTasks(attemptIds);
+        propagateBlockedChildrenToReady(lastId -> sm.findDirectParentsOfBlockedTasks(attemptIds, lastId));
+        enqueueReadyTasks(queuer);
+        boolean anyChanged = propagateAllPlannedToDone(lastId -> sm.findTasksByState(TaskStateCode.PLANNED, attemptIds, lastId));
+        if (anyChanged) {
+            propagateSessionArchive(lastId -> sm.findRootTasksByStates(TaskStateCode.doneStates(), attemptIds, lastId));
+        }
+
+        for (Map.Entry<Long, Long> pair : changed.entrySet()) {
+            if (anyChanged) {
+                // parents of propagated tasks may become ready to propagate
+                changedAttempts.merge(pair.getKey(), startTime, Math::max);
+            }
+            else if (startTime - pair.getValue() > CHANGED_ATTEMPT_GRACE_NANOS) {
+                // remove only if not changed again during this call
+                changedAttempts.remove(pair.getKey(), pair.getValue());
+            }
+        }
+
+        return anyChanged;
     }
 
     private boolean propagateBlockedChildrenToReady()
+    {
+        return propagateBlockedChildrenToReady(lastId -> sm.findDirectParentsOfBlockedTasks(partitionManager.getOwnedPartitions(), lastId));
+    }
+
+    private boolean propagateBlockedChildrenToReady(LongFunction<List<Long>> findParentIds)
     {
         boolean anyChanged = false;
         long lastParentId = 0;
         while (true) {
             long finalLastParentId = lastParentId;
-            List<Long> parentIds = tm.begin(() -> sm.findDirectParentsOfBlockedTasks(finalLastParentId));
+            List<Long> parentIds = tm.begin(() -> findParentIds.apply(finalLastParentId));
 
             if (parentIds.isEmpty()) {
                 break;
             }
-            anyChanged = parentIds
-                    .stream()
-                    .map(parentId -> tm.begin(() ->
-                            sm.lockTaskIfNotLocked(parentId, (store) ->
-                                    store.trySetChildrenBlockedToReadyOrShortCircuitPlannedOrCanceled(parentId) > 0)).or(false))
-                    .reduce(anyChanged, (a, b) -> a || b);
+            if (setBasedPropagation) {
+                // updates children of all parents in the page with one statement
+                anyChanged = tm.begin(() -> sm.trySetChildrenBlockedToReadyOrShortCircuitPlannedOrCanceled(parentIds)) > 0 || anyChanged;
+            }
+            else {
+                anyChanged = parentIds
+                        .stream()
+                        .map(parentId -> tm.begin(() ->
+                                sm.lockTaskIfNotLocked(parentId, (store) ->
+                                        store.trySetChildrenBlockedToReadyOrShortCircuitPlannedOrCanceled(parentId) > 0)).or(false))
+                        .reduce(anyChanged, (a, b) -> a || b);
+            }
             lastParentId = parentIds.get(parentIds.size() - 1);
         }
         return anyChanged;
     }
 
     private boolean propagateAllPlannedToDone()
+    {
+        return propagateAllPlannedToDone(lastId -> sm.findTasksByState(TaskStateCode.PLANNED, partitionManager.getOwnedPartitions(), lastId));
+    }
+
+    private boolean propagateAllPlannedToDone(LongFunction<List<Long>> findPlannedTaskIds)
     {
         boolean anyChanged = false;
         long lastTaskId = 0;
         while (true) {
             long finalLastTaskId = lastTaskId;
-            List<Long> taskIds = tm.begin(() -> sm.findTasksByState(TaskStateCode.PLANNED, finalLastTaskId));
+            List<Long> taskIds = tm.begin(() -> findPlannedTaskIds.apply(finalLastTaskId));
             if (taskIds.isEmpty()) {
                 break;
             }
-            anyChanged = taskIds
+            List<Long> doneCandidateIds;
+            if (setBasedPropagation) {
+                // sets tasks whose children all succeeded to SUCCESS with one statement.
+                // remaining tasks need cancel, error or retry handling task by task.
+                anyChanged = tm.begin(() -> sm.trySetPlannedToSuccess(taskIds)) > 0 || anyChanged;
+                doneCandidateIds = tm.begin(() -> sm.findPlannedTasksWithoutProgressibleChildren(taskIds));
+            }
+            else {
+                doneCandidateIds = taskIds;
+            }
+            anyChanged = doneCandidateIds
                     .stream()
                     .map(taskId -> tm.begin(() ->
                             sm.lockTaskIfNotLocked(taskId, (store, storedTask) ->
@@ -698,7 +871,7 @@ public class WorkflowExecutor
     {
         List<Long> childrenFromThis;
         {
-            TaskTree tree = new TaskTree(sm.getTaskRelations(task.getAttemptId()));
+            TaskTree tree = taskTreeCache.get(task.getAttemptId(), task.getId()).getTree();
             childrenFromThis = tree.getRecursiveChildrenIdList(task.getId());
         }
 
@@ -720,13 +893,18 @@ public class WorkflowExecutor
     }
 
     private boolean propagateSessionArchive()
+    {
+        return propagateSessionArchive(lastId -> sm.findRootTasksByStates(TaskStateCode.doneStates(), partitionManager.getOwnedPartitions(), lastId));
+    }
+
+    private boolean propagateSessionArchive(LongFunction<List<TaskAttemptSummary>> findDoneRootTasks)
     {
         boolean anyChanged = false;
         long lastTaskId = 0;
         while (true) {
             long finalLastTaskId = lastTaskId;
             List<TaskAttemptSummary> tasks =
-                    tm.begin(() -> sm.findRootTasksByStates(TaskStateCode.doneStates(), finalLastTaskId));
+                    tm.begin(() -> findDoneRootTasks.apply(finalLastTaskId));
             if (tasks.isEmpty()) {
                 break;
             }
@@ -756,61 +934,28 @@ public class WorkflowExecutor
         return tm.begin(() -> sm.trySetRetryWaitingToReady() > 0);
     }
 
-    private class TaskQueuer
-            implements AutoCloseable
+    private boolean retryRetryWaitingTasks(List<Long> attemptIds)
     {
-        private final Map<Long, Future<Void>> waiting = new ConcurrentHashMap<>();
-        private final ExecutorService executor;
-
-        public TaskQueuer()
-        {
-            this.executor = Executors.newCachedThreadPool(
-                    new ThreadFactoryBuilder()
-                    .setDaemon(true)
-                    .setNameFormat("task-queuer-%d")
-                    .build()
-                    );
-        }
-
-        public void close()
-        {
-            // TODO
-            executor.shutdown();
-            //executor.awaitShutdown(10, TimeUnit.SECONDS);
-            //executor.shutdownNow();
-        }
-
-        //public synchronized Future<Void> asyncEnqueueTask(final long taskId)
-        //{
-        //    if (waiting.containsKey(taskId)) {
-        //        return waiting.get(taskId);
-        //    }
-        //    Future<Void> future = executor.submit(() -> {
-        //        try {
-        //            enqueueTask(dispatcher, taskId);
-        //        }
-        //        catch (Throwable t) {
-        //            logger.error("Uncaught exception during enqueuing a task request. This enqueue attempt will be retried", t);
-        //        }
-        //        finally {
-        //            waiting.remove(taskId);
-        //        }
-        //        return null;
-        //    });
-        //    waiting.put(taskId, future);
-        //    return future;
-        //}
+        return tm.begin(() -> sm.trySetRetryWaitingToReady(attemptIds) > 0);
     }
 
     private void enqueueReadyTasks(TaskQueuer queuer)
     {
-        List<Long> readyTaskIds = tm.begin(() -> sm.findAllReadyTaskIds(100));
-        for (long taskId : readyTaskIds) {  // TODO randomize this result to achieve concurrency
-            tm.begin(() -> {
-                enqueueTask(dispatcher, taskId);
-                return null;
-            });
-            //queuer.asyncEnqueueTask(taskId);  // TODO async queuing is probably unnecessary but not sure
+        // Dispatching tasks is pipelined with fetching next pages of ready tasks.
+        // This method doesn't wait for dispatching. Tasks that are still being
+        // dispatched are skipped when later calls find them again.
+        AttemptPartitions partitions = partitionManager.getOwnedPartitions();
+        long lastTaskId = 0;
+        while (true) {
+            long finalLastTaskId = lastTaskId;
+            List<Long> readyTaskIds = tm.begin(() -> sm.findTasksByState(TaskStateCode.READY, partitions, finalLastTaskId));
+            if (readyTaskIds.isEmpty()) {
+                break;
+            }
+            for (long taskId : readyTaskIds) {
+                queuer.asyncEnqueueTask(taskId);
+            }
+            lastTaskId = readyTaskIds.get(readyTaskIds.size() - 1);
         }
     }
 
@@ -823,10 +968,12 @@ public class WorkflowExecutor
             }
 
             if (task.getTaskType().isGroupingOnly()) {
+                noticeLocalPropagate(task.getAttemptId());
                 return retryGroupingTask(lockedTask);
             }
 
             if (task.getStateFlags().isCancelRequested()) {
+                noticeLocalPropagate(task.getAttemptId());
                 return lockedTask.setToCanceled();
             }
 
@@ -842,14 +989,16 @@ public class WorkflowExecutor
             }
 
             try {
-                // TODO make queue name configurable. note that it also needs a new REST API and/or
-                //      CLI ccommands to create/delete/manage queues.
-                Optional<String> queueName = Optional.absent();
+                // _queue and _priority are used before the task config is evaluated.
+                // Thus they must be literal values.
+                Config taskConfig = task.getConfig().getMerged();
+                Optional<String> queueName = taskConfig.getOptional("_queue", String.class);
+                int priority = taskConfig.get("_priority", int.class, 0);
 
                 String encodedUnique = encodeUniqueQueuedTaskName(lockedTask.get());
 
                 TaskQueueRequest request = TaskQueueRequest.builder()
-                    .priority(0)  // TODO make this configurable
+                    .priority(priority)
                     .uniqueName(encodedUnique)
                     .data(Optional.absent())
                     .build();
@@ -914,10 +1063,11 @@ public class WorkflowExecutor
     public List<TaskRequest> getTaskRequests(List<TaskQueueLock> locks)
     {
         ImmutableList.Builder<TaskRequest> builder = ImmutableList.builder();
+        TaskRequestBatch batch = new TaskRequestBatch(sm, rm, defaultParams);
         for (TaskQueueLock lock : locks) {
             try {
                 long taskId = parseTaskIdFromEncodedQueuedTaskName(lock.getUniqueName());
-                Optional<TaskRequest> request = getTaskRequest(taskId, lock.getLockId());
+                Optional<TaskRequest> request = getTaskRequest(batch, taskId, lock.getLockId());
                 if (request.isPresent()) {
                     builder.add(request.get());
                 }
@@ -933,12 +1083,12 @@ public class WorkflowExecutor
         return builder.build();
     }
 
-    private Optional<TaskRequest> getTaskRequest(long taskId, String lockId)
+    private Optional<TaskRequest> getTaskRequest(TaskRequestBatch batch, long taskId, String lockId)
     {
         return sm.<Optional<TaskRequest>>lockTaskIfExists(taskId, (store, task) -> {
             StoredSessionAttemptWithSession attempt;
             try {
-                attempt = sm.getAttemptWithSessionById(task.getAttemptId());
+                attempt = batch.getAttempt(task.getAttemptId());
             }
             catch (ResourceNotFoundException ex) {
                 tm.reset();
@@ -950,7 +1100,7 @@ public class WorkflowExecutor
             Optional<StoredRevision> rev = Optional.absent();
             if (attempt.getWorkflowDefinitionId().isPresent()) {
                 try {
-                    rev = Optional.of(rm.getRevisionOfWorkflowDefinition(attempt.getWorkflowDefinitionId().get()));
+                    rev = Optional.of(batch.getRevisionOfWorkflowDefinition(attempt.getWorkflowDefinitionId().get()));
                 }
                 catch (ResourceNotFoundException ex) {
                     tm.reset();
@@ -962,7 +1112,7 @@ public class WorkflowExecutor
 
             StoredProject project;
             try {
-                project = rm.getProjectByIdInternal(attempt.getSession().getProjectId());
+                project = batch.getProject(attempt.getSession().getProjectId());
             }
             catch (ResourceNotFoundException ex) {
                 tm.reset();
@@ -973,11 +1123,7 @@ public class WorkflowExecutor
 
             // merge order is:
             //   revision default < attempt < task < runtime
-            Config params = cf.fromJsonString(systemConfig.get("digdag.defaultParams", String.class, "{}"));
-            if (rev.isPresent()) {
-                params.merge(rev.get().getDefaultParams());
-            }
-            params.merge(attempt.getParams());
+            Config params = batch.getBaseParams(attempt, rev);
             collectParams(params, task, attempt);
 
             // remove conditional subtasks that may cause JavaScript evaluation error if they include reference to a nested field such as
@@ -1033,7 +1179,7 @@ public class WorkflowExecutor
         // rest task state of subtasks
         StoredTask task = lockedTask.get();
 
-        TaskTree tree = new TaskTree(sm.getTaskRelations(task.getAttemptId()));
+        TaskTree tree = taskTreeCache.get(task.getAttemptId(), task.getId()).getTree();
         List<Long> childrenIdList = tree.getRecursiveChildrenIdList(task.getId());
         lockedTask.copyInitialTasksForRetry(childrenIdList);
 
@@ -1124,6 +1270,7 @@ public class WorkflowExecutor
         }
 
         if (lockedTask.get().getStateFlags().isCancelRequested()) {
+            noticeStatusPropagate(lockedTask.get().getAttemptId());
             return lockedTask.setToCanceled();
         }
 
@@ -1154,7 +1301,7 @@ public class WorkflowExecutor
             updated = lockedTask.setRunningToShortCircuitError(error);
         }
 
-        noticeStatusPropagate();
+        noticeStatusPropagate(lockedTask.get().getAttemptId());
 
         if (!updated) {
             // return value of setRunningToRetryWaiting, setRunningToPlannedSuccessful, or setRunningToShortCircuitError
@@ -1179,6 +1326,7 @@ public class WorkflowExecutor
         }
 
         if (lockedTask.get().getStateFlags().isCancelRequested()) {
+            noticeStatusPropagate(lockedTask.get().getAttemptId());
             return lockedTask.setToCanceled();
         }
 
@@ -1207,7 +1355,7 @@ public class WorkflowExecutor
             updated = lockedTask.setRunningToShortCircuitSuccess(result);
         }
 
-        noticeStatusPropagate();
+        noticeStatusPropagate(lockedTask.get().getAttemptId());
 
         if (!updated) {
             // return value of setRunningToPlannedSuccessful or setRunningToShortCircuitSuccess
@@ -1235,7 +1383,7 @@ public class WorkflowExecutor
 
         boolean updated = lockedTask.setRunningToRetryWaiting(retryStateParams, retryInterval);
 
-        noticeStatusPropagate();
+        noticeStatusPropagate(lockedTask.get().getAttemptId());
 
         if (!updated) {
             // return value of setRunningToRetryWaiting must be true because this task is locked
@@ -1248,18 +1396,21 @@ public class WorkflowExecutor
 
     private void collectParams(Config params, StoredTask task, StoredSessionAttempt attempt)
     {
+        TaskTreeCache.Entry cached = taskTreeCache.get(attempt.getId(), task.getId());
         List<Long> parentsFromRoot;
         List<Long> parentsUpstreamChildrenFromFar;
         {
-            TaskTree tree = new TaskTree(sm.getTaskRelations(attempt.getId()));
+            TaskTree tree = cached.getTree();
             parentsFromRoot = tree.getRecursiveParentIdListFromRoot(task.getId());
             parentsUpstreamChildrenFromFar = tree.getRecursiveParentsUpstreamChildrenIdListFromFar(task.getId());
         }
 
         // task merge order is:
         //   export < store < local
-        List<Config> exports = sm.getExportParams(parentsFromRoot);
-        List<ParameterUpdate> stores = sm.getStoreParams(parentsUpstreamChildrenFromFar);
+        // params of parents and upstreams are memoized because they don't
+        // change while this task is ready to run.
+        List<Config> exports = cached.getExportParams(parentsFromRoot);
+        List<ParameterUpdate> stores = cached.getStoreParams(parentsUpstreamChildrenFromFar);
         for (int si=0; si < parentsUpstreamChildrenFromFar.size(); si++) {
             ParameterUpdate stored = stores.get(si);
             long taskId = parentsUpstreamChildrenFromFar.get(si);
@@ -1281,7 +1432,8 @@ public class WorkflowExecutor
             return Optional.absent();
         }
 
-        WorkflowTaskList tasks = compiler.compileTasks(lockedTask.get().getFullName(), "^sub", subtaskConfig);
+        Config config = WorkflowCompiler.inheritTaskConfig(lockedTask.get().getConfig().getMerged(), subtaskConfig);
+        WorkflowTaskList tasks = compiler.compileTasks(lockedTask.get().getFullName(), "^sub", config);
         if (tasks.isEmpty()) {
             return Optional.absent();
         }
@@ -1304,6 +1456,7 @@ public class WorkflowExecutor
         export = errorBuilder.apply(export);
         subtaskConfig.setNested("_export", export);
 
+        subtaskConfig = WorkflowCompiler.inheritTaskConfig(lockedTask.get().getConfig().getMerged(), subtaskConfig);
         WorkflowTaskList tasks = compiler.compileTasks(lockedTask.get().getFullName(), "^error", subtaskConfig);
         if (tasks.isEmpty()) {
             return Optional.absent();
@@ -1331,6 +1484,7 @@ public class WorkflowExecutor
             return Optional.absent();
         }
 
+        subtaskConfig = WorkflowCompiler.inheritTaskConfig(lockedTask.get().getConfig().getMerged(), subtaskConfig);
         WorkflowTaskList tasks = compiler.compileTasks(lockedTask.get().getFullName(), "^check", subtaskConfig);
         if (tasks.isEmpty()) {
             return Optional.absent();
@@ -1361,6 +1515,7 @@ public class WorkflowExecutor
 
         logger.trace("Adding {} tasks: {}", type, tasks);
         long rootTaskId = lockedTask.addGeneratedSubtasksWithoutLimit(tasks, ImmutableList.of(), false);
+        noticeStatusPropagate(lockedTask.get().getAttemptId());
         return Optional.of(rootTaskId);
     }
 
@@ -1,5 +1,12 @@
 // Code from Underscore.js
 function template(code, variables)
+{
+  return evalTemplate(compileTemplate(code), variables);
+}
+
+// Returns body of a function that renders the template. The result depends
+// only on the code so that it can be cached.
+function compileTemplate(code)
 {
   var matcher = RegExp([
     (/\${(?![a-z]+:)([\s\S]+?)}/g).source  // exclude operator-defined templates such as ${secret:sec.ret.key}
@@ -40,6 +47,11 @@ function template(code, variables)
 
   source = 'with(this){\n' + source + '}\n';
 
+  return source;
+}
+
+function evalTemplate(source, variables)
+{
   try {
     var func = new Function(source);
   } catch (e) {
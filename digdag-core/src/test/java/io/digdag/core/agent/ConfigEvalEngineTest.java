@@ -114,4 +114,52 @@ public class ConfigEvalEngineTest
                 engine.eval(newConfig().set("key", "${moment().format()}"), params()).get("key", String.class),
                 not(is("")));
     }
+
+    @Test
+    public void globalsAreNotSharedBetweenEvaluations()
+            throws Exception
+    {
+        // pooled engine is reused but each evaluation runs in a new global
+        ConfigEvalEngine pooled = new ConfigEvalEngine(1, 600, false);
+        pooled.eval(newConfig().set("key", "${leaked = 'x'}"), params());
+        assertThat(
+                pooled.eval(newConfig().set("key", "${typeof leaked}"), params()).get("key", String.class),
+                is("undefined"));
+        assertThat(pooled.template("${typeof leaked}", params()), is("undefined"));
+    }
+
+    @Test
+    public void literalsAreNotEvaluated()
+            throws Exception
+    {
+        assertThat(engine.template("a$b", params()), is("a$b"));
+        assertThat(engine.template("a$$b$$$", params()), is("a$b$$"));
+        assertThat(engine.template("${secret:sec.ret}", params()), is("${secret:sec.ret}"));
+        Config evaluated = engine.eval(newConfig().set("a", "a$$b").set("b", "$$${timezone}"), params());
+        assertThat(evaluated.get("a", String.class), is("a$b"));
+        assertThat(evaluated.get("b", String.class), is("$UTC"));
+    }
+
+    @Test
+    public void localFieldsOverrideParams()
+            throws Exception
+    {
+        Config evaluated = engine.eval(
+                newConfig()
+                    .set("timezone", "${timezone}_local")
+                    .set("key", "${timezone}")
+                    .set("nested", newConfig().set("key", "${timezone}")),
+                params());
+        assertThat(evaluated.get("timezone", String.class), is("UTC_local"));
+        assertThat(evaluated.get("key", String.class), is("UTC_local"));
+        assertThat(evaluated.getNested("nested").get("key", String.class), is("UTC"));
+    }
+
+    @Test
+    public void cachedTemplatesAreEvaluatedWithEachParams()
+            throws Exception
+    {
+        assertThat(engine.template("${timezone}", params()), is("UTC"));
+        assertThat(engine.template("${timezone}", params().set("timezone", "Asia/Tokyo")), is("Asia/Tokyo"));
+    }
 }
@@ -0,0 +1,173 @@
+package io.digdag.core.agent;
+
+import java.util.List;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import io.digdag.client.config.Config;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static io.digdag.core.workflow.WorkflowTestingUtils.loadYamlResource;
+import static io.digdag.client.config.ConfigUtils.newConfig;
+
+/**
+ * Differential tests of NativeTemplateEvaluator against template() of digdag.js.
+ */
+public class NativeTemplateEvaluatorTest
+{
+    private static final List<String> TIMEZONES = ImmutableList.of("UTC", "Asia/Tokyo", "America/Los_Angeles");
+
+    private static final List<String> SUPPORTED_TEMPLATES = ImmutableList.of(
+            "${session_date}",
+            "${nested.value}",
+            "${nested.n}",
+            "[${nested.missing}]",
+            "${nothing}",
+            "prefix_${session_date}_${nested.value}$$suffix",
+            "${session_date + '_' + nested.n}",
+            "${\"a\" + 'b\\'c' + nested.missing + nothing + flag}",
+            "${nested.n * 2 + 1}",
+            "${nested.n - 5}",
+            "${-nested.n}",
+            "${7 % 3}",
+            "${10 / 2}",
+            "${1 / 0}",
+            "${session_unixtime + 86400}",
+            "${flag + 1}",
+            "${!flag}",
+            "${nested.n > 2} ${nested.n <= 2} ${nested.n === 3} ${nested.n !== 3}",
+            "${session_date == '2016-03-13'} ${session_date < '2016-04'}",
+            "${nothing == null} ${nothing === null} ${nested.missing == nothing}",
+            "${(nested.n + 1) * 2}",
+            "${moment(session_time).format()}",
+            "${moment(session_time).format('YYYY-MM-DD HH:mm:ss Z')}",
+            "${moment(session_time).format('[Today is] dddd, MMMM Do YYYY, h:mm:ss a')}",
+            "${moment(session_time).format('ddd MMM D DDD DDDD d dd A k kk S SS SSS X x ZZ Hmm hmmss YY Y')}",
+            "${moment(session_time).format('\\\\YYYY')}",
+            "${moment(session_time).add(1, 'days').format('YYYYMMDD')}",
+            "${moment(session_time).add(-1, 'days').format()}",
+            "${moment(session_time).subtract(1, 'months').format('YYYY-MM')}",
+            "${moment(session_time).add(2, 'w').format()}",
+            "${moment(session_time).add(-1, 'hours').format()}",
+            "${moment(session_time).add(90, 'm').format()}",
+            "${moment(session_time).utc().format()}",
+            "${moment(session_time).utc().local().format()}",
+            "${moment(session_date).format()}",
+            "${moment('2016-01-31T12:00:00').add(1, 'M').format()}",
+            "${moment('2016-02-29 08:30:15.5+0900').format('YYYY-MM-DD HH:mm:ss.SSS')}",
+            "${moment(session_time).unix()}",
+            "${moment(session_time).valueOf()}",
+            "${moment(session_time).toISOString()}",
+            "${moment(session_time)}",
+            "${moment(session_unixtime * 1000).format()}");
+
+    private static final List<String> UNSUPPORTED_TEMPLATES = ImmutableList.of(
+            "${no_such_var}",
+            "${nested}",
+            "${list}",
+            "${nested.n / 4}",
+            "${session_date.length}",
+            "${session_date.substring(0, 4)}",
+            "${nested.toString}",
+            "${Math.floor(1.5)}",
+            "${JSON.stringify(nested)}",
+            "${flag ? 1 : 2}",
+            "${typeof nested}",
+            "${nested.n++}",
+            "${session_date + nested}",
+            "${session_date == 1}",
+            "${moment().format()}",
+            "${moment(session_time).format('LLL')}",
+            "${moment(session_time).format('Q')}",
+            "${moment(session_time).add(1.5, 'days').format()}",
+            "${moment(session_time).startOf('day').format()}",
+            "${moment('2016/03/13').format()}");
+
+    private final ConfigEvalEngine jsEngine = new ConfigEvalEngine(1, 600, false);
+    private final NativeTemplateEvaluator evaluator = new NativeTemplateEvaluator();
+
+    private Config params(String timezone)
+    {
+        return newConfig()
+            .set("timezone", timezone)
+            .set("session_time", "2016-03-13T10:00:00+00:00")
+            .set("session_date", "2016-03-13")
+            .set("session_unixtime", 1457863200L)
+            .set("nested", newConfig().set("value", "v").set("n", 3))
+            .set("list", ImmutableList.of(1, 2))
+            .set("flag", true)
+            .set("nothing", null);
+    }
+
+    private Optional<String> evaluate(String code, Config params)
+    {
+        return evaluator.evaluate(code, params.getInternalObjectNode()::get, params.get("timezone", String.class));
+    }
+
+    @Test
+    public void sameResultsWithJavaScript()
+            throws Exception
+    {
+        for (String timezone : TIMEZONES) {
+            Config params = params(timezone);
+            for (String code : SUPPORTED_TEMPLATES) {
+                assertThat(code + " at " + timezone, evaluate(code, params), is(Optional.of(jsEngine.template(code, params))));
+            }
+        }
+    }
+
+    @Test
+    public void unsupportedTemplatesAreLeftToJavaScript()
+            throws Exception
+    {
+        for (String timezone : TIMEZONES) {
+            Config params = params(timezone);
+            for (String code : UNSUPPORTED_TEMPLATES) {
+                assertThat(code + " at " + timezone, evaluate(code, params), is(Optional.absent()));
+            }
+        }
+    }
+
+    @Test
+    public void localTimesInDstTransitionAreLeftToJavaScript()
+            throws Exception
+    {
+        Config params = params("America/Los_Angeles");
+        assertThat(evaluate("${moment('2016-03-13T02:30:00').format()}", params), is(Optional.absent()));
+        assertThat(evaluate("${moment('2016-03-12T02:30:00').add(1, 'days').format()}", params), is(Optional.absent()));
+        assertThat(evaluate("${moment('2016-11-06T01:30:00').format()}", params), is(Optional.absent()));
+    }
+
+    @Test
+    public void variablesShadowingMomentAreLeftToJavaScript()
+            throws Exception
+    {
+        Config params = params("UTC").set("moment", "m");
+        assertThat(evaluate("${moment(session_time).format()}", params), is(Optional.absent()));
+    }
+
+    @Test
+    public void configEvalEngineReadsCopiedParams()
+            throws Exception
+    {
+        ConfigEvalEngine engine = new ConfigEvalEngine(1, 600, true);
+        Config params = params("UTC").deepCopy();
+        String code = "${nested.value} ${nothing} ${session_date}";
+        assertThat(engine.template(code, params), is(jsEngine.template(code, params)));
+        assertThat(engine.template("${no_such_var}", params.deepCopy().set("no_such_var", "v")), is("v"));
+    }
+
+    @Test
+    public void configEvalEngineWithNativeExpressions()
+            throws Exception
+    {
+        ConfigEvalEngine engine = new ConfigEvalEngine(1, 600, true);
+        assertThat(
+                engine.eval(loadYamlResource("/io/digdag/core/agent/eval/basic.dig"), params("UTC")),
+                is(loadYamlResource("/io/digdag/core/agent/eval/basic_expected.dig")));
+        assertThat(
+                engine.eval(loadYamlResource("/io/digdag/core/agent/eval/moment.dig"), newConfig().set("timezone", "America/Los_Angeles")),
+                is(loadYamlResource("/io/digdag/core/agent/eval/moment_expected_pst_pdt.dig")));
+    }
+}
@@ -0,0 +1,120 @@
+package io.digdag.core.agent;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.UUID;
+import com.google.common.base.Optional;
+import io.digdag.client.config.Config;
+import io.digdag.client.config.ConfigFactory;
+import io.digdag.spi.TaskRequest;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertFalse;
+import static io.digdag.client.config.ConfigUtils.newConfig;
+
+public class RuntimeParamsTest
+{
+    private final ConfigFactory cf = newConfig().getFactory();
+    private final RuntimeParams.AttemptParamsCache cache = new RuntimeParams.AttemptParamsCache();
+
+    private TaskRequest request(long attemptId, String taskName, Config config)
+    {
+        return request(attemptId, UUID.randomUUID(), Instant.parse("2016-01-01T00:00:00Z"), taskName, config);
+    }
+
+    private TaskRequest request(long attemptId, UUID sessionUuid, Instant sessionTime, String taskName, Config config)
+    {
+        return TaskRequest.builder()
+            .siteId(1)
+            .projectId(2)
+            .workflowName("wf")
+            .revision(Optional.of("rev"))
+            .taskId(3)
+            .attemptId(attemptId)
+            .sessionId(5)
+            .retryAttemptName(Optional.of("retry1"))
+            .taskName(taskName)
+            .lockId("l")
+            .timeZone(ZoneId.of("Asia/Tokyo"))
+            .sessionUuid(sessionUuid)
+            .sessionTime(sessionTime)
+            .createdAt(Instant.now())
+            .config(config)
+            .localConfig(newConfig())
+            .lastStateParams(newConfig())
+            .build();
+    }
+
+    @Test
+    public void attemptParamsAreSharedByTasks()
+    {
+        Config config = newConfig()
+            .set("last_session_time", "2015-12-31T09:00:00+09:00")
+            .set("next_session_time", "2016-01-02T09:00:00+09:00");
+
+        UUID sessionUuid = UUID.randomUUID();
+        Instant sessionTime = Instant.parse("2016-01-01T00:00:00Z");
+
+        Config first = cache.buildRuntimeParams(cf, request(1, sessionUuid, sessionTime, "+wf+first", config));
+        assertThat(first.get("timezone", String.class), is("Asia/Tokyo"));
+        assertThat(first.get("session_time", String.class), is("2016-01-01T09:00:00+09:00"));
+        assertThat(first.get("session_date", String.class), is("2016-01-01"));
+        assertThat(first.get("last_session_date", String.class), is("2015-12-31"));
+        assertThat(first.get("last_executed_session_time", String.class), is(""));
+        assertThat(first.get("next_session_date_compact", String.class), is("20160102"));
+        assertThat(first.get("retry_attempt_name", String.class), is("retry1"));
+        assertThat(first.get("attempt_id", long.class), is(11L));
+        assertThat(first.get("task_name", String.class), is("+wf+first"));
+
+        // modifying params of a task doesn't affect other tasks
+        first.set("session_date", "modified");
+        first.merge(newConfig().set("timezone", "UTC"));
+
+        Config second = cache.buildRuntimeParams(cf, request(1, sessionUuid, sessionTime, "+wf+second", config));
+        assertThat(second.get("session_date", String.class), is("2016-01-01"));
+        assertThat(second.get("timezone", String.class), is("Asia/Tokyo"));
+        assertThat(second.get("task_name", String.class), is("+wf+second"));
+    }
+
+    @Test
+    public void paramsChangeWithSessionTimesInConfig()
+    {
+        UUID sessionUuid = UUID.randomUUID();
+        Instant sessionTime = Instant.parse("2016-01-01T00:00:00Z");
+
+        Config before = cache.buildRuntimeParams(cf, request(1, sessionUuid, sessionTime, "+wf+a",
+                    newConfig().set("last_session_time", "2015-12-31T09:00:00+09:00")));
+        Config after = cache.buildRuntimeParams(cf, request(1, sessionUuid, sessionTime, "+wf+b",
+                    newConfig().set("last_session_time", "2015-12-30T09:00:00+09:00")));
+        assertThat(before.get("last_session_date", String.class), is("2015-12-31"));
+        assertThat(after.get("last_session_date", String.class), is("2015-12-30"));
+
+        Config none = cache.buildRuntimeParams(cf, request(1, sessionUuid, sessionTime, "+wf+c", newConfig()));
+        assertFalse(none.has("last_session_date"));
+    }
+
+    @Test
+    public void sameAttemptIdOfOtherSessions()
+    {
+        // attempt ids are unique only in a database. servers using other databases may reuse them.
+        Config first = cache.buildRuntimeParams(cf, request(1, UUID.randomUUID(),
+                    Instant.parse("2016-01-01T00:00:00Z"), "+wf+a", newConfig()));
+        Config second = cache.buildRuntimeParams(cf, request(1, UUID.randomUUID(),
+                    Instant.parse("2016-02-01T00:00:00Z"), "+wf+a", newConfig()));
+        assertThat(first.get("session_date", String.class), is("2016-01-01"));
+        assertThat(second.get("session_date", String.class), is("2016-02-01"));
+        assertThat(second.get("session_uuid", String.class), is(not(first.get("session_uuid", String.class))));
+    }
+
+    @Test
+    public void cachedParamsAreSameWithUncachedParams()
+    {
+        Config config = newConfig().set("last_session_time", "2015-12-31T09:00:00+09:00");
+        TaskRequest request = request(1, "+wf+a", config);
+        assertThat(cache.buildRuntimeParams(cf, request), is(RuntimeParams.buildRuntimeParams(cf, request)));
+        assertThat(cache.buildRuntimeParams(cf, request), is(RuntimeParams.buildRuntimeParams(cf, request)));
+    }
+}
@@ -0,0 +1,128 @@
+package io.digdag.core.database;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.sql.Connection;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.sql.DataSource;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CallerRoutingDataSourceTest
+{
+    @Mock DataSource defaultPool;
+    @Mock DataSource executorPool;
+    @Mock Connection defaultConnection;
+    @Mock Connection executorConnection;
+
+    private ConnectionPoolStats stats;
+    private CallerRoutingDataSource ds;
+
+    @Before
+    public void setUp()
+            throws Exception
+    {
+        MockitoAnnotations.initMocks(this);
+        when(defaultPool.getConnection()).thenReturn(defaultConnection);
+        when(executorPool.getConnection()).thenReturn(executorConnection);
+        stats = new ConnectionPoolStats();
+        ds = new CallerRoutingDataSource(defaultPool, ImmutableMap.of(DatabaseCaller.EXECUTOR, executorPool), stats);
+    }
+
+    @Test
+    public void routeByCaller()
+            throws Exception
+    {
+        Connection executor = onThread("workflow-executor-0", ds::getConnection);
+        Connection api = onThread("XNIO-1 task-1", ds::getConnection);
+
+        // a caller without dedicated pool uses the default pool
+        assertThat(executor.unwrap(Connection.class), sameInstance(executorConnection));
+        assertThat(api.unwrap(Connection.class), sameInstance(defaultConnection));
+
+        executor.prepareStatement("select 1");
+        api.commit();
+        verify(executorConnection).prepareStatement("select 1");
+        verify(defaultConnection).commit();
+    }
+
+    @Test
+    public void countConnectionsByCaller()
+            throws Exception
+    {
+        ConnectionPoolStats.CallerStats executorStats = stats.getExecutor();
+        ConnectionPoolStats.CallerStats apiStats = stats.getApi();
+
+        Connection conn1 = onThread("workflow-executor-0", ds::getConnection);
+        Connection conn2 = onThread("task-queuer-0", ds::getConnection);
+        onThread("XNIO-1 task-1", ds::getConnection).close();
+
+        assertThat(executorStats.getActiveConnections(), is(2));
+        assertThat(executorStats.getAcquiredConnections(), is(2L));
+        assertThat(apiStats.getActiveConnections(), is(0));
+        assertThat(apiStats.getAcquiredConnections(), is(1L));
+        assertThat(stats.getAgent().getAcquiredConnections(), is(0L));
+
+        conn1.close();
+        assertThat(executorStats.getActiveConnections(), is(1));
+
+        // closing a connection twice doesn't release it twice
+        conn1.close();
+        assertThat(executorStats.getActiveConnections(), is(1));
+        verify(executorConnection, times(2)).close();
+
+        conn2.close();
+        assertThat(executorStats.getActiveConnections(), is(0));
+        assertThat(executorStats.getAcquiredConnections(), is(2L));
+    }
+
+    @Test
+    public void countTimeouts()
+            throws Exception
+    {
+        DataSource timingOutPool = mock(DataSource.class);
+        when(timingOutPool.getConnection()).thenThrow(new SQLTransientConnectionException("timeout"));
+        ds = new CallerRoutingDataSource(timingOutPool, ImmutableMap.of(DatabaseCaller.EXECUTOR, executorPool), stats);
+
+        try {
+            onThread("scheduler-0", ds::getConnection);
+            fail();
+        }
+        catch (ExecutionException ex) {
+            assertThat(ex.getCause(), instanceOf(SQLTransientConnectionException.class));
+        }
+
+        assertThat(stats.getScheduler().getTimeouts(), is(1L));
+        assertThat(stats.getScheduler().getActiveConnections(), is(0));
+        assertThat(stats.getScheduler().getAcquiredConnections(), is(0L));
+        assertThat(stats.getExecutor().getTimeouts(), is(0L));
+    }
+
+    private static <T> T onThread(String threadName, Callable<T> callable)
+            throws InterruptedException, ExecutionException
+    {
+        ExecutorService executor = Executors.newSingleThreadExecutor((runnable) -> new Thread(runnable, threadName));
+        try {
+            return executor.submit(callable).get();
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package io.digdag.core.database;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class DatabaseCallerTest
+{
+    @Test
+    public void callerOfThreadName()
+    {
+        assertThat(DatabaseCaller.ofThreadName("workflow-executor-0"), is(DatabaseCaller.EXECUTOR));
+        assertThat(DatabaseCaller.ofThreadName("task-queuer-3"), is(DatabaseCaller.EXECUTOR));
+        assertThat(DatabaseCaller.ofThreadName("local-agent-0"), is(DatabaseCaller.AGENT));
+        assertThat(DatabaseCaller.ofThreadName("task-thread-12"), is(DatabaseCaller.AGENT));
+        assertThat(DatabaseCaller.ofThreadName("session-monitor-scheduler-0"), is(DatabaseCaller.SCHEDULER));
+        assertThat(DatabaseCaller.ofThreadName("XNIO-1 task-4"), is(DatabaseCaller.API));
+        assertThat(DatabaseCaller.ofThreadName("main"), is(DatabaseCaller.OTHER));
+    }
+
+    @Test
+    public void callerFromName()
+    {
+        for (DatabaseCaller caller : DatabaseCaller.values()) {
+            assertThat(DatabaseCaller.fromName(caller.getName()), is(caller));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownCallerName()
+    {
+        DatabaseCaller.fromName("worker");
+    }
+}
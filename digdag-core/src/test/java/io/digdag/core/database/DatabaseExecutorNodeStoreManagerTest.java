@@ -0,0 +1,61 @@
+package io.digdag.core.database;
+
+import org.junit.*;
+import io.digdag.core.workflow.ExecutorNodeStoreManager;
+import static io.digdag.core.database.DatabaseTestingUtils.*;
+import static org.hamcrest.Matchers.contains;
+import static org.junit.Assert.*;
+
+public class DatabaseExecutorNodeStoreManagerTest
+{
+    private DatabaseFactory factory;
+    private ExecutorNodeStoreManager manager;
+
+    @Before
+    public void setUp()
+            throws Exception
+    {
+        factory = setupDatabase();
+        manager = factory.getExecutorNodeStoreManager();
+    }
+
+    @After
+    public void destroy()
+    {
+        factory.close();
+    }
+
+    @Test
+    public void heartbeatReturnsLiveNodes()
+        throws Exception
+    {
+        factory.begin(() -> {
+            assertThat(manager.heartbeatExecutorNode("node-b", 30), contains("node-b"));
+            assertThat(manager.heartbeatExecutorNode("node-a", 30), contains("node-a", "node-b"));
+
+            // extending lease doesn't duplicate the node
+            assertThat(manager.heartbeatExecutorNode("node-b", 30), contains("node-a", "node-b"));
+
+            manager.deleteExecutorNode("node-a");
+            assertThat(manager.heartbeatExecutorNode("node-b", 30), contains("node-b"));
+        });
+    }
+
+    @Test
+    public void expiredNodesAreNotLive()
+        throws Exception
+    {
+        factory.begin(() -> {
+            manager.heartbeatExecutorNode("node-a", 1);
+        });
+
+        Thread.sleep(2000);
+
+        factory.begin(() -> {
+            assertThat(manager.heartbeatExecutorNode("node-b", 30), contains("node-b"));
+
+            // the node joins again with the next heartbeat
+            assertThat(manager.heartbeatExecutorNode("node-a", 30), contains("node-a", "node-b"));
+        });
+    }
+}
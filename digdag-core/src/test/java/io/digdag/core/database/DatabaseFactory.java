@@ -1,8 +1,8 @@
 package io.digdag.core.database;
 
-import com.google.common.base.Throwables;
 import com.google.common.base.Optional;
 import com.google.inject.Provider;
+import javax.sql.DataSource;
 import io.digdag.client.config.ConfigFactory;
 import io.digdag.core.agent.AgentId;
 import io.digdag.core.workflow.TaskQueueDispatcher;
@@ -18,13 +18,13 @@ public class DatabaseFactory
         implements AutoCloseable, Provider<TransactionManager>
 {
     private final TransactionManager tm;
-    private final AutoCloseable closeable;
+    private final DataSourceProvider dsp;
     private final DatabaseConfig config;
 
-    public DatabaseFactory(TransactionManager tm, AutoCloseable closeable, DatabaseConfig config)
+    public DatabaseFactory(TransactionManager tm, DataSourceProvider dsp, DatabaseConfig config)
     {
         this.tm = tm;
-        this.closeable = closeable;
+        this.dsp = dsp;
         this.config = config;
     }
 
@@ -75,6 +75,11 @@ public class DatabaseFactory
         return config;
     }
 
+    public DataSource getDataSource()
+    {
+        return dsp.get();
+    }
+
     public DatabaseProjectStoreManager getProjectStoreManager()
     {
         return new DatabaseProjectStoreManager(tm, createConfigMapper(), config);
@@ -101,7 +106,19 @@ public class DatabaseFactory
                 new WorkflowCompiler(),
                 configFactory,
                 objectMapper(),
-                configFactory.create());
+                configFactory.create(),
+                new DisabledTaskEventChannel(),
+                getExecutorNodeStoreManager());
+    }
+
+    public DatabaseQueueSettingStoreManager getQueueSettingStoreManager()
+    {
+        return new DatabaseQueueSettingStoreManager(tm, config, createConfigMapper());
+    }
+
+    public DatabaseExecutorNodeStoreManager getExecutorNodeStoreManager()
+    {
+        return new DatabaseExecutorNodeStoreManager(tm, config, createConfigMapper());
     }
 
     public DatabaseSecretControlStoreManager getSecretControlStoreManager(String secret)
@@ -134,11 +151,6 @@ public class DatabaseFactory
 
     public void close()
     {
-        try {
-            closeable.close();
-        }
-        catch (Exception ex) {
-            throw Throwables.propagate(ex);
-        }
+        dsp.close();
     }
 }
@@ -0,0 +1,84 @@
+package io.digdag.core.database;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import com.google.common.base.Optional;
+import org.junit.*;
+import io.digdag.core.queue.QueueSetting;
+import io.digdag.core.queue.QueueSettingStore;
+import io.digdag.core.queue.StoredQueueSetting;
+import io.digdag.core.repository.ModelValidationException;
+import static io.digdag.core.database.DatabaseTestingUtils.*;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.*;
+
+public class DatabaseQueueSettingStoreManagerTest
+{
+    private DatabaseFactory factory;
+    private DatabaseQueueSettingStoreManager manager;
+    private QueueSettingStore store;
+
+    @Before
+    public void setUp()
+            throws Exception
+    {
+        factory = setupDatabase();
+        manager = factory.getQueueSettingStoreManager();
+        store = manager.getQueueSettingStore(0);
+    }
+
+    @After
+    public void destroy()
+    {
+        factory.close();
+    }
+
+    @Test
+    public void putAndDeleteQueues()
+        throws Exception
+    {
+        factory.begin(() -> {
+            StoredQueueSetting q1 = store.putQueueSetting(QueueSetting.of("q1", 2, createConfig()));
+            assertThat(q1.getName(), is("q1"));
+            assertThat(q1.getMaxConcurrency(), is(2));
+            assertThat(manager.getQueueIdByName(0, "q1"), is((int) q1.getId()));
+
+            StoredQueueSetting q2 = store.putQueueSetting(QueueSetting.of("q2", 5, createConfig()));
+
+            // updates max concurrency of the existing queue
+            StoredQueueSetting updated = store.putQueueSetting(QueueSetting.of("q1", 3, createConfig()));
+            assertThat(updated.getId(), is(q1.getId()));
+            assertThat(store.getQueueSettingByName("q1").getMaxConcurrency(), is(3));
+
+            assertThat(names(store.getQueueSettings(100, Optional.absent())), contains("q1", "q2"));
+            assertThat(names(store.getQueueSettings(100, Optional.of(q1.getId()))), contains("q2"));
+
+            // queues are isolated by site
+            assertThat(manager.getQueueSettingStore(1).getQueueSettings(100, Optional.absent()).isEmpty(), is(true));
+
+            store.deleteQueueSettingByName("q1");
+            assertThat(names(store.getQueueSettings(100, Optional.absent())), contains("q2"));
+            assertNotFound(() -> store.getQueueSettingByName("q1"));
+            assertNotFound(() -> store.deleteQueueSettingByName("q1"));
+            assertNotFound(() -> manager.getQueueIdByName(0, "q1"));
+        });
+    }
+
+    @Test
+    public void rejectInvalidQueueSetting()
+        throws Exception
+    {
+        try {
+            QueueSetting.of("q1", 0, createConfig());
+            fail();
+        }
+        catch (ModelValidationException ex) {
+        }
+    }
+
+    private static List<String> names(List<StoredQueueSetting> queues)
+    {
+        return queues.stream().map(q -> q.getName()).collect(Collectors.toList());
+    }
+}
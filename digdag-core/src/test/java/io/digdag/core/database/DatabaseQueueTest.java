@@ -2,9 +2,14 @@ package io.digdag.core.database;
 
 import java.time.ZoneId;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
 import io.digdag.client.config.Config;
 import io.digdag.client.config.ConfigFactory;
 import io.digdag.spi.TaskQueueData;
@@ -24,6 +29,7 @@ import org.junit.rules.ExpectedException;
 
 import static io.digdag.core.database.DatabaseTestingUtils.createConfigMapper;
 import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
 import static io.digdag.client.DigdagClient.objectMapper;
@@ -39,6 +45,7 @@ public class DatabaseQueueTest
 
     private DatabaseFactory factory;
     private DatabaseTaskQueueServer taskQueue;
+    private final List<DatabaseTaskQueueServer> otherServers = new ArrayList<>();
 
     private int taskIdSequence = 150;
 
@@ -55,12 +62,17 @@ public class DatabaseQueueTest
                 factory.get(),
                 createConfigMapper(),
                 new DatabaseTaskQueueConfig(systemConfig),
-                objectMapper());
+                objectMapper(),
+                new DisabledTaskEventChannel());
     }
 
     @After
     public void destroy()
     {
+        for (DatabaseTaskQueueServer server : otherServers) {
+            server.shutdown();
+        }
+        taskQueue.shutdown();
         factory.close();
     }
 
@@ -127,6 +139,33 @@ public class DatabaseQueueTest
         assertThat(poll2.get(1).getUniqueName(), is("4"));
     }
 
+    @Test
+    public void batchPollFetchesDataOfAllLockedTasks()
+        throws Exception
+    {
+        TaskQueueRequest req1 = generateRequest("1", new byte[] {1, 2, 3});
+        TaskQueueRequest req2 = generateRequest("2", new byte[] {4, 5});
+
+        taskQueue.enqueueDefaultQueueTask(siteId, req1);
+        taskQueue.enqueueDefaultQueueTask(siteId, req2);
+
+        List<TaskQueueLock> poll1 = taskQueue.lockSharedAgentTasks(2, "agent1", 300, 10);
+        assertThat(poll1.size(), is(2));
+        assertThat(poll1.get(0).getUniqueName(), is("1"));
+        assertThat(poll1.get(0).getData().get(), is(new byte[] {1, 2, 3}));
+        assertThat(poll1.get(1).getUniqueName(), is("2"));
+        assertThat(poll1.get(1).getData().get(), is(new byte[] {4, 5}));
+
+        // deleted tasks are skipped
+        taskQueue.deleteTask(siteId, poll1.get(0).getLockId(), "agent1");
+        List<TaskQueueLock> fetched = taskQueue.getSharedTaskLocks(Arrays.asList(
+                    Long.parseLong(poll1.get(0).getLockId().substring(1)),
+                    Long.parseLong(poll1.get(1).getLockId().substring(1))));
+        assertThat(fetched.size(), is(1));
+        assertThat(fetched.get(0).getLockId(), is(poll1.get(1).getLockId()));
+        assertThat(fetched.get(0).getUniqueName(), is("2"));
+    }
+
     @Test
     public void enqueueRejectedIfDuplicatedTaskId()
         throws Exception
@@ -244,6 +283,137 @@ public class DatabaseQueueTest
         assertThat(failedLockIdList, is(Arrays.asList(poll1.get(0).getLockId())));
     }
 
+    @Test
+    public void heartbeatReturnsOnlyMissingLockIds()
+        throws Exception
+    {
+        TaskQueueRequest req1 = generateRequest("1");
+        TaskQueueRequest req2 = generateRequest("2");
+
+        taskQueue.enqueueDefaultQueueTask(siteId, req1);
+        taskQueue.enqueueDefaultQueueTask(siteId, req2);
+
+        List<TaskQueueLock> poll1 = taskQueue.lockSharedAgentTasks(2, "agent1", 300, 10);
+        assertThat(poll1.size(), is(2));
+
+        taskQueue.deleteTask(siteId, poll1.get(0).getLockId(), "agent1");
+
+        // all locks are extended in one call and only the deleted lock is reported
+        List<String> failedLockIdList = taskQueue.taskHeartbeat(siteId,
+                Arrays.asList(poll1.get(0).getLockId(), poll1.get(1).getLockId()), "agent1", 3);
+        assertThat(failedLockIdList, is(Arrays.asList(poll1.get(0).getLockId())));
+    }
+
+    @Test
+    public void taskEventChannelWakesUpAgentsOfOtherServers()
+        throws Exception
+    {
+        // two servers share the same database and a simulated channel
+        SimulatedTaskEventChannel channel = new SimulatedTaskEventChannel();
+        DatabaseTaskQueueServer server1 = newTaskQueueServer(channel);
+        DatabaseTaskQueueServer server2 = newTaskQueueServer(channel);
+
+        AtomicReference<List<TaskQueueLock>> locked = new AtomicReference<>();
+        Thread agent = new Thread(() -> {
+            // no tasks are queued. this sleeps until it's woken up
+            factory.get().begin(() -> server2.lockSharedAgentTasks(1, "agent1", 300, 60000));
+            locked.set(factory.get().begin(() -> server2.lockSharedAgentTasks(1, "agent1", 300, 0)));
+        });
+        agent.start();
+        while (agent.getState() != Thread.State.TIMED_WAITING) {
+            Thread.sleep(10);
+        }
+
+        TaskQueueRequest req1 = generateRequest("1");
+        server1.enqueueDefaultQueueTask(siteId, req1);
+
+        agent.join(10000);
+        assertThat(agent.isAlive(), is(false));
+        assertThat(locked.get().size(), is(1));
+        assertThat(locked.get().get(0).getUniqueName(), is("1"));
+    }
+
+    @Test
+    public void taskEnqueuedEventIsPublishedAfterCommit()
+        throws Exception
+    {
+        // enqueue in a transaction started by the caller (e.g. WorkflowExecutor)
+        TransactionManager tm = new ThreadLocalTransactionManager(factory.getDataSource());
+        SimulatedTaskEventChannel channel = new SimulatedTaskEventChannel();
+        DatabaseTaskQueueServer server1 = new DatabaseTaskQueueServer(
+                factory.getConfig(),
+                tm,
+                createConfigMapper(),
+                new DatabaseTaskQueueConfig(createConfigFactory().create()),
+                objectMapper(),
+                channel);
+        otherServers.add(server1);
+
+        tm.begin(() -> {
+            server1.enqueueDefaultQueueTask(siteId, generateRequest("1"));
+            // other servers can't lock the task until this transaction commits
+            assertThat(channel.getPublishedEvents(), is(empty()));
+            return null;
+        }, TaskConflictException.class);
+        assertThat(channel.getPublishedEvents().size(), is(1));
+        assertThat(channel.getPublishedEvents().get(0).getKey(), is(TaskEventChannel.Event.TASK_ENQUEUED));
+
+        // aborted enqueue doesn't publish events
+        try {
+            tm.begin(() -> {
+                server1.enqueueDefaultQueueTask(siteId, generateRequest("2"));
+                throw new IllegalStateException("abort");
+            }, TaskConflictException.class);
+        }
+        catch (IllegalStateException ex) {
+        }
+        assertThat(channel.getPublishedEvents().size(), is(1));
+    }
+
+    @Test
+    public void tasksEnqueuedByOtherServersAreLockedAfterRefresh()
+        throws Exception
+    {
+        AtomicLong nanoTime = new AtomicLong(0);
+        DatabaseTaskQueueServer server1 = newTaskQueueServer(new DisabledTaskEventChannel());
+        DatabaseTaskQueueServer server2 = newTaskQueueServer(new DisabledTaskEventChannel(), nanoTime::get);
+
+        // server2 caches that no sites have tasks
+        assertThat(server2.lockSharedAgentTasks(1, "agent1", 300, 0).size(), is(0));
+
+        TaskQueueRequest req1 = generateRequest("1");
+        server1.enqueueDefaultQueueTask(siteId, req1);
+
+        // server2 doesn't know the task until active sites are refreshed
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(999));
+        assertThat(server2.lockSharedAgentTasks(1, "agent1", 300, 0).size(), is(0));
+
+        // refreshed after queue.db.active_site_refresh_interval
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+        List<TaskQueueLock> poll1 = server2.lockSharedAgentTasks(1, "agent1", 300, 0);
+        assertThat(poll1.size(), is(1));
+        assertThat(poll1.get(0).getUniqueName(), is("1"));
+    }
+
+    @Test
+    public void allTasksOfRefreshedSiteAreLockedWithoutRefresh()
+        throws Exception
+    {
+        AtomicLong nanoTime = new AtomicLong(0);
+        DatabaseTaskQueueServer server1 = newTaskQueueServer(new DisabledTaskEventChannel());
+        DatabaseTaskQueueServer server2 = newTaskQueueServer(new DisabledTaskEventChannel(), nanoTime::get);
+
+        server1.enqueueDefaultQueueTask(siteId, generateRequest("1"));
+        server1.enqueueDefaultQueueTask(siteId, generateRequest("2"));
+        server1.enqueueDefaultQueueTask(siteId, generateRequest("3"));
+
+        // number of waiting tasks is unknown to server2. it keeps locking until the site has no tasks.
+        assertThat(server2.lockSharedAgentTasks(1, "agent1", 300, 0).size(), is(1));
+        assertThat(server2.lockSharedAgentTasks(1, "agent1", 300, 0).size(), is(1));
+        assertThat(server2.lockSharedAgentTasks(1, "agent1", 300, 0).size(), is(1));
+        assertThat(server2.lockSharedAgentTasks(1, "agent1", 300, 0).size(), is(0));
+    }
+
     private TaskQueueRequest generateRequest(String uniqueName)
     {
         return TaskQueueRequest.builder()
@@ -253,6 +423,34 @@ public class DatabaseQueueTest
             .build();
     }
 
+    private TaskQueueRequest generateRequest(String uniqueName, byte[] data)
+    {
+        return TaskQueueRequest.builder()
+            .priority(0)
+            .uniqueName(uniqueName)
+            .data(Optional.of(data))
+            .build();
+    }
+
+    private DatabaseTaskQueueServer newTaskQueueServer(TaskEventChannel channel)
+    {
+        return newTaskQueueServer(channel, System::nanoTime);
+    }
+
+    private DatabaseTaskQueueServer newTaskQueueServer(TaskEventChannel channel, LongSupplier nanoTime)
+    {
+        DatabaseTaskQueueServer server = new DatabaseTaskQueueServer(
+                factory.getConfig(),
+                factory.get(),
+                createConfigMapper(),
+                new DatabaseTaskQueueConfig(createConfigFactory().create()),
+                objectMapper(),
+                channel,
+                nanoTime);
+        otherServers.add(server);
+        return server;
+    }
+
     private static TaskQueueLock withLockId(TaskQueueData data, String lockId)
     {
         return TaskQueueLock.builder()
@@ -440,6 +440,8 @@ public class DatabaseSessionStoreManagerTest
             // task archving
             //
             List<ArchivedTask> activeArchive = store.getTasksOfAttempt(attempt1.getId());
+            List<TaskStateSummary> activeSummaries = store.getTaskStateSummariesOfAttempt(attempt1.getId());
+            assertThat(store.getTasksOfAttempt(attempt1.getId(), 100, Optional.absent()), is(activeArchive));
             SessionAttemptSummary sum = manager.lockAttemptIfExists(
                     attempt1.getId(),
                     (store, summary) -> {
@@ -447,6 +449,55 @@ public class DatabaseSessionStoreManagerTest
                         return summary;
                     }).get();
             assertThat(activeArchive, is(store.getTasksOfAttempt(attempt1.getId())));
+            assertThat(activeSummaries, is(store.getTaskStateSummariesOfAttempt(attempt1.getId())));
+
+            // archived tasks are paginated in the same way with active tasks
+            long firstId = activeArchive.get(0).getId();
+            assertThat(store.getTasksOfAttempt(attempt1.getId(), 1, Optional.absent()), is(activeArchive.subList(0, 1)));
+            assertThat(store.getTasksOfAttempt(attempt1.getId(), 100, Optional.of(firstId)), is(activeArchive.subList(1, activeArchive.size())));
+            assertEmpty(store.getTasksOfAttempt(attempt1.getId(), 100, Optional.of(activeArchive.get(activeArchive.size() - 1).getId())));
+        });
+    }
+
+    @Test
+    public void purgeFinishedSessions()
+        throws Exception
+    {
+        factory.begin(() -> {
+            AttemptRequest ar = attemptBuilder.buildFromStoredWorkflow(
+                    rev,
+                    wf1,
+                    newConfig(),
+                    ScheduleTime.runNow(Instant.ofEpochSecond(Instant.now().getEpochSecond())));
+            StoredSessionAttemptWithSession attempt = exec.submitWorkflow(0, ar, wf1);
+            Instant future = Instant.now().plusSeconds(3600);
+
+            // running attempts are not purged
+            assertEmpty(manager.findSessionsToPurge(Optional.absent(), ImmutableList.of(), future, 100));
+
+            manager.lockAttemptIfExists(attempt.getId(), (store, summary) -> {
+                store.aggregateAndInsertTaskArchive(attempt.getId());
+                store.deleteAllTasksOfAttempt(attempt.getId());
+                return store.setDoneToAttemptState(attempt.getId(), true);
+            });
+
+            assertEmpty(manager.findSessionsToPurge(Optional.absent(), ImmutableList.of(), Instant.now().minusSeconds(3600), 100));
+            assertEmpty(manager.findSessionsToPurge(Optional.of(1), ImmutableList.of(), future, 100));
+            assertEmpty(manager.findSessionsToPurge(Optional.absent(), ImmutableList.of(0), future, 100));
+
+            List<StoredSessionWithLastAttempt> found = manager.findSessionsToPurge(Optional.of(0), ImmutableList.of(), future, 100);
+            assertThat(found.size(), is(1));
+            assertThat(found.get(0).getId(), is(attempt.getSessionId()));
+
+            // session of otherProjAttempt1 is not deleted because the attempt is running
+            Map<String, Integer> deleted = manager.purgeSessions(ImmutableList.of(attempt.getSessionId(), otherProjSession1.getId()), future);
+            assertThat(deleted.get("sessions"), is(1));
+            assertThat(deleted.get("session_attempts"), is(1));
+            assertThat(deleted.get("task_archives"), is(1));
+
+            assertNotFound(() -> store.getAttemptById(attempt.getId()));
+            assertNotFound(() -> store.getSessionById(attempt.getSessionId()));
+            assertThat(store.getAttemptById(otherProjAttempt1.getId()), is(otherProjAttempt1));
         });
     }
 
@@ -530,5 +581,55 @@ public class DatabaseSessionStoreManagerTest
                     .resumingTaskId(Optional.absent())  // d0c5f950 added ArchivedTask.getResumingTaskId
                     .build()
                     ));
+
+        // compressed binary archive keeps the same tasks
+        byte[] binary = ((DatabaseSessionStoreManager) manager).dumpTaskArchive(tasks);
+        assertThat(((DatabaseSessionStoreManager) manager).loadTaskArchive(binary), is(tasks));
+    }
+
+    @Test
+    public void addSubtasksAtOnce()
+        throws Exception
+    {
+        factory.begin(() -> {
+            long rootTaskId = store.getTasksOfAttempt(otherProjAttempt1.getId()).get(0).getId();
+
+            List<Long> ids = manager.lockTaskIfExists(rootTaskId, (TaskControlStore lockedTask, StoredTask task) ->
+                    lockedTask.addSubtasks(task.getAttemptId(),
+                        ImmutableList.of(
+                            subtask("+otherProjWf1^sub", Optional.of(rootTaskId)),
+                            subtask("+otherProjWf1^sub+a", Optional.absent()),
+                            subtask("+otherProjWf1^sub+b", Optional.absent())),
+                        ImmutableList.of(Optional.absent(), Optional.of(0), Optional.of(0)),
+                        ImmutableList.of(ImmutableList.of(), ImmutableList.of(), ImmutableList.of(1)))
+                    ).get();
+            assertThat(ids.size(), is(3));
+            assertTrue(ids.get(0) < ids.get(1) && ids.get(1) < ids.get(2));
+
+            Map<Long, ArchivedTask> tasks = new HashMap<>();
+            for (ArchivedTask task : store.getTasksOfAttempt(otherProjAttempt1.getId())) {
+                tasks.put(task.getId(), task);
+            }
+            assertThat(tasks.get(ids.get(0)).getParentId(), is(Optional.of(rootTaskId)));
+            assertThat(tasks.get(ids.get(1)).getParentId(), is(Optional.of(ids.get(0))));
+            assertThat(tasks.get(ids.get(2)).getParentId(), is(Optional.of(ids.get(0))));
+            assertThat(tasks.get(ids.get(2)).getFullName(), is("+otherProjWf1^sub+b"));
+            assertThat(tasks.get(ids.get(2)).getConfig().getLocal(), is(newConfig().set("echo>", "+otherProjWf1^sub+b")));
+            assertThat(tasks.get(ids.get(2)).getState(), is(TaskStateCode.BLOCKED));
+            assertEmpty(tasks.get(ids.get(1)).getUpstreams());
+            assertThat(tasks.get(ids.get(2)).getUpstreams(), is(ImmutableList.of(ids.get(1))));
+        });
+    }
+
+    private static Task subtask(String fullName, Optional<Long> parentId)
+    {
+        return Task.taskBuilder()
+            .parentId(parentId)
+            .fullName(fullName)
+            .config(TaskConfig.validate(newConfig().set("echo>", fullName)))
+            .taskType(TaskType.of(0))
+            .state(TaskStateCode.BLOCKED)
+            .stateFlags(TaskStateFlags.empty())
+            .build();
     }
 }
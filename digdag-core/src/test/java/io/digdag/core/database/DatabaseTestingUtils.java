@@ -99,6 +99,7 @@ public class DatabaseTestingUtils
         "queues",
         "queued_tasks",
         "queued_task_locks",
+        "executor_nodes",
     };
 
     public static void cleanDatabase(DigdagEmbed embed)
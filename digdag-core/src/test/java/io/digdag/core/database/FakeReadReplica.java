@@ -0,0 +1,78 @@
+package io.digdag.core.database;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sql.DataSource;
+import com.google.common.base.Optional;
+
+/**
+ * ReadReplica with a fake clock and lag. Its DataSource counts connections
+ * so that tests can see which database transactions used.
+ */
+class FakeReadReplica
+        extends ReadReplica
+{
+    private final DataSource dataSource;
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private Optional<Duration> lag = Optional.absent();
+    private long now = 0;
+
+    FakeReadReplica(DataSource replicaDataSource)
+    {
+        super(Optional.absent());
+        this.dataSource = (DataSource) Proxy.newProxyInstance(
+                DataSource.class.getClassLoader(), new Class<?>[] {DataSource.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("getConnection")) {
+                        connectionCount.incrementAndGet();
+                    }
+                    try {
+                        return method.invoke(replicaDataSource, args);
+                    }
+                    catch (InvocationTargetException ex) {
+                        throw ex.getCause();
+                    }
+                });
+    }
+
+    void setLag(Optional<Duration> lag)
+    {
+        this.lag = lag;
+    }
+
+    void advanceTime(Duration duration)
+    {
+        now += duration.toNanos();
+    }
+
+    int getConnectionCount()
+    {
+        return connectionCount.get();
+    }
+
+    @Override
+    boolean isEnabled()
+    {
+        return true;
+    }
+
+    @Override
+    DataSource getDataSource()
+    {
+        return dataSource;
+    }
+
+    @Override
+    long nanoTime()
+    {
+        return now;
+    }
+
+    @Override
+    Optional<Duration> measureLag()
+    {
+        return lag;
+    }
+}
@@ -0,0 +1,100 @@
+package io.digdag.core.database;
+
+import java.time.Duration;
+import com.google.common.base.Optional;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ReadReplicaTest
+{
+    private DataSourceProvider dsp;
+    private FakeReadReplica replica;
+
+    @Before
+    public void setUp()
+    {
+        dsp = new DataSourceProvider(DatabaseTestingUtils.getEnvironmentDatabaseConfig());
+        replica = new FakeReadReplica(dsp.get());
+    }
+
+    @After
+    public void tearDown()
+    {
+        dsp.close();
+    }
+
+    @Test
+    public void disabledWithoutReplicaConfig()
+    {
+        ReadReplica disabled = new ReadReplica(DatabaseTestingUtils.getEnvironmentDatabaseConfig());
+        disabled.start();
+        try {
+            assertThat(disabled.getDataSourceIfFresh(Duration.ofDays(1)).isPresent(), is(false));
+        }
+        finally {
+            disabled.close();
+        }
+    }
+
+    @Test
+    public void staleWithoutMeasurement()
+    {
+        assertThat(replica.getDataSourceIfFresh(Duration.ofDays(1)).isPresent(), is(false));
+    }
+
+    @Test
+    public void staleIfLagIsUnknown()
+    {
+        replica.setLag(Optional.absent());
+        replica.checkLag();
+        assertThat(replica.getDataSourceIfFresh(Duration.ofDays(1)).isPresent(), is(false));
+    }
+
+    @Test
+    public void freshIfLagIsWithinMaxStaleness()
+    {
+        replica.setLag(Optional.of(Duration.ofSeconds(3)));
+        replica.checkLag();
+        assertThat(replica.getDataSourceIfFresh(Duration.ofSeconds(10)).isPresent(), is(true));
+        assertThat(replica.getDataSourceIfFresh(Duration.ofSeconds(3)).isPresent(), is(true));
+        assertThat(replica.getDataSourceIfFresh(Duration.ofSeconds(2)).isPresent(), is(false));
+    }
+
+    @Test
+    public void elapsedTimeSinceMeasurementIsAddedToLag()
+    {
+        replica.setLag(Optional.of(Duration.ofSeconds(3)));
+        replica.checkLag();
+        replica.advanceTime(Duration.ofSeconds(2));
+        assertThat(replica.getDataSourceIfFresh(Duration.ofSeconds(5)).isPresent(), is(true));
+        assertThat(replica.getDataSourceIfFresh(Duration.ofSeconds(4)).isPresent(), is(false));
+    }
+
+    @Test
+    public void staleIfMeasurementIsOld()
+    {
+        replica.setLag(Optional.of(Duration.ZERO));
+        replica.checkLag();
+        replica.advanceTime(ReadReplica.MAX_MEASUREMENT_AGE.plusMillis(1));
+        assertThat(replica.getDataSourceIfFresh(Duration.ofDays(1)).isPresent(), is(false));
+
+        // fresh again after the next measurement
+        replica.checkLag();
+        assertThat(replica.getDataSourceIfFresh(Duration.ofDays(1)).isPresent(), is(true));
+    }
+
+    @Test
+    public void staleAfterMeasurementFails()
+    {
+        replica.setLag(Optional.of(Duration.ZERO));
+        replica.checkLag();
+        assertThat(replica.getDataSourceIfFresh(Duration.ofSeconds(1)).isPresent(), is(true));
+
+        replica.setLag(Optional.absent());
+        replica.checkLag();
+        assertThat(replica.getDataSourceIfFresh(Duration.ofSeconds(1)).isPresent(), is(false));
+    }
+}
@@ -0,0 +1,41 @@
+package io.digdag.core.database;
+
+import java.util.AbstractMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongConsumer;
+
+/**
+ * In-memory TaskEventChannel that delivers events to listeners synchronously.
+ * Sharing an instance simulates servers connected by LISTEN/NOTIFY. Published
+ * events are recorded so that tests can see when they're published.
+ */
+public class SimulatedTaskEventChannel
+        implements TaskEventChannel
+{
+    private final List<Map.Entry<Event, LongConsumer>> listeners = new CopyOnWriteArrayList<>();
+    private final List<Map.Entry<Event, Long>> published = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void publish(Event event, long id)
+    {
+        published.add(new AbstractMap.SimpleImmutableEntry<>(event, id));
+        for (Map.Entry<Event, LongConsumer> listener : listeners) {
+            if (listener.getKey() == event) {
+                listener.getValue().accept(id);
+            }
+        }
+    }
+
+    @Override
+    public void addListener(Event event, LongConsumer listener)
+    {
+        listeners.add(new AbstractMap.SimpleImmutableEntry<>(event, listener));
+    }
+
+    public List<Map.Entry<Event, Long>> getPublishedEvents()
+    {
+        return published;
+    }
+}
@@ -0,0 +1,249 @@
+package io.digdag.core.database;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import io.digdag.core.repository.Project;
+import io.digdag.core.repository.ProjectControl;
+import io.digdag.core.repository.ProjectStore;
+import io.digdag.core.repository.Revision;
+import io.digdag.core.repository.StoredRevision;
+import io.digdag.core.repository.StoredWorkflowDefinition;
+import io.digdag.core.repository.WorkflowDefinition;
+import io.digdag.core.schedule.SchedulerManager;
+import io.digdag.core.workflow.AttemptBuilder;
+import io.digdag.core.session.AttemptPartitions;
+import io.digdag.core.workflow.AttemptRequest;
+import io.digdag.core.session.StoredSessionAttemptWithSession;
+import io.digdag.core.session.TaskStateCode;
+import io.digdag.core.workflow.SlaCalculator;
+import io.digdag.spi.ScheduleTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.PreparedBatch;
+
+import static java.util.Locale.ENGLISH;
+import static io.digdag.client.config.ConfigUtils.newConfig;
+import static io.digdag.core.database.DatabaseTestingUtils.createConfigMapper;
+import static io.digdag.core.database.DatabaseTestingUtils.createRevision;
+import static io.digdag.core.database.DatabaseTestingUtils.createWorkflow;
+import static io.digdag.core.database.DatabaseTestingUtils.setupDatabase;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Query plans of hot lookups on tasks and queued_task_locks.
+ *
+ * Tasks are seeded so that most of them are done and only a small fraction
+ * is in an active state, which is the usual shape of a long-running server.
+ * Queries are taken from the production code so that they don't drift.
+ * Partitioned queries select partitions that don't own the seeded attempt,
+ * like executors that own the other partitions. On
+ * PostgreSQL, plans must use the partial indexes added by
+ * Migration_20170322104518_AddPartialIndexesForTaskStates. On H2, plans
+ * must not scan the whole table.
+ */
+public class TaskStateIndexPlanTest
+{
+    private static final int SEEDED_TASKS = 5000;
+    private static final int SEEDED_TASK_LOCKS = 2000;
+
+    private DatabaseFactory factory;
+    private boolean isPostgres;
+    private AttemptPartitions otherPartitions;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        factory = setupDatabase();
+        isPostgres = DatabaseConfig.isPostgres(factory.getConfig().getType());
+
+        StoredSessionAttemptWithSession attempt = factory.begin(() -> {
+            ProjectStore projectStore = factory.getProjectStoreManager().getProjectStore(0);
+            Revision srcRev = createRevision("rev1");
+            WorkflowDefinition srcWf = createWorkflow("wf1");
+            StoredRevision[] rev = new StoredRevision[1];
+            StoredWorkflowDefinition[] wf = new StoredWorkflowDefinition[1];
+            projectStore.putAndLockProject(
+                    Project.of("proj1"),
+                    (store, stored) -> {
+                        ProjectControl lock = new ProjectControl(store, stored);
+                        rev[0] = lock.insertRevision(srcRev);
+                        wf[0] = lock.insertWorkflowDefinitionsWithoutSchedules(rev[0], ImmutableList.of(srcWf)).get(0);
+                        return lock.get();
+                    });
+
+            AttemptBuilder attemptBuilder = new AttemptBuilder(
+                    new SchedulerManager(ImmutableSet.of()),
+                    new SlaCalculator());
+            AttemptRequest ar = attemptBuilder.buildFromStoredWorkflow(
+                    rev[0],
+                    wf[0],
+                    newConfig(),
+                    ScheduleTime.runNow(Instant.ofEpochSecond(Instant.now().getEpochSecond())));
+            return factory.getWorkflowExecutor().submitWorkflow(0, ar, srcWf);
+        });
+
+        int ownerPartition = (int) (attempt.getId() % AttemptPartitions.BUCKETS) % 4;
+        otherPartitions = AttemptPartitions.of(4, IntStream.range(0, 4)
+                .filter(p -> p != ownerPartition)
+                .boxed()
+                .collect(Collectors.toList()));
+
+        factory.begin(() -> {
+            Handle handle = factory.get().getHandle(createConfigMapper());
+            long rootTaskId = handle.createQuery("select id from tasks where attempt_id = :attemptId and parent_id is null")
+                .bind("attemptId", attempt.getId())
+                .mapTo(long.class)
+                .first();
+
+            PreparedBatch tasks = handle.prepareBatch(
+                    "insert into tasks (attempt_id, parent_id, task_type, state, state_flags, updated_at, retry_at)" +
+                    " values (:attemptId, :parentId, 0, :state, 0, now(), now())");
+            for (int i = 0; i < SEEDED_TASKS; i++) {
+                tasks.add()
+                    .bind("attemptId", attempt.getId())
+                    .bind("parentId", rootTaskId)
+                    .bind("state", seededState(i));
+            }
+            tasks.execute();
+
+            PreparedBatch locks = handle.prepareBatch(
+                    "insert into queued_task_locks (id, site_id, queue_id, priority, lock_expire_time)" +
+                    " values (:id, :siteId, null, 0, :lockExpireTime)");
+            for (int i = 0; i < SEEDED_TASK_LOCKS; i++) {
+                locks.add()
+                    .bind("id", (long) i + 1)
+                    .bind("siteId", i % 10)
+                    .bind("lockExpireTime", i % 4 == 0 ? (Long) Instant.now().getEpochSecond() : null);
+            }
+            locks.execute();
+        });
+
+        factory.autoCommit(() -> {
+            Handle handle = factory.get().getHandle(createConfigMapper());
+            if (isPostgres) {
+                handle.update("analyze tasks");
+                handle.update("analyze queued_task_locks");
+            }
+            else {
+                handle.update("analyze");
+            }
+        });
+    }
+
+    @After
+    public void destroy()
+    {
+        factory.close();
+    }
+
+    private static short seededState(int i)
+    {
+        switch (i % 100) {
+        case 0:
+            return TaskStateCode.READY_CODE;
+        case 1:
+            return TaskStateCode.BLOCKED_CODE;
+        case 2:
+            return TaskStateCode.PLANNED_CODE;
+        case 3:
+            return TaskStateCode.RETRY_WAITING_CODE;
+        default:
+            return TaskStateCode.SUCCESS_CODE;
+        }
+    }
+
+    @Test
+    public void findReadyTasks()
+        throws Exception
+    {
+        assertIndexScan(
+                DatabaseSessionStoreManager.FIND_ALL_READY_TASK_IDS_SQL,
+                "tasks_ready_on_id");
+        assertIndexScan(
+                DatabaseSessionStoreManager.findTasksByStateSql(TaskStateCode.READY, AttemptPartitions.all()),
+                "tasks_ready_on_id");
+        assertIndexScan(
+                DatabaseSessionStoreManager.findTasksByStateSql(TaskStateCode.READY, otherPartitions),
+                "tasks_ready_on_attempt_bucket");
+    }
+
+    @Test
+    public void findPlannedTasks()
+        throws Exception
+    {
+        assertIndexScan(
+                DatabaseSessionStoreManager.findTasksByStateSql(TaskStateCode.PLANNED, AttemptPartitions.all()),
+                "tasks_planned_on_id");
+        assertIndexScan(
+                DatabaseSessionStoreManager.findTasksByStateSql(TaskStateCode.PLANNED, otherPartitions),
+                "tasks_planned_on_attempt_bucket");
+    }
+
+    @Test
+    public void findDirectParentsOfBlockedTasks()
+        throws Exception
+    {
+        assertIndexScan(
+                DatabaseSessionStoreManager.findDirectParentsOfBlockedTasksSql(AttemptPartitions.all()),
+                "tasks_blocked_on_parent_id");
+        assertIndexScan(
+                DatabaseSessionStoreManager.findDirectParentsOfBlockedTasksSql(otherPartitions),
+                "tasks_blocked_on_attempt_bucket");
+    }
+
+    @Test
+    public void trySetRetryWaitingToReady()
+        throws Exception
+    {
+        assertIndexScan(
+                DatabaseSessionStoreManager.TRY_SET_RETRY_WAITING_TO_READY_SQL,
+                "tasks_retry_waiting_on_retry_at");
+    }
+
+    @Test
+    public void countRunningTasksOfSites()
+        throws Exception
+    {
+        String siteIdList = factory.getSessionStoreManager().inLargeIdListExpression(ImmutableList.of(1, 2, 3));
+        assertIndexScan(
+                DatabaseTaskQueueServer.countRunningTasksOfSitesSql(siteIdList),
+                "queued_tasks_shared_grouping");
+    }
+
+    private void assertIndexScan(String sql, String postgresIndexName)
+        throws Exception
+    {
+        String plan = factory.begin(() -> {
+            Handle handle = factory.get().getHandle(createConfigMapper());
+            if (isPostgres) {
+                // the seeded dataset is small enough for sequential scans to win. what
+                // matters here is that the partial index matches the query.
+                handle.update("set local enable_seqscan = off");
+            }
+            // EXPLAIN doesn't take bind parameters
+            String query = sql
+                .replace(":lastId", "0")
+                .replace(":limit", "100");
+            List<String> lines = handle.createQuery("explain " + query)
+                .mapTo(String.class)
+                .list();
+            return lines.stream().collect(Collectors.joining("\n")).toLowerCase(ENGLISH);
+        });
+
+        if (isPostgres) {
+            assertThat(plan, containsString(postgresIndexName));
+        }
+        else {
+            assertThat(plan, not(containsString("tablescan")));
+        }
+    }
+}
@@ -5,6 +5,12 @@ import io.digdag.core.repository.ProjectStore;
 import io.digdag.core.repository.ResourceConflictException;
 import io.digdag.core.repository.ResourceNotFoundException;
 import io.digdag.core.repository.StoredProject;
+import java.time.Duration;
+import com.google.common.base.Optional;
+import java.util.ArrayList;
+import java.util.List;
+import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.ResultIterator;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import org.junit.Before;
@@ -13,6 +19,8 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.is;
+import static io.digdag.core.database.DatabaseTestingUtils.createConfigMapper;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
@@ -22,6 +30,12 @@ public class ThreadLocalTransactionManagerTest
 {
     private DatabaseFactory factory;
 
+    // the replica is the same database with the primary. tests see which one a
+    // transaction used by number of connections of the replica.
+    private FakeReadReplica replica;
+    private TransactionManager replicaTm;
+    private DatabaseProjectStoreManager replicaProjectStoreManager;
+
     @Rule
     public final ExpectedException exception = ExpectedException.none();
 
@@ -30,6 +44,9 @@ public class ThreadLocalTransactionManagerTest
             throws Exception
     {
         factory = DatabaseTestingUtils.setupDatabase();
+        replica = new FakeReadReplica(factory.getDataSource());
+        replicaTm = new ThreadLocalTransactionManager(factory.getDataSource(), replica, false, true);
+        replicaProjectStoreManager = new DatabaseProjectStoreManager(replicaTm, createConfigMapper(), factory.getConfig());
     }
 
     @Test
@@ -105,4 +122,183 @@ public class ThreadLocalTransactionManagerTest
             assertThat(ex, is(nullValue()));
         }
     }
+
+    @Test
+    public void afterCommitRunsAfterCommit()
+            throws Exception
+    {
+        List<String> events = new ArrayList<>();
+        factory.get().begin(() -> {
+            factory.get().afterCommit(() -> events.add("action"));
+            events.add("end of transaction");
+            return null;
+        });
+        assertThat(events, contains("end of transaction", "action"));
+    }
+
+    @Test
+    public void afterCommitIsDiscardedIfAborted()
+            throws Exception
+    {
+        List<String> events = new ArrayList<>();
+        try {
+            factory.get().begin(() -> {
+                factory.get().afterCommit(() -> events.add("aborted"));
+                throw new IllegalStateException("abort");
+            });
+            fail();
+        }
+        catch (IllegalStateException ex) {
+        }
+        factory.get().begin(() -> {
+            factory.get().afterCommit(() -> events.add("reset"));
+            factory.get().reset();
+            factory.get().afterCommit(() -> events.add("committed"));
+            return null;
+        });
+        assertThat(events, contains("committed"));
+    }
+
+    @Test
+    public void afterCommitRunsImmediatelyWithoutTransaction()
+            throws Exception
+    {
+        List<String> events = new ArrayList<>();
+        factory.get().afterCommit(() -> events.add("no transaction"));
+        factory.get().autoCommit(() -> {
+            factory.get().afterCommit(() -> events.add("auto commit"));
+            events.add("end of auto commit");
+            return null;
+        });
+        assertThat(events, contains("no transaction", "auto commit", "end of auto commit"));
+    }
+
+    @Test
+    public void readOnlyTransactionWithoutReplicaUsesPrimary()
+            throws Exception
+    {
+        factory.get().begin(() -> {
+            factory.getProjectStoreManager().getProjectStore(0)
+                .putAndLockProject(Project.of("proj1"), (store, stored) -> stored);
+            return null;
+        }, ResourceConflictException.class);
+
+        StoredProject proj = factory.get().beginReadOnly(Duration.ofSeconds(10), () -> {
+            return factory.getProjectStoreManager().getProjectStore(0)
+                .getProjectByName("proj1");
+        }, ResourceNotFoundException.class);
+        assertThat(proj.getName(), is("proj1"));
+    }
+
+    @Test
+    public void sameQueryWhileIteratingResults()
+            throws Exception
+    {
+        String sql = "select 1 union all select 2";
+        List<Integer> outer = new ArrayList<>();
+        List<Integer> inner = factory.get().begin(() -> {
+            Handle handle = factory.get().getHandle(createConfigMapper());
+            List<Integer> list = null;
+            try (ResultIterator<Integer> ite = handle.createQuery(sql).mapTo(int.class).iterator()) {
+                while (ite.hasNext()) {
+                    outer.add(ite.next());
+                    // the statement of the outer query is in use and not reused
+                    list = handle.createQuery(sql).mapTo(int.class).list();
+                }
+            }
+            // the cached statement is reused after the iteration
+            assertThat(handle.createQuery(sql).mapTo(int.class).list(), contains(1, 2));
+            return list;
+        });
+        assertThat(outer, contains(1, 2));
+        assertThat(inner, contains(1, 2));
+    }
+
+    private StoredProject getProjectReadOnly(Duration maxStaleness, String name)
+            throws ResourceNotFoundException
+    {
+        return replicaTm.beginReadOnly(maxStaleness, () -> {
+            return replicaProjectStoreManager.getProjectStore(0).getProjectByName(name);
+        }, ResourceNotFoundException.class);
+    }
+
+    private void storeProject(String name)
+            throws Exception
+    {
+        factory.get().begin(() -> {
+            factory.getProjectStoreManager().getProjectStore(0)
+                .putAndLockProject(Project.of(name), (store, stored) -> stored);
+            return null;
+        }, ResourceConflictException.class);
+    }
+
+    @Test
+    public void readOnlyTransactionUsesReplicaIfFresh()
+            throws Exception
+    {
+        storeProject("proj1");
+        replica.setLag(Optional.of(Duration.ofSeconds(2)));
+        replica.checkLag();
+
+        assertThat(getProjectReadOnly(Duration.ofSeconds(10), "proj1").getName(), is("proj1"));
+        assertThat(replica.getConnectionCount(), is(1));
+
+        // lag exceeds the staleness that the caller accepts
+        assertThat(getProjectReadOnly(Duration.ofSeconds(1), "proj1").getName(), is("proj1"));
+        assertThat(replica.getConnectionCount(), is(1));
+    }
+
+    @Test
+    public void readOnlyTransactionUsesPrimaryIfLagIsUnknown()
+            throws Exception
+    {
+        storeProject("proj1");
+        // not measured yet
+        assertThat(getProjectReadOnly(Duration.ofDays(1), "proj1").getName(), is("proj1"));
+
+        // failed to measure
+        replica.setLag(Optional.absent());
+        replica.checkLag();
+        assertThat(getProjectReadOnly(Duration.ofDays(1), "proj1").getName(), is("proj1"));
+
+        // the last measurement is too old
+        replica.setLag(Optional.of(Duration.ZERO));
+        replica.checkLag();
+        replica.advanceTime(ReadReplica.MAX_MEASUREMENT_AGE.plusSeconds(1));
+        assertThat(getProjectReadOnly(Duration.ofDays(1), "proj1").getName(), is("proj1"));
+
+        assertThat(replica.getConnectionCount(), is(0));
+    }
+
+    @Test
+    public void readOnlyTransactionRetriesOnPrimaryIfNotFoundOnReplica()
+            throws Exception
+    {
+        storeProject("proj1");
+        replica.setLag(Optional.of(Duration.ZERO));
+        replica.checkLag();
+
+        // simulates a project not replicated yet
+        List<Boolean> onReplica = new ArrayList<>();
+        StoredProject proj = replicaTm.beginReadOnly(Duration.ofSeconds(10), () -> {
+            int before = replica.getConnectionCount();
+            StoredProject found = replicaProjectStoreManager.getProjectStore(0).getProjectByName("proj1");
+            onReplica.add(replica.getConnectionCount() > before);
+            if (onReplica.get(onReplica.size() - 1)) {
+                throw new ResourceNotFoundException("not replicated yet");
+            }
+            return found;
+        }, ResourceNotFoundException.class);
+
+        assertThat(proj.getName(), is("proj1"));
+        assertThat(onReplica, contains(true, false));
+    }
+
+    @Test
+    public void readOnlyTransactionDoesNotRetryIfNotFoundOnPrimary()
+            throws Exception
+    {
+        exception.expect(ResourceNotFoundException.class);
+        getProjectReadOnly(Duration.ofDays(1), "no_such_project");
+    }
 }
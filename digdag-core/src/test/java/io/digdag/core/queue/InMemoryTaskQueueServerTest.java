@@ -0,0 +1,191 @@
+package io.digdag.core.queue;
+
+import java.time.Instant;
+import java.util.List;
+import io.digdag.client.config.Config;
+import io.digdag.core.repository.ResourceNotFoundException;
+import io.digdag.spi.TaskConflictException;
+import io.digdag.spi.TaskNotFoundException;
+import io.digdag.spi.TaskQueueLock;
+import io.digdag.spi.TaskQueueRequest;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import static io.digdag.core.database.DatabaseTestingUtils.createConfigFactory;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class InMemoryTaskQueueServerTest
+{
+    private static final int siteId = 0;
+    private static final int queueId = 7;
+
+    @Rule
+    public ExpectedException exception = ExpectedException.none();
+
+    private InMemoryTaskQueueServer taskQueue;
+
+    @Before
+    public void setUp()
+    {
+        Config systemConfig = createConfigFactory()
+            .create()
+            .set("queue.memory.max_concurrency", 2);
+        taskQueue = new InMemoryTaskQueueServer(systemConfig, new SingleQueueSettingStoreManager());
+    }
+
+    @Test
+    public void siteConcurrencyLimit()
+        throws Exception
+    {
+        taskQueue.enqueueDefaultQueueTask(siteId, generateRequest("1", 0));
+        taskQueue.enqueueDefaultQueueTask(siteId, generateRequest("2", 0));
+        taskQueue.enqueueDefaultQueueTask(siteId, generateRequest("3", 0));
+
+        List<TaskQueueLock> poll1 = taskQueue.lockSharedAgentTasks(3, "agent1", 300, 10);
+        assertThat(uniqueNames(poll1), is(ImmutableList.of("1", "2")));
+
+        // max concurrency of this site is 2. 3rd task is not acquired.
+        assertThat(taskQueue.lockSharedAgentTasks(1, "agent1", 300, 10).isEmpty(), is(true));
+
+        taskQueue.deleteTask(siteId, poll1.get(0).getLockId(), "agent1");
+        assertThat(uniqueNames(taskQueue.lockSharedAgentTasks(1, "agent1", 300, 10)), is(ImmutableList.of("3")));
+    }
+
+    @Test
+    public void pollOrderFollowsPriority()
+        throws Exception
+    {
+        taskQueue.enqueueDefaultQueueTask(siteId, generateRequest("1", 0));
+        taskQueue.enqueueDefaultQueueTask(siteId, generateRequest("2", 5));
+
+        assertThat(uniqueNames(taskQueue.lockSharedAgentTasks(2, "agent1", 300, 10)), is(ImmutableList.of("2", "1")));
+    }
+
+    @Test
+    public void queueConcurrencyLimit()
+        throws Exception
+    {
+        taskQueue.enqueueQueueBoundTask(queueId, generateRequest("1", 0));
+        taskQueue.enqueueQueueBoundTask(queueId, generateRequest("2", 0));
+        taskQueue.enqueueDefaultQueueTask(siteId, generateRequest("3", 0));
+
+        // max concurrency of the queue is 1
+        List<TaskQueueLock> poll1 = taskQueue.lockSharedAgentTasks(3, "agent1", 300, 10);
+        assertThat(uniqueNames(poll1), is(ImmutableList.of("3", "1")));
+
+        taskQueue.deleteTask(siteId, poll1.get(1).getLockId(), "agent1");
+        assertThat(uniqueNames(taskQueue.lockSharedAgentTasks(3, "agent1", 300, 10)), is(ImmutableList.of("2")));
+    }
+
+    @Test
+    public void enqueueRejectedIfDuplicatedTaskId()
+        throws Exception
+    {
+        taskQueue.enqueueDefaultQueueTask(siteId, generateRequest("1", 0));
+
+        exception.expect(TaskConflictException.class);
+        taskQueue.enqueueDefaultQueueTask(siteId, generateRequest("1", 0));
+    }
+
+    @Test
+    public void deleteRejectedIfAgentIdMismatch()
+        throws Exception
+    {
+        taskQueue.enqueueDefaultQueueTask(siteId, generateRequest("1", 0));
+        List<TaskQueueLock> poll1 = taskQueue.lockSharedAgentTasks(1, "agent1", 300, 10);
+
+        exception.expect(TaskConflictException.class);
+        taskQueue.deleteTask(siteId, poll1.get(0).getLockId(), "different-agent");
+    }
+
+    @Test
+    public void deleteRejectedIfSiteIdMismatch()
+        throws Exception
+    {
+        taskQueue.enqueueDefaultQueueTask(siteId, generateRequest("1", 0));
+        List<TaskQueueLock> poll1 = taskQueue.lockSharedAgentTasks(1, "agent1", 300, 10);
+
+        exception.expect(TaskNotFoundException.class);
+        taskQueue.deleteTask(19832, poll1.get(0).getLockId(), "agent1");
+    }
+
+    @Test
+    public void heartbeatAndExpireLocks()
+        throws Exception
+    {
+        taskQueue.enqueueDefaultQueueTask(siteId, generateRequest("1", 0));
+        taskQueue.enqueueDefaultQueueTask(siteId, generateRequest("2", 0));
+        List<TaskQueueLock> poll1 = taskQueue.lockSharedAgentTasks(2, "agent1", 1, 10);
+        String lockId1 = poll1.get(0).getLockId();
+        String lockId2 = poll1.get(1).getLockId();
+
+        assertThat(taskQueue.taskHeartbeat(siteId, ImmutableList.of(lockId1), "agent1", 300), is(ImmutableList.of()));
+        assertThat(taskQueue.taskHeartbeat(siteId, ImmutableList.of(lockId2), "agent2", 300), is(ImmutableList.of(lockId2)));
+
+        Thread.sleep(2000);
+
+        // lock of task 2 expired and it's retried
+        List<TaskQueueLock> poll2 = taskQueue.lockSharedAgentTasks(2, "agent2", 300, 10);
+        assertThat(uniqueNames(poll2), is(ImmutableList.of("2")));
+
+        assertThat(taskQueue.forceDeleteTask(lockId2), is(true));
+        assertThat(taskQueue.forceDeleteTask(lockId2), is(false));
+    }
+
+    private static List<String> uniqueNames(List<TaskQueueLock> locks)
+    {
+        ImmutableList.Builder<String> builder = ImmutableList.builder();
+        for (TaskQueueLock lock : locks) {
+            builder.add(lock.getUniqueName());
+        }
+        return builder.build();
+    }
+
+    private static TaskQueueRequest generateRequest(String uniqueName, int priority)
+    {
+        return TaskQueueRequest.builder()
+            .priority(priority)
+            .uniqueName(uniqueName)
+            .data(Optional.absent())
+            .build();
+    }
+
+    private static class SingleQueueSettingStoreManager
+            implements QueueSettingStoreManager
+    {
+        @Override
+        public QueueSettingStore getQueueSettingStore(int siteId)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int getQueueIdByName(int siteId, String name)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public StoredQueueSetting getQueueSettingByIdInternal(int id)
+            throws ResourceNotFoundException
+        {
+            if (id != queueId) {
+                throw new ResourceNotFoundException("queue id=" + id);
+            }
+            return ImmutableStoredQueueSetting.builder()
+                .id(queueId)
+                .siteId(siteId)
+                .name("q1")
+                .maxConcurrency(1)
+                .config(createConfigFactory().create())
+                .createdAt(Instant.now())
+                .updatedAt(Instant.now())
+                .build();
+        }
+    }
+}
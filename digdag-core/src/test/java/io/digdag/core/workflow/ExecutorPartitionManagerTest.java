@@ -0,0 +1,71 @@
+package io.digdag.core.workflow;
+
+import com.google.common.collect.ImmutableList;
+import io.digdag.core.session.AttemptPartitions;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ExecutorPartitionManagerTest
+{
+    @Test
+    public void assignPartitionsToLiveNodes()
+    {
+        List<String> nodes = ImmutableList.of("a", "b", "c");
+        assertThat(ExecutorPartitionManager.assignPartitions(8, nodes, "a").getPartitions(), contains(0, 3, 6));
+        assertThat(ExecutorPartitionManager.assignPartitions(8, nodes, "b").getPartitions(), contains(1, 4, 7));
+        assertThat(ExecutorPartitionManager.assignPartitions(8, nodes, "c").getPartitions(), contains(2, 5));
+    }
+
+    @Test
+    public void everyAttemptHasExactlyOneOwner()
+    {
+        List<String> nodes = ImmutableList.of("a", "b", "c");
+        for (long attemptId = 1; attemptId < 100; attemptId++) {
+            Set<String> owners = new HashSet<>();
+            for (String node : nodes) {
+                if (ExecutorPartitionManager.assignPartitions(8, nodes, node).contains(attemptId)) {
+                    owners.add(node);
+                }
+            }
+            assertThat(owners.size(), is(1));
+        }
+    }
+
+    @Test
+    public void everyBucketHasExactlyOneOwner()
+    {
+        List<String> nodes = ImmutableList.of("a", "b", "c");
+        Set<Integer> buckets = new HashSet<>();
+        int total = 0;
+        for (String node : nodes) {
+            List<Integer> owned = ExecutorPartitionManager.assignPartitions(8, nodes, node).getBuckets();
+            buckets.addAll(owned);
+            total += owned.size();
+        }
+        assertThat(buckets.size(), is(AttemptPartitions.BUCKETS));
+        assertThat(total, is(AttemptPartitions.BUCKETS));
+    }
+
+    @Test
+    public void nodesMoreThanPartitions()
+    {
+        List<String> nodes = ImmutableList.of("a", "b", "c");
+        assertThat(ExecutorPartitionManager.assignPartitions(2, nodes, "b").getPartitions(), contains(1));
+        assertThat(ExecutorPartitionManager.assignPartitions(2, nodes, "c").isEmpty(), is(true));
+    }
+
+    @Test
+    public void unknownNodeOwnsNothing()
+    {
+        AttemptPartitions partitions = ExecutorPartitionManager.assignPartitions(4, ImmutableList.of("a"), "x");
+        assertThat(partitions.getPartitions(), empty());
+    }
+}
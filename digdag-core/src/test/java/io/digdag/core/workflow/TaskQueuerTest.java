@@ -0,0 +1,116 @@
+package io.digdag.core.workflow;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class TaskQueuerTest
+{
+    @Test(timeout = 10000)
+    public void skipTasksBeingEnqueued()
+            throws Exception
+    {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Map<Long, Integer> enqueued = new ConcurrentHashMap<>();
+        try (TaskQueuer queuer = new TaskQueuer(2, 10, (taskId) -> {
+            started.countDown();
+            await(release);
+            enqueued.merge(taskId, 1, Integer::sum);
+        })) {
+            assertThat(queuer.asyncEnqueueTask(1), is(true));
+            started.await();
+
+            // the executor loop finds the same task again while it's being enqueued
+            assertThat(queuer.asyncEnqueueTask(1), is(false));
+            assertThat(queuer.asyncEnqueueTask(1), is(false));
+
+            release.countDown();
+            while (enqueued.get(1L) == null) {
+                Thread.sleep(10);
+            }
+
+            // submitted again after the action completed (e.g. failed and retried)
+            while (!queuer.asyncEnqueueTask(1)) {
+                Thread.sleep(10);
+            }
+        }
+        assertThat(enqueued.get(1L), is(2));
+    }
+
+    @Test(timeout = 10000)
+    public void callerRunsIfQueueIsFull()
+            throws Exception
+    {
+        Thread caller = Thread.currentThread();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Map<Long, Thread> enqueued = new ConcurrentHashMap<>();
+        try (TaskQueuer queuer = new TaskQueuer(1, 1, (taskId) -> {
+            enqueued.put(taskId, Thread.currentThread());
+            if (Thread.currentThread() != caller) {
+                started.countDown();
+                await(release);
+            }
+        })) {
+            // task 1 occupies the thread and task 2 fills the queue
+            queuer.asyncEnqueueTask(1);
+            started.await();
+            queuer.asyncEnqueueTask(2);
+
+            // the caller enqueues task 3 by itself before it fetches next tasks
+            queuer.asyncEnqueueTask(3);
+            assertThat(enqueued.get(3L), is(caller));
+            assertThat(enqueued.containsKey(2L), is(false));
+
+            release.countDown();
+        }
+        assertThat(enqueued.get(1L) != caller, is(true));
+        assertThat(enqueued.get(2L) != caller, is(true));
+    }
+
+    @Test(timeout = 10000)
+    public void enqueueAllTasks()
+            throws Exception
+    {
+        Set<Long> enqueued = ConcurrentHashMap.newKeySet();
+        List<Long> taskIds = new ArrayList<>();
+        try (TaskQueuer queuer = new TaskQueuer(4, 8, (taskId) -> {
+            if (taskId % 10 == 0) {
+                throw new RuntimeException("errors are logged and don't stop other tasks");
+            }
+            enqueued.add(taskId);
+        })) {
+            for (long taskId = 1; taskId <= 1000; taskId++) {
+                assertThat(queuer.asyncEnqueueTask(taskId), is(true));
+                if (taskId % 10 != 0) {
+                    taskIds.add(taskId);
+                }
+            }
+        }
+        // close waits for completion of submitted tasks
+        assertThat(enqueued.size(), is(taskIds.size()));
+        assertThat(enqueued.containsAll(taskIds), is(true));
+    }
+
+    private static void await(CountDownLatch latch)
+    {
+        try {
+            if (!latch.await(10, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("timeout");
+            }
+        }
+        catch (InterruptedException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
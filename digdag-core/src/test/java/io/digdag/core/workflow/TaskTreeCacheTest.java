@@ -0,0 +1,113 @@
+package io.digdag.core.workflow;
+
+import com.google.common.collect.ImmutableList;
+import io.digdag.core.session.SessionStoreManager;
+import io.digdag.core.session.TaskRelation;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.List;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TaskTreeCacheTest
+{
+    private static final long ATTEMPT_ID = 1;
+
+    @Mock SessionStoreManager sm;
+
+    private TaskTreeCache cache;
+
+    @Before
+    public void setUp()
+    {
+        MockitoAnnotations.initMocks(this);
+        cache = new TaskTreeCache(sm);
+    }
+
+    @Test
+    public void cacheHit()
+    {
+        when(sm.getMaxTaskIdOfAttempt(ATTEMPT_ID)).thenReturn(3L);
+        when(sm.getTaskRelations(ATTEMPT_ID)).thenReturn(relations(1, 2, 3));
+
+        TaskTreeCache.Entry entry = cache.get(ATTEMPT_ID, 2);
+        assertThat(cache.get(ATTEMPT_ID, 3), sameInstance(entry));
+
+        verify(sm, times(1)).getTaskRelations(ATTEMPT_ID);
+        verify(sm, never()).getTaskRelations(anyLong(), anyLong());
+        verify(sm, never()).getTaskCountOfAttempt(anyLong());
+    }
+
+    @Test
+    public void loadAddedTasksIncrementally()
+    {
+        when(sm.getMaxTaskIdOfAttempt(ATTEMPT_ID)).thenReturn(3L, 5L);
+        when(sm.getTaskRelations(ATTEMPT_ID)).thenReturn(relations(1, 2, 3));
+        when(sm.getTaskRelations(ATTEMPT_ID, 3L)).thenReturn(relations(4, 5));
+        when(sm.getTaskCountOfAttempt(ATTEMPT_ID)).thenReturn(5L);
+
+        assertThat(cache.get(ATTEMPT_ID, 3).getTree().contains(5), is(false));
+        TaskTree tree = cache.get(ATTEMPT_ID, 5).getTree();
+        assertThat(tree.contains(4), is(true));
+        assertThat(tree.contains(5), is(true));
+        assertThat(tree.getRecursiveParentIdListFromRoot(5), is(ImmutableList.of(1L, 2L, 3L, 4L)));
+
+        verify(sm, times(1)).getTaskRelations(ATTEMPT_ID);
+    }
+
+    @Test
+    public void reloadIfSmallerIdIsCommittedLater()
+    {
+        // task 3 is committed after task 4
+        when(sm.getMaxTaskIdOfAttempt(ATTEMPT_ID)).thenReturn(4L);
+        when(sm.getTaskRelations(ATTEMPT_ID)).thenReturn(relations(1, 2, 4), relations(1, 2, 3, 4));
+
+        assertThat(cache.get(ATTEMPT_ID, 4).getTree().contains(3), is(false));
+        // max task id doesn't change but the tree doesn't contain the task
+        assertThat(cache.get(ATTEMPT_ID, 3).getTree().contains(3), is(true));
+
+        verify(sm, times(2)).getTaskRelations(ATTEMPT_ID);
+    }
+
+    @Test
+    public void reloadIfSmallerIdIsCommittedLaterWithAddedTasks()
+    {
+        // task 3 is committed after task 4, and task 5 is added
+        when(sm.getMaxTaskIdOfAttempt(ATTEMPT_ID)).thenReturn(4L, 5L);
+        when(sm.getTaskRelations(ATTEMPT_ID)).thenReturn(relations(1, 2, 4), relations(1, 2, 3, 4, 5));
+        when(sm.getTaskRelations(ATTEMPT_ID, 4L)).thenReturn(relations(5));
+        when(sm.getTaskCountOfAttempt(ATTEMPT_ID)).thenReturn(5L);
+
+        cache.get(ATTEMPT_ID, 4);
+        TaskTree tree = cache.get(ATTEMPT_ID, 5).getTree();
+        assertThat(tree.contains(3), is(true));
+        assertThat(tree.getRecursiveChildrenIdList(2), is(ImmutableList.of(3L, 4L, 5L)));
+
+        verify(sm, times(2)).getTaskRelations(ATTEMPT_ID);
+    }
+
+    // a chain of tasks where each task is a child of the previous task
+    private static List<TaskRelation> relations(long... ids)
+    {
+        ImmutableList.Builder<TaskRelation> builder = ImmutableList.builder();
+        for (long id : ids) {
+            if (id == 1) {
+                builder.add(TaskRelation.ofRoot(id));
+            }
+            else {
+                builder.add(TaskRelation.of(id, id - 1, ImmutableList.of()));
+            }
+        }
+        return builder.build();
+    }
+}
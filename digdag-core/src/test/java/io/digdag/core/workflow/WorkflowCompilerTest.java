@@ -16,8 +16,12 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
 import java.io.IOException;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
 
 public class WorkflowCompilerTest
 {
@@ -84,6 +88,26 @@ public class WorkflowCompilerTest
         compiler.compile("unused_keys_in_group", config);
     }
 
+    @Test
+    public void verifyQueueOptionsAreInherited()
+    {
+        Config config = loadYamlResource("/io/digdag/core/workflow/queue_inheritance.dig");
+        Map<String, Config> tasks = compiler.compile("queue_inheritance", config).getTasks().stream()
+            .collect(Collectors.toMap(task -> task.getFullName(), task -> task.getConfig()));
+
+        Config inherited = tasks.get("+queue_inheritance+group+inherited");
+        assertThat(inherited.get("_queue", String.class), is("q1"));
+        assertThat(inherited.get("_priority", int.class), is(10));
+
+        Config overridden = tasks.get("+queue_inheritance+group+overridden");
+        assertThat(overridden.get("_queue", String.class), is("q2"));
+        assertThat(overridden.get("_priority", int.class), is(10));
+
+        Config outside = tasks.get("+queue_inheritance+outside");
+        assertThat(outside.has("_queue"), is(false));
+        assertThat(outside.has("_priority"), is(false));
+    }
+
     @Test
     public void verifyErrorTaskIsValidated()
     {
@@ -0,0 +1,149 @@
+package io.digdag.core.workflow;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import com.google.inject.Injector;
+import io.digdag.client.config.Config;
+import io.digdag.client.config.ConfigElement;
+import io.digdag.client.config.ConfigFactory;
+import io.digdag.core.DigdagEmbed;
+import io.digdag.core.database.SimulatedTaskEventChannel;
+import io.digdag.core.database.TaskEventChannel;
+import io.digdag.core.database.TransactionManager;
+import io.digdag.core.repository.ProjectStoreManager;
+import io.digdag.core.repository.ResourceNotFoundException;
+import io.digdag.core.session.SessionStoreManager;
+import io.digdag.core.session.StoredSessionAttemptWithSession;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static io.digdag.core.workflow.WorkflowTestingUtils.loadYamlResource;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class WorkflowExecutorChangeTrackingTest
+{
+    private static DigdagEmbed embed;
+    private static SimulatedTaskEventChannel eventChannel;
+
+    @BeforeClass
+    public static void createDigdagEmbed()
+    {
+        // Disable full sweep in practice so that workflows progress only
+        // by changes noticed to WorkflowExecutor.
+        eventChannel = new SimulatedTaskEventChannel();
+        embed = WorkflowTestingUtils.setupEmbed(bootstrap -> bootstrap
+                .setSystemConfig(ConfigElement.ofMap(ImmutableMap.of("executor.full_sweep_interval", "3600")))
+                .overrideModulesWith((binder) -> {
+                    binder.bind(TaskEventChannel.class).toInstance(eventChannel);
+                }));
+    }
+
+    @AfterClass
+    public static void destroyDigdagEmbed()
+            throws Exception
+    {
+        embed.close();
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test(timeout = 60000)
+    public void runWithoutFullSweep()
+            throws Exception
+    {
+        StoredSessionAttemptWithSession attempt = runWorkflow("basic", loadYamlResource("/io/digdag/core/workflow/basic.dig"));
+        assertThat(attempt.getStateFlags().isSuccess(), is(true));
+    }
+
+    @Test(timeout = 60000)
+    public void retryWithoutFullSweep()
+            throws Exception
+    {
+        StoredSessionAttemptWithSession attempt = runWorkflow("retry_in_loop", loadYamlResource("/io/digdag/core/workflow/retry_in_loop.dig"));
+        assertThat(attempt.getStateFlags().isSuccess(), is(false));
+        assertThat(new String(Files.readAllBytes(folder.getRoot().toPath().resolve("out")), UTF_8),
+                is("loop0:try1try2succeeded.loop1:try1try2succeeded.loop2:try1try2try1try2try1try2"));
+    }
+
+    @Test(timeout = 60000)
+    public void propagateErrorWithoutFullSweep()
+            throws Exception
+    {
+        StoredSessionAttemptWithSession attempt = runWorkflow("wide_parallel_error", loadYamlResource("/io/digdag/core/workflow/wide_parallel_error.dig"));
+        assertThat(attempt.getStateFlags().isSuccess(), is(false));
+    }
+
+    @Test(timeout = 60000)
+    public void runAttemptSubmittedByOtherServer()
+            throws Exception
+    {
+        WorkflowExecutor executor = embed.getInjector().getInstance(WorkflowExecutor.class);
+        WorkflowExecutor otherServer = newWorkflowExecutor(embed.getInjector());
+        TransactionManager tm = embed.getTransactionManager();
+        SessionStoreManager sm = embed.getInjector().getInstance(SessionStoreManager.class);
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread loop = new Thread(() -> {
+            try {
+                executor.runWhile(running::get);
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        loop.start();
+        try {
+            // wait until the loop finishes the first full sweep and sleeps
+            while (loop.getState() != Thread.State.TIMED_WAITING) {
+                Thread.sleep(10);
+            }
+
+            // the executor knows this attempt only by TASK_STATE_CHANGED event of the other server
+            StoredSessionAttemptWithSession attempt = tm.begin(() ->
+                    WorkflowTestingUtils.submitWorkflow(embed.getLocalSite(), otherServer, folder.getRoot().toPath(),
+                        "basic", loadYamlResource("/io/digdag/core/workflow/basic.dig")),
+                    Exception.class);
+
+            while (!tm.begin(() -> sm.getAttemptStateFlags(attempt.getId()).isDone(), ResourceNotFoundException.class)) {
+                Thread.sleep(100);
+            }
+            assertThat(tm.begin(() -> sm.getAttemptStateFlags(attempt.getId()).isSuccess(), ResourceNotFoundException.class), is(true));
+        }
+        finally {
+            running.set(false);
+            executor.noticeRunWhileConditionChange();
+            loop.join();
+        }
+    }
+
+    private static WorkflowExecutor newWorkflowExecutor(Injector injector)
+    {
+        // shares the database and the event channel with the embedded server
+        return new WorkflowExecutor(
+                injector.getInstance(ProjectStoreManager.class),
+                injector.getInstance(SessionStoreManager.class),
+                injector.getInstance(TransactionManager.class),
+                injector.getInstance(TaskQueueDispatcher.class),
+                injector.getInstance(WorkflowCompiler.class),
+                injector.getInstance(ConfigFactory.class),
+                injector.getInstance(ObjectMapper.class),
+                injector.getInstance(Config.class),
+                eventChannel,
+                injector.getInstance(ExecutorNodeStoreManager.class));
+    }
+
+    private StoredSessionAttemptWithSession runWorkflow(String workflowName, Config config)
+            throws Exception
+    {
+        return WorkflowTestingUtils.runWorkflow(embed, folder.getRoot().toPath(), workflowName, config);
+    }
+}
@@ -11,6 +11,9 @@ import com.google.common.io.Resources;
 import io.digdag.core.config.YamlConfigLoader;
 import io.digdag.core.database.TransactionManager;
 import io.digdag.core.LocalSite;
+import io.digdag.core.session.ArchivedTask;
+import io.digdag.core.session.StoredSessionAttemptWithSession;
+import io.digdag.core.session.TaskStateCode;
 import io.digdag.client.config.Config;
 import io.digdag.client.config.ConfigException;
 import io.digdag.client.config.ConfigUtils;
@@ -182,6 +185,42 @@ public class WorkflowExecutorTest
     }
 
 
+    @Test
+    public void propagateStatesOfWideWorkflow()
+            throws Exception
+    {
+        StoredSessionAttemptWithSession attempt = WorkflowTestingUtils.runWorkflow(embed, folder.getRoot().toPath(),
+                "wide_parallel", loadYamlResource("/io/digdag/core/workflow/wide_parallel.dig"));
+        assertThat(attempt.getStateFlags().isSuccess(), is(true));
+
+        List<ArchivedTask> tasks = tm.begin(() -> localSite.getSessionStore().getTasksOfAttempt(attempt.getId()));
+        // root + fan_out + fan_out^sub + 300 * (loop-N + first + second)
+        assertThat(tasks.size(), is(903));
+        for (ArchivedTask task : tasks) {
+            assertThat(task.getFullName(), task.getState(), is(TaskStateCode.SUCCESS));
+        }
+    }
+
+    @Test
+    public void propagateErrorOfWideWorkflow()
+            throws Exception
+    {
+        StoredSessionAttemptWithSession attempt = WorkflowTestingUtils.runWorkflow(embed, folder.getRoot().toPath(),
+                "wide_parallel_error", loadYamlResource("/io/digdag/core/workflow/wide_parallel_error.dig"));
+        assertThat(attempt.getStateFlags().isSuccess(), is(false));
+
+        List<ArchivedTask> tasks = tm.begin(() -> localSite.getSessionStore().getTasksOfAttempt(attempt.getId()));
+        ArchivedTask fanOut = tasks.stream()
+            .filter(task -> task.getFullName().equals("+wide_parallel_error+fan_out"))
+            .findFirst().get();
+        assertThat(fanOut.getState(), is(TaskStateCode.GROUP_ERROR));
+        ArchivedTask succeeded = tasks.stream()
+            .filter(task -> task.getFullName().endsWith("^sub+loop-0"))
+            .findFirst().get();
+        assertThat(succeeded.getState(), is(TaskStateCode.SUCCESS));
+    }
+
+
     private void runWorkflow(String workflowName, Config config)
             throws Exception
     {
@@ -22,6 +22,7 @@ import io.digdag.core.repository.ResourceConflictException;
 import io.digdag.core.repository.ResourceLimitExceededException;
 import io.digdag.core.repository.ResourceNotFoundException;
 import io.digdag.core.repository.StoredWorkflowDefinition;
+import io.digdag.core.repository.WorkflowDefinition;
 import io.digdag.core.repository.WorkflowDefinitionList;
 import io.digdag.core.session.StoredSessionAttemptWithSession;
 import io.digdag.spi.CommandExecutor;
@@ -81,6 +82,24 @@ public class WorkflowTestingUtils
 
     public static StoredSessionAttemptWithSession submitWorkflow(LocalSite localSite, Path projectPath, String workflowName, Config config)
             throws Exception
+    {
+        return submitWorkflow(localSite, localSite::submitWorkflow, projectPath, workflowName, config);
+    }
+
+    public static StoredSessionAttemptWithSession submitWorkflow(LocalSite localSite, WorkflowExecutor executor, Path projectPath, String workflowName, Config config)
+            throws Exception
+    {
+        return submitWorkflow(localSite, (ar, def) -> executor.submitWorkflow(0, ar, def), projectPath, workflowName, config);
+    }
+
+    private interface Submitter
+    {
+        StoredSessionAttemptWithSession submit(AttemptRequest ar, WorkflowDefinition def)
+            throws Exception;
+    }
+
+    private static StoredSessionAttemptWithSession submitWorkflow(LocalSite localSite, Submitter submitter, Path projectPath, String workflowName, Config config)
+            throws Exception
     {
         ArchiveMetadata meta = ArchiveMetadata.of(
                 WorkflowDefinitionList.of(ImmutableList.of(
@@ -98,7 +117,7 @@ public class WorkflowTestingUtils
                     def,
                     config.getFactory().create(),
                     ScheduleTime.runNow(Instant.ofEpochSecond(Instant.now().getEpochSecond())));
-        return localSite.submitWorkflow(ar, def);
+        return submitter.submit(ar, def);
     }
 
     public static StoredSessionAttemptWithSession runWorkflow(DigdagEmbed embed, Path projectPath, String workflowName, Config config)
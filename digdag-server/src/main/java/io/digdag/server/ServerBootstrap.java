@@ -59,6 +59,7 @@ public class ServerBootstrap
                 binder.bind(ServerConfig.class).toInstance(serverConfig);
                 binder.bind(WorkflowExecutorLoop.class).asEagerSingleton();
                 binder.bind(WorkflowExecutionTimeoutEnforcer.class).asEagerSingleton();
+                binder.bind(SessionRetentionEnforcer.class).asEagerSingleton();
                 binder.bind(ClientVersionChecker.class).toProvider(ClientVersionCheckerProvider.class);
 
                 binder.bind(ErrorReporter.class).to(JmxErrorReporter.class).in(Scopes.SINGLETON);
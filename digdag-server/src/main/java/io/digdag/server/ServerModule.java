@@ -25,6 +25,7 @@ import io.digdag.server.rs.AdminRestricted;
 import io.digdag.server.rs.AttemptResource;
 import io.digdag.server.rs.LogResource;
 import io.digdag.server.rs.ProjectResource;
+import io.digdag.server.rs.QueueResource;
 import io.digdag.server.rs.ScheduleResource;
 import io.digdag.server.rs.SessionResource;
 import io.digdag.server.rs.UiResource;
@@ -108,6 +109,7 @@ public class ServerModule
                 ScheduleResource.class,
                 SessionResource.class,
                 AttemptResource.class,
+                QueueResource.class,
                 LogResource.class,
                 VersionResource.class,
                 AdminResource.class
@@ -0,0 +1,237 @@
+package io.digdag.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import io.digdag.client.config.Config;
+import io.digdag.client.config.ConfigException;
+import io.digdag.core.database.TransactionManager;
+import io.digdag.core.session.ArchivedTask;
+import io.digdag.core.session.SessionStore;
+import io.digdag.core.session.SessionStoreManager;
+import io.digdag.core.session.StoredSessionAttempt;
+import io.digdag.core.session.StoredSessionWithLastAttempt;
+import io.digdag.core.storage.StorageManager;
+import io.digdag.spi.Storage;
+import io.digdag.util.DurationParam;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Deletes sessions whose attempts finished long time ago.
+ *
+ * A session is deleted with its attempts and task archives when all of its
+ * attempts are done and its last attempt finished before the retention
+ * period of its site. Sessions are deleted in small batches, each in its own
+ * transaction, so that purging doesn't hold locks for long. If
+ * retention.export.type is set, sessions are exported to the storage before
+ * they're deleted.
+ */
+public class SessionRetentionEnforcer
+{
+    private static final Logger logger = LoggerFactory.getLogger(SessionRetentionEnforcer.class);
+
+    private static final Duration DEFAULT_INTERVAL = Duration.ofMinutes(10);
+    private static final int DEFAULT_BATCH_SIZE = 100;
+
+    private static final Pattern SITE_TTL_KEY = Pattern.compile("^retention\\.site\\.([0-9]+)\\.ttl$");
+
+    private final SessionStoreManager ssm;
+    private final TransactionManager tm;
+    private final ObjectMapper mapper;
+
+    private final Optional<Duration> defaultTTL;
+    private final Map<Integer, Duration> siteTTLs;
+    private final Duration interval;
+    private final int batchSize;
+    private final Optional<Storage> exportStorage;
+    private final String exportPrefix;
+
+    private final ScheduledExecutorService scheduledExecutorService;
+
+    @Inject
+    public SessionRetentionEnforcer(
+            ServerConfig serverConfig,
+            SessionStoreManager ssm,
+            TransactionManager tm,
+            ObjectMapper mapper,
+            StorageManager storageManager,
+            Config systemConfig)
+    {
+        this.ssm = ssm;
+        this.tm = tm;
+        this.mapper = mapper;
+
+        this.defaultTTL = systemConfig.getOptional("retention.ttl", DurationParam.class)
+                .transform(DurationParam::getDuration);
+        this.siteTTLs = new HashMap<>();
+        for (String key : systemConfig.getKeys()) {
+            Matcher m = SITE_TTL_KEY.matcher(key);
+            if (m.matches()) {
+                siteTTLs.put(Integer.parseInt(m.group(1)), systemConfig.get(key, DurationParam.class).getDuration());
+            }
+        }
+
+        this.interval = systemConfig.getOptional("retention.interval", DurationParam.class)
+                .transform(DurationParam::getDuration)
+                .or(DEFAULT_INTERVAL);
+        this.batchSize = systemConfig.get("retention.batch_size", int.class, DEFAULT_BATCH_SIZE);
+        if (batchSize <= 0) {
+            throw new ConfigException("retention.batch_size must be positive: " + batchSize);
+        }
+
+        if (systemConfig.has("retention.export.type")) {
+            this.exportStorage = Optional.of(storageManager.create(systemConfig, "retention.export."));
+        }
+        else {
+            this.exportStorage = Optional.absent();
+        }
+        this.exportPrefix = systemConfig.get("retention.export.path", String.class, "sessions/");
+
+        if (serverConfig.getExecutorEnabled() && (defaultTTL.isPresent() || !siteTTLs.isEmpty())) {
+            this.scheduledExecutorService = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setDaemon(true)
+                    .setNameFormat("session-retention-enforcer-%d")
+                    .build());
+        }
+        else {
+            this.scheduledExecutorService = null;
+        }
+    }
+
+    private void run()
+    {
+        Instant now;
+        try {
+            now = tm.begin(() -> ssm.getStoreTime());
+        }
+        catch (Throwable t) {
+            logger.error("Uncaught exception when purging sessions. Ignoring. Loop will be retried.", t);
+            return;
+        }
+
+        for (Map.Entry<Integer, Duration> pair : siteTTLs.entrySet()) {
+            try {
+                purge(Optional.of(pair.getKey()), ImmutableList.of(), now.minus(pair.getValue()));
+            }
+            catch (Throwable t) {
+                logger.error("Uncaught exception when purging sessions of site {}. Ignoring. Loop will be retried.", pair.getKey(), t);
+            }
+        }
+
+        if (defaultTTL.isPresent()) {
+            try {
+                purge(Optional.absent(), ImmutableList.copyOf(siteTTLs.keySet()), now.minus(defaultTTL.get()));
+            }
+            catch (Throwable t) {
+                logger.error("Uncaught exception when purging sessions. Ignoring. Loop will be retried.", t);
+            }
+        }
+    }
+
+    private void purge(Optional<Integer> siteId, List<Integer> excludedSiteIds, Instant finishedBefore)
+    {
+        while (!Thread.currentThread().isInterrupted()) {
+            List<StoredSessionWithLastAttempt> sessions = tm.begin(() ->
+                    ssm.findSessionsToPurge(siteId, excludedSiteIds, finishedBefore, batchSize));
+            if (sessions.isEmpty()) {
+                return;
+            }
+
+            List<Long> sessionIds = new ArrayList<>();
+            for (StoredSessionWithLastAttempt session : sessions) {
+                if (exportStorage.isPresent()) {
+                    try {
+                        export(exportStorage.get(), session);
+                    }
+                    catch (IOException | RuntimeException ex) {
+                        logger.error("Failed to export session {} of site {}. Skipping deletion of the session.",
+                                session.getId(), session.getSiteId(), ex);
+                        continue;
+                    }
+                }
+                sessionIds.add(session.getId());
+            }
+
+            Map<String, Integer> deleted = tm.begin(() -> ssm.purgeSessions(sessionIds, finishedBefore));
+            logger.info("Purged sessions finished before {}: {}", finishedBefore, deleted.isEmpty() ? "nothing" : deleted);
+
+            if (sessions.size() < batchSize || sessionIds.isEmpty()) {
+                // no more sessions, or every session failed to export. retry at the next interval.
+                return;
+            }
+        }
+    }
+
+    private void export(Storage storage, StoredSessionWithLastAttempt session)
+        throws IOException
+    {
+        Map<String, Object> data = tm.begin(() -> {
+            SessionStore ss = ssm.getSessionStore(session.getSiteId());
+            List<Map<String, Object>> attempts = new ArrayList<>();
+            Optional<Long> lastId = Optional.absent();
+            while (true) {
+                List<StoredSessionAttempt> page = ss.getAttemptsOfSession(session.getId(), 100, lastId);
+                for (StoredSessionAttempt attempt : page) {
+                    List<ArchivedTask> tasks = ss.getTasksOfAttempt(attempt.getId());
+                    attempts.add(ImmutableMap.<String, Object>of("attempt", attempt, "tasks", tasks));
+                }
+                if (page.size() < 100) {
+                    break;
+                }
+                lastId = Optional.of(page.get(page.size() - 1).getId());
+            }
+            return ImmutableMap.<String, Object>of("session", session, "attempts", attempts);
+        });
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(bout)) {
+            mapper.writeValue(out, data);
+        }
+        byte[] bytes = bout.toByteArray();
+
+        String key = exportPrefix + session.getSiteId() + "/" + session.getId() + ".json.gz";
+        storage.put(key, bytes.length, () -> new ByteArrayInputStream(bytes));
+    }
+
+    @PostConstruct
+    public void start()
+    {
+        if (scheduledExecutorService != null) {
+            scheduledExecutorService.scheduleWithFixedDelay(this::run, interval.toNanos(), interval.toNanos(), NANOSECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown()
+            throws InterruptedException
+    {
+        if (scheduledExecutorService != null) {
+            scheduledExecutorService.shutdownNow();
+        }
+    }
+}
@@ -1,8 +1,10 @@
 package io.digdag.server.rs;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.stream.Collectors;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.Produces;
@@ -14,9 +16,14 @@ import javax.ws.rs.POST;
 import javax.ws.rs.GET;
 import javax.ws.rs.core.Response;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.inject.Inject;
+import com.google.common.base.CaseFormat;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import io.digdag.client.config.Config;
 import io.digdag.core.database.TransactionManager;
 import io.digdag.core.session.ArchivedTask;
@@ -25,6 +32,7 @@ import io.digdag.core.session.SessionStoreManager;
 import io.digdag.core.session.StoredSessionAttemptWithSession;
 import io.digdag.core.session.TaskRelation;
 import io.digdag.core.session.TaskStateCode;
+import io.digdag.core.session.TaskStateSummary;
 import io.digdag.core.workflow.*;
 import io.digdag.core.repository.*;
 import io.digdag.core.schedule.SchedulerManager;
@@ -45,10 +53,15 @@ public class AttemptResource
     // GET  /api/attempts?project=<name>&workflow=<name>     # list attempts that belong to a particular workflow
     // GET  /api/attempts/{id}                               # show a session
     // GET  /api/attempts/{id}/tasks                         # list tasks of a session
+    // GET  /api/attempts/{id}/tasks?last_id=<id>&page_size=<n>&fields=<names>  # list tasks of a session page by page
     // GET  /api/attempts/{id}/retries                       # list retried attempts of this session
     // PUT  /api/attempts                                    # starts a new session
     // POST /api/attempts/{id}/kill                          # kill a session
 
+    // maximum replication lag of the read replica accepted by GET endpoints
+    private static final Duration LIST_STALENESS = Duration.ofSeconds(10);
+    private static final Duration DETAIL_STALENESS = Duration.ofSeconds(5);
+
     private final ProjectStoreManager rm;
     private final SessionStoreManager sm;
     private final SchedulerManager srm;
@@ -56,8 +69,15 @@ public class AttemptResource
     private final AttemptBuilder attemptBuilder;
     private final WorkflowExecutor executor;
     private final ConfigFactory cf;
+    private final ObjectMapper mapper;
     private static final int DEFAULT_ATTEMPTS_PAGE_SIZE = 100;
     private static int MAX_ATTEMPTS_PAGE_SIZE;
+    private static final int DEFAULT_TASKS_PAGE_SIZE = 1000;
+    private static int MAX_TASKS_PAGE_SIZE;
+
+    private static final Set<String> TASK_FIELDS = ImmutableSet.of(
+            "id", "fullName", "parentId", "config", "upstreams", "isGroup", "state", "cancelRequested",
+            "exportParams", "storeParams", "stateParams", "updatedAt", "retryAt", "startedAt");
 
     @Inject
     public AttemptResource(
@@ -68,6 +88,7 @@ public class AttemptResource
             AttemptBuilder attemptBuilder,
             WorkflowExecutor executor,
             ConfigFactory cf,
+            ObjectMapper mapper,
             Config systemConfig)
     {
         this.rm = rm;
@@ -77,7 +98,9 @@ public class AttemptResource
         this.attemptBuilder = attemptBuilder;
         this.executor = executor;
         this.cf = cf;
+        this.mapper = mapper;
         MAX_ATTEMPTS_PAGE_SIZE = systemConfig.get("api.max_attempts_page_size", Integer.class, DEFAULT_ATTEMPTS_PAGE_SIZE);
+        MAX_TASKS_PAGE_SIZE = systemConfig.get("api.max_tasks_page_size", Integer.class, DEFAULT_TASKS_PAGE_SIZE);
     }
 
     @GET
@@ -92,7 +115,7 @@ public class AttemptResource
     {
         int validPageSize = QueryParamValidator.validatePageSize(Optional.fromNullable(pageSize), MAX_ATTEMPTS_PAGE_SIZE, DEFAULT_ATTEMPTS_PAGE_SIZE);
 
-        return tm.begin(() -> {
+        return tm.beginReadOnly(LIST_STALENESS, () -> {
             List<StoredSessionAttemptWithSession> attempts;
 
             ProjectStore rs = rm.getProjectStore(getSiteId());
@@ -122,7 +145,7 @@ public class AttemptResource
     public RestSessionAttempt getAttempt(@PathParam("id") long id)
             throws ResourceNotFoundException
     {
-        return tm.begin(() -> {
+        return tm.beginReadOnly(DETAIL_STALENESS, () -> {
             StoredSessionAttemptWithSession attempt = sm.getSessionStore(getSiteId())
                     .getAttemptById(id);
             StoredProject proj = rm.getProjectStore(getSiteId())
@@ -137,7 +160,7 @@ public class AttemptResource
     public RestSessionAttemptCollection getAttemptRetries(@PathParam("id") long id)
             throws ResourceNotFoundException
     {
-        return tm.begin(() -> {
+        return tm.beginReadOnly(DETAIL_STALENESS, () -> {
             List<StoredSessionAttemptWithSession> attempts = sm.getSessionStore(getSiteId())
                     .getOtherAttempts(id);
 
@@ -147,15 +170,67 @@ public class AttemptResource
 
     @GET
     @Path("/api/attempts/{id}/tasks")
-    public RestTaskCollection getTasks(@PathParam("id") long id)
+    public Response getTasks(
+            @PathParam("id") long id,
+            @QueryParam("last_id") Long lastId,
+            @QueryParam("page_size") Integer pageSize,
+            @QueryParam("fields") String fields)
     {
-        return tm.begin(() -> {
-            List<ArchivedTask> tasks = sm.getSessionStore(getSiteId())
-                    .getTasksOfAttempt(id);
-            return RestModels.taskCollection(tasks);
+        // all tasks are returned unless last_id or page_size is set for backward compatibility
+        boolean paginated = lastId != null || pageSize != null;
+        int validPageSize = QueryParamValidator.validatePageSize(Optional.fromNullable(pageSize), MAX_TASKS_PAGE_SIZE, DEFAULT_TASKS_PAGE_SIZE);
+        Optional<Set<String>> projection = parseTaskFields(fields);
+
+        return tm.beginReadOnly(DETAIL_STALENESS, () -> {
+            SessionStore ss = sm.getSessionStore(getSiteId());
+            List<ArchivedTask> tasks;
+            if (paginated) {
+                tasks = ss.getTasksOfAttempt(id, validPageSize, Optional.fromNullable(lastId));
+            }
+            else {
+                tasks = ss.getTasksOfAttempt(id);
+            }
+
+            if (!projection.isPresent()) {
+                return Response.ok(RestModels.taskCollection(tasks)).build();
+            }
+
+            // build only the selected properties instead of filtering RestTask
+            ArrayNode nodes = mapper.createArrayNode();
+            for (ArchivedTask task : tasks) {
+                nodes.add(RestModels.taskNode(mapper, task, projection.get()));
+            }
+            ObjectNode result = mapper.createObjectNode();
+            result.set("tasks", nodes);
+            return Response.ok(result).build();
         });
     }
 
+    private static Optional<Set<String>> parseTaskFields(String fields)
+    {
+        if (fields == null || fields.trim().isEmpty()) {
+            return Optional.absent();
+        }
+        Set<String> names = new HashSet<>();
+        // id is always included so that clients can fetch the next page
+        names.add("id");
+        for (String field : fields.split(",")) {
+            String name = field.trim();
+            if (name.contains("_")) {
+                // accept snake_case names as well as JSON property names
+                name = CaseFormat.LOWER_UNDERSCORE.to(CaseFormat.LOWER_CAMEL, name);
+            }
+            if (!TASK_FIELDS.contains(name)) {
+                throw new IllegalArgumentException("Unknown task field: " + field.trim());
+            }
+            names.add(name);
+        }
+        // keep the order of properties of RestTask
+        return Optional.of(TASK_FIELDS.stream()
+                .filter(names::contains)
+                .collect(Collectors.toCollection(LinkedHashSet::new)));
+    }
+
     @PUT
     @Consumes("application/json")
     @Path("/api/attempts")
@@ -216,9 +291,9 @@ public class AttemptResource
 
     private List<Long> collectResumingTasksForResumeFailedMode(long attemptId)
     {
-        List<ArchivedTask> tasks = sm
+        List<TaskStateSummary> tasks = sm
                 .getSessionStore(getSiteId())
-                .getTasksOfAttempt(attemptId);
+                .getTaskStateSummariesOfAttempt(attemptId);
 
         List<Long> successTasks = tasks.stream()
                 .filter(task -> task.getState() == TaskStateCode.SUCCESS)
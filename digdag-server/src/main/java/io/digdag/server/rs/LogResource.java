@@ -1,6 +1,7 @@
 package io.digdag.server.rs;
 
 import java.util.List;
+import java.time.Duration;
 import java.time.Instant;
 import java.io.InputStream;
 import java.io.IOException;
@@ -38,6 +39,10 @@ public class LogResource
     // GET  /api/logs/{attempt_id}/files/{file_name}
     // GET  /api/logs/{attempt_id}/upload_handle?task=<name>&file_time=<unixtime sec>&node_id=<nodeId>
 
+    // maximum replication lag of the read replica accepted by GET endpoints.
+    // log file prefix is built from immutable columns of the attempt.
+    private static final Duration FILE_HANDLES_STALENESS = Duration.ofSeconds(60);
+
     private final SessionStoreManager sm;
     private final TransactionManager tm;
     private final LogServer logServer;
@@ -111,7 +116,7 @@ public class LogResource
             @QueryParam("task") String taskName)
             throws ResourceNotFoundException
     {
-        return tm.begin(() -> {
+        return tm.beginReadOnly(FILE_HANDLES_STALENESS, () -> {
             LogFilePrefix prefix = getPrefix(attemptId);
             List<LogFileHandle> handles = logServer.getFileHandles(prefix, Optional.fromNullable(taskName));
             return RestModels.logFileHandleCollection(handles);
@@ -3,6 +3,7 @@ package io.digdag.server.rs;
 import java.util.List;
 import java.util.stream.Collectors;
 import java.net.URI;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.format.DateTimeParseException;
 import java.io.IOException;
@@ -165,6 +166,11 @@ public class ProjectResource
     private static int MAX_SESSIONS_PAGE_SIZE;
     private static final int DEFAULT_SESSIONS_PAGE_SIZE = 100;
 
+    // maximum replication lag of the read replica accepted by GET endpoints.
+    // lookups by name always use the primary database because clients
+    // resolve names right after pushing a project.
+    private static final Duration LIST_STALENESS = Duration.ofSeconds(10);
+
     private final ConfigFactory cf;
     private final YamlConfigLoader rawLoader;
     private final WorkflowCompiler compiler;
@@ -281,7 +287,7 @@ public class ProjectResource
     public RestProject getProject(@PathParam("id") int projId)
             throws ResourceNotFoundException
     {
-        return tm.begin(() -> {
+        return tm.beginReadOnly(LIST_STALENESS, () -> {
             ProjectStore ps = rm.getProjectStore(getSiteId());
             StoredProject proj = ensureNotDeletedProject(ps.getProjectById(projId));
             StoredRevision rev = ps.getLatestRevision(proj.getId());
@@ -294,7 +300,7 @@ public class ProjectResource
     public RestRevisionCollection getRevisions(@PathParam("id") int projId, @QueryParam("last_id") Integer lastId)
             throws ResourceNotFoundException
     {
-        return tm.begin(() -> {
+        return tm.beginReadOnly(LIST_STALENESS, () -> {
             ProjectStore ps = rm.getProjectStore(getSiteId());
             StoredProject proj = ensureNotDeletedProject(ps.getProjectById(projId));
             List<StoredRevision> revs = ps.getRevisions(proj.getId(), 100, Optional.fromNullable(lastId));
@@ -342,7 +348,7 @@ public class ProjectResource
             @QueryParam("name") String name)
             throws ResourceNotFoundException
     {
-        return tm.begin(() -> {
+        return tm.beginReadOnly(LIST_STALENESS, () -> {
             ProjectStore ps = rm.getProjectStore(getSiteId());
             StoredProject proj = ensureNotDeletedProject(ps.getProjectById(projId));
 
@@ -380,7 +386,7 @@ public class ProjectResource
             @QueryParam("last_id") Integer lastId)
             throws ResourceNotFoundException
     {
-        return tm.begin(() -> {
+        return tm.beginReadOnly(LIST_STALENESS, () -> {
             ProjectStore projectStore = rm.getProjectStore(getSiteId());
             ScheduleStore scheduleStore = sm.getScheduleStore(getSiteId());
 
@@ -416,7 +422,7 @@ public class ProjectResource
     {
         int validPageSize = QueryParamValidator.validatePageSize(Optional.fromNullable(pageSize), MAX_SESSIONS_PAGE_SIZE, DEFAULT_SESSIONS_PAGE_SIZE);
 
-        return tm.begin(() -> {
+        return tm.beginReadOnly(LIST_STALENESS, () -> {
             ProjectStore ps = rm.getProjectStore(getSiteId());
             SessionStore ss = ssm.getSessionStore(getSiteId());
 
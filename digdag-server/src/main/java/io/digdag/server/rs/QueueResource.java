@@ -0,0 +1,115 @@
+package io.digdag.server.rs;
+
+import com.google.common.base.Optional;
+import com.google.inject.Inject;
+import io.digdag.client.api.RestQueue;
+import io.digdag.client.api.RestQueueCollection;
+import io.digdag.client.api.RestSetQueueRequest;
+import io.digdag.client.config.Config;
+import io.digdag.client.config.ConfigFactory;
+import io.digdag.core.database.TransactionManager;
+import io.digdag.core.queue.QueueSetting;
+import io.digdag.core.queue.QueueSettingStore;
+import io.digdag.core.queue.QueueSettingStoreManager;
+import io.digdag.core.queue.StoredQueueSetting;
+import io.digdag.core.repository.ResourceConflictException;
+import io.digdag.core.repository.ResourceNotFoundException;
+import io.swagger.annotations.Api;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.PUT;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+
+import java.util.List;
+
+@Api("Queue")
+@Path("/")
+@Produces("application/json")
+public class QueueResource
+    extends AuthenticatedResource
+{
+    // GET    /api/queues                                   # list queues
+    // GET    /api/queues/{name}                            # show a queue
+    // PUT    /api/queues/{name}                            # create a queue or update max concurrency of a queue
+    // DELETE /api/queues/{name}                            # delete a queue
+
+    private final QueueSettingStoreManager qm;
+    private final TransactionManager tm;
+    private final ConfigFactory cf;
+
+    @Inject
+    public QueueResource(
+            QueueSettingStoreManager qm,
+            TransactionManager tm,
+            ConfigFactory cf)
+    {
+        this.qm = qm;
+        this.tm = tm;
+        this.cf = cf;
+    }
+
+    @GET
+    @Path("/api/queues")
+    public RestQueueCollection getQueues(@QueryParam("last_id") Long lastId)
+    {
+        return tm.begin(() -> {
+            List<StoredQueueSetting> queues = qm.getQueueSettingStore(getSiteId())
+                    .getQueueSettings(100, Optional.fromNullable(lastId));
+            return RestModels.queueCollection(queues);
+        });
+    }
+
+    @GET
+    @Path("/api/queues/{name}")
+    public RestQueue getQueue(@PathParam("name") String name)
+            throws ResourceNotFoundException
+    {
+        return tm.begin(() -> {
+            StoredQueueSetting queue = qm.getQueueSettingStore(getSiteId())
+                    .getQueueSettingByName(name);
+            return RestModels.queue(queue);
+        }, ResourceNotFoundException.class);
+    }
+
+    @PUT
+    @Consumes("application/json")
+    @Path("/api/queues/{name}")
+    public RestQueue putQueue(@PathParam("name") String name, RestSetQueueRequest request)
+            throws ResourceConflictException
+    {
+        return tm.begin(() -> {
+            QueueSettingStore qs = qm.getQueueSettingStore(getSiteId());
+
+            Config config;
+            try {
+                // keep config of the existing queue
+                config = qs.getQueueSettingByName(name).getConfig();
+            }
+            catch (ResourceNotFoundException ex) {
+                config = cf.create();
+            }
+
+            StoredQueueSetting queue = qs.putQueueSetting(
+                    QueueSetting.of(name, request.getMaxConcurrency(), config));
+            return RestModels.queue(queue);
+        }, ResourceConflictException.class);
+    }
+
+    @DELETE
+    @Path("/api/queues/{name}")
+    public RestQueue deleteQueue(@PathParam("name") String name)
+            throws ResourceNotFoundException
+    {
+        return tm.begin(() -> {
+            QueueSettingStore qs = qm.getQueueSettingStore(getSiteId());
+            StoredQueueSetting queue = qs.getQueueSettingByName(name);
+            qs.deleteQueueSettingByName(name);
+            return RestModels.queue(queue);
+        }, ResourceNotFoundException.class);
+    }
+}
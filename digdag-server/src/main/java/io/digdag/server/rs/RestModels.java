@@ -1,5 +1,7 @@
 package io.digdag.server.rs;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import io.digdag.client.api.Id;
@@ -9,6 +11,8 @@ import io.digdag.client.api.RestLogFileHandle;
 import io.digdag.client.api.RestLogFileHandleCollection;
 import io.digdag.client.api.RestProject;
 import io.digdag.client.api.RestProjectCollection;
+import io.digdag.client.api.RestQueue;
+import io.digdag.client.api.RestQueueCollection;
 import io.digdag.client.api.RestRevision;
 import io.digdag.client.api.RestRevisionCollection;
 import io.digdag.client.api.RestSchedule;
@@ -24,6 +28,7 @@ import io.digdag.client.api.RestWorkflowDefinition;
 import io.digdag.client.api.RestWorkflowDefinitionCollection;
 import io.digdag.client.api.RestWorkflowSessionTime;
 import io.digdag.client.api.RestDirectDownloadHandle;
+import io.digdag.core.queue.StoredQueueSetting;
 import io.digdag.core.repository.ProjectMap;
 import io.digdag.core.repository.ProjectStore;
 import io.digdag.core.repository.ResourceNotFoundException;
@@ -46,6 +51,7 @@ import java.time.Instant;
 import java.time.OffsetDateTime;
 import java.time.ZoneId;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
@@ -322,6 +328,54 @@ public final class RestModels
             .build();
     }
 
+    public static ObjectNode taskNode(ObjectMapper mapper, ArchivedTask task, Set<String> fields)
+    {
+        // same as valueToTree(task(task)) with only the given properties
+        ObjectNode node = mapper.createObjectNode();
+        for (String field : fields) {
+            node.set(field, mapper.valueToTree(taskField(task, field)));
+        }
+        return node;
+    }
+
+    private static Object taskField(ArchivedTask task, String field)
+    {
+        switch (field) {
+        case "id":
+            return id(task.getId());
+        case "fullName":
+            return task.getFullName();
+        case "parentId":
+            return task.getParentId().transform(p -> id(p));
+        case "config":
+            return task.getConfig().getNonValidated();
+        case "upstreams":
+            return task.getUpstreams().stream()
+                .map(u -> id(u))
+                .collect(Collectors.toList());
+        case "isGroup":
+            return task.getTaskType().isGroupingOnly();
+        case "state":
+            return task.getState().toString().toLowerCase();
+        case "cancelRequested":
+            return task.getStateFlags().isCancelRequested();
+        case "exportParams":
+            return task.getConfig().getExport().deepCopy().merge(task.getExportParams());
+        case "storeParams":
+            return task.getStoreParams();
+        case "stateParams":
+            return task.getStateParams();
+        case "updatedAt":
+            return task.getUpdatedAt();
+        case "retryAt":
+            return task.getRetryAt();
+        case "startedAt":
+            return task.getStartedAt();
+        default:
+            throw new IllegalArgumentException("Unknown task field: " + field);
+        }
+    }
+
     public static RestTaskCollection taskCollection(List<ArchivedTask> tasks)
     {
         List<RestTask> collection = tasks.stream()
@@ -354,6 +408,27 @@ public final class RestModels
             .build();
     }
 
+    public static RestQueue queue(StoredQueueSetting queue)
+    {
+        return RestQueue.builder()
+            .id(id(queue.getId()))
+            .name(queue.getName())
+            .maxConcurrency(queue.getMaxConcurrency())
+            .createdAt(queue.getCreatedAt())
+            .updatedAt(queue.getUpdatedAt())
+            .build();
+    }
+
+    public static RestQueueCollection queueCollection(List<StoredQueueSetting> queues)
+    {
+        List<RestQueue> collection = queues.stream()
+            .map(it -> RestModels.queue(it))
+            .collect(Collectors.toList());
+        return RestQueueCollection.builder()
+            .queues(collection)
+            .build();
+    }
+
     static RestSessionAttemptCollection attemptCollection(
             ProjectStore ps, List<StoredSessionAttemptWithSession> attempts)
     {
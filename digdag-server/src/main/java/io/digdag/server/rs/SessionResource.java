@@ -25,6 +25,7 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -38,6 +39,10 @@ public class SessionResource
     // GET  /api/sessions/{id}                               # Get a session by id
     // GET  /api/sessions/{id}/attempts                      # List attempts of a session
 
+    // maximum replication lag of the read replica accepted by GET endpoints
+    private static final Duration LIST_STALENESS = Duration.ofSeconds(10);
+    private static final Duration DETAIL_STALENESS = Duration.ofSeconds(5);
+
     private final ProjectStoreManager rm;
     private final SessionStoreManager sm;
     private final TransactionManager tm;
@@ -68,7 +73,7 @@ public class SessionResource
     {
         int validPageSize = QueryParamValidator.validatePageSize(Optional.fromNullable(pageSize), MAX_SESSIONS_PAGE_SIZE, DEFAULT_SESSIONS_PAGE_SIZE);
 
-        return tm.begin(() -> {
+        return tm.beginReadOnly(LIST_STALENESS, () -> {
             ProjectStore rs = rm.getProjectStore(getSiteId());
             SessionStore ss = sm.getSessionStore(getSiteId());
 
@@ -83,7 +88,7 @@ public class SessionResource
     public RestSession getSession(@PathParam("id") long id)
             throws ResourceNotFoundException
     {
-        return tm.begin(() -> {
+        return tm.beginReadOnly(DETAIL_STALENESS, () -> {
             StoredSessionWithLastAttempt session = sm.getSessionStore(getSiteId())
                     .getSessionById(id);
 
@@ -104,7 +109,7 @@ public class SessionResource
     {
         int validPageSize = QueryParamValidator.validatePageSize(Optional.fromNullable(pageSize), MAX_ATTEMPTS_PAGE_SIZE, DEFAULT_ATTEMPTS_PAGE_SIZE);
 
-        return tm.begin(() -> {
+        return tm.beginReadOnly(DETAIL_STALENESS, () -> {
             ProjectStore rs = rm.getProjectStore(getSiteId());
             SessionStore ss = sm.getSessionStore(getSiteId());
 
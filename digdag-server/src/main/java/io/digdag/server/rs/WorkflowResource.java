@@ -4,6 +4,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 import java.util.function.Supplier;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
@@ -59,6 +60,11 @@ public class WorkflowResource
     // GET  /api/workflow?project=<name>&name=<name>      # lookup a workflow of the latest revision of a project by name
     // GET  /api/workflow?project=<name>&revision=<name>&name=<name>  # lookup a workflow of a past revision of a project by name
 
+    // maximum replication lag of the read replica accepted by GET endpoints.
+    // workflow definitions are immutable once they're pushed.
+    private static final Duration LIST_STALENESS = Duration.ofSeconds(10);
+    private static final Duration DEFINITION_STALENESS = Duration.ofSeconds(60);
+
     private final ProjectStoreManager rm;
     private final ScheduleStoreManager sm;
     private final SchedulerManager srm;
@@ -110,7 +116,7 @@ public class WorkflowResource
             @QueryParam("count") Integer count)
             throws ResourceNotFoundException
     {
-        return tm.begin(() -> {
+        return tm.beginReadOnly(LIST_STALENESS, () -> {
             List<StoredWorkflowDefinitionWithProject> defs =
                     rm.getProjectStore(getSiteId())
                             .getLatestActiveWorkflowDefinitions(Optional.fromNullable(count).or(100), Optional.fromNullable(lastId));
@@ -123,7 +129,7 @@ public class WorkflowResource
     public RestWorkflowDefinition getWorkflowDefinition(@PathParam("id") long id)
             throws ResourceNotFoundException
     {
-        return tm.begin(() -> {
+        return tm.beginReadOnly(DEFINITION_STALENESS, () -> {
             StoredWorkflowDefinitionWithProject def =
                     rm.getProjectStore(getSiteId())
                             .getWorkflowDefinitionById(id);
@@ -139,7 +145,7 @@ public class WorkflowResource
             @QueryParam("mode") SessionTimeTruncate mode)
             throws ResourceNotFoundException
     {
-        return tm.begin(() -> {
+        return tm.beginReadOnly(DEFINITION_STALENESS, () -> {
             Preconditions.checkArgument(localTime != null, "session_time= is required");
 
             StoredWorkflowDefinitionWithProject def =
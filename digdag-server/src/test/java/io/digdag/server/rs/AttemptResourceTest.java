@@ -0,0 +1,152 @@
+package io.digdag.server.rs;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import io.digdag.client.DigdagClient;
+import io.digdag.client.config.ConfigFactory;
+import io.digdag.core.database.TransactionManager;
+import io.digdag.core.repository.ProjectStoreManager;
+import io.digdag.core.schedule.SchedulerManager;
+import io.digdag.core.session.ArchivedTask;
+import io.digdag.core.session.ImmutableArchivedTask;
+import io.digdag.core.session.SessionStore;
+import io.digdag.core.session.SessionStoreManager;
+import io.digdag.core.session.TaskStateCode;
+import io.digdag.core.session.TaskStateFlags;
+import io.digdag.core.session.TaskType;
+import io.digdag.core.workflow.AttemptBuilder;
+import io.digdag.core.workflow.TaskConfig;
+import io.digdag.core.workflow.WorkflowExecutor;
+import io.digdag.spi.TaskReport;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.Response;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+public class AttemptResourceTest
+{
+    private static final int SITE_ID = 0;
+    private static final long ATTEMPT_ID = 7;
+
+    private static final ObjectMapper MAPPER = DigdagClient.objectMapper();
+    private static final ConfigFactory CF = new ConfigFactory(MAPPER);
+
+    @Mock ProjectStoreManager rm;
+    @Mock SessionStoreManager sm;
+    @Mock SchedulerManager srm;
+    @Mock TransactionManager tm;
+    @Mock AttemptBuilder attemptBuilder;
+    @Mock WorkflowExecutor executor;
+    @Mock SessionStore ss;
+    @Mock HttpServletRequest request;
+
+    private AttemptResource resource;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp()
+    {
+        MockitoAnnotations.initMocks(this);
+        when(tm.beginReadOnly(any(Duration.class), any(TransactionManager.SupplierInTransaction.class)))
+            .thenAnswer(invocation -> ((TransactionManager.SupplierInTransaction<?, ?, ?, ?>) invocation.getArguments()[1]).get());
+        when(sm.getSessionStore(SITE_ID)).thenReturn(ss);
+        when(ss.getTasksOfAttempt(ATTEMPT_ID)).thenReturn(ImmutableList.of(task(1, "+wf"), task(2, "+wf+a")));
+        when(request.getAttribute("siteId")).thenReturn(SITE_ID);
+
+        resource = new AttemptResource(rm, sm, srm, tm, attemptBuilder, executor, CF, MAPPER, CF.create());
+        resource.request = request;
+    }
+
+    @Test
+    public void getAllFieldsOfTasks()
+    {
+        JsonNode tasks = getTasks(null).get("tasks");
+        assertThat(tasks.size(), is(2));
+        assertThat(tasks.get(0), is(MAPPER.valueToTree(RestModels.task(task(1, "+wf")))));
+    }
+
+    @Test
+    public void getSelectedFieldsOfTasks()
+    {
+        // snake_case names are accepted and id is always included
+        JsonNode tasks = getTasks("state, full_name,upstreams").get("tasks");
+        assertThat(tasks.size(), is(2));
+        for (JsonNode task : tasks) {
+            assertThat(ImmutableList.copyOf(task.fieldNames()), is(ImmutableList.of("id", "fullName", "upstreams", "state")));
+        }
+        assertThat(tasks.get(1).get("id").asText(), is("2"));
+        assertThat(tasks.get(1).get("fullName").asText(), is("+wf+a"));
+        assertThat(tasks.get(1).get("state").asText(), is("success"));
+        assertThat(tasks.get(1).get("upstreams").get(0).asText(), is("1"));
+    }
+
+    @Test
+    public void selectedFieldsAreSameAsAllFields()
+    {
+        JsonNode all = getTasks(null).get("tasks").get(0);
+        String fields = String.join(",", ImmutableList.copyOf(all.fieldNames()));
+        assertThat(getTasks(fields).get("tasks").get(0), is(all));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectUnknownFields()
+    {
+        try {
+            resource.getTasks(ATTEMPT_ID, null, null, "state,subtask_config");
+        }
+        finally {
+            // rejected before loading tasks
+            verifyZeroInteractions(tm);
+        }
+    }
+
+    private JsonNode getTasks(String fields)
+    {
+        Response response = resource.getTasks(ATTEMPT_ID, null, null, fields);
+        assertThat(response.getStatus(), is(200));
+        return MAPPER.valueToTree(response.getEntity());
+    }
+
+    private static ArchivedTask task(long id, String fullName)
+    {
+        List<Long> upstreams = id == 1 ? ImmutableList.of() : ImmutableList.of(id - 1);
+        return ImmutableArchivedTask.builder()
+            .id(id)
+            .parentId(Optional.absent())
+            .attemptId(ATTEMPT_ID)
+            .fullName(fullName)
+            .config(TaskConfig.validate(CF.create()
+                        .set("echo>", "hello")
+                        .set("_export", CF.create().set("database", "mydb"))))
+            .taskType(TaskType.of(0))
+            .state(TaskStateCode.SUCCESS)
+            .stateFlags(TaskStateFlags.empty())
+            .upstreams(upstreams)
+            .updatedAt(Instant.ofEpochSecond(1500000000L + id))
+            .retryAt(Optional.absent())
+            .startedAt(Optional.of(Instant.ofEpochSecond(1500000000L)))
+            .stateParams(CF.create())
+            .subtaskConfig(CF.create())
+            .resetStoreParams(ImmutableList.of())
+            .exportParams(CF.create().set("table", "t" + id))
+            .storeParams(CF.create().set("last_id", id))
+            .report(Optional.of(TaskReport.empty()))
+            .error(CF.create())
+            .resumingTaskId(Optional.absent())
+            .build();
+    }
+}